@@ -0,0 +1,48 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.xdi.oxauth.model.util.Base64Util;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * base64url encoding/decoding for payloads of signature, JWT segment and JWE ciphertext size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64UtilBenchmark {
+
+    @Param({"32", "256", "2048"})
+    public int size;
+
+    private byte[] bytes;
+    private String encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        encoded = Base64Util.base64urlencode(bytes);
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64Util.base64urlencode(bytes);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64Util.base64urldecode(encoded);
+    }
+}
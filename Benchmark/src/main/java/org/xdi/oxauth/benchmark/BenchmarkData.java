@@ -0,0 +1,46 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.benchmark;
+
+import org.xdi.oxauth.model.jwt.JwtClaimName;
+import org.xdi.oxauth.model.jwt.JwtClaims;
+
+import java.util.Date;
+
+/**
+ * Sample data shared by benchmarks. Sizes are close to a typical id_token issued by oxAuth.
+ */
+public class BenchmarkData {
+
+    public static final String ACCESS_TOKEN = "b3a5ba5a-9d1a-4c36-9a28-1f5b7c3a6e1d";
+
+    public static final String SIGNING_INPUT = "eyJ0eXAiOiJKV1QiLCJhbGciOiJSUzI1NiIsImtpZCI6ImE1YjJkMzM0LTFhNjQtNDI5NS04ZTA4LWY0ZTRjZDA1ZDI0MiJ9"
+            + ".eyJpc3MiOiJodHRwczovL2NlLmdsdXUuaW5mbyIsImF1ZCI6IkAhMTExMSEwMDA4ITAwMDEhMDAwMSIsImV4cCI6MTUwMDAwMzYwMCwi"
+            + "aWF0IjoxNTAwMDAwMDAwLCJub25jZSI6Im4tMFM2X1d6QTJNaiIsInN1YiI6IjI0NDAwMzIwIiwib3hPcGVuSURDb25uZWN0VmVyc2lvbiI6"
+            + "Im9wZW5pZGNvbm5lY3QtMS4wIn0";
+
+    private BenchmarkData() {
+    }
+
+    public static JwtClaims idTokenClaims() {
+        Date issuedAt = new Date();
+        Date expiration = new Date(issuedAt.getTime() + 3600 * 1000L);
+
+        JwtClaims claims = new JwtClaims();
+        claims.setIssuer("https://ce.gluu.info");
+        claims.setAudience("@!1111!0008!0001!0001");
+        claims.setSubjectIdentifier("24400320");
+        claims.setIssuedAt(issuedAt);
+        claims.setExpirationTime(expiration);
+        claims.setClaim(JwtClaimName.NONCE, "n-0S6_WzA2Mj");
+        claims.setClaim(JwtClaimName.AUTHENTICATION_TIME, issuedAt);
+        claims.setClaim(JwtClaimName.AUTHENTICATION_CONTEXT_CLASS_REFERENCE, "basic");
+        claims.setClaim(JwtClaimName.OX_OPENID_CONNECT_VERSION, "openidconnect-1.0");
+
+        return claims;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.xdi.oxauth.model.common.CacheValueCodec;
+import org.xdi.oxauth.model.common.MemcachedGrant;
+import org.xdi.oxauth.model.common.SessionIdState;
+import org.xdi.oxauth.model.common.SessionState;
+import org.xdi.oxauth.model.common.User;
+import org.xdi.oxauth.model.registration.Client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of session and authorization code grant through the distributed cache value codec compared to Java
+ * serialization. Java serialized grant embeds user and client, as values cached before the codec did. Encoded sizes
+ * are compared by CacheValueCodecTest.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheValueCodecBenchmark {
+
+    private SessionState session;
+    private MemcachedGrant grant;
+    private Object[] grantWithEntities;
+
+    private byte[] encodedSession;
+    private byte[] encodedGrant;
+    private byte[] serializedSession;
+    private byte[] serializedGrant;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        session = new SessionState();
+        session.setId("5e6ba3b8-f4b9-4c46-a6a5-2b8b8d1c5f0e");
+        session.setDn("oxAuthSessionId=" + session.getId() + ",ou=session,o=@!1111,o=gluu");
+        session.setUserDn("inum=@!1111!0000!D4E7,ou=people,o=@!1111,o=gluu");
+        session.setLastUsedAt(new Date());
+        session.setAuthenticationTime(new Date());
+        session.setState(SessionIdState.AUTHENTICATED);
+        session.addPermission("@!1111!0008!FF81!2D39", true);
+        session.getInvolvedClients().put("@!1111!0008!FF81!2D39", true);
+        session.getSessionAttributes().put("acr", "basic");
+        session.getSessionAttributes().put("auth_step", "1");
+        session.getSessionAttributes().put("response_type", "code");
+        session.getSessionAttributes().put("scope", "openid profile email");
+        session.getSessionAttributes().put("redirect_uri", "https://rp.example.com/callback");
+        session.getSessionAttributes().put("state", "af0ifjsldkj");
+        session.getSessionAttributes().put("nonce", "n-0S6_WzA2Mj");
+
+        final User user = new User();
+        user.setDn("inum=@!1111!0000!D4E7,ou=people,o=@!1111,o=gluu");
+        user.setUserId("admin");
+        user.setAttribute("givenName", "Admin");
+        user.setAttribute("sn", "User");
+        user.setAttribute("mail", "admin@example.com");
+        user.setAttribute("oxAuthPersistentJWT", new String[]{BenchmarkData.SIGNING_INPUT, BenchmarkData.SIGNING_INPUT});
+
+        final Client client = new Client();
+        client.setDn("inum=@!1111!0008!FF81!2D39,ou=clients,o=@!1111,o=gluu");
+        client.setClientId("@!1111!0008!FF81!2D39");
+        client.setRedirectUris(new String[]{"https://rp.example.com/callback"});
+        client.setJwks("{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"a5b2d334-1a64-4295-8e08-f4e4cd05d242\",\"use\":\"sig\",\"alg\":\"RS256\",\"e\":\"AQAB\","
+                + "\"n\":\"" + BenchmarkData.SIGNING_INPUT + "\"}]}");
+
+        grant = new MemcachedGrant();
+        grant.setAuthorizationCodeString("8c2d6e4c-2a4f-4f0b-9e64-0a8d7b3b9a1f");
+        grant.setAuthorizationCodeCreationDate(new Date());
+        grant.setAuthorizationCodeExpirationDate(new Date(System.currentTimeMillis() + 60 * 1000L));
+        grant.setUserId(user.getUserId());
+        grant.setClientId(client.getClientId());
+        grant.setAuthenticationTime(new Date());
+        grant.setScopes(new HashSet<String>(Arrays.asList("openid", "profile", "email")));
+        grant.setGrantId("0b7c6d1e-8a6f-4e1c-b5a4-6f9d2c3e1b7a");
+        grant.setNonce("n-0S6_WzA2Mj");
+        grant.setAcrValues("basic");
+        grant.setSessionDn(session.getDn());
+        grantWithEntities = new Object[]{grant, user, client};
+
+        encodedSession = CacheValueCodec.encode(session);
+        encodedGrant = CacheValueCodec.encode(grant);
+        serializedSession = serialize(session);
+        serializedGrant = serialize(grantWithEntities);
+    }
+
+    @Benchmark
+    public SessionState sessionCodec() {
+        return CacheValueCodec.decodeSessionState(CacheValueCodec.encode(session));
+    }
+
+    @Benchmark
+    public Object sessionJavaSerialization() throws Exception {
+        return deserialize(serialize(session));
+    }
+
+    @Benchmark
+    public SessionState sessionCodecDecode() {
+        return CacheValueCodec.decodeSessionState(encodedSession);
+    }
+
+    @Benchmark
+    public Object sessionJavaDeserialization() throws Exception {
+        return deserialize(serializedSession);
+    }
+
+    @Benchmark
+    public MemcachedGrant grantCodec() {
+        return CacheValueCodec.decodeMemcachedGrant(CacheValueCodec.encode(grant));
+    }
+
+    @Benchmark
+    public Object grantJavaSerialization() throws Exception {
+        return deserialize(serialize(grantWithEntities));
+    }
+
+    @Benchmark
+    public MemcachedGrant grantCodecDecode() {
+        return CacheValueCodec.decodeMemcachedGrant(encodedGrant);
+    }
+
+    @Benchmark
+    public Object grantJavaDeserialization() throws Exception {
+        return deserialize(serializedGrant);
+    }
+
+    private static byte[] serialize(Object value) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(value);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] value) throws IOException, ClassNotFoundException {
+        final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.benchmark;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import org.xdi.oxauth.model.crypto.OxAuthCryptoProvider;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithmFamily;
+import org.xdi.oxauth.model.util.SecurityProviderUtility;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import static org.xdi.oxauth.model.jwk.JWKParameter.JSON_WEB_KEY_SET;
+import static org.xdi.oxauth.model.jwk.JWKParameter.KEY_ID;
+
+/**
+ * Sign/verify throughput of {@link OxAuthCryptoProvider} for every supported signature algorithm.
+ * RS/ES signatures are verified both with the key store key and with the key taken from JWKS
+ * (the way client signatures are verified).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoProviderBenchmark {
+
+    private static final String KEY_STORE_SECRET = "secret";
+    private static final String DN_NAME = "CN=oxAuth CA Certificate";
+    private static final String SHARED_SECRET = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    @Param({"HS256", "HS384", "HS512", "RS256", "RS384", "RS512", "ES256", "ES384", "ES512"})
+    public SignatureAlgorithm algorithm;
+
+    private File keyStoreFile;
+    private OxAuthCryptoProvider cryptoProvider;
+
+    private String alias;
+    private JSONObject jwks;
+    private String signingInput;
+    private String signature;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SecurityProviderUtility.installBCProvider(true);
+
+        keyStoreFile = File.createTempFile("oxauth-benchmark", ".jks");
+        keyStoreFile.delete(); // provider creates empty key store if file does not exist
+        cryptoProvider = new OxAuthCryptoProvider(keyStoreFile.getAbsolutePath(), KEY_STORE_SECRET, DN_NAME);
+
+        if (!SignatureAlgorithmFamily.HMAC.equals(algorithm.getFamily())) {
+            long expirationTime = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+            JSONObject key = cryptoProvider.generateKey(algorithm, expirationTime);
+
+            alias = key.getString(KEY_ID);
+            jwks = new JSONObject().put(JSON_WEB_KEY_SET, new JSONArray().put(key));
+        }
+
+        signingInput = BenchmarkData.SIGNING_INPUT;
+        signature = cryptoProvider.sign(signingInput, alias, SHARED_SECRET, algorithm);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        keyStoreFile.delete();
+    }
+
+    @Benchmark
+    public String sign() throws Exception {
+        return cryptoProvider.sign(signingInput, alias, SHARED_SECRET, algorithm);
+    }
+
+    @Benchmark
+    public boolean verifySignature() throws Exception {
+        return cryptoProvider.verifySignature(signingInput, signature, alias, null, SHARED_SECRET, algorithm);
+    }
+
+    @Benchmark
+    public boolean verifySignatureWithJwks() throws Exception {
+        return cryptoProvider.verifySignature(signingInput, signature, alias, jwks, SHARED_SECRET, algorithm);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.xdi.oxauth.model.crypto.encryption.BlockEncryptionAlgorithm;
+import org.xdi.oxauth.model.crypto.encryption.KeyEncryptionAlgorithm;
+import org.xdi.oxauth.model.jwe.Jwe;
+import org.xdi.oxauth.model.jwe.JweDecrypterImpl;
+import org.xdi.oxauth.model.jwe.JweEncrypterImpl;
+import org.xdi.oxauth.model.jwt.JwtType;
+import org.xdi.oxauth.model.util.SecurityProviderUtility;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JWE encryption/decryption for every key encryption/block encryption algorithm pair.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JweBenchmark {
+
+    // A256KW is not measured: JweEncrypterImpl wraps with 128 bit key for both AES key wrap algorithms,
+    // so it would repeat A128KW under another name
+    @Param({"RSA1_5", "RSA_OAEP", "A128KW"})
+    public KeyEncryptionAlgorithm keyEncryptionAlgorithm;
+
+    @Param({"A128CBC_PLUS_HS256", "A256CBC_PLUS_HS512", "A128GCM", "A256GCM"})
+    public BlockEncryptionAlgorithm blockEncryptionAlgorithm;
+
+    private KeyPair keyPair;
+    private byte[] sharedSymmetricKey;
+    private String encodedJwe;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SecurityProviderUtility.installBCProvider(true);
+
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA", "BC");
+        keyGen.initialize(2048, new SecureRandom());
+        keyPair = keyGen.generateKeyPair();
+
+        sharedSymmetricKey = new byte[16];
+        new SecureRandom().nextBytes(sharedSymmetricKey);
+
+        encodedJwe = encrypt().toString();
+    }
+
+    @Benchmark
+    public Jwe encrypt() throws Exception {
+        Jwe jwe = new Jwe();
+        jwe.getHeader().setType(JwtType.JWT);
+        jwe.getHeader().setAlgorithm(keyEncryptionAlgorithm);
+        jwe.getHeader().setEncryptionMethod(blockEncryptionAlgorithm);
+        jwe.setClaims(BenchmarkData.idTokenClaims());
+
+        JweEncrypterImpl jweEncrypter = isRsa()
+                ? new JweEncrypterImpl(keyEncryptionAlgorithm, blockEncryptionAlgorithm, keyPair.getPublic())
+                : new JweEncrypterImpl(keyEncryptionAlgorithm, blockEncryptionAlgorithm, sharedSymmetricKey);
+
+        return jweEncrypter.encrypt(jwe);
+    }
+
+    @Benchmark
+    public Jwe decrypt() throws Exception {
+        JweDecrypterImpl jweDecrypter = isRsa()
+                ? new JweDecrypterImpl(keyPair.getPrivate())
+                : new JweDecrypterImpl(sharedSymmetricKey);
+
+        return jweDecrypter.decrypt(encodedJwe);
+    }
+
+    private boolean isRsa() {
+        return keyEncryptionAlgorithm == KeyEncryptionAlgorithm.RSA1_5
+                || keyEncryptionAlgorithm == KeyEncryptionAlgorithm.RSA_OAEP;
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.xdi.oxauth.model.crypto.OxAuthCryptoProvider;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
+import org.xdi.oxauth.model.jwt.Jwt;
+import org.xdi.oxauth.model.jwt.JwtClaims;
+import org.xdi.oxauth.model.jwt.JwtType;
+import org.xdi.oxauth.model.util.SecurityProviderUtility;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and serialization of a signed JWT (id_token sized).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtBenchmark {
+
+    private static final String SHARED_SECRET = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    private String encodedJwt;
+    private Jwt jwt;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SecurityProviderUtility.installBCProvider(true);
+
+        jwt = new Jwt();
+        jwt.getHeader().setType(JwtType.JWT);
+        jwt.getHeader().setAlgorithm(SignatureAlgorithm.HS256);
+        jwt.setClaims(BenchmarkData.idTokenClaims());
+
+        OxAuthCryptoProvider cryptoProvider = new OxAuthCryptoProvider();
+        jwt.setEncodedSignature(cryptoProvider.sign(jwt.getSigningInput(), null, SHARED_SECRET, SignatureAlgorithm.HS256));
+
+        encodedJwt = jwt.toString();
+    }
+
+    @Benchmark
+    public Jwt parse() throws Exception {
+        return Jwt.parse(encodedJwt);
+    }
+
+    @Benchmark
+    public JwtClaims parseAndReadClaims() throws Exception {
+        return Jwt.parse(encodedJwt).getClaims();
+    }
+
+    @Benchmark
+    public String serialize() throws Exception {
+        return jwt.getSigningInput();
+    }
+}
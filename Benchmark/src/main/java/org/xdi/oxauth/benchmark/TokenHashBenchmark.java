@@ -0,0 +1,41 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.xdi.oxauth.model.util.TokenHashUtil;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashing of token codes before they are used in LDAP filters/DNs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenHashBenchmark {
+
+    private String hashedToken;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        hashedToken = TokenHashUtil.getHashedToken(BenchmarkData.ACCESS_TOKEN);
+    }
+
+    @Benchmark
+    public String getHashedToken() {
+        return TokenHashUtil.getHashedToken(BenchmarkData.ACCESS_TOKEN);
+    }
+
+    @Benchmark
+    public String getHashedTokenAlreadyHashed() {
+        return TokenHashUtil.getHashedToken(hashedToken);
+    }
+}
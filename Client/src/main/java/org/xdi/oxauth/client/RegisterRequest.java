@@ -48,6 +48,8 @@ public class RegisterRequest extends BaseRequest {
     private String policyUri;
     private List<String> frontChannelLogoutUris;
     private Boolean frontChannelLogoutSessionRequired;
+    private String backChannelLogoutUri;
+    private Boolean backChannelLogoutSessionRequired;
     private String tosUri;
     private String jwksUri;
     private String jwks;
@@ -194,6 +196,42 @@ public class RegisterRequest extends BaseRequest {
         this.frontChannelLogoutSessionRequired = frontChannelLogoutSessionRequired;
     }
 
+    /**
+     * Gets back channel logout uri.
+     *
+     * @return back channel logout uri
+     */
+    public String getBackChannelLogoutUri() {
+        return backChannelLogoutUri;
+    }
+
+    /**
+     * Sets back channel logout uri.
+     *
+     * @param backChannelLogoutUri back channel logout uri
+     */
+    public void setBackChannelLogoutUri(String backChannelLogoutUri) {
+        this.backChannelLogoutUri = backChannelLogoutUri;
+    }
+
+    /**
+     * Gets back channel logout session required.
+     *
+     * @return back channel logout session required
+     */
+    public Boolean getBackChannelLogoutSessionRequired() {
+        return backChannelLogoutSessionRequired;
+    }
+
+    /**
+     * Sets back channel logout session required.
+     *
+     * @param backChannelLogoutSessionRequired back channel logout session required
+     */
+    public void setBackChannelLogoutSessionRequired(Boolean backChannelLogoutSessionRequired) {
+        this.backChannelLogoutSessionRequired = backChannelLogoutSessionRequired;
+    }
+
     /**
      * Returns a list of redirection URIs.
      *
@@ -951,6 +989,12 @@ public class RegisterRequest extends BaseRequest {
         if (frontChannelLogoutSessionRequired != null) {
             parameters.put(FRONT_CHANNEL_LOGOUT_SESSION_REQUIRED.toString(), frontChannelLogoutSessionRequired.toString());
         }
+        if (StringUtils.isNotBlank(backChannelLogoutUri)) {
+            parameters.put(BACK_CHANNEL_LOGOUT_URI.toString(), backChannelLogoutUri);
+        }
+        if (backChannelLogoutSessionRequired != null) {
+            parameters.put(BACK_CHANNEL_LOGOUT_SESSION_REQUIRED.toString(), backChannelLogoutSessionRequired.toString());
+        }
         if (requestUris != null && !requestUris.isEmpty()) {
             parameters.put(REQUEST_URIS.toString(), toJSONArray(requestUris).toString());
         }
@@ -1087,6 +1131,8 @@ public class RegisterRequest extends BaseRequest {
         result.setRequireAuthTime(requestObject.has(REQUIRE_AUTH_TIME.toString()) && requestObject.getBoolean(REQUIRE_AUTH_TIME.toString()));
         result.setFrontChannelLogoutUris(frontChannelLogoutUris);
         result.setFrontChannelLogoutSessionRequired(requestObject.optBoolean(FRONT_CHANNEL_LOGOUT_SESSION_REQUIRED.toString()));
+        result.setBackChannelLogoutUri(requestObject.optString(BACK_CHANNEL_LOGOUT_URI.toString(), null));
+        result.setBackChannelLogoutSessionRequired(requestObject.optBoolean(BACK_CHANNEL_LOGOUT_SESSION_REQUIRED.toString()));
         result.setDefaultMaxAge(requestObject.has(DEFAULT_MAX_AGE.toString()) ?
                 requestObject.getInt(DEFAULT_MAX_AGE.toString()) : null);
         result.setIdTokenSignedResponseAlg(requestObject.has(ID_TOKEN_SIGNED_RESPONSE_ALG.toString()) ?
@@ -1234,6 +1280,12 @@ public class RegisterRequest extends BaseRequest {
         if (frontChannelLogoutSessionRequired != null) {
             parameters.put(FRONT_CHANNEL_LOGOUT_SESSION_REQUIRED.toString(), frontChannelLogoutSessionRequired.toString());
         }
+        if (StringUtils.isNotBlank(backChannelLogoutUri)) {
+            parameters.put(BACK_CHANNEL_LOGOUT_URI.toString(), backChannelLogoutUri);
+        }
+        if (backChannelLogoutSessionRequired != null) {
+            parameters.put(BACK_CHANNEL_LOGOUT_SESSION_REQUIRED.toString(), backChannelLogoutSessionRequired.toString());
+        }
         if (requestUris != null && !requestUris.isEmpty()) {
             parameters.put(REQUEST_URIS.toString(), toJSONArray(requestUris));
         }
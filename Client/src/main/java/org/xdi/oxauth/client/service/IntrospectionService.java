@@ -10,6 +10,7 @@ import org.xdi.oxauth.model.common.IntrospectionResponse;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
+import java.util.List;
 
 /**
  * Introspection service.
@@ -31,4 +32,17 @@ public interface IntrospectionService {
     @Consumes({MediaType.APPLICATION_JSON})
     @Produces({MediaType.APPLICATION_JSON})
     IntrospectionResponse introspectToken(@HeaderParam("Authorization") String p_authorization, @FormParam("token") String p_token);
-}
+
+    /**
+     * Returns introspection responses for specified tokens, in the same order as tokens.
+     *
+     * @param p_authorization authorization token
+     * @param p_tokens        tokens to introspect
+     * @return introspection responses
+     */
+    @POST
+    @Path("/batch")
+    @Consumes({MediaType.APPLICATION_JSON})
+    @Produces({MediaType.APPLICATION_JSON})
+    List<IntrospectionResponse> introspectTokens(@HeaderParam("Authorization") String p_authorization, @FormParam("token") List<String> p_tokens);
+}
\ No newline at end of file
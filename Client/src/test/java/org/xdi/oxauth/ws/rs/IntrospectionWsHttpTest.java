@@ -16,6 +16,9 @@ import org.xdi.oxauth.client.uma.wrapper.UmaClient;
 import org.xdi.oxauth.model.common.IntrospectionResponse;
 import org.xdi.oxauth.model.uma.wrapper.Token;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * @author Yuriy Zabrovarnyy
  * @version 0.9, 17/09/2013
@@ -34,4 +37,20 @@ public class IntrospectionWsHttpTest extends BaseTest {
         final IntrospectionResponse introspectionResponse = introspectionService.introspectToken("Bearer " + authorization.getAccessToken(), tokenToIntrospect.getAccessToken());
         Assert.assertTrue(introspectionResponse != null && introspectionResponse.isActive());
     }
+
+    @Test
+    @Parameters({"umaPatClientId", "umaPatClientSecret"})
+    public void testBatch(final String umaPatClientId, final String umaPatClientSecret) throws Exception {
+
+        final Token authorization = UmaClient.requestPat(tokenEndpoint, umaPatClientId, umaPatClientSecret);
+        final Token tokenToIntrospect = UmaClient.requestPat(tokenEndpoint, umaPatClientId, umaPatClientSecret);
+
+        final IntrospectionService introspectionService = ClientFactory.instance().createIntrospectionService(introspectionEndpoint);
+        final List<IntrospectionResponse> introspectionResponses = introspectionService.introspectTokens("Bearer " + authorization.getAccessToken(),
+                Arrays.asList(tokenToIntrospect.getAccessToken(), "invalid_token"));
+        Assert.assertNotNull(introspectionResponses);
+        Assert.assertEquals(introspectionResponses.size(), 2);
+        Assert.assertTrue(introspectionResponses.get(0).isActive());
+        Assert.assertFalse(introspectionResponses.get(1).isActive());
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.model.common;
+
+import org.codehaus.jackson.annotate.JsonCreator;
+import org.codehaus.jackson.annotate.JsonValue;
+
+/**
+ * Storage of grant tokens.
+ */
+public enum TokenStoreType {
+    /**
+     * Tokens are stored in the directory server (default)
+     */
+    LDAP("ldap"),
+    /**
+     * Tokens are stored in the embedded local (per node) store
+     */
+    EMBEDDED("embedded");
+
+    private final String value;
+
+    private TokenStoreType(String value) {
+        this.value = value;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @JsonCreator
+    public static TokenStoreType fromString(String string) {
+        for (TokenStoreType v : values()) {
+            if (v.getValue().equalsIgnoreCase(string)) {
+                return v;
+            }
+        }
+        return LDAP;
+    }
+
+    @Override
+    @JsonValue
+    public String toString() {
+        return value;
+    }
+}
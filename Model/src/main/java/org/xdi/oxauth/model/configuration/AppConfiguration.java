@@ -9,6 +9,7 @@ package org.xdi.oxauth.model.configuration;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
 import org.xdi.oxauth.model.common.GrantType;
 import org.xdi.oxauth.model.common.ResponseType;
+import org.xdi.oxauth.model.common.TokenStoreType;
 import org.xdi.oxauth.model.common.WebKeyStorage;
 
 import java.util.ArrayList;
@@ -132,6 +133,14 @@ public class AppConfiguration implements Configuration {
     private String oxElevenSignEndpoint;
     private String oxElevenVerifySignatureEndpoint;
     private String oxElevenDeleteKeyEndpoint;
+    /**
+     * Connect and read timeout in milliseconds for oxEleven requests
+     */
+    private Integer oxElevenRequestTimeout = 5000;
+    /**
+     * Maximum number of pooled keep-alive connections to oxEleven
+     */
+    private Integer oxElevenMaxConnections = 50;
 
     private Boolean endSessionWithAccessToken;
     private Boolean enabledOAuthAuditLogging;
@@ -169,6 +178,202 @@ public class AppConfiguration implements Configuration {
      */
     private String externalLoggerConfiguration;
 
+    /**
+     * Client JWKS (jwks_uri) is cached for jwksCacheLifetime seconds if the response has no Cache-Control/Expires headers
+     */
+    private Integer jwksCacheLifetime = 3600;
+
+    /**
+     * Lower bound for client JWKS cache lifetime in seconds. Also limits how often JWKS is re-fetched on unknown kid
+     */
+    private Integer jwksCacheMinLifetime = 60;
+
+    /**
+     * Upper bound for client JWKS cache lifetime in seconds
+     */
+    private Integer jwksCacheMaxLifetime = 86400;
+
+    /**
+     * Failed client JWKS download is not retried for jwksCacheFailureLifetime seconds
+     */
+    private Integer jwksCacheFailureLifetime = 30;
+
+    /**
+     * Connect and read timeout in milliseconds for client JWKS download
+     */
+    private Integer jwksRequestTimeout = 5000;
+
+    /**
+     * Algorithm used to sign access tokens of clients which use JWT access tokens (RS or ES family)
+     */
+    private String accessTokenSigningAlg = "RS256";
+
+    /**
+     * Maximum number of revoked JWT access tokens/grants kept in memory, evicted ones are read from the distributed cache
+     */
+    private Integer accessTokenRevocationCacheSize = 100000;
+
+    /**
+     * Maximum number of token entries kept in the in-process token near-cache, 0 disables the cache
+     */
+    private Integer tokenCacheSize = 10000;
+
+    /**
+     * Token near-cache entry lifetime in seconds (bounded by token expiration).
+     * Limits how long a token removed on another node may still be served from the cache
+     */
+    private Integer tokenCacheLifetime = 60;
+
+    /**
+     * Storage of grant tokens: ldap (default) or embedded. Embedded store is local to the node
+     */
+    private TokenStoreType tokenStoreType = TokenStoreType.LDAP;
+
+    /**
+     * Path of the embedded token store file (tokenStoreType=embedded). Temporary directory is used if it is not set
+     */
+    private String embeddedTokenStoreFile;
+
+    /**
+     * Size in megabytes of the embedded token store file, 1 - 2047
+     */
+    private Integer embeddedTokenStoreSize = 64;
+
+    /**
+     * Persist new tokens asynchronously in batches (LDAP token store only). Queued tokens are visible to lookups of this node only
+     */
+    private Boolean tokenWriteBehindEnabled = false;
+
+    /**
+     * Max number of tokens waiting to be written, tokens are written on the request thread when the queue is full
+     */
+    private Integer tokenWriteBehindQueueSize = 10000;
+
+    /**
+     * Number of threads writing queued tokens
+     */
+    private Integer tokenWriteBehindThreads = 2;
+
+    /**
+     * Max number of tokens written by a writer thread in one flush
+     */
+    private Integer tokenWriteBehindBatchSize = 100;
+
+    /**
+     * Max number of LDAP branch DNs (oxAuthGrant, pairwise identifiers, client authorizations, FIDO and UMA branches) remembered as existing
+     */
+    private Integer knownBranchesCacheSize = 10000;
+
+    /**
+     * Time in seconds a known branch DN is trusted without LDAP check
+     */
+    private Integer knownBranchesCacheLifetime = 600;
+
+    /**
+     * Record new tokens in in-memory expiration buckets, clean up removes due buckets without searching the clients tree (LDAP token store only)
+     */
+    private Boolean tokenExpirationIndexEnabled = false;
+
+    /**
+     * Width of expiration index bucket in seconds
+     */
+    private Integer tokenExpirationIndexBucketSize = 60;
+
+    /**
+     * Max number of tokens in expiration index, expired tokens above it are removed by the full scan
+     */
+    private Integer tokenExpirationIndexMaxSize = 1000000;
+
+    /**
+     * Interval in seconds of the full scan which removes expired tokens not recorded in expiration index (written before restart or by another node)
+     */
+    private Integer tokenExpirationIndexFullScanInterval = 86400;
+
+    /**
+     * Number of threads removing due tokens of expiration index
+     */
+    private Integer cleanServiceWorkers = 4;
+
+    /**
+     * Max number of entries removed by clean up per second, 0 - unlimited
+     */
+    private Integer cleanServiceRateLimit = 0;
+
+    /**
+     * Max number of pipelined delete requests waiting for response in bulk removal, 0 - entries are removed one by one
+     */
+    private Integer cleanServiceMaxOutstandingDeletes = 20;
+
+    /**
+     * Maximum number of cached introspection responses and PAT checks, 0 disables the caches
+     */
+    private Integer introspectionCacheSize = 10000;
+
+    /**
+     * Introspection response cache entry lifetime in seconds (bounded by token expiration). Tokens revoked on another node are detected through the distributed cache on each hit
+     */
+    private Integer introspectionCacheLifetime = 60;
+
+    /**
+     * Lifetime in seconds of cached authorization check of the PAT presented to the introspection endpoint
+     */
+    private Integer introspectionPatCacheLifetime = 10;
+
+    /**
+     * Max number of tokens in one batch introspection request
+     */
+    private Integer introspectionBatchMaxSize = 100;
+
+    /**
+     * Max number of sessions kept in the in-process near-cache
+     */
+    private Integer sessionStateCacheSize = 10000;
+
+    /**
+     * Seconds session is served from the in-process near-cache before it is read from the distributed cache again, 0 disables the near-cache
+     */
+    private Integer sessionStateCacheLifetime = 5;
+
+    /**
+     * Seconds session last used time may lag behind in the distributed cache, accesses within the interval are recorded in memory and written with the next session write. Capped to half of the session unused lifetime, 0 writes last used time at most twice a second
+     */
+    private Integer sessionTouchInterval = 60;
+
+    /**
+     * Maintain user to sessions and session to grants indexes in the distributed cache, used by logout to find sessions of the user and tokens of the session without searching the clients tree
+     */
+    private Boolean sessionIndexEnabled = false;
+
+    /**
+     * Deliver logout tokens to backchannel_logout_uri of clients involved in the session on end session
+     */
+    private Boolean backchannelLogoutEnabled = true;
+
+    /**
+     * Number of threads delivering backchannel logout requests
+     */
+    private Integer backchannelLogoutThreads = 10;
+
+    /**
+     * Maximum number of pending backchannel logout requests, requests above the limit are dropped
+     */
+    private Integer backchannelLogoutQueueSize = 1000;
+
+    /**
+     * Connect and read timeout of one backchannel logout request, in seconds
+     */
+    private Integer backchannelLogoutTimeout = 5;
+
+    /**
+     * Number of retries of failed backchannel logout request
+     */
+    private Integer backchannelLogoutRetries = 2;
+
+    /**
+     * End session logs the user out of all sessions of the user (found by the session index, requires sessionIndexEnabled), not only of the current one
+     */
+    private Boolean endSessionOfAllUserSessions = false;
+
     public Boolean getFrontChannelLogoutSessionSupported() {
         return frontChannelLogoutSessionSupported;
     }
@@ -1079,6 +1284,22 @@ public class AppConfiguration implements Configuration {
         this.oxElevenDeleteKeyEndpoint = oxElevenDeleteKeyEndpoint;
     }
 
+    public Integer getOxElevenRequestTimeout() {
+        return oxElevenRequestTimeout;
+    }
+
+    public void setOxElevenRequestTimeout(Integer oxElevenRequestTimeout) {
+        this.oxElevenRequestTimeout = oxElevenRequestTimeout;
+    }
+
+    public Integer getOxElevenMaxConnections() {
+        return oxElevenMaxConnections;
+    }
+
+    public void setOxElevenMaxConnections(Integer oxElevenMaxConnections) {
+        this.oxElevenMaxConnections = oxElevenMaxConnections;
+    }
+
     public Boolean getEndSessionWithAccessToken() {
         return endSessionWithAccessToken;
     }
@@ -1226,4 +1447,316 @@ public class AppConfiguration implements Configuration {
     public void setExternalLoggerConfiguration(String externalLoggerConfiguration) {
         this.externalLoggerConfiguration = externalLoggerConfiguration;
     }
-}
\ No newline at end of file
+
+    public Integer getJwksCacheLifetime() {
+        return jwksCacheLifetime;
+    }
+
+    public void setJwksCacheLifetime(Integer jwksCacheLifetime) {
+        this.jwksCacheLifetime = jwksCacheLifetime;
+    }
+
+    public Integer getJwksCacheMinLifetime() {
+        return jwksCacheMinLifetime;
+    }
+
+    public void setJwksCacheMinLifetime(Integer jwksCacheMinLifetime) {
+        this.jwksCacheMinLifetime = jwksCacheMinLifetime;
+    }
+
+    public Integer getJwksCacheMaxLifetime() {
+        return jwksCacheMaxLifetime;
+    }
+
+    public void setJwksCacheMaxLifetime(Integer jwksCacheMaxLifetime) {
+        this.jwksCacheMaxLifetime = jwksCacheMaxLifetime;
+    }
+
+    public Integer getJwksCacheFailureLifetime() {
+        return jwksCacheFailureLifetime;
+    }
+
+    public void setJwksCacheFailureLifetime(Integer jwksCacheFailureLifetime) {
+        this.jwksCacheFailureLifetime = jwksCacheFailureLifetime;
+    }
+
+    public Integer getJwksRequestTimeout() {
+        return jwksRequestTimeout;
+    }
+
+    public void setJwksRequestTimeout(Integer jwksRequestTimeout) {
+        this.jwksRequestTimeout = jwksRequestTimeout;
+    }
+
+    public String getAccessTokenSigningAlg() {
+        return accessTokenSigningAlg;
+    }
+
+    public void setAccessTokenSigningAlg(String accessTokenSigningAlg) {
+        this.accessTokenSigningAlg = accessTokenSigningAlg;
+    }
+
+    public Integer getAccessTokenRevocationCacheSize() {
+        return accessTokenRevocationCacheSize;
+    }
+
+    public void setAccessTokenRevocationCacheSize(Integer accessTokenRevocationCacheSize) {
+        this.accessTokenRevocationCacheSize = accessTokenRevocationCacheSize;
+    }
+
+    public Integer getTokenCacheSize() {
+        return tokenCacheSize;
+    }
+
+    public void setTokenCacheSize(Integer tokenCacheSize) {
+        this.tokenCacheSize = tokenCacheSize;
+    }
+
+    public Integer getTokenCacheLifetime() {
+        return tokenCacheLifetime;
+    }
+
+    public void setTokenCacheLifetime(Integer tokenCacheLifetime) {
+        this.tokenCacheLifetime = tokenCacheLifetime;
+    }
+
+    public TokenStoreType getTokenStoreType() {
+        return tokenStoreType;
+    }
+
+    public void setTokenStoreType(TokenStoreType tokenStoreType) {
+        this.tokenStoreType = tokenStoreType;
+    }
+
+    public String getEmbeddedTokenStoreFile() {
+        return embeddedTokenStoreFile;
+    }
+
+    public void setEmbeddedTokenStoreFile(String embeddedTokenStoreFile) {
+        this.embeddedTokenStoreFile = embeddedTokenStoreFile;
+    }
+
+    public Integer getEmbeddedTokenStoreSize() {
+        return embeddedTokenStoreSize;
+    }
+
+    public void setEmbeddedTokenStoreSize(Integer embeddedTokenStoreSize) {
+        this.embeddedTokenStoreSize = embeddedTokenStoreSize;
+    }
+
+    public Boolean getTokenWriteBehindEnabled() {
+        return tokenWriteBehindEnabled;
+    }
+
+    public void setTokenWriteBehindEnabled(Boolean tokenWriteBehindEnabled) {
+        this.tokenWriteBehindEnabled = tokenWriteBehindEnabled;
+    }
+
+    public Integer getTokenWriteBehindQueueSize() {
+        return tokenWriteBehindQueueSize;
+    }
+
+    public void setTokenWriteBehindQueueSize(Integer tokenWriteBehindQueueSize) {
+        this.tokenWriteBehindQueueSize = tokenWriteBehindQueueSize;
+    }
+
+    public Integer getTokenWriteBehindThreads() {
+        return tokenWriteBehindThreads;
+    }
+
+    public void setTokenWriteBehindThreads(Integer tokenWriteBehindThreads) {
+        this.tokenWriteBehindThreads = tokenWriteBehindThreads;
+    }
+
+    public Integer getTokenWriteBehindBatchSize() {
+        return tokenWriteBehindBatchSize;
+    }
+
+    public void setTokenWriteBehindBatchSize(Integer tokenWriteBehindBatchSize) {
+        this.tokenWriteBehindBatchSize = tokenWriteBehindBatchSize;
+    }
+
+    public Integer getKnownBranchesCacheSize() {
+        return knownBranchesCacheSize;
+    }
+
+    public void setKnownBranchesCacheSize(Integer knownBranchesCacheSize) {
+        this.knownBranchesCacheSize = knownBranchesCacheSize;
+    }
+
+    public Integer getKnownBranchesCacheLifetime() {
+        return knownBranchesCacheLifetime;
+    }
+
+    public void setKnownBranchesCacheLifetime(Integer knownBranchesCacheLifetime) {
+        this.knownBranchesCacheLifetime = knownBranchesCacheLifetime;
+    }
+
+    public Boolean getTokenExpirationIndexEnabled() {
+        return tokenExpirationIndexEnabled;
+    }
+
+    public void setTokenExpirationIndexEnabled(Boolean tokenExpirationIndexEnabled) {
+        this.tokenExpirationIndexEnabled = tokenExpirationIndexEnabled;
+    }
+
+    public Integer getTokenExpirationIndexBucketSize() {
+        return tokenExpirationIndexBucketSize;
+    }
+
+    public void setTokenExpirationIndexBucketSize(Integer tokenExpirationIndexBucketSize) {
+        this.tokenExpirationIndexBucketSize = tokenExpirationIndexBucketSize;
+    }
+
+    public Integer getTokenExpirationIndexMaxSize() {
+        return tokenExpirationIndexMaxSize;
+    }
+
+    public void setTokenExpirationIndexMaxSize(Integer tokenExpirationIndexMaxSize) {
+        this.tokenExpirationIndexMaxSize = tokenExpirationIndexMaxSize;
+    }
+
+    public Integer getTokenExpirationIndexFullScanInterval() {
+        return tokenExpirationIndexFullScanInterval;
+    }
+
+    public void setTokenExpirationIndexFullScanInterval(Integer tokenExpirationIndexFullScanInterval) {
+        this.tokenExpirationIndexFullScanInterval = tokenExpirationIndexFullScanInterval;
+    }
+
+    public Integer getCleanServiceWorkers() {
+        return cleanServiceWorkers;
+    }
+
+    public void setCleanServiceWorkers(Integer cleanServiceWorkers) {
+        this.cleanServiceWorkers = cleanServiceWorkers;
+    }
+
+    public Integer getCleanServiceRateLimit() {
+        return cleanServiceRateLimit;
+    }
+
+    public void setCleanServiceRateLimit(Integer cleanServiceRateLimit) {
+        this.cleanServiceRateLimit = cleanServiceRateLimit;
+    }
+
+    public Integer getCleanServiceMaxOutstandingDeletes() {
+        return cleanServiceMaxOutstandingDeletes;
+    }
+
+    public void setCleanServiceMaxOutstandingDeletes(Integer cleanServiceMaxOutstandingDeletes) {
+        this.cleanServiceMaxOutstandingDeletes = cleanServiceMaxOutstandingDeletes;
+    }
+
+    public Integer getIntrospectionCacheSize() {
+        return introspectionCacheSize;
+    }
+
+    public void setIntrospectionCacheSize(Integer introspectionCacheSize) {
+        this.introspectionCacheSize = introspectionCacheSize;
+    }
+
+    public Integer getIntrospectionCacheLifetime() {
+        return introspectionCacheLifetime;
+    }
+
+    public void setIntrospectionCacheLifetime(Integer introspectionCacheLifetime) {
+        this.introspectionCacheLifetime = introspectionCacheLifetime;
+    }
+
+    public Integer getIntrospectionPatCacheLifetime() {
+        return introspectionPatCacheLifetime;
+    }
+
+    public void setIntrospectionPatCacheLifetime(Integer introspectionPatCacheLifetime) {
+        this.introspectionPatCacheLifetime = introspectionPatCacheLifetime;
+    }
+
+    public Integer getIntrospectionBatchMaxSize() {
+        return introspectionBatchMaxSize;
+    }
+
+    public void setIntrospectionBatchMaxSize(Integer introspectionBatchMaxSize) {
+        this.introspectionBatchMaxSize = introspectionBatchMaxSize;
+    }
+
+    public Integer getSessionStateCacheSize() {
+        return sessionStateCacheSize;
+    }
+
+    public void setSessionStateCacheSize(Integer sessionStateCacheSize) {
+        this.sessionStateCacheSize = sessionStateCacheSize;
+    }
+
+    public Integer getSessionStateCacheLifetime() {
+        return sessionStateCacheLifetime;
+    }
+
+    public void setSessionStateCacheLifetime(Integer sessionStateCacheLifetime) {
+        this.sessionStateCacheLifetime = sessionStateCacheLifetime;
+    }
+
+    public Integer getSessionTouchInterval() {
+        return sessionTouchInterval;
+    }
+
+    public void setSessionTouchInterval(Integer sessionTouchInterval) {
+        this.sessionTouchInterval = sessionTouchInterval;
+    }
+
+    public Boolean getSessionIndexEnabled() {
+        return sessionIndexEnabled;
+    }
+
+    public void setSessionIndexEnabled(Boolean sessionIndexEnabled) {
+        this.sessionIndexEnabled = sessionIndexEnabled;
+    }
+
+    public Boolean getBackchannelLogoutEnabled() {
+        return backchannelLogoutEnabled;
+    }
+
+    public void setBackchannelLogoutEnabled(Boolean backchannelLogoutEnabled) {
+        this.backchannelLogoutEnabled = backchannelLogoutEnabled;
+    }
+
+    public Integer getBackchannelLogoutThreads() {
+        return backchannelLogoutThreads;
+    }
+
+    public void setBackchannelLogoutThreads(Integer backchannelLogoutThreads) {
+        this.backchannelLogoutThreads = backchannelLogoutThreads;
+    }
+
+    public Integer getBackchannelLogoutQueueSize() {
+        return backchannelLogoutQueueSize;
+    }
+
+    public void setBackchannelLogoutQueueSize(Integer backchannelLogoutQueueSize) {
+        this.backchannelLogoutQueueSize = backchannelLogoutQueueSize;
+    }
+
+    public Integer getBackchannelLogoutTimeout() {
+        return backchannelLogoutTimeout;
+    }
+
+    public void setBackchannelLogoutTimeout(Integer backchannelLogoutTimeout) {
+        this.backchannelLogoutTimeout = backchannelLogoutTimeout;
+    }
+
+    public Integer getBackchannelLogoutRetries() {
+        return backchannelLogoutRetries;
+    }
+
+    public void setBackchannelLogoutRetries(Integer backchannelLogoutRetries) {
+        this.backchannelLogoutRetries = backchannelLogoutRetries;
+    }
+
+    public Boolean getEndSessionOfAllUserSessions() {
+        return endSessionOfAllUserSessions;
+    }
+
+    public void setEndSessionOfAllUserSessions(Boolean endSessionOfAllUserSessions) {
+        this.endSessionOfAllUserSessions = endSessionOfAllUserSessions;
+    }
+}
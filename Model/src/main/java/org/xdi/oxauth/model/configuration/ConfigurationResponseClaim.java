@@ -56,6 +56,8 @@ public interface ConfigurationResponseClaim {
     public static final String CLAIMS_KEY = "claims";
     public static final String FRONTCHANNEL_LOGOUT_SUPPORTED = "frontchannel_logout_supported";
     public static final String FRONTCHANNEL_LOGOUT_SESSION_SUPPORTED = "frontchannel_logout_session_supported";
+    public static final String BACKCHANNEL_LOGOUT_SUPPORTED = "backchannel_logout_supported";
+    public static final String BACKCHANNEL_LOGOUT_SESSION_SUPPORTED = "backchannel_logout_session_supported";
     public static final String AUTH_LEVEL_MAPPING = "auth_level_mapping";
     public static final String FRONT_CHANNEL_LOGOUT_SESSION_SUPPORTED = "frontchannel_logout_session_supported";
 }
\ No newline at end of file
@@ -5,6 +5,10 @@
  */
 package org.xdi.oxauth.model.crypto;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.log4j.Logger;
 import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
@@ -27,8 +31,14 @@ import java.security.spec.ECParameterSpec;
 import java.security.spec.ECPoint;
 import java.security.spec.ECPublicKeySpec;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 import static org.xdi.oxauth.model.jwk.JWKParameter.*;
 
@@ -38,6 +48,17 @@ import static org.xdi.oxauth.model.jwk.JWKParameter.*;
  */
 public abstract class AbstractCryptoProvider {
 
+    private static final Logger LOG = Logger.getLogger(AbstractCryptoProvider.class);
+
+    private static final int PUBLIC_KEYS_CACHE_SIZE = 1000;
+
+    private static final List<SignatureAlgorithm> JWKS_ALGORITHMS = Collections.unmodifiableList(Arrays.asList(
+            SignatureAlgorithm.RS256, SignatureAlgorithm.RS384, SignatureAlgorithm.RS512,
+            SignatureAlgorithm.ES256, SignatureAlgorithm.ES384, SignatureAlgorithm.ES512));
+
+    private static final Cache<String, PublicKey> PUBLIC_KEYS = CacheBuilder.newBuilder()
+            .maximumSize(PUBLIC_KEYS_CACHE_SIZE).build();
+
     public abstract JSONObject generateKey(SignatureAlgorithm signatureAlgorithm, Long expirationTime) throws Exception;
 
     public abstract String sign(String signingInput, String keyId, String sharedSecret, SignatureAlgorithm signatureAlgorithm) throws Exception;
@@ -47,10 +68,9 @@ public abstract class AbstractCryptoProvider {
     public abstract boolean deleteKey(String keyId) throws Exception;
 
     public String getKeyId(JSONWebKeySet jsonWebKeySet, SignatureAlgorithm signatureAlgorithm) throws Exception {
-        for (JSONWebKey key : jsonWebKeySet.getKeys()) {
-            if (signatureAlgorithm == key.getAlg()) {
-                return key.getKid();
-            }
+        JSONWebKey key = jsonWebKeySet.getKey(signatureAlgorithm);
+        if (key != null) {
+            return key.getKid();
         }
 
         return null;
@@ -78,44 +98,61 @@ public abstract class AbstractCryptoProvider {
         return jwks;
     }
 
-    public static JSONObject generateJwks(int keyRegenerationInterval, int idTokenLifeTime, AppConfiguration configuration) throws Exception {
+    /**
+     * Generates keys for the given algorithms and deletes expired keys.
+     * <p>
+     * Providers which persist keys locally override it to apply all changes at once, by default keys are
+     * generated and deleted one by one. Algorithms which key can't be generated are skipped. If no key is generated
+     * at all, expired keys are not deleted and the rotation fails.
+     *
+     * @return generated keys (JWK)
+     */
+    public JSONArray rotateKeys(List<SignatureAlgorithm> signatureAlgorithms, Long expirationTime, Collection<String> expiredKeyIds) throws Exception {
         JSONArray keys = new JSONArray();
-
-        GregorianCalendar expirationTime = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
-        expirationTime.add(GregorianCalendar.HOUR, keyRegenerationInterval);
-        expirationTime.add(GregorianCalendar.SECOND, idTokenLifeTime);
-
-        AbstractCryptoProvider cryptoProvider = CryptoProviderFactory.getCryptoProvider(configuration);
-
-        try {
-            keys.put(cryptoProvider.generateKey(SignatureAlgorithm.RS256, expirationTime.getTimeInMillis()));
-        } catch (Exception ex) {
+        Exception failure = null;
+        for (SignatureAlgorithm signatureAlgorithm : signatureAlgorithms) {
+            try {
+                keys.put(generateKey(signatureAlgorithm, expirationTime));
+            } catch (Exception e) {
+                LOG.error("Failed to generate " + signatureAlgorithm.getName() + " key", e);
+                failure = e;
+            }
         }
+        checkKeysGenerated(signatureAlgorithms, keys, failure);
 
-        try {
-            keys.put(cryptoProvider.generateKey(SignatureAlgorithm.RS384, expirationTime.getTimeInMillis()));
-        } catch (Exception ex) {
+        for (String keyId : expiredKeyIds) {
+            deleteKey(keyId);
         }
 
-        try {
-            keys.put(cryptoProvider.generateKey(SignatureAlgorithm.RS512, expirationTime.getTimeInMillis()));
-        } catch (Exception ex) {
-        }
+        return keys;
+    }
 
-        try {
-            keys.put(cryptoProvider.generateKey(SignatureAlgorithm.ES256, expirationTime.getTimeInMillis()));
-        } catch (Exception ex) {
+    /**
+     * Fails the rotation if keys are requested but none is generated, otherwise expired keys are deleted and nothing
+     * takes their place in JWKS.
+     */
+    protected static void checkKeysGenerated(List<SignatureAlgorithm> signatureAlgorithms, JSONArray keys, Exception failure) throws Exception {
+        if (!signatureAlgorithms.isEmpty() && keys.length() == 0) {
+            throw new Exception("No key is generated for " + signatureAlgorithms + ", expired keys are not deleted", failure);
         }
+    }
 
-        try {
-            keys.put(cryptoProvider.generateKey(SignatureAlgorithm.ES384, expirationTime.getTimeInMillis()));
-        } catch (Exception ex) {
-        }
+    public static JSONObject generateJwks(int keyRegenerationInterval, int idTokenLifeTime, AppConfiguration configuration) throws Exception {
+        return generateJwks(keyRegenerationInterval, idTokenLifeTime, configuration, Collections.<String>emptyList());
+    }
 
-        try {
-            keys.put(cryptoProvider.generateKey(SignatureAlgorithm.ES512, expirationTime.getTimeInMillis()));
-        } catch (Exception ex) {
-        }
+    /**
+     * Generates new JWKS and deletes the expired keys in the same key store update.
+     */
+    public static JSONObject generateJwks(int keyRegenerationInterval, int idTokenLifeTime, AppConfiguration configuration,
+                                          Collection<String> expiredKeyIds) throws Exception {
+        GregorianCalendar expirationTime = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        expirationTime.add(GregorianCalendar.HOUR, keyRegenerationInterval);
+        expirationTime.add(GregorianCalendar.SECOND, idTokenLifeTime);
+
+        AbstractCryptoProvider cryptoProvider = CryptoProviderFactory.getCryptoProvider(configuration);
+
+        JSONArray keys = cryptoProvider.rotateKeys(JWKS_ALGORITHMS, expirationTime.getTimeInMillis(), expiredKeyIds);
 
         JSONObject jsonObject = new JSONObject();
         jsonObject.put(JSON_WEB_KEY_SET, keys);
@@ -133,19 +170,9 @@ public abstract class AbstractCryptoProvider {
                 SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.fromString(key.getString(ALGORITHM));
                 if (signatureAlgorithm != null) {
                     if (signatureAlgorithm.getFamily().equals(SignatureAlgorithmFamily.RSA)) {
-                        publicKey = new RSAPublicKeyImpl(
-                                new BigInteger(1, Base64Util.base64urldecode(key.getString(MODULUS))),
-                                new BigInteger(1, Base64Util.base64urldecode(key.getString(EXPONENT))));
+                        publicKey = decodePublicKey(signatureAlgorithm, key.getString(MODULUS), key.getString(EXPONENT));
                     } else if (signatureAlgorithm.getFamily().equals(SignatureAlgorithmFamily.EC)) {
-                        AlgorithmParameters parameters = AlgorithmParameters.getInstance(SignatureAlgorithmFamily.EC);
-                        parameters.init(new ECGenParameterSpec(signatureAlgorithm.getCurve().getAlias()));
-                        ECParameterSpec ecParameters = parameters.getParameterSpec(ECParameterSpec.class);
-
-                        publicKey = KeyFactory.getInstance(SignatureAlgorithmFamily.EC).generatePublic(new ECPublicKeySpec(
-                                new ECPoint(
-                                        new BigInteger(1, Base64Util.base64urldecode(key.getString(X))),
-                                        new BigInteger(1, Base64Util.base64urldecode(key.getString(Y)))
-                                ), ecParameters));
+                        publicKey = decodePublicKey(signatureAlgorithm, key.getString(X), key.getString(Y));
                     }
                 }
             }
@@ -153,4 +180,41 @@ public abstract class AbstractCryptoProvider {
 
         return publicKey;
     }
-}
\ No newline at end of file
+
+    /**
+     * Converts JWK key material to public key. Converted keys are cached by key material, so conversion happens once
+     * per key (rotation) and not on every request.
+     *
+     * @param first  Modulus (RSA) or x coordinate (EC)
+     * @param second Exponent (RSA) or y coordinate (EC)
+     */
+    private static PublicKey decodePublicKey(final SignatureAlgorithm signatureAlgorithm, final String first, final String second) throws Exception {
+        String cacheKey = signatureAlgorithm.getName() + "|" + first + "|" + second;
+        try {
+            return PUBLIC_KEYS.get(cacheKey, new Callable<PublicKey>() {
+                @Override
+                public PublicKey call() throws Exception {
+                    if (signatureAlgorithm.getFamily().equals(SignatureAlgorithmFamily.RSA)) {
+                        return new RSAPublicKeyImpl(
+                                new BigInteger(1, Base64Util.base64urldecode(first)),
+                                new BigInteger(1, Base64Util.base64urldecode(second)));
+                    }
+
+                    AlgorithmParameters parameters = AlgorithmParameters.getInstance(SignatureAlgorithmFamily.EC);
+                    parameters.init(new ECGenParameterSpec(signatureAlgorithm.getCurve().getAlias()));
+                    ECParameterSpec ecParameters = parameters.getParameterSpec(ECParameterSpec.class);
+
+                    return KeyFactory.getInstance(SignatureAlgorithmFamily.EC).generatePublic(new ECPublicKeySpec(
+                            new ECPoint(
+                                    new BigInteger(1, Base64Util.base64urldecode(first)),
+                                    new BigInteger(1, Base64Util.base64urldecode(second))
+                            ), ecParameters));
+                }
+            });
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (UncheckedExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+}
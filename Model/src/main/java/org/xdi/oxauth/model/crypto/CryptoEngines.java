@@ -0,0 +1,99 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.model.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-thread cache of JCA engines. Engine lookup through the provider list is expensive, while
+ * {@link Signature}, {@link Mac} and {@link Cipher} instances are cheap to re-initialize but are not thread safe,
+ * hence every thread keeps its own instance per algorithm.
+ */
+public class CryptoEngines {
+
+    private static final String PROVIDER = "BC";
+
+    private static final ThreadLocal<Map<String, Signature>> SIGNATURES = new ThreadLocal<Map<String, Signature>>() {
+        @Override
+        protected Map<String, Signature> initialValue() {
+            return new HashMap<String, Signature>();
+        }
+    };
+
+    private static final ThreadLocal<Map<String, Mac>> MACS = new ThreadLocal<Map<String, Mac>>() {
+        @Override
+        protected Map<String, Mac> initialValue() {
+            return new HashMap<String, Mac>();
+        }
+    };
+
+    private static final ThreadLocal<Map<String, Cipher>> CIPHERS = new ThreadLocal<Map<String, Cipher>>() {
+        @Override
+        protected Map<String, Cipher> initialValue() {
+            return new HashMap<String, Cipher>();
+        }
+    };
+
+    private CryptoEngines() {
+    }
+
+    /**
+     * Returns signature engine bound to the current thread. Caller must call initSign/initVerify before use.
+     */
+    public static Signature getSignature(String algorithm) throws NoSuchAlgorithmException, NoSuchProviderException {
+        Map<String, Signature> signatures = SIGNATURES.get();
+
+        Signature signature = signatures.get(algorithm);
+        if (signature == null) {
+            signature = Signature.getInstance(algorithm, PROVIDER);
+            signatures.put(algorithm, signature);
+        }
+
+        return signature;
+    }
+
+    /**
+     * Returns cipher bound to the current thread. Caller must call init before use.
+     */
+    public static Cipher getCipher(String transformation) throws NoSuchAlgorithmException, NoSuchProviderException, NoSuchPaddingException {
+        Map<String, Cipher> ciphers = CIPHERS.get();
+
+        Cipher cipher = ciphers.get(transformation);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformation, PROVIDER);
+            ciphers.put(transformation, cipher);
+        }
+
+        return cipher;
+    }
+
+    /**
+     * Returns MAC engine bound to the current thread and initialized with the given key. The engine is initialized on
+     * every call, so that the thread doesn't have to keep a copy of the key (client secret) to compare it with.
+     */
+    public static Mac getMac(String algorithm, byte[] key) throws NoSuchAlgorithmException, InvalidKeyException {
+        Map<String, Mac> macs = MACS.get();
+
+        Mac mac = macs.get(algorithm);
+        if (mac == null) {
+            mac = Mac.getInstance(algorithm);
+            macs.put(algorithm, mac);
+        }
+
+        mac.init(new SecretKeySpec(key, algorithm));
+        return mac;
+    }
+}
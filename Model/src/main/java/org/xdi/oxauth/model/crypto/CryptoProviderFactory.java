@@ -6,16 +6,94 @@
 
 package org.xdi.oxauth.model.crypto;
 
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
 import org.xdi.oxauth.model.common.WebKeyStorage;
 import org.xdi.oxauth.model.configuration.AppConfiguration;
 
+import java.io.Closeable;
+import java.io.IOException;
+
 /**
+ * Provides the process-wide crypto provider. The provider is created once per key storage configuration
+ * and reused until the configuration changes or {@link #reload(AppConfiguration)} is called, so that
+ * the key store is not read from disk on every sign/verify.
+ *
  * @author Javier Rojas Blum
  * @version April 25, 2017
  */
 public class CryptoProviderFactory {
 
+    private static final Logger LOG = Logger.getLogger(CryptoProviderFactory.class);
+
+    private static final Object LOCK = new Object();
+
+    private static volatile CachedCryptoProvider cachedCryptoProvider;
+
     public static AbstractCryptoProvider getCryptoProvider(AppConfiguration configuration) throws Exception {
+        String cacheKey = getCacheKey(configuration);
+
+        CachedCryptoProvider cached = cachedCryptoProvider;
+        if (cached != null && cached.getCacheKey().equals(cacheKey)) {
+            return cached.getCryptoProvider();
+        }
+
+        synchronized (LOCK) {
+            cached = cachedCryptoProvider;
+            if (cached != null && cached.getCacheKey().equals(cacheKey)) {
+                return cached.getCryptoProvider();
+            }
+
+            AbstractCryptoProvider cryptoProvider = createCryptoProvider(configuration);
+            cachedCryptoProvider = new CachedCryptoProvider(cacheKey, cryptoProvider);
+            close(cached);
+
+            return cryptoProvider;
+        }
+    }
+
+    /**
+     * Re-creates the shared provider (e.g. after the key store was changed by key rotation or configuration reload)
+     * and swaps it in atomically. The replaced provider is closed if it holds resources (e.g. HTTP connection pool of
+     * oxEleven provider). If the key storage configuration is not changed, the key store of the current provider is
+     * re-read in place, so already decoded keys stay cached.
+     */
+    public static AbstractCryptoProvider reload(AppConfiguration configuration) throws Exception {
+        synchronized (LOCK) {
+            CachedCryptoProvider cached = cachedCryptoProvider;
+            if (cached != null && cached.getCacheKey().equals(getCacheKey(configuration))
+                    && cached.getCryptoProvider() instanceof OxAuthCryptoProvider) {
+                ((OxAuthCryptoProvider) cached.getCryptoProvider()).reloadKeyStore();
+                return cached.getCryptoProvider();
+            }
+
+            AbstractCryptoProvider cryptoProvider = createCryptoProvider(configuration);
+            cachedCryptoProvider = new CachedCryptoProvider(getCacheKey(configuration), cryptoProvider);
+            close(cached);
+
+            return cryptoProvider;
+        }
+    }
+
+    public static void reset() {
+        synchronized (LOCK) {
+            CachedCryptoProvider cached = cachedCryptoProvider;
+            cachedCryptoProvider = null;
+            close(cached);
+        }
+    }
+
+    private static void close(CachedCryptoProvider cached) {
+        if (cached != null && cached.getCryptoProvider() instanceof Closeable) {
+            try {
+                ((Closeable) cached.getCryptoProvider()).close();
+            } catch (IOException e) {
+                LOG.error("Failed to close replaced crypto provider", e);
+            }
+        }
+    }
+
+    public static AbstractCryptoProvider createCryptoProvider(AppConfiguration configuration) throws Exception {
         AbstractCryptoProvider cryptoProvider = null;
         WebKeyStorage webKeyStorage = configuration.getWebKeysStorage();
 
@@ -32,10 +110,62 @@ public class CryptoProviderFactory {
                         configuration.getOxElevenSignEndpoint(),
                         configuration.getOxElevenVerifySignatureEndpoint(),
                         configuration.getOxElevenDeleteKeyEndpoint(),
-                        configuration.getOxElevenTestModeToken());
+                        configuration.getOxElevenTestModeToken(),
+                        configuration.getOxElevenRequestTimeout(),
+                        configuration.getOxElevenMaxConnections());
                 break;
         }
 
         return cryptoProvider;
     }
+
+    private static String getCacheKey(AppConfiguration configuration) {
+        WebKeyStorage webKeyStorage = configuration.getWebKeysStorage();
+
+        StringBuilder cacheKey = new StringBuilder().append(webKeyStorage);
+        switch (webKeyStorage) {
+            case KEYSTORE:
+                cacheKey.append('|').append(configuration.getKeyStoreFile())
+                        .append('|').append(digest(configuration.getKeyStoreSecret()))
+                        .append('|').append(configuration.getDnName());
+                break;
+            case PKCS11:
+                cacheKey.append('|').append(configuration.getOxElevenGenerateKeyEndpoint())
+                        .append('|').append(configuration.getOxElevenSignEndpoint())
+                        .append('|').append(configuration.getOxElevenVerifySignatureEndpoint())
+                        .append('|').append(configuration.getOxElevenDeleteKeyEndpoint())
+                        .append('|').append(digest(configuration.getOxElevenTestModeToken()))
+                        .append('|').append(configuration.getOxElevenRequestTimeout())
+                        .append('|').append(configuration.getOxElevenMaxConnections());
+                break;
+        }
+
+        return cacheKey.toString();
+    }
+
+    /**
+     * Cache key is long-lived, hence secrets are kept in it only as digests.
+     */
+    private static String digest(String secret) {
+        return secret != null ? DigestUtils.sha256Hex(secret) : null;
+    }
+
+    private static class CachedCryptoProvider {
+
+        private final String cacheKey;
+        private final AbstractCryptoProvider cryptoProvider;
+
+        public CachedCryptoProvider(String cacheKey, AbstractCryptoProvider cryptoProvider) {
+            this.cacheKey = cacheKey;
+            this.cryptoProvider = cryptoProvider;
+        }
+
+        public String getCacheKey() {
+            return cacheKey;
+        }
+
+        public AbstractCryptoProvider getCryptoProvider() {
+            return cryptoProvider;
+        }
+    }
 }
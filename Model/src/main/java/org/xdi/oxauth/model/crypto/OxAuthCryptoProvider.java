@@ -30,11 +30,10 @@ import org.xdi.oxauth.model.util.Base64Util;
 import org.xdi.oxauth.model.util.Util;
 
 import javax.crypto.Mac;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.math.BigInteger;
 import java.security.*;
@@ -47,10 +46,16 @@ import java.security.cert.X509Certificate;
 import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPublicKey;
 import java.security.spec.ECGenParameterSpec;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static org.xdi.oxauth.model.jwk.JWKParameter.*;
 
@@ -63,11 +68,18 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
 
     private static final Logger LOG = Logger.getLogger(OxAuthCryptoProvider.class);
 
-    private KeyStore keyStore;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Replaced as a whole on key rotation/reload, never modified after it is published
+    private volatile KeyStore keyStore;
     private String keyStoreFile;
     private String keyStoreSecret;
     private String dnName;
 
+    // Decoded keys by alias, key store lookup unwraps (decrypts) private key on every call
+    private final ConcurrentMap<String, PrivateKey> privateKeys = new ConcurrentHashMap<String, PrivateKey>();
+    private final ConcurrentMap<String, PublicKey> publicKeys = new ConcurrentHashMap<String, PublicKey>();
+
     public OxAuthCryptoProvider() throws Exception {
         this(null, null, null);
     }
@@ -83,12 +95,9 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
                 File f = new File(keyStoreFile);
                 if (!f.exists()) {
                     keyStore.load(null, keyStoreSecret.toCharArray());
-                    FileOutputStream fos = new FileOutputStream(keyStoreFile);
-                    keyStore.store(fos, keyStoreSecret.toCharArray());
-                    fos.close();
+                    storeKeyStore(keyStore);
                 }
-                final InputStream is = new FileInputStream(keyStoreFile);
-                keyStore.load(is, keyStoreSecret.toCharArray());
+                keyStore = loadKeyStore();
             } catch (Exception e) {
                 LOG.error(e.getMessage(), e);
             }
@@ -97,39 +106,119 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
 
     @Override
     public JSONObject generateKey(SignatureAlgorithm signatureAlgorithm, Long expirationTime) throws Exception {
-
-        KeyPairGenerator keyGen = null;
-
         if (signatureAlgorithm == null) {
             throw new RuntimeException("The signature algorithm parameter cannot be null");
-        } else if (SignatureAlgorithmFamily.RSA.equals(signatureAlgorithm.getFamily())) {
-            keyGen = KeyPairGenerator.getInstance(signatureAlgorithm.getFamily(), "BC");
-            keyGen.initialize(2048, new SecureRandom());
-        } else if (SignatureAlgorithmFamily.EC.equals(signatureAlgorithm.getFamily())) {
-            ECGenParameterSpec eccgen = new ECGenParameterSpec(signatureAlgorithm.getCurve().getAlias());
-            keyGen = KeyPairGenerator.getInstance(signatureAlgorithm.getFamily(), "BC");
-            keyGen.initialize(eccgen, new SecureRandom());
-        } else {
+        }
+        if (!SignatureAlgorithmFamily.RSA.equals(signatureAlgorithm.getFamily())
+                && !SignatureAlgorithmFamily.EC.equals(signatureAlgorithm.getFamily())) {
             throw new RuntimeException("The provided signature algorithm parameter is not supported");
         }
 
-        // Generate the key
-        KeyPair keyPair = keyGen.generateKeyPair();
-        java.security.PrivateKey pk = keyPair.getPrivate();
+        JSONArray keys = rotateKeys(Collections.singletonList(signatureAlgorithm), expirationTime, Collections.<String>emptyList());
+        return keys.getJSONObject(0);
+    }
 
-        // Java API requires a certificate chain
-        X509Certificate cert = generateV3Certificate(keyPair, dnName, signatureAlgorithm.getAlgorithm(), expirationTime);
-        X509Certificate[] chain = new X509Certificate[1];
-        chain[0] = cert;
+    /**
+     * Generates new keys and removes expired ones with a single key store write.
+     * <p>
+     * Key pairs and certificates are generated without holding any lock. The new key store is then written to
+     * a temporary file which is renamed over the key store file, so readers never see a partially written file,
+     * and published to signers with a single reference swap. Decoded keys of the new entries are cached before
+     * the swap, so first requests signed with them don't pay for unwrapping. The key store is left untouched if
+     * none of the requested keys is generated.
+     */
+    @Override
+    public JSONArray rotateKeys(List<SignatureAlgorithm> signatureAlgorithms, Long expirationTime, Collection<String> expiredKeyIds) throws Exception {
+        Map<String, KeyPair> keyPairs = new LinkedHashMap<String, KeyPair>();
+        Map<String, X509Certificate> certificates = new HashMap<String, X509Certificate>();
+        JSONArray keys = new JSONArray();
+        Exception failure = null;
+
+        for (SignatureAlgorithm signatureAlgorithm : signatureAlgorithms) {
+            KeyPairGenerator keyGen = null;
+
+            if (SignatureAlgorithmFamily.RSA.equals(signatureAlgorithm.getFamily())) {
+                keyGen = KeyPairGenerator.getInstance(signatureAlgorithm.getFamily(), "BC");
+                keyGen.initialize(2048, RANDOM);
+            } else if (SignatureAlgorithmFamily.EC.equals(signatureAlgorithm.getFamily())) {
+                ECGenParameterSpec eccgen = new ECGenParameterSpec(signatureAlgorithm.getCurve().getAlias());
+                keyGen = KeyPairGenerator.getInstance(signatureAlgorithm.getFamily(), "BC");
+                keyGen.initialize(eccgen, RANDOM);
+            } else {
+                continue;
+            }
 
-        String alias = UUID.randomUUID().toString();
+            try {
+                // Generate the key
+                KeyPair keyPair = keyGen.generateKeyPair();
 
-        keyStore.setKeyEntry(alias, pk, keyStoreSecret.toCharArray(), chain);
-        FileOutputStream stream = new FileOutputStream(keyStoreFile);
-        keyStore.store(stream, keyStoreSecret.toCharArray());
+                // Java API requires a certificate chain
+                X509Certificate cert = generateV3Certificate(keyPair, dnName, signatureAlgorithm.getAlgorithm(), expirationTime);
 
-        PublicKey publicKey = keyPair.getPublic();
+                String alias = UUID.randomUUID().toString();
+                keyPairs.put(alias, keyPair);
+                certificates.put(alias, cert);
+
+                keys.put(toJSONObject(alias, signatureAlgorithm, expirationTime, keyPair.getPublic(), cert));
+            } catch (Exception e) {
+                LOG.error("Failed to generate " + signatureAlgorithm.getName() + " key", e);
+                failure = e;
+            }
+        }
+        checkKeysGenerated(signatureAlgorithms, keys, failure);
+
+        synchronized (this) {
+            // Start from the stored key store, which may also have been updated by another node
+            KeyStore nextKeyStore = loadKeyStore();
+            for (Map.Entry<String, KeyPair> entry : keyPairs.entrySet()) {
+                nextKeyStore.setKeyEntry(entry.getKey(), entry.getValue().getPrivate(), keyStoreSecret.toCharArray(),
+                        new X509Certificate[]{certificates.get(entry.getKey())});
+            }
+            for (String alias : expiredKeyIds) {
+                if (nextKeyStore.containsAlias(alias)) {
+                    nextKeyStore.deleteEntry(alias);
+                }
+            }
+            storeKeyStore(nextKeyStore);
+
+            for (Map.Entry<String, KeyPair> entry : keyPairs.entrySet()) {
+                privateKeys.put(entry.getKey(), entry.getValue().getPrivate());
+                publicKeys.put(entry.getKey(), entry.getValue().getPublic());
+            }
+
+            keyStore = nextKeyStore;
+
+            for (String alias : expiredKeyIds) {
+                privateKeys.remove(alias);
+                publicKeys.remove(alias);
+            }
+        }
+
+        return keys;
+    }
 
+    /**
+     * Re-reads the key store file (e.g. after it was rotated by another node) and publishes it with a single
+     * reference swap. Decoded keys of entries which are still present are kept.
+     */
+    public synchronized void reloadKeyStore() throws Exception {
+        KeyStore nextKeyStore = loadKeyStore();
+        keyStore = nextKeyStore;
+
+        for (String alias : privateKeys.keySet()) {
+            if (!nextKeyStore.containsAlias(alias)) {
+                privateKeys.remove(alias);
+            }
+        }
+        for (String alias : publicKeys.keySet()) {
+            if (!nextKeyStore.containsAlias(alias)) {
+                publicKeys.remove(alias);
+            }
+        }
+    }
+
+    private JSONObject toJSONObject(String alias, SignatureAlgorithm signatureAlgorithm, Long expirationTime,
+                                    PublicKey publicKey, X509Certificate cert) throws Exception {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put(KEY_TYPE, signatureAlgorithm.getFamily());
         jsonObject.put(KEY_ID, alias);
@@ -158,16 +247,13 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
         if (signatureAlgorithm == SignatureAlgorithm.NONE) {
             return "";
         } else if (SignatureAlgorithmFamily.HMAC.equals(signatureAlgorithm.getFamily())) {
-            SecretKey secretKey = new SecretKeySpec(sharedSecret.getBytes(Util.UTF8_STRING_ENCODING), signatureAlgorithm.getAlgorithm());
-            Mac mac = Mac.getInstance(signatureAlgorithm.getAlgorithm());
-            mac.init(secretKey);
+            Mac mac = CryptoEngines.getMac(signatureAlgorithm.getAlgorithm(), sharedSecret.getBytes(Util.UTF8_STRING_ENCODING));
             byte[] sig = mac.doFinal(signingInput.getBytes());
             return Base64Util.base64urlencode(sig);
         } else { // EC or RSA
             PrivateKey privateKey = getPrivateKey(alias);
 
-            Signature signature = Signature.getInstance(signatureAlgorithm.getAlgorithm(), "BC");
-            //Signature signature = Signature.getInstance(signatureAlgorithm.getAlgorithm());
+            Signature signature = CryptoEngines.getSignature(signatureAlgorithm.getAlgorithm());
             signature.initSign(privateKey);
             signature.update(signingInput.getBytes());
 
@@ -183,7 +269,8 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
             return Util.isNullOrEmpty(encodedSignature);
         } else if (SignatureAlgorithmFamily.HMAC.equals(signatureAlgorithm.getFamily())) {
             String expectedSignature = sign(signingInput, null, sharedSecret, signatureAlgorithm);
-            return expectedSignature.equals(encodedSignature);
+            return encodedSignature != null && MessageDigest.isEqual(expectedSignature.getBytes(Util.UTF8_STRING_ENCODING),
+                    encodedSignature.getBytes(Util.UTF8_STRING_ENCODING)); // constant time, doesn't leak matching prefix
         } else { // EC or RSA
             PublicKey publicKey = null;
 
@@ -199,8 +286,7 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
 
                 byte[] signature = Base64Util.base64urldecode(encodedSignature);
 
-                Signature verifier = Signature.getInstance(signatureAlgorithm.getAlgorithm(), "BC");
-                //Signature verifier = Signature.getInstance(signatureAlgorithm.getAlgorithm());
+                Signature verifier = CryptoEngines.getSignature(signatureAlgorithm.getAlgorithm());
                 verifier.initVerify(publicKey);
                 verifier.update(signingInput.getBytes());
                 verified = verifier.verify(signature);
@@ -233,12 +319,50 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
 
     @Override
     public boolean deleteKey(String alias) throws Exception {
-        keyStore.deleteEntry(alias);
-        FileOutputStream stream = new FileOutputStream(keyStoreFile);
-        keyStore.store(stream, keyStoreSecret.toCharArray());
+        rotateKeys(Collections.<SignatureAlgorithm>emptyList(), null, Collections.singletonList(alias));
         return true;
     }
 
+    private KeyStore loadKeyStore() throws Exception {
+        KeyStore loaded = KeyStore.getInstance("JKS");
+        final InputStream is = new FileInputStream(keyStoreFile);
+        try {
+            loaded.load(is, keyStoreSecret.toCharArray());
+        } finally {
+            is.close();
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Writes the key store to a temporary file in the same directory and renames it over the key store file.
+     */
+    private void storeKeyStore(KeyStore keyStoreToStore) throws Exception {
+        File file = new File(keyStoreFile).getAbsoluteFile();
+        File tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            FileOutputStream stream = new FileOutputStream(tempFile);
+            try {
+                keyStoreToStore.store(stream, keyStoreSecret.toCharArray());
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                // rename doesn't replace existing file on some platforms (Windows)
+                if (!file.delete() || !tempFile.renameTo(file)) {
+                    throw new IOException("Failed to replace key store file " + file);
+                }
+            }
+        } finally {
+            if (tempFile.exists()) {
+                tempFile.delete();
+            }
+        }
+    }
+
     public PublicKey getPublicKey(String alias) {
         PublicKey publicKey = null;
 
@@ -247,11 +371,17 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
                 return null;
             }
 
+            publicKey = publicKeys.get(alias);
+            if (publicKey != null) {
+                return publicKey;
+            }
+
             java.security.cert.Certificate certificate = keyStore.getCertificate(alias);
             if (certificate == null) {
                 return null;
             }
             publicKey = certificate.getPublicKey();
+            publicKeys.put(alias, publicKey);
         } catch (KeyStoreException e) {
             e.printStackTrace();
         }
@@ -265,11 +395,17 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
             return null;
         }
 
+        PrivateKey privateKey = privateKeys.get(alias);
+        if (privateKey != null) {
+            return privateKey;
+        }
+
         Key key = keyStore.getKey(alias, keyStoreSecret.toCharArray());
         if (key == null) {
             return null;
         }
-        PrivateKey privateKey = (PrivateKey) key;
+        privateKey = (PrivateKey) key;
+        privateKeys.put(alias, privateKey);
 
         return privateKey;
     }
@@ -285,7 +421,7 @@ public class OxAuthCryptoProvider extends AbstractCryptoProvider {
         X500Name subjectName = new X500Name(issuer);
 
         // Serial
-        BigInteger serial = new BigInteger(256, new SecureRandom());
+        BigInteger serial = new BigInteger(256, RANDOM);
 
         // Not before
         Date notBefore = new Date(System.currentTimeMillis() - 10000);
@@ -7,15 +7,63 @@
 package org.xdi.oxauth.model.crypto;
 
 import org.apache.commons.httpclient.HttpStatus;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.codehaus.jettison.json.JSONArray;
 import org.codehaus.jettison.json.JSONObject;
 import org.gluu.oxeleven.client.*;
 import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithmFamily;
+import org.xdi.oxauth.model.util.Base64Util;
+import org.xdi.oxauth.model.util.Util;
+
+import javax.crypto.Mac;
+import java.io.Closeable;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.xdi.oxauth.model.jwk.JWKParameter.JSON_WEB_KEY_SET;
+import static org.xdi.oxauth.model.jwk.JWKParameter.KEY_ID;
 
 /**
+ * Crypto provider backed by oxEleven (PKCS#11).
+ * <p>
+ * Only operations which need the private key go to oxEleven: RS/ES signing goes through a pooled keep-alive
+ * HTTP client, HMAC signing and verification are done locally with the shared secret, and RS/ES signatures
+ * are verified locally with the public key from the given JWKS or with the public key returned by oxEleven
+ * when the key was generated. The verify endpoint is called only when the public key is not known.
+ * <p>
+ * The provider is meant to be long-lived (see {@link CryptoProviderFactory}), {@link #close()} releases
+ * the pooled connections.
+ *
  * @author Javier Rojas Blum
  * @version April 25, 2017
  */
-public class OxElevenCryptoProvider extends AbstractCryptoProvider {
+public class OxElevenCryptoProvider extends AbstractCryptoProvider implements Closeable {
+
+    private static final Logger LOG = Logger.getLogger(OxElevenCryptoProvider.class);
+
+    public static final int DEFAULT_REQUEST_TIMEOUT = 5000;
+    public static final int DEFAULT_MAX_CONNECTIONS = 50;
+
+    private static final String SIGNING_INPUT = "signingInput";
+    private static final String ALIAS = "alias";
+    private static final String SHARED_SECRET = "sharedSecret";
+    private static final String SIGNATURE_ALGORITHM = "signatureAlgorithm";
+    private static final String SIGNATURE = "sig";
 
     private String generateKeyEndpoint;
     private String signEndpoint;
@@ -23,13 +71,36 @@ public class OxElevenCryptoProvider extends AbstractCryptoProvider {
     private String deleteKeyEndpoint;
     private String accessToken;
 
+    private final CloseableHttpClient httpClient;
+    private final ConcurrentMap<String, PublicKey> publicKeys = new ConcurrentHashMap<String, PublicKey>();
+
     public OxElevenCryptoProvider(String generateKeyEndpoint, String signEndpoint, String verifySignatureEndpoint,
                                   String deleteKeyEndpoint, String accessToken) {
+        this(generateKeyEndpoint, signEndpoint, verifySignatureEndpoint, deleteKeyEndpoint, accessToken,
+                DEFAULT_REQUEST_TIMEOUT, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param requestTimeout connect, read and connection pool wait timeout in milliseconds
+     * @param maxConnections maximum number of pooled connections (all requests go to the same route)
+     */
+    public OxElevenCryptoProvider(String generateKeyEndpoint, String signEndpoint, String verifySignatureEndpoint,
+                                  String deleteKeyEndpoint, String accessToken, int requestTimeout, int maxConnections) {
         this.generateKeyEndpoint = generateKeyEndpoint;
         this.signEndpoint = signEndpoint;
         this.verifySignatureEndpoint = verifySignatureEndpoint;
         this.deleteKeyEndpoint = deleteKeyEndpoint;
         this.accessToken = accessToken;
+
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(requestTimeout)
+                .setConnectionRequestTimeout(requestTimeout).setSocketTimeout(requestTimeout).build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig).build();
     }
 
     @Override
@@ -44,7 +115,10 @@ public class OxElevenCryptoProvider extends AbstractCryptoProvider {
 
         GenerateKeyResponse response = client.exec();
         if (response.getStatus() == HttpStatus.SC_OK && response.getKeyId() != null) {
-            return response.getJSONEntity();
+            JSONObject jwk = response.getJSONEntity();
+            addPublicKey(jwk);
+
+            return jwk;
         } else {
             throw new Exception(response.getEntity());
         }
@@ -52,26 +126,93 @@ public class OxElevenCryptoProvider extends AbstractCryptoProvider {
 
     @Override
     public String sign(String signingInput, String keyId, String shardSecret, SignatureAlgorithm signatureAlgorithm) throws Exception {
-        SignRequest request = new SignRequest();
-        request.getSignRequestParam().setSigningInput(signingInput);
-        request.getSignRequestParam().setAlias(keyId);
-        request.getSignRequestParam().setSharedSecret(shardSecret);
-        request.getSignRequestParam().setSignatureAlgorithm(signatureAlgorithm.getName());
+        if (signatureAlgorithm == SignatureAlgorithm.NONE) {
+            return "";
+        } else if (SignatureAlgorithmFamily.HMAC.equals(signatureAlgorithm.getFamily())) {
+            Mac mac = CryptoEngines.getMac(signatureAlgorithm.getAlgorithm(), shardSecret.getBytes(Util.UTF8_STRING_ENCODING));
+            return Base64Util.base64urlencode(mac.doFinal(signingInput.getBytes()));
+        }
+
+        JSONObject requestParam = new JSONObject();
+        requestParam.put(SIGNING_INPUT, signingInput);
+        requestParam.put(ALIAS, keyId);
+        requestParam.put(SIGNATURE_ALGORITHM, signatureAlgorithm.getName());
+        if (shardSecret != null) {
+            requestParam.put(SHARED_SECRET, shardSecret);
+        }
+
+        HttpPost httpPost = new HttpPost(signEndpoint);
+        httpPost.setHeader(HttpHeaders.AUTHORIZATION, "Bearer " + accessToken);
+        httpPost.setEntity(new StringEntity(requestParam.toString(), ContentType.APPLICATION_JSON));
+
+        CloseableHttpResponse response = httpClient.execute(httpPost);
+        try {
+            // Entity has to be consumed in any case, otherwise the connection is not returned to the pool
+            String entity = response.getEntity() != null ? EntityUtils.toString(response.getEntity(), Util.UTF8_STRING_ENCODING) : null;
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_OK && entity != null) {
+                String signature = new JSONObject(entity).optString(SIGNATURE, null);
+                if (signature != null) {
+                    return signature;
+                }
+            }
+
+            throw new Exception(entity);
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public boolean verifySignature(String signingInput, String encodedSignature, String keyId, JSONObject jwks, String sharedSecret, SignatureAlgorithm signatureAlgorithm) throws Exception {
+        if (signatureAlgorithm == SignatureAlgorithm.NONE) {
+            return Util.isNullOrEmpty(encodedSignature);
+        } else if (SignatureAlgorithmFamily.HMAC.equals(signatureAlgorithm.getFamily())) {
+            String expectedSignature = sign(signingInput, null, sharedSecret, signatureAlgorithm);
+            return encodedSignature != null && MessageDigest.isEqual(expectedSignature.getBytes(Util.UTF8_STRING_ENCODING),
+                    encodedSignature.getBytes(Util.UTF8_STRING_ENCODING)); // constant time, doesn't leak matching prefix
+        }
+
+        PublicKey publicKey = jwks != null ? getPublicKey(keyId, jwks) : publicKeys.get(keyId);
+        if (publicKey != null) {
+            try {
+                Signature verifier = CryptoEngines.getSignature(signatureAlgorithm.getAlgorithm());
+                verifier.initVerify(publicKey);
+                verifier.update(signingInput.getBytes());
+                return verifier.verify(Base64Util.base64urldecode(encodedSignature));
+            } catch (Exception e) {
+                LOG.error(e.getMessage(), e);
+                return false;
+            }
+        }
+
+        return verifySignatureRemotely(signingInput, encodedSignature, keyId, jwks, sharedSecret, signatureAlgorithm);
+    }
+
+    @Override
+    public boolean deleteKey(String keyId) throws Exception {
+        DeleteKeyRequest request = new DeleteKeyRequest();
+        request.setAlias(keyId);
         request.setAccessToken(accessToken);
 
-        SignClient client = new SignClient(signEndpoint);
+        DeleteKeyClient client = new DeleteKeyClient(deleteKeyEndpoint);
         client.setRequest(request);
 
-        SignResponse response = client.exec();
-        if (response.getStatus() == HttpStatus.SC_OK && response.getSignature() != null) {
-            return response.getSignature();
+        DeleteKeyResponse response = client.exec();
+        if (response.getStatus() == org.apache.http.HttpStatus.SC_OK) {
+            publicKeys.remove(keyId);
+            return response.isDeleted();
         } else {
             throw new Exception(response.getEntity());
         }
     }
 
     @Override
-    public boolean verifySignature(String signingInput, String encodedSignature, String keyId, JSONObject jwks, String sharedSecret, SignatureAlgorithm signatureAlgorithm) throws Exception {
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    private boolean verifySignatureRemotely(String signingInput, String encodedSignature, String keyId, JSONObject jwks, String sharedSecret, SignatureAlgorithm signatureAlgorithm) throws Exception {
         VerifySignatureRequest request = new VerifySignatureRequest();
         request.getVerifySignatureRequestParam().setSigningInput(signingInput);
         request.getVerifySignatureRequestParam().setSignature(encodedSignature);
@@ -94,20 +235,22 @@ public class OxElevenCryptoProvider extends AbstractCryptoProvider {
         }
     }
 
-    @Override
-    public boolean deleteKey(String keyId) throws Exception {
-        DeleteKeyRequest request = new DeleteKeyRequest();
-        request.setAlias(keyId);
-        request.setAccessToken(accessToken);
+    /**
+     * Remembers public key of the generated key, so signatures made with it are verified locally.
+     */
+    private void addPublicKey(JSONObject jwk) {
+        try {
+            String keyId = jwk.getString(KEY_ID);
 
-        DeleteKeyClient client = new DeleteKeyClient(deleteKeyEndpoint);
-        client.setRequest(request);
+            JSONObject jwks = new JSONObject();
+            jwks.put(JSON_WEB_KEY_SET, new JSONArray().put(jwk));
 
-        DeleteKeyResponse response = client.exec();
-        if (response.getStatus() == org.apache.http.HttpStatus.SC_OK) {
-            return response.isDeleted();
-        } else {
-            throw new Exception(response.getEntity());
+            PublicKey publicKey = getPublicKey(keyId, jwks);
+            if (publicKey != null) {
+                publicKeys.put(keyId, publicKey);
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to read public key of the generated key, its signatures will be verified by oxEleven", e);
         }
     }
 }
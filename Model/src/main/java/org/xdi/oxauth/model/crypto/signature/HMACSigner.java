@@ -15,6 +15,7 @@ import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.UnsupportedEncodingException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /**
@@ -69,6 +70,6 @@ public class HMACSigner extends AbstractSigner {
         }
 
         String expectedSignature = sign(signingInput);
-        return expectedSignature.equals(signature);
+        return MessageDigest.isEqual(expectedSignature.getBytes(Util.UTF8_STRING_ENCODING), signature.getBytes(Util.UTF8_STRING_ENCODING));
     }
 }
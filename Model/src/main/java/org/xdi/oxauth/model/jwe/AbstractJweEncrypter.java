@@ -23,6 +23,9 @@ import java.security.SecureRandom;
  */
 public abstract class AbstractJweEncrypter implements JweEncrypter {
 
+    // SecureRandom is thread safe, seeding a new instance per token is expensive
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     private KeyEncryptionAlgorithm keyEncryptionAlgorithm;
     private BlockEncryptionAlgorithm blockEncryptionAlgorithm;
 
@@ -45,14 +48,13 @@ public abstract class AbstractJweEncrypter implements JweEncrypter {
             jwe.setEncodedHeader(jwe.getHeader().toBase64JsonObject());
 
             byte[] contentMasterKey = new byte[blockEncryptionAlgorithm.getCmkLength() / 8];
-            SecureRandom random = new SecureRandom();
-            random.nextBytes(contentMasterKey);
+            RANDOM.nextBytes(contentMasterKey);
 
             String encodedEncryptedKey = generateEncryptedKey(contentMasterKey);
             jwe.setEncodedEncryptedKey(encodedEncryptedKey);
 
             byte[] initializationVector = new byte[blockEncryptionAlgorithm.getInitVectorLength() / 8];
-            random.nextBytes(initializationVector);
+            RANDOM.nextBytes(initializationVector);
             String encodedInitializationVector = Base64Util.base64urlencode(initializationVector);
             jwe.setEncodedInitializationVector(encodedInitializationVector);
 
@@ -14,6 +14,7 @@ import org.bouncycastle.crypto.engines.AESWrapEngine;
 import org.bouncycastle.crypto.modes.GCMBlockCipher;
 import org.bouncycastle.crypto.params.AEADParameters;
 import org.bouncycastle.crypto.params.KeyParameter;
+import org.xdi.oxauth.model.crypto.CryptoEngines;
 import org.xdi.oxauth.model.crypto.encryption.BlockEncryptionAlgorithm;
 import org.xdi.oxauth.model.crypto.encryption.KeyEncryptionAlgorithm;
 import org.xdi.oxauth.model.exception.InvalidJweException;
@@ -42,7 +43,7 @@ public class JweEncrypterImpl extends AbstractJweEncrypter {
     public JweEncrypterImpl(KeyEncryptionAlgorithm keyEncryptionAlgorithm, BlockEncryptionAlgorithm blockEncryptionAlgorithm, byte[] sharedSymmetricKey) {
         super(keyEncryptionAlgorithm, blockEncryptionAlgorithm);
         if (sharedSymmetricKey != null) {
-            this.sharedSymmetricKey = sharedSymmetricKey.clone();
+            this.sharedSymmetricKey = deriveKeyEncryptionKey(sharedSymmetricKey);
         }
     }
 
@@ -64,8 +65,7 @@ public class JweEncrypterImpl extends AbstractJweEncrypter {
             if (getKeyEncryptionAlgorithm() == KeyEncryptionAlgorithm.RSA_OAEP
                     || getKeyEncryptionAlgorithm() == KeyEncryptionAlgorithm.RSA1_5) {
                 if (publicKey != null) {
-                    Cipher cipher = Cipher.getInstance(getKeyEncryptionAlgorithm().getAlgorithm(), "BC");
-                    //Cipher cipher = Cipher.getInstance(getKeyEncryptionAlgorithm().getAlgorithm());
+                    Cipher cipher = CryptoEngines.getCipher(getKeyEncryptionAlgorithm().getAlgorithm());
 
                     cipher.init(Cipher.ENCRYPT_MODE, publicKey);
                     byte[] encryptedKey = cipher.doFinal(contentMasterKey);
@@ -81,11 +81,6 @@ public class JweEncrypterImpl extends AbstractJweEncrypter {
                 if (sharedSymmetricKey == null) {
                     throw new InvalidJweException("The shared symmetric key is null");
                 }
-                if (sharedSymmetricKey.length != 16) { // 128 bit
-                    MessageDigest sha = MessageDigest.getInstance("SHA-1");
-                    sharedSymmetricKey = sha.digest(sharedSymmetricKey);
-                    sharedSymmetricKey = Arrays.copyOf(sharedSymmetricKey, 16);
-                }
 
                 SecretKeySpec keyEncryptionKey = new SecretKeySpec(sharedSymmetricKey, "AES");
                 AESWrapEngine aesWrapEngine = new AESWrapEngine();
@@ -165,8 +160,7 @@ public class JweEncrypterImpl extends AbstractJweEncrypter {
                     || getBlockEncryptionAlgorithm() == BlockEncryptionAlgorithm.A256CBC_PLUS_HS512) {
                 byte[] cek = KeyDerivationFunction.generateCek(contentMasterKey, getBlockEncryptionAlgorithm());
                 IvParameterSpec parameters = new IvParameterSpec(initializationVector);
-                Cipher cipher = Cipher.getInstance(getBlockEncryptionAlgorithm().getAlgorithm(), "BC");
-                //Cipher cipher = Cipher.getInstance(getBlockEncryptionAlgorithm().getAlgorithm());
+                Cipher cipher = CryptoEngines.getCipher(getBlockEncryptionAlgorithm().getAlgorithm());
                 SecretKeySpec secretKeySpec = new SecretKeySpec(cek, "AES");
                 cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, parameters);
                 byte[] cipherText = cipher.doFinal(plainText);
@@ -177,9 +171,7 @@ public class JweEncrypterImpl extends AbstractJweEncrypter {
                         + "." + encodedCipherText;
 
                 byte[] cik = KeyDerivationFunction.generateCik(contentMasterKey, getBlockEncryptionAlgorithm());
-                SecretKey secretKey = new SecretKeySpec(cik, getBlockEncryptionAlgorithm().getIntegrityValueAlgorithm());
-                Mac mac = Mac.getInstance(getBlockEncryptionAlgorithm().getIntegrityValueAlgorithm());
-                mac.init(secretKey);
+                Mac mac = CryptoEngines.getMac(getBlockEncryptionAlgorithm().getIntegrityValueAlgorithm(), cik);
                 byte[] integrityValue = mac.doFinal(securedInputValue.getBytes(Util.UTF8_STRING_ENCODING));
 
                 String encodedIntegrityValue = Base64Util.base64urlencode(integrityValue);
@@ -210,4 +202,20 @@ public class JweEncrypterImpl extends AbstractJweEncrypter {
             throw new InvalidJweException(e);
         }
     }
+
+    /**
+     * Key wrapping uses 128 bit key, longer shared secret (client secret) is reduced once per encrypter instead of per token.
+     */
+    private static byte[] deriveKeyEncryptionKey(byte[] sharedSymmetricKey) {
+        if (sharedSymmetricKey.length == 16) { // 128 bit
+            return sharedSymmetricKey.clone();
+        }
+
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-1");
+            return Arrays.copyOf(sha.digest(sharedSymmetricKey), 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // SHA-1 must be supported by every JRE
+        }
+    }
 }
\ No newline at end of file
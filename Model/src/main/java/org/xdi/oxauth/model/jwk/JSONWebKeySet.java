@@ -13,9 +13,15 @@ import org.codehaus.jettison.json.JSONObject;
 import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
 import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithmFamily;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
 
 import static org.xdi.oxauth.model.jwk.JWKParameter.JSON_WEB_KEY_SET;
 
@@ -27,28 +33,54 @@ public class JSONWebKeySet {
 
     private static final Logger LOG = Logger.getLogger(JSONWebKeySet.class);
 
-    private List<JSONWebKey> keys;
+    private KeyList keys;
+
+    private volatile KeyIndex keyIndex;
 
     public JSONWebKeySet() {
-        keys = new ArrayList<JSONWebKey>();
+        keys = new KeyList(Collections.<JSONWebKey>emptyList());
     }
 
     public List<JSONWebKey> getKeys() {
         return keys;
     }
 
+    /**
+     * Sets copy of the given keys, later changes of the given list are not reflected by the key set.
+     */
     public void setKeys(List<JSONWebKey> keys) {
-        this.keys = keys;
+        this.keys = new KeyList(keys != null ? keys : Collections.<JSONWebKey>emptyList());
+        this.keyIndex = null;
     }
 
     public JSONWebKey getKey(String keyId) {
-        for (JSONWebKey jsonWebKey : keys) {
-            if (jsonWebKey.getKid().equals(keyId)) {
-                return jsonWebKey;
-            }
+        return keyIndex().getKey(keyId);
+    }
+
+    /**
+     * Returns first key with the given algorithm.
+     */
+    public JSONWebKey getKey(SignatureAlgorithm algorithm) {
+        return keyIndex().getKey(algorithm);
+    }
+
+    /**
+     * Builds lookup index by kid and algorithm. The index is rebuilt automatically after any change of the keys
+     * list, but it's cheaper to call it once keys are loaded. Changes of kid/alg of a key already in the list are
+     * not tracked, call this method after them.
+     */
+    public void buildIndex() {
+        keyIndex = new KeyIndex(keys);
+    }
+
+    private KeyIndex keyIndex() {
+        KeyIndex index = keyIndex;
+        if (index == null || !index.isBuiltFrom(keys)) {
+            index = new KeyIndex(keys);
+            keyIndex = index;
         }
 
-        return null;
+        return index;
     }
 
     @Deprecated
@@ -108,7 +140,102 @@ public class JSONWebKeySet {
             JSONWebKey jwk = JSONWebKey.fromJSONObject(jwkJsonObject);
             jwks.getKeys().add(jwk);
         }
+        jwks.buildIndex();
 
         return jwks;
     }
-}
\ No newline at end of file
+
+    /**
+     * Immutable snapshot of keys by kid and by algorithm. The first key wins if there are duplicates,
+     * same as with linear scan of the keys list.
+     */
+    private static class KeyIndex {
+
+        private final KeyList source;
+        private final int version;
+        private final Map<String, JSONWebKey> byKeyId;
+        private final Map<SignatureAlgorithm, JSONWebKey> byAlgorithm;
+
+        public KeyIndex(KeyList keys) {
+            this.source = keys;
+            this.version = keys.version();
+
+            Map<String, JSONWebKey> byKeyId = new HashMap<String, JSONWebKey>();
+            Map<SignatureAlgorithm, JSONWebKey> byAlgorithm = new EnumMap<SignatureAlgorithm, JSONWebKey>(SignatureAlgorithm.class);
+            for (JSONWebKey key : keys) {
+                if (key.getKid() != null && !byKeyId.containsKey(key.getKid())) {
+                    byKeyId.put(key.getKid(), key);
+                }
+                if (key.getAlg() != null && !byAlgorithm.containsKey(key.getAlg())) {
+                    byAlgorithm.put(key.getAlg(), key);
+                }
+            }
+
+            this.byKeyId = byKeyId;
+            this.byAlgorithm = byAlgorithm;
+        }
+
+        public boolean isBuiltFrom(KeyList keys) {
+            return source == keys && version == keys.version();
+        }
+
+        public JSONWebKey getKey(String keyId) {
+            return keyId != null ? byKeyId.get(keyId) : null;
+        }
+
+        public JSONWebKey getKey(SignatureAlgorithm algorithm) {
+            return algorithm != null ? byAlgorithm.get(algorithm) : null;
+        }
+    }
+
+    /**
+     * Keys list which counts all its changes, including {@link #set(int, JSONWebKey)} which isn't a structural
+     * modification. Bulk operations, iterators and sub lists of {@link AbstractList} go through set/add/remove,
+     * so they are counted too.
+     */
+    private static class KeyList extends AbstractList<JSONWebKey> implements RandomAccess {
+
+        private final List<JSONWebKey> keys;
+        private int version;
+
+        public KeyList(Collection<JSONWebKey> keys) {
+            this.keys = new ArrayList<JSONWebKey>(keys);
+        }
+
+        public int version() {
+            return version;
+        }
+
+        @Override
+        public JSONWebKey get(int index) {
+            return keys.get(index);
+        }
+
+        @Override
+        public int size() {
+            return keys.size();
+        }
+
+        @Override
+        public JSONWebKey set(int index, JSONWebKey key) {
+            JSONWebKey previous = keys.set(index, key);
+            version++;
+            return previous;
+        }
+
+        @Override
+        public void add(int index, JSONWebKey key) {
+            keys.add(index, key);
+            modCount++;
+            version++;
+        }
+
+        @Override
+        public JSONWebKey remove(int index) {
+            JSONWebKey removed = keys.remove(index);
+            modCount++;
+            version++;
+            return removed;
+        }
+    }
+}
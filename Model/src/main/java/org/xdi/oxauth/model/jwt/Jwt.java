@@ -27,6 +27,11 @@ public class Jwt extends JsonWebResponse {
     private String encodedClaims;
     private String encodedSignature;
 
+    /**
+     * Original signing input (header.claims) of the parsed JWT, signature is verified against it as is.
+     */
+    private String signingInput;
+
     private boolean loaded = false;
 
     public Jwt() {
@@ -45,7 +50,7 @@ public class Jwt extends JsonWebResponse {
 
     public String getSigningInput() throws InvalidJwtException {
         if (loaded) {
-            return encodedHeader + "." + encodedClaims;
+            return signingInput;
         } else {
             return header.toBase64JsonObject() + "." + claims.toBase64JsonObject();
         }
@@ -56,20 +61,27 @@ public class Jwt extends JsonWebResponse {
             return null;
         }
 
-        String encodedHeader = null;
-        String encodedClaims = null;
-        String encodedSignature = null;
+        // Segments are located by index to avoid regex split and copies of the whole token
+        int firstDot = encodedJwt.indexOf('.');
+        int secondDot = firstDot != -1 ? encodedJwt.indexOf('.', firstDot + 1) : -1;
+        if (firstDot <= 0 || (secondDot != -1 && encodedJwt.indexOf('.', secondDot + 1) != -1)) {
+            throw new InvalidJwtException("Invalid JWT format.");
+        }
 
-        String[] jwtParts = encodedJwt.split("\\.");
-        if (jwtParts.length == 2) { // Signature Algorithm NONE
-            encodedHeader = jwtParts[0];
-            encodedClaims = jwtParts[1];
+        String encodedHeader = encodedJwt.substring(0, firstDot);
+        String encodedClaims;
+        String encodedSignature;
+        String signingInput;
+        if (secondDot == -1) { // Signature Algorithm NONE
+            encodedClaims = encodedJwt.substring(firstDot + 1);
             encodedSignature = "";
-        } else if (jwtParts.length == 3) {
-            encodedHeader = jwtParts[0];
-            encodedClaims = jwtParts[1];
-            encodedSignature = jwtParts[2];
+            signingInput = encodedJwt;
         } else {
+            encodedClaims = encodedJwt.substring(firstDot + 1, secondDot);
+            encodedSignature = encodedJwt.substring(secondDot + 1);
+            signingInput = encodedJwt.substring(0, secondDot);
+        }
+        if (encodedClaims.length() == 0) {
             throw new InvalidJwtException("Invalid JWT format.");
         }
 
@@ -79,6 +91,7 @@ public class Jwt extends JsonWebResponse {
         jwt.setEncodedSignature(encodedSignature);
         jwt.encodedHeader = encodedHeader;
         jwt.encodedClaims = encodedClaims;
+        jwt.signingInput = signingInput;
         jwt.loaded = true;
 
         return jwt;
@@ -98,4 +111,4 @@ public class Jwt extends JsonWebResponse {
 
         return "";
     }
-}
\ No newline at end of file
+}
@@ -95,6 +95,10 @@ public final class JwtClaimName {
     public static final String AUTHENTICATION_TIME = "auth_time";
     public static final String ACCESS_TOKEN_HASH = "at_hash";
     public static final String CODE_HASH = "c_hash";
+    /**
+     * Session ID, identifies the session of the End-User at the OP (OpenID Connect Back-Channel Logout).
+     */
+    public static final String SESSION_ID = "sid";
 
     // User Info
     /**
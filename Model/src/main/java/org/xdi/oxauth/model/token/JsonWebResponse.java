@@ -48,7 +48,7 @@ public class JsonWebResponse implements Serializable {
 
 	public String asString() {
 		try {
-			return claims.toJsonString();
+			return getClaims().toJsonString();
 		} catch (InvalidJwtException ex) {
 			ex.printStackTrace();
 		}
@@ -20,16 +20,14 @@ public class Base64Util {
     private static final Logger log = Logger.getLogger(Base64Util.class);
 
     public static String base64urlencode(byte[] arg) {
-        String s = Base64.encodeBase64String(arg); // Standard base64 encoder
-        s = s.split("=")[0]; // Remove any trailing '='s
-        s = s.replace('+', '-'); // 62nd char of encoding
-        s = s.replace('/', '_'); // 63rd char of encoding
-        return s;
+        return Base64.encodeBase64URLSafeString(arg); // URL safe alphabet, without trailing '='s
     }
 
     public static byte[] base64urldecode(String arg) throws IllegalArgumentException {
-        String s = removePadding(arg);
-        return Base64.decodeBase64(s); // Standard base64 decoder
+        if (arg.length() % 4 == 1) {
+            throw new IllegalArgumentException("Illegal base64url string.");
+        }
+        return Base64.decodeBase64(arg); // Decoder accepts both alphabets, padding is optional
     }
 
     public static String removePadding(String base64UrlEncoded) {
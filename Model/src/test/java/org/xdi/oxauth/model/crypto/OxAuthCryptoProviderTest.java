@@ -0,0 +1,107 @@
+package org.xdi.oxauth.model.crypto;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
+import org.xdi.oxauth.model.util.SecurityProviderUtility;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.*;
+import static org.xdi.oxauth.model.jwk.JWKParameter.KEY_ID;
+
+public class OxAuthCryptoProviderTest {
+
+    private static final String SECRET = "secret";
+    private static final String DN_NAME = "CN=oxAuth CA Certificates";
+    private static final String SIGNING_INPUT = "eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiJ1c2VyIn0";
+
+    private File directory;
+    private File keyStoreFile;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        SecurityProviderUtility.installBCProvider(true);
+
+        directory = File.createTempFile("oxauth-keys", "");
+        assertTrue(directory.delete() && directory.mkdir());
+        keyStoreFile = new File(directory, "oxauth-keys.jks");
+    }
+
+    @AfterClass
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void rotateKeys() throws Exception {
+        OxAuthCryptoProvider cryptoProvider = new OxAuthCryptoProvider(keyStoreFile.getPath(), SECRET, DN_NAME);
+        long expirationTime = System.currentTimeMillis() + 3600 * 1000L;
+
+        JSONArray keys = cryptoProvider.rotateKeys(Arrays.asList(SignatureAlgorithm.RS256, SignatureAlgorithm.ES256),
+                expirationTime, Collections.<String>emptyList());
+        assertEquals(keys.length(), 2);
+        String oldKeyId = keys.getJSONObject(0).getString(KEY_ID);
+
+        String signature = cryptoProvider.sign(SIGNING_INPUT, oldKeyId, null, SignatureAlgorithm.RS256);
+        assertTrue(cryptoProvider.verifySignature(SIGNING_INPUT, signature, oldKeyId, null, null, SignatureAlgorithm.RS256));
+
+        keys = cryptoProvider.rotateKeys(Collections.singletonList(SignatureAlgorithm.RS256), expirationTime,
+                Collections.singletonList(oldKeyId));
+        String newKeyId = keys.getJSONObject(0).getString(KEY_ID);
+
+        assertFalse(cryptoProvider.getKeyAliases().contains(oldKeyId));
+        assertTrue(cryptoProvider.getKeyAliases().contains(newKeyId));
+        assertNull(cryptoProvider.getPrivateKey(oldKeyId));
+
+        // Only the key store file is left, the temporary file is renamed over it
+        assertEquals(directory.list().length, 1);
+
+        // Another instance (e.g. after reload) sees the same key set
+        OxAuthCryptoProvider reloaded = new OxAuthCryptoProvider(keyStoreFile.getPath(), SECRET, DN_NAME);
+        assertEquals(reloaded.getKeyAliases().size(), 2);
+        signature = reloaded.sign(SIGNING_INPUT, newKeyId, null, SignatureAlgorithm.RS256);
+        assertTrue(cryptoProvider.verifySignature(SIGNING_INPUT, signature, newKeyId, null, null, SignatureAlgorithm.RS256));
+    }
+
+    @Test(dependsOnMethods = "rotateKeys")
+    public void reloadKeyStore() throws Exception {
+        OxAuthCryptoProvider cryptoProvider = new OxAuthCryptoProvider(keyStoreFile.getPath(), SECRET, DN_NAME);
+        OxAuthCryptoProvider otherNode = new OxAuthCryptoProvider(keyStoreFile.getPath(), SECRET, DN_NAME);
+
+        String keyId = otherNode.generateKey(SignatureAlgorithm.ES256, System.currentTimeMillis() + 3600 * 1000L).getString(KEY_ID);
+        assertFalse(cryptoProvider.getKeyAliases().contains(keyId));
+
+        cryptoProvider.reloadKeyStore();
+        assertTrue(cryptoProvider.getKeyAliases().contains(keyId));
+        assertNotNull(cryptoProvider.getPrivateKey(keyId));
+    }
+
+    @Test(dependsOnMethods = "reloadKeyStore")
+    public void expiredKeysAreKeptIfNoKeyIsGenerated() throws Exception {
+        OxAuthCryptoProvider cryptoProvider = new OxAuthCryptoProvider(keyStoreFile.getPath(), SECRET, DN_NAME);
+        String keyId = cryptoProvider.getKeyAliases().get(0);
+
+        // HMAC keys are not kept in the key store, so rotation has no replacement for the expired key
+        try {
+            cryptoProvider.rotateKeys(Collections.singletonList(SignatureAlgorithm.HS256), System.currentTimeMillis() + 3600 * 1000L,
+                    Collections.singletonList(keyId));
+            fail("Rotation without new keys must fail");
+        } catch (Exception e) {
+            // expected
+        }
+
+        assertTrue(cryptoProvider.getKeyAliases().contains(keyId));
+        assertTrue(new OxAuthCryptoProvider(keyStoreFile.getPath(), SECRET, DN_NAME).getKeyAliases().contains(keyId));
+    }
+}
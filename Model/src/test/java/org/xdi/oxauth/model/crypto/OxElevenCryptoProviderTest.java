@@ -0,0 +1,123 @@
+package org.xdi.oxauth.model.crypto;
+
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
+import org.xdi.oxauth.model.util.Base64Util;
+import org.xdi.oxauth.model.util.SecurityProviderUtility;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.Assert.*;
+import static org.xdi.oxauth.model.jwk.JWKParameter.*;
+
+public class OxElevenCryptoProviderTest {
+
+    private static final String ACCESS_TOKEN = "test_mode_token";
+    private static final String ALIAS = "rs256-key";
+    private static final String SIGNING_INPUT = "eyJhbGciOiJSUzI1NiJ9.eyJzdWIiOiJ1c2VyIn0";
+
+    private OxElevenStubServer stubServer;
+    private OxElevenCryptoProvider cryptoProvider;
+    private JSONObject jwks;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        SecurityProviderUtility.installBCProvider(true);
+
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA", "BC");
+        keyGen.initialize(2048);
+        KeyPair keyPair = keyGen.generateKeyPair();
+
+        stubServer = new OxElevenStubServer(ACCESS_TOKEN);
+        stubServer.addKey(ALIAS, keyPair);
+        stubServer.start();
+
+        cryptoProvider = new OxElevenCryptoProvider(null, stubServer.getUrl(OxElevenStubServer.SIGN_PATH),
+                stubServer.getUrl(OxElevenStubServer.VERIFY_SIGNATURE_PATH), null, ACCESS_TOKEN, 5000, 4);
+
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        JSONObject jwk = new JSONObject();
+        jwk.put(KEY_ID, ALIAS);
+        jwk.put(ALGORITHM, SignatureAlgorithm.RS256.getName());
+        jwk.put(MODULUS, Base64Util.base64urlencode(publicKey.getModulus().toByteArray()));
+        jwk.put(EXPONENT, Base64Util.base64urlencode(publicKey.getPublicExponent().toByteArray()));
+
+        jwks = new JSONObject();
+        jwks.put(JSON_WEB_KEY_SET, new JSONArray().put(jwk));
+    }
+
+    @AfterClass
+    public void tearDown() throws Exception {
+        cryptoProvider.close();
+        stubServer.stop();
+    }
+
+    @Test
+    public void signRemotelyAndVerifyLocally() throws Exception {
+        int verifyRequests = stubServer.getVerifySignatureRequests();
+
+        String signature = cryptoProvider.sign(SIGNING_INPUT, ALIAS, null, SignatureAlgorithm.RS256);
+        assertNotNull(signature);
+
+        assertTrue(cryptoProvider.verifySignature(SIGNING_INPUT, signature, ALIAS, jwks, null, SignatureAlgorithm.RS256));
+        assertFalse(cryptoProvider.verifySignature(SIGNING_INPUT + "x", signature, ALIAS, jwks, null, SignatureAlgorithm.RS256));
+        assertEquals(stubServer.getVerifySignatureRequests(), verifyRequests);
+    }
+
+    @Test
+    public void hmacDoesNotCallOxEleven() throws Exception {
+        int signRequests = stubServer.getSignRequests();
+
+        String signature = cryptoProvider.sign(SIGNING_INPUT, null, "secret", SignatureAlgorithm.HS256);
+        assertTrue(cryptoProvider.verifySignature(SIGNING_INPUT, signature, null, null, "secret", SignatureAlgorithm.HS256));
+        assertFalse(cryptoProvider.verifySignature(SIGNING_INPUT, signature, null, null, "other", SignatureAlgorithm.HS256));
+        assertEquals(stubServer.getSignRequests(), signRequests);
+    }
+
+    @Test(expectedExceptions = Exception.class)
+    public void signWithUnknownKeyFails() throws Exception {
+        cryptoProvider.sign(SIGNING_INPUT, "unknown", null, SignatureAlgorithm.RS256);
+    }
+
+    @Test
+    public void connectionsAreReused() throws Exception {
+        final OxElevenCryptoProvider pooledProvider = new OxElevenCryptoProvider(null,
+                stubServer.getUrl(OxElevenStubServer.SIGN_PATH), null, null, ACCESS_TOKEN, 5000, 4);
+        int connections = stubServer.getConnections();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> futures = new ArrayList<Future<String>>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return pooledProvider.sign(SIGNING_INPUT, ALIAS, null, SignatureAlgorithm.RS256);
+                    }
+                }));
+            }
+            for (Future<String> future : futures) {
+                assertNotNull(future.get());
+            }
+        } finally {
+            executor.shutdown();
+            pooledProvider.close();
+        }
+
+        // 8 concurrent callers share the pool of 4 keep-alive connections
+        int opened = stubServer.getConnections() - connections;
+        assertTrue(opened <= 4, "Connections opened: " + opened);
+    }
+}
@@ -0,0 +1,137 @@
+package org.xdi.oxauth.model.crypto;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jettison.json.JSONObject;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
+import org.xdi.oxauth.model.util.Base64Util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.Signature;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal local stand-in for oxEleven sign and verify endpoints. Signs with in-memory key pairs and counts
+ * requests and client connections, so tests can check which calls went over the network.
+ */
+public class OxElevenStubServer {
+
+    public static final String SIGN_PATH = "/oxeleven/rest/oxeleven/sign";
+    public static final String VERIFY_SIGNATURE_PATH = "/oxeleven/rest/oxeleven/verifySignature";
+
+    private final String accessToken;
+    private final Map<String, KeyPair> keys = new ConcurrentHashMap<String, KeyPair>();
+    private final AtomicInteger signRequests = new AtomicInteger();
+    private final AtomicInteger verifySignatureRequests = new AtomicInteger();
+    private final Set<InetSocketAddress> clientAddresses = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public OxElevenStubServer(String accessToken) {
+        this.accessToken = accessToken;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(SIGN_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                signRequests.incrementAndGet();
+                clientAddresses.add(exchange.getRemoteAddress());
+                sign(exchange);
+            }
+        });
+        server.createContext(VERIFY_SIGNATURE_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                verifySignatureRequests.incrementAndGet();
+                clientAddresses.add(exchange.getRemoteAddress());
+                respond(exchange, 500, "{\"error\":\"not_supported\"}");
+            }
+        });
+        executor = Executors.newFixedThreadPool(4);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    public void addKey(String alias, KeyPair keyPair) {
+        keys.put(alias, keyPair);
+    }
+
+    public String getUrl(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    public int getSignRequests() {
+        return signRequests.get();
+    }
+
+    public int getVerifySignatureRequests() {
+        return verifySignatureRequests.get();
+    }
+
+    public int getConnections() {
+        return clientAddresses.size();
+    }
+
+    private void sign(HttpExchange exchange) throws IOException {
+        if (!("Bearer " + accessToken).equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+            respond(exchange, 401, "{\"error\":\"unauthorized\"}");
+            return;
+        }
+
+        try {
+            JSONObject request = new JSONObject(IOUtils.toString(exchange.getRequestBody(), "UTF-8"));
+            KeyPair keyPair = keys.get(request.getString("alias"));
+            SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.fromString(request.getString("signatureAlgorithm"));
+            if (keyPair == null || signatureAlgorithm == null) {
+                respond(exchange, 400, "{\"error\":\"invalid_request\"}");
+                return;
+            }
+
+            Signature signature = Signature.getInstance(signatureAlgorithm.getAlgorithm(), "BC");
+            signature.initSign(keyPair.getPrivate());
+            signature.update(request.getString("signingInput").getBytes());
+
+            JSONObject response = new JSONObject();
+            response.put("sig", Base64Util.base64urlencode(signature.sign()));
+            respond(exchange, 200, response.toString());
+        } catch (Exception e) {
+            respond(exchange, 500, "{\"error\":\"" + e.getMessage() + "\"}");
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream os = exchange.getResponseBody();
+        try {
+            os.write(bytes);
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.xdi.oxauth.model.jwt;
+
+import org.testng.annotations.Test;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
+import org.xdi.oxauth.model.exception.InvalidJwtException;
+import org.xdi.oxauth.model.util.Base64Util;
+
+import java.util.Arrays;
+
+import static org.testng.Assert.*;
+
+public class JwtTest {
+
+    @Test
+    public void parseKeepsOriginalSigningInput() throws InvalidJwtException {
+        Jwt jwt = new Jwt();
+        jwt.getHeader().setType(JwtType.JWT);
+        jwt.getHeader().setAlgorithm(SignatureAlgorithm.HS256);
+        jwt.getClaims().setIssuer("https://op.example.com");
+        jwt.getClaims().setSubjectIdentifier("user");
+        jwt.setEncodedSignature("c2lnbmF0dXJl");
+
+        String encodedJwt = jwt.toString();
+        Jwt parsed = Jwt.parse(encodedJwt);
+
+        assertEquals(parsed.getSigningInput(), encodedJwt.substring(0, encodedJwt.lastIndexOf('.')));
+        assertEquals(parsed.getEncodedSignature(), "c2lnbmF0dXJl");
+        assertEquals(parsed.getHeader().getAlgorithm(), SignatureAlgorithm.HS256);
+        assertEquals(parsed.getClaims().getClaimAsString(JwtClaimName.ISSUER), "https://op.example.com");
+        assertEquals(parsed.toString(), encodedJwt);
+    }
+
+    @Test
+    public void parseUnsigned() throws InvalidJwtException {
+        Jwt jwt = new Jwt();
+        jwt.getHeader().setAlgorithm(SignatureAlgorithm.NONE);
+        jwt.getClaims().setSubjectIdentifier("user");
+
+        String signingInput = jwt.getSigningInput();
+
+        Jwt parsed = Jwt.parse(signingInput);
+        assertEquals(parsed.getEncodedSignature(), "");
+        assertEquals(parsed.getSigningInput(), signingInput);
+
+        parsed = Jwt.parse(signingInput + ".");
+        assertEquals(parsed.getEncodedSignature(), "");
+        assertEquals(parsed.getSigningInput(), signingInput);
+    }
+
+    @Test
+    public void parseInvalid() {
+        String header = Base64Util.base64urlencode("{\"alg\":\"none\"}".getBytes());
+        for (String invalid : Arrays.asList("abc", ".abc.def", "abc..def", "a.b.c.d",
+                header + "." + Base64Util.base64urlencode("not json".getBytes()) + ".", header + ".a.")) {
+            try {
+                Jwt.parse(invalid);
+                fail("Expected InvalidJwtException for " + invalid);
+            } catch (InvalidJwtException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void base64urlRoundTrip() {
+        for (int length = 0; length < 64; length++) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (i * 37 + length);
+            }
+
+            String encoded = Base64Util.base64urlencode(bytes);
+            assertFalse(encoded.contains("=") || encoded.contains("+") || encoded.contains("/"));
+            assertTrue(Arrays.equals(Base64Util.base64urldecode(encoded), bytes));
+        }
+    }
+}
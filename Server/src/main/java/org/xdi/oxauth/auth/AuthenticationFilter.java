@@ -18,6 +18,7 @@ import org.xdi.oxauth.model.common.SessionState;
 import org.xdi.oxauth.model.configuration.AppConfiguration;
 import org.xdi.oxauth.model.error.ErrorResponseFactory;
 import org.xdi.oxauth.model.exception.InvalidJwtException;
+import org.xdi.oxauth.model.jwt.Jwt;
 import org.xdi.oxauth.model.registration.Client;
 import org.xdi.oxauth.model.token.ClientAssertion;
 import org.xdi.oxauth.model.token.ClientAssertionType;
@@ -26,6 +27,7 @@ import org.xdi.oxauth.model.util.Util;
 import org.xdi.oxauth.service.ClientFilterService;
 import org.xdi.oxauth.service.ClientService;
 import org.xdi.oxauth.service.SessionStateService;
+import org.xdi.oxauth.service.token.JwtAccessTokenService;
 import org.xdi.oxauth.util.ServerUtil;
 import org.xdi.util.StringHelper;
 
@@ -73,6 +75,9 @@ public class AuthenticationFilter implements Filter {
 	@Inject
 	private Identity identity;
 
+	@Inject
+	private JwtAccessTokenService jwtAccessTokenService;
+
 	private String realm;
 	public static final String REALM = "oxAuth";
 
@@ -239,6 +244,16 @@ public class AuthenticationFilter implements Filter {
 		try {
 			String header = servletRequest.getHeader("Authorization");
 			if (header != null && header.startsWith("Bearer ")) {
+				// JWT access token is rejected right here if signature, expiration or revocation check fails,
+				// opaque tokens are validated by the endpoint
+				String accessToken = header.substring("Bearer ".length());
+				Jwt jwt = jwtAccessTokenService.parse(accessToken);
+				if (jwt != null && !jwtAccessTokenService.isValid(accessToken, jwt)) {
+					servletResponse.addHeader("WWW-Authenticate", "Bearer realm=\"" + getRealm() + "\", error=\"invalid_token\"");
+					servletResponse.sendError(401, "Not authorized");
+					return;
+				}
+
 				// Immutable object
 				// servletRequest.getParameterMap().put("access_token", new
 				// String[]{accessToken});
@@ -14,6 +14,8 @@ import org.xdi.oxauth.model.common.*;
 import org.xdi.oxauth.model.configuration.AppConfiguration;
 import org.xdi.oxauth.model.error.ErrorResponseFactory;
 import org.xdi.oxauth.model.uma.UmaScopeType;
+import org.xdi.oxauth.model.util.TokenHashUtil;
+import org.xdi.oxauth.service.IntrospectionCacheService;
 import org.xdi.oxauth.service.token.TokenService;
 import org.xdi.oxauth.util.ServerUtil;
 
@@ -21,7 +23,12 @@ import javax.inject.Inject;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author Yuriy Zabrovarnyy
@@ -44,6 +51,8 @@ public class IntrospectionWebService {
     private ErrorResponseFactory errorResponseFactory;
     @Inject
     private AuthorizationGrantList authorizationGrantList;
+    @Inject
+    private IntrospectionCacheService introspectionCacheService;
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
@@ -63,44 +72,59 @@ public class IntrospectionWebService {
         return introspect(p_authorization, p_token, tokenTypeHint);
     }
 
+    @POST
+    @Path("/batch")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response introspectBatch(@HeaderParam("Authorization") String p_authorization,
+                                    @FormParam("token") List<String> p_tokens
+    ) {
+        try {
+            log.trace("Introspect tokens, authorization: {}, tokens to introspect: {}", p_authorization, p_tokens);
+            if (StringUtils.isBlank(p_authorization) || p_tokens == null || p_tokens.isEmpty()
+                    || p_tokens.size() > appConfiguration.getIntrospectionBatchMaxSize() || p_tokens.contains("")) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(errorResponseFactory.getErrorAsJson(AuthorizeErrorResponseType.INVALID_REQUEST)).build();
+            }
+            if (!isPatAuthorized(p_authorization)) {
+                return Response.status(Response.Status.BAD_REQUEST).entity(errorResponseFactory.getErrorAsJson(AuthorizeErrorResponseType.ACCESS_DENIED)).build();
+            }
+
+            final String[] responses = new String[p_tokens.size()];
+            final String[] hashedTokens = new String[p_tokens.size()];
+            final Set<String> notCached = new HashSet<String>();
+            for (int i = 0; i < p_tokens.size(); i++) {
+                hashedTokens[i] = TokenHashUtil.getHashedToken(p_tokens.get(i));
+                responses[i] = introspectionCacheService.getResponse(hashedTokens[i]);
+                if (responses[i] == null) {
+                    notCached.add(p_tokens.get(i));
+                }
+            }
+
+            if (!notCached.isEmpty()) {
+                final Map<String, AuthorizationGrant> grants = authorizationGrantList.getAuthorizationGrantsByAccessTokens(notCached);
+                for (int i = 0; i < p_tokens.size(); i++) {
+                    if (responses[i] == null) {
+                        responses[i] = createResponse(p_tokens.get(i), hashedTokens[i], grants.get(p_tokens.get(i)));
+                    }
+                }
+            }
+            return Response.status(Response.Status.OK).entity("[" + StringUtils.join(responses, ",") + "]").build();
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
     private Response introspect(String p_authorization, String p_token, String tokenTypeHint) {
         try {
             log.trace("Introspect token, authorization: {}, token to introsppect: {}, tokenTypeHint:", p_authorization, p_token, tokenTypeHint);
             if (StringUtils.isNotBlank(p_authorization) && StringUtils.isNotBlank(p_token)) {
-                final AuthorizationGrant authorizationGrant = tokenService.getAuthorizationGrant(p_authorization);
-                if (authorizationGrant != null) {
-                    final AbstractToken authorizationAccessToken = authorizationGrant.getAccessToken(tokenService.getTokenFromAuthorizationParameter(p_authorization));
-                    boolean isPat = authorizationGrant.getScopesAsString().contains(UmaScopeType.PROTECTION.getValue()); // #432
-                    if (authorizationAccessToken != null && authorizationAccessToken.isValid() && isPat) {
-                        final IntrospectionResponse response = new IntrospectionResponse(false);
-
-                        final AuthorizationGrant grantOfIntrospectionToken = authorizationGrantList.getAuthorizationGrantByAccessToken(p_token);
-                        if (grantOfIntrospectionToken != null) {
-                            final AbstractToken tokenToIntrospect = grantOfIntrospectionToken.getAccessToken(p_token);
-
-                            response.setActive(tokenToIntrospect.isValid());
-                            response.setExpiresAt(tokenToIntrospect.getExpirationDate());
-                            response.setIssuedAt(tokenToIntrospect.getCreationDate());
-                            response.setAcrValues(tokenToIntrospect.getAuthMode());
-                            response.setScopes(grantOfIntrospectionToken.getScopes() != null ? grantOfIntrospectionToken.getScopes() : new ArrayList<String>()); // #433
-                            response.setClientId(grantOfIntrospectionToken.getClientId());
-                            response.setUsername(grantOfIntrospectionToken.getUserId());
-                            response.setIssuer(appConfiguration.getIssuer());
-                            response.setAudience(grantOfIntrospectionToken.getClientId());
-
-                            if (tokenToIntrospect instanceof AccessToken) {
-                                AccessToken accessToken = (AccessToken) tokenToIntrospect;
-                                response.setTokenType(accessToken.getTokenType() != null ? accessToken.getTokenType().getName() : TokenType.BEARER.getName());
-                            }
-                        } else {
-                            log.error("Failed to find grant for access_token: " + p_token);
-                        }
-                        return Response.status(Response.Status.OK).entity(ServerUtil.asJson(response)).build();
-                    } else {
-                        log.error("Access token is not valid. Valid: " + (authorizationAccessToken != null && authorizationAccessToken.isValid()) + ", isPat:" + isPat);
+                if (isPatAuthorized(p_authorization)) {
+                    final String hashedToken = TokenHashUtil.getHashedToken(p_token);
+                    String response = introspectionCacheService.getResponse(hashedToken);
+                    if (response == null) {
+                        response = createResponse(p_token, hashedToken, authorizationGrantList.getAuthorizationGrantByAccessToken(p_token));
                     }
-                } else {
-                    log.error("Authorization grant is null.");
+                    return Response.status(Response.Status.OK).entity(response).build();
                 }
 
                 return Response.status(Response.Status.BAD_REQUEST).entity(errorResponseFactory.getErrorAsJson(AuthorizeErrorResponseType.ACCESS_DENIED)).build();
@@ -112,4 +136,67 @@ public class IntrospectionWebService {
 
         return Response.status(Response.Status.BAD_REQUEST).entity(errorResponseFactory.getErrorAsJson(AuthorizeErrorResponseType.INVALID_REQUEST)).build();
     }
+
+    /**
+     * @return introspection response (JSON) of the token, response of active token is cached
+     */
+    private String createResponse(String p_token, String p_hashedToken, AuthorizationGrant grantOfIntrospectionToken) throws IOException {
+        final IntrospectionResponse response = new IntrospectionResponse(false);
+        if (grantOfIntrospectionToken == null) {
+            log.error("Failed to find grant for access_token: " + p_token);
+            return ServerUtil.asJson(response);
+        }
+
+        final AbstractToken tokenToIntrospect = grantOfIntrospectionToken.getAccessToken(p_token);
+
+        response.setActive(tokenToIntrospect.isValid());
+        response.setExpiresAt(tokenToIntrospect.getExpirationDate());
+        response.setIssuedAt(tokenToIntrospect.getCreationDate());
+        response.setAcrValues(tokenToIntrospect.getAuthMode());
+        response.setScopes(grantOfIntrospectionToken.getScopes() != null ? grantOfIntrospectionToken.getScopes() : new ArrayList<String>()); // #433
+        response.setClientId(grantOfIntrospectionToken.getClientId());
+        final User user = grantOfIntrospectionToken.getUser();
+        response.setUsername(user != null ? user.getUserId() : null);
+        response.setIssuer(appConfiguration.getIssuer());
+        response.setAudience(grantOfIntrospectionToken.getClientId());
+
+        if (tokenToIntrospect instanceof AccessToken) {
+            AccessToken accessToken = (AccessToken) tokenToIntrospect;
+            response.setTokenType(accessToken.getTokenType() != null ? accessToken.getTokenType().getName() : TokenType.BEARER.getName());
+        }
+
+        final String json = ServerUtil.asJson(response);
+        if (response.isActive()) {
+            introspectionCacheService.putResponse(p_hashedToken, grantOfIntrospectionToken.getGrantId(), tokenToIntrospect.getExpirationDate(), json);
+        }
+        return json;
+    }
+
+    /**
+     * Checks that the caller presents valid PAT (access token with uma_protection scope). Successful checks are cached
+     * for a short time.
+     */
+    private boolean isPatAuthorized(String p_authorization) {
+        final String pat = tokenService.getTokenFromAuthorizationParameter(p_authorization);
+        final String hashedPat = StringUtils.isNotBlank(pat) ? TokenHashUtil.getHashedToken(pat) : null;
+        if (hashedPat != null && introspectionCacheService.isPatAuthorized(hashedPat)) {
+            return true;
+        }
+
+        final AuthorizationGrant authorizationGrant = tokenService.getAuthorizationGrant(p_authorization);
+        if (authorizationGrant == null) {
+            log.error("Authorization grant is null.");
+            return false;
+        }
+
+        final AbstractToken authorizationAccessToken = authorizationGrant.getAccessToken(pat);
+        boolean isPat = authorizationGrant.getScopesAsString().contains(UmaScopeType.PROTECTION.getValue()); // #432
+        if (authorizationAccessToken != null && authorizationAccessToken.isValid() && isPat) {
+            introspectionCacheService.putPatAuthorized(hashedPat, authorizationGrant.getGrantId(), authorizationAccessToken.getExpirationDate());
+            return true;
+        }
+
+        log.error("Access token is not valid. Valid: " + (authorizationAccessToken != null && authorizationAccessToken.isValid()) + ", isPat:" + isPat);
+        return false;
+    }
 }
@@ -6,6 +6,7 @@
 
 package org.xdi.oxauth.model.common;
 
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xdi.oxauth.model.authorize.JwtAuthorizationRequest;
@@ -13,7 +14,8 @@ import org.xdi.oxauth.model.authorize.ScopeChecker;
 import org.xdi.oxauth.model.configuration.AppConfiguration;
 import org.xdi.oxauth.model.ldap.TokenLdap;
 import org.xdi.oxauth.model.registration.Client;
-import org.xdi.oxauth.util.TokenHashUtil;
+import org.xdi.oxauth.model.util.TokenHashUtil;
+import org.xdi.oxauth.service.UserService;
 
 import javax.inject.Inject;
 import java.util.*;
@@ -38,13 +40,18 @@ public abstract class AbstractAuthorizationGrant implements IAuthorizationGrant
     @Inject
     protected ScopeChecker scopeChecker;
 
-    private User user;
+    @Inject
+    protected UserService userService;
+
+    private volatile User user;
+    private volatile String lazyUserId;
     private AuthorizationGrantType authorizationGrantType;
     private Client client;
     private Set<String> scopes;
 
     private String grantId;
-    private JwtAuthorizationRequest jwtAuthorizationRequest;
+    private volatile JwtAuthorizationRequest jwtAuthorizationRequest;
+    private volatile String lazyJwtAuthorizationRequest;
     private Date authenticationTime;
     private TokenLdap tokenLdap;
     private AccessToken longLivedAccessToken;
@@ -72,6 +79,7 @@ public abstract class AbstractAuthorizationGrant implements IAuthorizationGrant
                         Date authenticationTime) {
         this.authenticationTime = authenticationTime != null ? new Date(authenticationTime.getTime()) : null;
         this.user = user;
+        this.lazyUserId = null;
         this.authorizationGrantType = authorizationGrantType;
         this.client = client;
         this.scopes = new CopyOnWriteArraySet<String>();
@@ -207,9 +215,28 @@ public abstract class AbstractAuthorizationGrant implements IAuthorizationGrant
      */
     @Override
     public User getUser() {
+        if (lazyUserId != null) {
+            synchronized (this) {
+                if (lazyUserId != null) {
+                    user = userService.getUser(lazyUserId);
+                    lazyUserId = null;
+                }
+            }
+        }
         return user;
     }
 
+    /**
+     * Sets the resource owner by id. User entry is loaded on first {@link #getUser()} call, {@link #getUserId()}
+     * doesn't load it and so doesn't check that the user still exists.
+     *
+     * @param userId The resource owner's id.
+     */
+    public void setLazyUser(String userId) {
+        this.user = null;
+        this.lazyUserId = StringUtils.isNotBlank(userId) ? userId : null;
+    }
+
     public String getAcrValues() {
         return acrValues;
     }
@@ -273,8 +300,19 @@ public abstract class AbstractAuthorizationGrant implements IAuthorizationGrant
         return refreshToken;
     }
 
+    /**
+     * Returns id of the resource owner without loading the user entry. If the grant was created by
+     * {@link #setLazyUser(String)} the id is returned even if the user was removed since, callers for which existence
+     * of the user matters have to use {@link #getUser()} instead.
+     */
     @Override
     public String getUserId() {
+        final String userId = lazyUserId;
+        if (userId != null) {
+            return userId;
+        }
+
+        final User user = this.user;
         if (user == null) {
             return null;
         }
@@ -284,6 +322,7 @@ public abstract class AbstractAuthorizationGrant implements IAuthorizationGrant
 
     @Override
     public String getUserDn() {
+        final User user = getUser();
         if (user == null) {
             return null;
         }
@@ -352,12 +391,45 @@ public abstract class AbstractAuthorizationGrant implements IAuthorizationGrant
 
     @Override
     public JwtAuthorizationRequest getJwtAuthorizationRequest() {
+        if (jwtAuthorizationRequest == null && lazyJwtAuthorizationRequest != null) {
+            synchronized (this) {
+                if (jwtAuthorizationRequest == null && lazyJwtAuthorizationRequest != null) {
+                    try {
+                        jwtAuthorizationRequest = new JwtAuthorizationRequest(appConfiguration, lazyJwtAuthorizationRequest, client);
+                    } catch (Exception e) {
+                        log.trace(e.getMessage(), e);
+                    }
+                }
+            }
+        }
         return jwtAuthorizationRequest;
     }
 
     @Override
     public void setJwtAuthorizationRequest(JwtAuthorizationRequest p_jwtAuthorizationRequest) {
         jwtAuthorizationRequest = p_jwtAuthorizationRequest;
+        lazyJwtAuthorizationRequest = null;
+    }
+
+    /**
+     * Sets encoded request object. It's parsed and verified on first {@link #getJwtAuthorizationRequest()} call.
+     *
+     * @param p_encodedJwt Encoded request object.
+     */
+    public void setLazyJwtAuthorizationRequest(String p_encodedJwt) {
+        jwtAuthorizationRequest = null;
+        lazyJwtAuthorizationRequest = StringUtils.isNotBlank(p_encodedJwt) ? p_encodedJwt : null;
+    }
+
+    /**
+     * @return encoded request object without parsing it
+     */
+    public String getEncodedJwtAuthorizationRequest() {
+        final JwtAuthorizationRequest request = jwtAuthorizationRequest;
+        if (request != null) {
+            return request.getEncodedJwt();
+        }
+        return lazyJwtAuthorizationRequest;
     }
 
     @Override
@@ -9,7 +9,6 @@ package org.xdi.oxauth.model.common;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xdi.oxauth.model.authorize.JwtAuthorizationRequest;
 import org.xdi.oxauth.model.exception.InvalidJweException;
 import org.xdi.oxauth.model.exception.InvalidJwtException;
 import org.xdi.oxauth.model.jwt.JwtClaimName;
@@ -18,7 +17,8 @@ import org.xdi.oxauth.model.registration.Client;
 import org.xdi.oxauth.model.token.IdTokenFactory;
 import org.xdi.oxauth.model.token.JsonWebResponse;
 import org.xdi.oxauth.service.GrantService;
-import org.xdi.oxauth.util.TokenHashUtil;
+import org.xdi.oxauth.service.token.JwtAccessTokenService;
+import org.xdi.oxauth.model.util.TokenHashUtil;
 import org.xdi.service.CacheService;
 import org.xdi.util.security.StringEncrypter;
 
@@ -48,8 +48,16 @@ public class AuthorizationGrant extends AbstractAuthorizationGrant {
     @Inject
     private IdTokenFactory idTokenFactory;
 
+    @Inject
+    private JwtAccessTokenService jwtAccessTokenService;
+
     private boolean isCachedWithNoPersistence = false;
 
+    /**
+     * Grant attributes as they were last saved to (or loaded from) the tokens of the grant.
+     */
+    private volatile GrantAttributes savedAttributes;
+
     public AuthorizationGrant() {
     }
 
@@ -83,7 +91,7 @@ public class AuthorizationGrant extends AbstractAuthorizationGrant {
             if (getAuthorizationGrantType() == AuthorizationGrantType.AUTHORIZATION_CODE) {
                 MemcachedGrant memcachedGrant = new MemcachedGrant(this);
                 cacheService.put(Integer.toString(getAuthorizationCode().getExpiresIn()), memcachedGrant.cacheKey(),
-                        memcachedGrant);
+                        CacheValueCodec.encode(memcachedGrant));
             } else {
                 throw new UnsupportedOperationException(
                         "Grant caching is not supported for : " + getAuthorizationGrantType());
@@ -96,34 +104,50 @@ public class AuthorizationGrant extends AbstractAuthorizationGrant {
     private void saveImpl() {
         String grantId = getGrantId();
         if (grantId != null && StringUtils.isNotBlank(grantId)) {
+            final GrantAttributes saved = savedAttributes;
+            final GrantAttributes attributes = new GrantAttributes(this, saved != null && saved.partial);
+            if (attributes.equals(saved)) {
+                log.trace("Grant is not changed, skip saving: " + grantId);
+                return;
+            }
+
             final List<TokenLdap> grants = grantService.getGrantsByGrantId(grantId);
             if (grants != null && !grants.isEmpty()) {
-                final String nonce = getNonce();
-                final String scopes = getScopesAsString();
                 for (TokenLdap t : grants) {
-                    t.setNonce(nonce);
-                    t.setScope(scopes);
-                    t.setAuthMode(getAcrValues());
-                    t.setSessionDn(getSessionDn());
-                    t.setAuthenticationTime(getAuthenticationTime());
-                    t.setCodeChallenge(getCodeChallenge());
-                    t.setCodeChallengeMethod(getCodeChallengeMethod());
-
-                    final JwtAuthorizationRequest jwtRequest = getJwtAuthorizationRequest();
-                    if (jwtRequest != null && StringUtils.isNotBlank(jwtRequest.getEncodedJwt())) {
-                        t.setJwtRequest(jwtRequest.getEncodedJwt());
+                    if (attributes.applyTo(t, saved)) {
+                        log.debug("Saving grant: " + grantId + ", code_challenge: " + getCodeChallenge());
+                        grantService.mergeSilently(t);
                     }
-                    log.debug("Saving grant: " + grantId + ", code_challenge: " + getCodeChallenge());
-                    grantService.mergeSilently(t);
                 }
             }
+            savedAttributes = attributes;
         }
     }
 
+    /**
+     * Marks current grant attributes as saved, e.g. when the grant is restored from its token. Following
+     * {@link #save()} writes tokens only if any of grant attributes is changed.
+     */
+    public void markSaved() {
+        savedAttributes = new GrantAttributes(this, false);
+    }
+
+    /**
+     * Marks current grant attributes as saved for the grant restored from the JWT access token, which doesn't carry
+     * all grant attributes (e.g. session DN, code challenge). Following {@link #save()} writes only attributes changed
+     * after this call, so that attributes missing in the token are not cleared on the tokens of the grant.
+     */
+    public void markPartiallySaved() {
+        savedAttributes = new GrantAttributes(this, true);
+    }
+
     @Override
     public AccessToken createAccessToken() {
         try {
             final AccessToken accessToken = super.createAccessToken();
+            if (jwtAccessTokenService.isSupported(this)) {
+                accessToken.setCode(jwtAccessTokenService.createCode(this, accessToken));
+            }
             if (accessToken.getExpiresIn() > 0) {
                 persist(asToken(accessToken));
             }
@@ -226,7 +250,8 @@ public class AuthorizationGrant extends AbstractAuthorizationGrant {
         result.setCreationDate(p_token.getCreationDate());
         result.setExpirationDate(p_token.getExpirationDate());
         result.setTokenCode(TokenHashUtil.getHashedToken(p_token.getCode()));
-        result.setUserId(getUserId());
+        final User user = getUser(); // don't issue tokens to removed user
+        result.setUserId(user != null ? user.getUserId() : null);
         result.setClientId(getClientId());
         result.setScope(getScopesAsString());
         result.setAuthMode(p_token.getAuthMode());
@@ -248,9 +273,9 @@ public class AuthorizationGrant extends AbstractAuthorizationGrant {
             result.setNonce(nonce);
         }
 
-        final JwtAuthorizationRequest jwtRequest = getJwtAuthorizationRequest();
-        if (jwtRequest != null && StringUtils.isNotBlank(jwtRequest.getEncodedJwt())) {
-            result.setJwtRequest(jwtRequest.getEncodedJwt());
+        final String jwtRequest = getEncodedJwtAuthorizationRequest();
+        if (StringUtils.isNotBlank(jwtRequest)) {
+            result.setJwtRequest(jwtRequest);
         }
         return result;
     }
@@ -287,4 +312,107 @@ public class AuthorizationGrant extends AbstractAuthorizationGrant {
     public void setIsCachedWithNoPersistence(boolean isCachedWithNoPersistence) {
         this.isCachedWithNoPersistence = isCachedWithNoPersistence;
     }
-}
\ No newline at end of file
+
+    /**
+     * Grant attributes which are copied onto each token of the grant.
+     */
+    private static class GrantAttributes {
+
+        /**
+         * Grant doesn't know all attributes, only attributes changed since they were saved are copied.
+         */
+        private final boolean partial;
+
+        private final String nonce;
+        private final String scope;
+        private final String authMode;
+        private final String sessionDn;
+        private final Date authenticationTime;
+        private final String codeChallenge;
+        private final String codeChallengeMethod;
+        private final String jwtRequest;
+
+        GrantAttributes(AuthorizationGrant grant, boolean partial) {
+            this.partial = partial;
+            this.nonce = grant.getNonce();
+            this.scope = grant.getScopesAsString();
+            this.authMode = grant.getAcrValues();
+            this.sessionDn = grant.getSessionDn();
+            this.authenticationTime = grant.getAuthenticationTime();
+            this.codeChallenge = grant.getCodeChallenge();
+            this.codeChallengeMethod = grant.getCodeChallengeMethod();
+            this.jwtRequest = grant.getEncodedJwtAuthorizationRequest();
+        }
+
+        /**
+         * Sets attributes which differ on the token. If saved attributes are partial, only attributes changed since
+         * then are set.
+         *
+         * @return true if token is changed
+         */
+        boolean applyTo(TokenLdap t, GrantAttributes saved) {
+            final boolean all = saved == null || !saved.partial;
+            boolean changed = false;
+            if ((all || !StringUtils.equals(nonce, saved.nonce)) && !StringUtils.equals(t.getNonce(), nonce)) {
+                t.setNonce(nonce);
+                changed = true;
+            }
+            if ((all || !StringUtils.equals(scope, saved.scope)) && !StringUtils.equals(t.getScope(), scope)) {
+                t.setScope(scope);
+                changed = true;
+            }
+            if ((all || !StringUtils.equals(authMode, saved.authMode)) && !StringUtils.equals(t.getAuthMode(), authMode)) {
+                t.setAuthMode(authMode);
+                changed = true;
+            }
+            if ((all || !StringUtils.equals(sessionDn, saved.sessionDn)) && !StringUtils.equals(t.getSessionDn(), sessionDn)) {
+                t.setSessionDn(sessionDn);
+                changed = true;
+            }
+            if ((all || !sameTime(authenticationTime, saved.authenticationTime)) && !sameTime(t.getAuthenticationTime(), authenticationTime)) {
+                t.setAuthenticationTime(authenticationTime);
+                changed = true;
+            }
+            if ((all || !StringUtils.equals(codeChallenge, saved.codeChallenge)) && !StringUtils.equals(t.getCodeChallenge(), codeChallenge)) {
+                t.setCodeChallenge(codeChallenge);
+                changed = true;
+            }
+            if ((all || !StringUtils.equals(codeChallengeMethod, saved.codeChallengeMethod)) && !StringUtils.equals(t.getCodeChallengeMethod(), codeChallengeMethod)) {
+                t.setCodeChallengeMethod(codeChallengeMethod);
+                changed = true;
+            }
+            if (StringUtils.isNotBlank(jwtRequest) && !jwtRequest.equals(t.getJwtRequest())) {
+                t.setJwtRequest(jwtRequest);
+                changed = true;
+            }
+            return changed;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            GrantAttributes that = (GrantAttributes) o;
+
+            return StringUtils.equals(nonce, that.nonce) && StringUtils.equals(scope, that.scope)
+                    && StringUtils.equals(authMode, that.authMode) && StringUtils.equals(sessionDn, that.sessionDn)
+                    && sameTime(authenticationTime, that.authenticationTime)
+                    && StringUtils.equals(codeChallenge, that.codeChallenge)
+                    && StringUtils.equals(codeChallengeMethod, that.codeChallengeMethod)
+                    && StringUtils.equals(jwtRequest, that.jwtRequest);
+        }
+
+        @Override
+        public int hashCode() {
+            return scope != null ? scope.hashCode() : 0;
+        }
+
+        /**
+         * Compares with second precision, the directory server may not keep milliseconds.
+         */
+        private static boolean sameTime(Date d1, Date d2) {
+            return d1 == null ? d2 == null : d2 != null && d1.getTime() / 1000 == d2.getTime() / 1000;
+        }
+    }
+}
@@ -12,24 +12,32 @@ import com.unboundid.ldap.sdk.RDN;
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
-import org.xdi.oxauth.model.authorize.JwtAuthorizationRequest;
 import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.jwt.Jwt;
+import org.xdi.oxauth.model.jwt.JwtClaimName;
+import org.xdi.oxauth.model.jwt.JwtClaims;
 import org.xdi.oxauth.model.ldap.TokenLdap;
 import org.xdi.oxauth.model.registration.Client;
+import org.xdi.oxauth.model.util.TokenHashUtil;
 import org.xdi.oxauth.model.util.Util;
 import org.xdi.oxauth.service.ClientService;
 import org.xdi.oxauth.service.GrantService;
 import org.xdi.oxauth.service.UserService;
+import org.xdi.oxauth.service.token.JwtAccessTokenService;
 import org.xdi.service.CacheService;
 
+import javax.annotation.PostConstruct;
 import javax.enterprise.context.Dependent;
 import javax.enterprise.context.RequestScoped;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Component to hold in memory authorization grant objects.
@@ -60,6 +68,23 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
     @Inject
     private CacheService cacheService;
 
+    @Inject
+    private JwtAccessTokenService jwtAccessTokenService;
+
+    private Instance<AuthorizationCodeGrant> authorizationCodeGrantInstance;
+    private Instance<ClientCredentialsGrant> clientCredentialsGrantInstance;
+    private Instance<ImplicitGrant> implicitGrantInstance;
+    private Instance<ResourceOwnerPasswordCredentialsGrant> resourceOwnerPasswordCredentialsGrantInstance;
+
+    @PostConstruct
+    public void init() {
+        // resolve grant beans once instead of on every token lookup
+        authorizationCodeGrantInstance = grantInstance.select(AuthorizationCodeGrant.class);
+        clientCredentialsGrantInstance = grantInstance.select(ClientCredentialsGrant.class);
+        implicitGrantInstance = grantInstance.select(ImplicitGrant.class);
+        resourceOwnerPasswordCredentialsGrantInstance = grantInstance.select(ResourceOwnerPasswordCredentialsGrant.class);
+    }
+
     @Override
     public void removeAuthorizationGrants(List<AuthorizationGrant> authorizationGrants) {
         if (authorizationGrants != null && !authorizationGrants.isEmpty()) {
@@ -79,18 +104,18 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
 
     @Override
     public AuthorizationCodeGrant createAuthorizationCodeGrant(User user, Client client, Date authenticationTime) {
-    	AuthorizationCodeGrant grant =  grantInstance.select(AuthorizationCodeGrant.class).get();
+    	AuthorizationCodeGrant grant =  authorizationCodeGrantInstance.get();
     	grant.init(user, client, authenticationTime);
 
         MemcachedGrant memcachedGrant = new MemcachedGrant(grant);
-        cacheService.put(Integer.toString(grant.getAuthorizationCode().getExpiresIn()), memcachedGrant.cacheKey(), memcachedGrant);
+        cacheService.put(Integer.toString(grant.getAuthorizationCode().getExpiresIn()), memcachedGrant.cacheKey(), CacheValueCodec.encode(memcachedGrant));
         log.trace("Put authorization grant in cache, code: " + grant.getAuthorizationCode().getCode() + ", clientId: " + grant.getClientId());
         return grant;
     }
 
     @Override
     public ImplicitGrant createImplicitGrant(User user, Client client, Date authenticationTime) {
-    	ImplicitGrant grant =  grantInstance.select(ImplicitGrant.class).get();
+    	ImplicitGrant grant =  implicitGrantInstance.get();
     	grant.init(user, client, authenticationTime);
     	
     	return grant;
@@ -98,7 +123,7 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
 
     @Override
     public ClientCredentialsGrant createClientCredentialsGrant(User user, Client client) {
-    	ClientCredentialsGrant grant =  grantInstance.select(ClientCredentialsGrant.class).get();
+    	ClientCredentialsGrant grant =  clientCredentialsGrantInstance.get();
     	grant.init(user, client);
     	
     	return grant;
@@ -106,7 +131,7 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
 
     @Override
     public ResourceOwnerPasswordCredentialsGrant createResourceOwnerPasswordCredentialsGrant(User user, Client client) {
-    	ResourceOwnerPasswordCredentialsGrant grant =  grantInstance.select(ResourceOwnerPasswordCredentialsGrant.class).get();
+    	ResourceOwnerPasswordCredentialsGrant grant =  resourceOwnerPasswordCredentialsGrantInstance.get();
     	grant.init(user, client);
     	
     	return grant;
@@ -120,7 +145,17 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
             cachedGrant = cacheService.get(null, MemcachedGrant.cacheKey(clientId, authorizationCode));
             log.trace("Failed to fetch authorization grant from cache, code: " + authorizationCode + ", clientId: " + clientId);
         }
-        return cachedGrant instanceof MemcachedGrant ? ((MemcachedGrant) cachedGrant).asCodeGrant(grantInstance) : null;
+
+        MemcachedGrant memcachedGrant = null;
+        if (cachedGrant instanceof byte[]) {
+            memcachedGrant = CacheValueCodec.decodeMemcachedGrant((byte[]) cachedGrant);
+        } else if (cachedGrant instanceof MemcachedGrant) {
+            memcachedGrant = (MemcachedGrant) cachedGrant; // Java serialized by previous release
+        }
+        if (memcachedGrant == null) {
+            return null;
+        }
+        return memcachedGrant.asCodeGrant(grantInstance, clientService.getClient(memcachedGrant.getClientId()));
     }
 
     @Override
@@ -149,6 +184,19 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
 
     @Override
     public AuthorizationGrant getAuthorizationGrantByAccessToken(String accessToken) {
+        final Jwt jwt = jwtAccessTokenService.parse(accessToken);
+        if (jwt != null) {
+            if (!jwtAccessTokenService.isValid(accessToken, jwt)) {
+                return null;
+            }
+            if (!jwtAccessTokenService.hasRequestObject(jwt)) {
+                final AuthorizationGrant grant = asGrant(accessToken, jwt);
+                if (grant != null) {
+                    return grant;
+                }
+            }
+        }
+
         final TokenLdap tokenLdap = grantService.getGrantsByCode(accessToken);
         if (tokenLdap != null && (tokenLdap.getTokenTypeEnum() == org.xdi.oxauth.model.ldap.TokenType.ACCESS_TOKEN || tokenLdap.getTokenTypeEnum() == org.xdi.oxauth.model.ldap.TokenType.LONG_LIVED_ACCESS_TOKEN)) {
             return asGrant(tokenLdap);
@@ -156,6 +204,46 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
         return null;
     }
 
+    /**
+     * Resolves grants of several access tokens with one token store lookup. JWT access tokens which can be restored
+     * from their claims are not looked up.
+     *
+     * @return grants by access token, tokens without grant are not included
+     */
+    public Map<String, AuthorizationGrant> getAuthorizationGrantsByAccessTokens(Collection<String> accessTokens) {
+        final Map<String, AuthorizationGrant> result = new HashMap<String, AuthorizationGrant>();
+        final Map<String, String> accessTokensByHashedCode = new HashMap<String, String>();
+        for (String accessToken : accessTokens) {
+            final Jwt jwt = jwtAccessTokenService.parse(accessToken);
+            if (jwt != null) {
+                if (!jwtAccessTokenService.isValid(accessToken, jwt)) {
+                    continue;
+                }
+                if (!jwtAccessTokenService.hasRequestObject(jwt)) {
+                    final AuthorizationGrant grant = asGrant(accessToken, jwt);
+                    if (grant != null) {
+                        result.put(accessToken, grant);
+                        continue;
+                    }
+                }
+            }
+            accessTokensByHashedCode.put(TokenHashUtil.getHashedToken(accessToken), accessToken);
+        }
+
+        if (!accessTokensByHashedCode.isEmpty()) {
+            for (TokenLdap tokenLdap : grantService.getGrantsByCodes(accessTokensByHashedCode.values())) {
+                if (tokenLdap.getTokenTypeEnum() == org.xdi.oxauth.model.ldap.TokenType.ACCESS_TOKEN || tokenLdap.getTokenTypeEnum() == org.xdi.oxauth.model.ldap.TokenType.LONG_LIVED_ACCESS_TOKEN) {
+                    final AuthorizationGrant grant = asGrant(tokenLdap);
+                    final String accessToken = accessTokensByHashedCode.get(tokenLdap.getTokenCode());
+                    if (grant != null && accessToken != null) {
+                        result.put(accessToken, grant);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
     @Override
     public AuthorizationGrant getAuthorizationGrantByIdToken(String idToken) {
         TokenLdap tokenLdap = grantService.getGrantsByCode(idToken);
@@ -196,43 +284,19 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
         if (tokenLdap != null) {
             final AuthorizationGrantType grantType = AuthorizationGrantType.fromString(tokenLdap.getGrantType());
             if (grantType != null) {
-                final User user = userService.getUser(tokenLdap.getUserId());
-                final Client client = clientService.getClient(extractClientIdFromTokenDn(tokenLdap.getDn()));
+                final String clientId = StringUtils.isNotBlank(tokenLdap.getClientId()) ? tokenLdap.getClientId() : extractClientIdFromTokenDn(tokenLdap.getDn());
+                final Client client = clientService.getClient(clientId);
                 final Date authenticationTime = tokenLdap.getAuthenticationTime();
                 final String nonce = tokenLdap.getNonce();
 
-                AuthorizationGrant result;
-                switch (grantType) {
-                    case AUTHORIZATION_CODE:
-                    	AuthorizationCodeGrant authorizationCodeGrant = grantInstance.select(AuthorizationCodeGrant.class).get();
-                    	authorizationCodeGrant.init(user, client, authenticationTime);
-
-                    	result = authorizationCodeGrant;
-                        break;
-                    case CLIENT_CREDENTIALS:
-                    	ClientCredentialsGrant clientCredentialsGrant = grantInstance.select(ClientCredentialsGrant.class).get();
-                    	clientCredentialsGrant.init(user, client);
-
-                    	result = clientCredentialsGrant;
-                        break;
-                    case IMPLICIT:
-                    	ImplicitGrant implicitGrant = grantInstance.select(ImplicitGrant.class).get();
-                    	implicitGrant.init(user, client, authenticationTime);
-
-                    	result = implicitGrant;
-                        break;
-                    case RESOURCE_OWNER_PASSWORD_CREDENTIALS:
-                    	ResourceOwnerPasswordCredentialsGrant resourceOwnerPasswordCredentialsGrant = grantInstance.select(ResourceOwnerPasswordCredentialsGrant.class).get();
-                    	resourceOwnerPasswordCredentialsGrant.init(user, client);
-
-                    	result = resourceOwnerPasswordCredentialsGrant;
-                        break;
-                    default:
-                        return null;
+                // user and request object are loaded on first access, most callers don't need them
+                AuthorizationGrant result = newGrant(grantType, null, client, authenticationTime);
+                if (result == null) {
+                    return null;
                 }
+                result.setLazyUser(tokenLdap.getUserId());
 
                 final String grantId = tokenLdap.getGrantId();
-                final String jwtRequest = tokenLdap.getJwtRequest();
                 final String authMode = tokenLdap.getAuthMode();
                 final String sessionDn = tokenLdap.getSessionDn();
 
@@ -245,14 +309,7 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
 
                 result.setCodeChallenge(tokenLdap.getCodeChallenge());
                 result.setCodeChallengeMethod(tokenLdap.getCodeChallengeMethod());
-
-                if (StringUtils.isNotBlank(jwtRequest)) {
-                    try {
-                        result.setJwtAuthorizationRequest(new JwtAuthorizationRequest(appConfiguration, jwtRequest, client));
-                    } catch (Exception e) {
-                    	log.trace(e.getMessage(), e);
-                    }
-                }
+                result.setLazyJwtAuthorizationRequest(tokenLdap.getJwtRequest());
 
                 result.setAcrValues(authMode);
                 result.setSessionDn(sessionDn);
@@ -284,9 +341,75 @@ public class AuthorizationGrantList implements IAuthorizationGrantList {
                             break;
                     }
                 }
+                result.markSaved();
                 return result;
             }
         }
         return null;
     }
+
+    /**
+     * Restores grant from the JWT access token claims without LDAP token lookup.
+     */
+    private AuthorizationGrant asGrant(String accessTokenCode, Jwt jwt) {
+        final JwtClaims claims = jwt.getClaims();
+
+        final AuthorizationGrantType grantType = jwtAccessTokenService.getGrantType(jwt);
+        final Client client = clientService.getClient(claims.getClaimAsString(JwtAccessTokenService.CLIENT_ID));
+        if (grantType == null || client == null) {
+            return null;
+        }
+
+        final String userId = claims.getClaimAsString(JwtAccessTokenService.USER_ID);
+        final User user = StringUtils.isNotBlank(userId) ? userService.getUser(userId) : null;
+        if (StringUtils.isNotBlank(userId) && user == null) {
+            return null;
+        }
+
+        final Date authenticationTime = claims.getClaimAsDate(JwtClaimName.AUTHENTICATION_TIME);
+        final AuthorizationGrant result = newGrant(grantType, user, client, authenticationTime);
+        if (result == null) {
+            return null;
+        }
+
+        result.setGrantId(claims.getClaimAsString(JwtAccessTokenService.GRANT_ID));
+        result.setNonce(claims.getClaimAsString(JwtClaimName.NONCE));
+        result.setScopes(Util.splittedStringAsList(claims.getClaimAsString(JwtAccessTokenService.SCOPE), " "));
+        result.setAcrValues(claims.getClaimAsString(JwtClaimName.AUTHENTICATION_CONTEXT_CLASS_REFERENCE));
+
+        final AccessToken accessToken = new AccessToken(TokenHashUtil.getHashedToken(accessTokenCode),
+                claims.getClaimAsDate(JwtClaimName.ISSUED_AT), claims.getClaimAsDate(JwtClaimName.EXPIRATION_TIME));
+        accessToken.setAuthMode(result.getAcrValues());
+        result.setAccessTokens(Arrays.asList(accessToken));
+        result.markPartiallySaved();
+
+        return result;
+    }
+
+    private AuthorizationGrant newGrant(AuthorizationGrantType grantType, User user, Client client, Date authenticationTime) {
+        switch (grantType) {
+            case AUTHORIZATION_CODE:
+                AuthorizationCodeGrant authorizationCodeGrant = authorizationCodeGrantInstance.get();
+                authorizationCodeGrant.init(user, client, authenticationTime);
+
+                return authorizationCodeGrant;
+            case CLIENT_CREDENTIALS:
+                ClientCredentialsGrant clientCredentialsGrant = clientCredentialsGrantInstance.get();
+                clientCredentialsGrant.init(user, client);
+
+                return clientCredentialsGrant;
+            case IMPLICIT:
+                ImplicitGrant implicitGrant = implicitGrantInstance.get();
+                implicitGrant.init(user, client, authenticationTime);
+
+                return implicitGrant;
+            case RESOURCE_OWNER_PASSWORD_CREDENTIALS:
+                ResourceOwnerPasswordCredentialsGrant resourceOwnerPasswordCredentialsGrant = resourceOwnerPasswordCredentialsGrantInstance.get();
+                resourceOwnerPasswordCredentialsGrant.init(user, client);
+
+                return resourceOwnerPasswordCredentialsGrant;
+            default:
+                return null;
+        }
+    }
 }
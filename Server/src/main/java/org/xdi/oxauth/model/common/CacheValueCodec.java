@@ -0,0 +1,318 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.model.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compact binary format of values put in the distributed cache, used instead of Java serialization.
+ * <p>
+ * Value starts with type and format version bytes. Decoding of value of other type, unknown version or truncated
+ * value returns null, so that such value is handled as cache miss (e.g. value written by newer node during rolling
+ * upgrade). Nodes which cache Java serialized objects can't read these values at all, they have to be upgraded at once.
+ * Java serialized values written by such nodes are still accepted by readers of the cache.
+ */
+public final class CacheValueCodec {
+
+    private static final byte TYPE_SESSION_STATE = 1;
+    private static final byte TYPE_MEMCACHED_GRANT = 2;
+
+    private static final byte VERSION_1 = 1;
+
+    private CacheValueCodec() {
+    }
+
+    public static byte[] encode(SessionState p_session) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(TYPE_SESSION_STATE);
+            out.writeByte(VERSION_1);
+
+            writeString(out, p_session.getDn());
+            writeString(out, p_session.getId());
+            writeDate(out, p_session.getLastUsedAt());
+            writeString(out, p_session.getUserDn());
+            writeDate(out, p_session.getAuthenticationTime());
+            writeString(out, p_session.getState() != null ? p_session.getState().name() : null);
+            writeBoolean(out, p_session.getPermissionGranted());
+            writeBoolean(out, p_session.getIsJwt());
+            writeString(out, p_session.getJwt());
+            writeAccessMap(out, p_session.getPermissionGrantedMap());
+            writeAccessMap(out, p_session.getInvolvedClients());
+            writeStringMap(out, p_session.getSessionAttributes());
+            out.writeLong(p_session.getVersion());
+
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode session: " + p_session.getId(), e);
+        }
+    }
+
+    /**
+     * @return decoded session or null if value is not valid encoded session of known version
+     */
+    public static SessionState decodeSessionState(byte[] p_value) {
+        final DataInputStream in = open(p_value, TYPE_SESSION_STATE);
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            final SessionState session = new SessionState();
+            session.setDn(readString(in));
+            session.setId(readString(in));
+            session.setLastUsedAt(readDate(in));
+            session.setUserDn(readString(in));
+            session.setAuthenticationTime(readDate(in));
+            final String state = readString(in);
+            session.setState(state != null ? SessionIdState.valueOf(state) : null);
+            session.setPermissionGranted(readBoolean(in));
+            session.setIsJwt(readBoolean(in));
+            session.setJwt(readString(in));
+            session.setPermissionGrantedMap(readAccessMap(in));
+            session.setInvolvedClients(readAccessMap(in));
+            session.setSessionAttributes(readStringMap(in));
+            session.setVersion(in.readLong());
+            return session;
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null; // unknown session state
+        }
+    }
+
+    public static byte[] encode(MemcachedGrant p_grant) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(TYPE_MEMCACHED_GRANT);
+            out.writeByte(VERSION_1);
+
+            writeString(out, p_grant.getAuthorizationCodeString());
+            writeDate(out, p_grant.getAuthorizationCodeCreationDate());
+            writeDate(out, p_grant.getAuthorizationCodeExpirationDate());
+            writeString(out, p_grant.getUserId());
+            writeString(out, p_grant.getClientId());
+            writeDate(out, p_grant.getAuthenticationTime());
+            writeStringSet(out, p_grant.getScopes());
+            writeString(out, p_grant.getGrantId());
+            writeString(out, p_grant.getNonce());
+            writeString(out, p_grant.getCodeChallenge());
+            writeString(out, p_grant.getCodeChallengeMethod());
+            writeString(out, p_grant.getAcrValues());
+            writeString(out, p_grant.getSessionDn());
+
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode grant: " + p_grant.getGrantId(), e);
+        }
+    }
+
+    /**
+     * @return decoded grant or null if value is not valid encoded grant of known version
+     */
+    public static MemcachedGrant decodeMemcachedGrant(byte[] p_value) {
+        final DataInputStream in = open(p_value, TYPE_MEMCACHED_GRANT);
+        if (in == null) {
+            return null;
+        }
+
+        try {
+            final MemcachedGrant grant = new MemcachedGrant();
+            grant.setAuthorizationCodeString(readString(in));
+            grant.setAuthorizationCodeCreationDate(readDate(in));
+            grant.setAuthorizationCodeExpirationDate(readDate(in));
+            grant.setUserId(readString(in));
+            grant.setClientId(readString(in));
+            grant.setAuthenticationTime(readDate(in));
+            grant.setScopes(readStringSet(in));
+            grant.setGrantId(readString(in));
+            grant.setNonce(readString(in));
+            grant.setCodeChallenge(readString(in));
+            grant.setCodeChallengeMethod(readString(in));
+            grant.setAcrValues(readString(in));
+            grant.setSessionDn(readString(in));
+            return grant;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static DataInputStream open(byte[] p_value, byte p_type) {
+        if (p_value == null || p_value.length < 2 || p_value[0] != p_type || p_value[1] != VERSION_1) {
+            return null;
+        }
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(p_value));
+        try {
+            in.skipBytes(2);
+        } catch (IOException e) {
+            return null;
+        }
+        return in;
+    }
+
+    // Length is written as unsigned varint of length + 1, 0 stands for null. Every counted item (byte, entry) takes
+    // at least one byte, so length of valid value never exceeds the remaining input; it's checked before anything is
+    // allocated, so that corrupted value can't cause huge allocation.
+
+    private static void writeLength(DataOutputStream out, int p_length) throws IOException {
+        int value = p_length + 1;
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                final int length = value - 1;
+                if (length < -1 || length > in.available()) {
+                    throw new IOException("Malformed length");
+                }
+                return length;
+            }
+        }
+        throw new IOException("Malformed length");
+    }
+
+    private static void writeString(DataOutputStream out, String p_value) throws IOException {
+        if (p_value == null) {
+            writeLength(out, -1);
+            return;
+        }
+
+        final byte[] bytes = p_value.getBytes("UTF-8");
+        writeLength(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = readLength(in);
+        if (length < 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeDate(DataOutputStream out, Date p_value) throws IOException {
+        out.writeBoolean(p_value != null);
+        if (p_value != null) {
+            out.writeLong(p_value.getTime());
+        }
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean p_value) throws IOException {
+        out.writeByte(p_value == null ? 0 : (p_value ? 1 : 2));
+    }
+
+    private static Boolean readBoolean(DataInputStream in) throws IOException {
+        final byte value = in.readByte();
+        return value == 0 ? null : value == 1;
+    }
+
+    private static void writeStringMap(DataOutputStream out, Map<String, String> p_map) throws IOException {
+        if (p_map == null) {
+            writeLength(out, -1);
+            return;
+        }
+
+        writeLength(out, p_map.size());
+        for (Map.Entry<String, String> entry : p_map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    private static Map<String, String> readStringMap(DataInputStream in) throws IOException {
+        final int size = readLength(in);
+        if (size < 0) {
+            return null;
+        }
+
+        final Map<String, String> map = new HashMap<String, String>(Math.max(16, size * 2));
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readString(in));
+        }
+        return map;
+    }
+
+    private static void writeStringSet(DataOutputStream out, Set<String> p_set) throws IOException {
+        if (p_set == null) {
+            writeLength(out, -1);
+            return;
+        }
+
+        writeLength(out, p_set.size());
+        for (String value : p_set) {
+            writeString(out, value);
+        }
+    }
+
+    private static Set<String> readStringSet(DataInputStream in) throws IOException {
+        final int size = readLength(in);
+        if (size < 0) {
+            return null;
+        }
+
+        final Set<String> set = new HashSet<String>(Math.max(16, size * 2));
+        for (int i = 0; i < size; i++) {
+            set.add(readString(in));
+        }
+        return set;
+    }
+
+    private static void writeAccessMap(DataOutputStream out, SessionIdAccessMap p_map) throws IOException {
+        if (p_map == null || p_map.getPermissionGranted() == null) {
+            writeLength(out, -1);
+            return;
+        }
+
+        writeLength(out, p_map.getPermissionGranted().size());
+        for (Map.Entry<String, Boolean> entry : p_map.getPermissionGranted().entrySet()) {
+            writeString(out, entry.getKey());
+            writeBoolean(out, entry.getValue());
+        }
+    }
+
+    private static SessionIdAccessMap readAccessMap(DataInputStream in) throws IOException {
+        final int size = readLength(in);
+        if (size < 0) {
+            return null;
+        }
+
+        final Map<String, Boolean> map = new HashMap<String, Boolean>(Math.max(16, size * 2));
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readBoolean(in));
+        }
+        return new SessionIdAccessMap(map);
+    }
+}
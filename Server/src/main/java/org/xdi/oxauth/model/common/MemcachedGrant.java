@@ -16,8 +16,8 @@ public class MemcachedGrant implements Serializable {
     private Date authorizationCodeCreationDate;
     private Date authorizationCodeExpirationDate;
 
-    private User user;
-    private Client client;
+    private String userId;
+    private String clientId;
     private Date authenticationTime;
     private Set<String> scopes;
     private String grantId;
@@ -35,8 +35,8 @@ public class MemcachedGrant implements Serializable {
         authorizationCodeString = codeGrant.getAuthorizationCode().getCode();
         authorizationCodeCreationDate = codeGrant.getAuthorizationCode().getCreationDate();
         authorizationCodeExpirationDate = codeGrant.getAuthorizationCode().getExpirationDate();
-        user = codeGrant.getUser();
-        client = codeGrant.getClient();
+        userId = codeGrant.getUserId();
+        clientId = codeGrant.getClientId();
         authenticationTime = codeGrant.getAuthenticationTime();
         scopes = codeGrant.getScopes();
         grantId = codeGrant.getGrantId();
@@ -47,12 +47,12 @@ public class MemcachedGrant implements Serializable {
         sessionDn = codeGrant.getSessionDn();
     }
 
-    public User getUser() {
-        return user;
+    public String getUserId() {
+        return userId;
     }
 
-    public void setUser(User user) {
-        this.user = user;
+    public void setUserId(String userId) {
+        this.userId = userId;
     }
 
     public Set<String> getScopes() {
@@ -71,12 +71,12 @@ public class MemcachedGrant implements Serializable {
         this.grantId = grantId;
     }
 
-    public Client getClient() {
-        return client;
+    public String getClientId() {
+        return clientId;
     }
 
-    public void setClient(Client client) {
-        this.client = client;
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
     }
 
     public Date getAuthenticationTime() {
@@ -87,6 +87,22 @@ public class MemcachedGrant implements Serializable {
         this.authenticationTime = authenticationTime;
     }
 
+    public Date getAuthorizationCodeCreationDate() {
+        return authorizationCodeCreationDate;
+    }
+
+    public void setAuthorizationCodeCreationDate(Date authorizationCodeCreationDate) {
+        this.authorizationCodeCreationDate = authorizationCodeCreationDate;
+    }
+
+    public Date getAuthorizationCodeExpirationDate() {
+        return authorizationCodeExpirationDate;
+    }
+
+    public void setAuthorizationCodeExpirationDate(Date authorizationCodeExpirationDate) {
+        this.authorizationCodeExpirationDate = authorizationCodeExpirationDate;
+    }
+
     public String getAuthorizationCodeString() {
         return authorizationCodeString;
     }
@@ -135,9 +151,13 @@ public class MemcachedGrant implements Serializable {
         this.sessionDn = sessionDn;
     }
 
-    public AuthorizationCodeGrant asCodeGrant(Instance<AbstractAuthorizationGrant> grantInstance) {
+    /**
+     * User and client are referenced by id, client has to be looked up by caller, user is loaded on first use.
+     */
+    public AuthorizationCodeGrant asCodeGrant(Instance<AbstractAuthorizationGrant> grantInstance, Client client) {
     	AuthorizationCodeGrant grant =  grantInstance.select(AuthorizationCodeGrant.class).get();
-    	grant.init(user, client, authenticationTime);
+    	grant.init(null, client, authenticationTime);
+    	grant.setLazyUser(userId);
 
         grant.setAuthorizationCode(new AuthorizationCode(authorizationCodeString, authorizationCodeCreationDate, authorizationCodeExpirationDate));
         grant.setScopes(scopes);
@@ -152,7 +172,7 @@ public class MemcachedGrant implements Serializable {
     }
 
     public String cacheKey() {
-        return cacheKey(client.getClientId(), authorizationCodeString);
+        return cacheKey(clientId, authorizationCodeString);
     }
 
     public static String cacheKey(String clientId, String code) {
@@ -163,8 +183,8 @@ public class MemcachedGrant implements Serializable {
     public String toString() {
         return "MemcachedGrant{" +
                 "authorizationCode=" + authorizationCodeString +
-                ", user=" + user +
-                ", client=" + client +
+                ", userId=" + userId +
+                ", clientId=" + clientId +
                 ", authenticationTime=" + authenticationTime +
                 '}';
     }
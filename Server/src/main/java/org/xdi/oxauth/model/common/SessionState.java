@@ -8,6 +8,7 @@ package org.xdi.oxauth.model.common;
 
 import java.io.Serializable;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
@@ -76,9 +77,40 @@ public class SessionState implements Serializable {
     @Transient
     private transient boolean persisted;
 
+    @Transient
+    private long version;
+
     public SessionState() {
     }
 
+    /**
+     * @return deep copy of the session, persisted flag is not copied
+     */
+    public SessionState copy() {
+        final SessionState copy = new SessionState();
+        copy.dn = dn;
+        copy.id = id;
+        copy.lastUsedAt = lastUsedAt != null ? new Date(lastUsedAt.getTime()) : null;
+        copy.userDn = userDn;
+        copy.authenticationTime = authenticationTime != null ? new Date(authenticationTime.getTime()) : null;
+        copy.state = state;
+        copy.permissionGranted = permissionGranted;
+        copy.isJwt = isJwt;
+        copy.jwt = jwt;
+        copy.permissionGrantedMap = copy(permissionGrantedMap);
+        copy.involvedClients = copy(involvedClients);
+        copy.sessionAttributes = sessionAttributes != null ? new HashMap<String, String>(sessionAttributes) : null;
+        copy.version = version;
+        return copy;
+    }
+
+    private static SessionIdAccessMap copy(SessionIdAccessMap p_map) {
+        if (p_map == null) {
+            return null;
+        }
+        return new SessionIdAccessMap(p_map.getPermissionGranted() != null ? new HashMap<String, Boolean>(p_map.getPermissionGranted()) : null);
+    }
+
     public String getDn() {
         return dn;
     }
@@ -201,6 +233,17 @@ public class SessionState implements Serializable {
         this.persisted = persisted;
     }
 
+    /**
+     * @return version of the session, incremented on each write to the cache
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
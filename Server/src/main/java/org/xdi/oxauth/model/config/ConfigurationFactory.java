@@ -17,6 +17,7 @@ import org.xdi.exception.ConfigurationException;
 import org.xdi.oxauth.model.configuration.AppConfiguration;
 import org.xdi.oxauth.model.configuration.Configuration;
 import org.xdi.oxauth.model.crypto.AbstractCryptoProvider;
+import org.xdi.oxauth.model.crypto.CryptoProviderFactory;
 import org.xdi.oxauth.model.error.ErrorMessages;
 import org.xdi.oxauth.model.error.ErrorResponseFactory;
 import org.xdi.oxauth.service.AppInitializer;
@@ -269,6 +270,7 @@ public class ConfigurationFactory {
 		final WebKeysConfiguration webKeysFromFile = loadWebKeysFromFile();
 		if (webKeysFromFile != null) {
 			log.info("Reloaded web keys from file: " + webKeysFilePath);
+			webKeysFromFile.buildIndex();
 			jwks = webKeysFromFile;
 			return true;
 		} else {
@@ -330,6 +332,9 @@ public class ConfigurationFactory {
 					destroy(StaticConfiguration.class);
 					destroy(WebKeysConfiguration.class);
 					destroy(ErrorResponseFactory.class);
+
+					// Web keys and key store are changed together, swap in provider with new keys
+					reloadCryptoProvider();
 				}
 
 				this.loaded = true;
@@ -352,6 +357,14 @@ public class ConfigurationFactory {
 		return false;
 	}
 
+	private void reloadCryptoProvider() {
+		try {
+			CryptoProviderFactory.reload(conf);
+		} catch (Exception ex) {
+			log.error("Failed to reload crypto provider", ex);
+		}
+	}
+
 	public void destroy(Class<? extends Configuration> clazz) {
 		Instance<? extends Configuration> confInstance = configurationInstance.select(clazz);
 		configurationInstance.destroy(confInstance.get());
@@ -416,6 +429,7 @@ public class ConfigurationFactory {
 	public void initJwksFromString(String p_webKeys) throws IOException, JsonParseException, JsonMappingException {
 		final WebKeysConfiguration k = ServerUtil.createJsonMapper().readValue(p_webKeys, WebKeysConfiguration.class);
 		if (k != null) {
+			k.buildIndex();
 			jwks = k;
 		}
 	}
@@ -67,6 +67,35 @@ public class TokenLdap {
     public TokenLdap() {
     }
 
+    /**
+     * Copy constructor, dates are copied too.
+     */
+    public TokenLdap(TokenLdap p_token) {
+        dn = p_token.dn;
+        id = p_token.id;
+        grantId = p_token.grantId;
+        userId = p_token.userId;
+        clientId = p_token.clientId;
+        creationDate = copy(p_token.creationDate);
+        expirationDate = copy(p_token.expirationDate);
+        authenticationTime = copy(p_token.authenticationTime);
+        scope = p_token.scope;
+        tokenCode = p_token.tokenCode;
+        tokenType = p_token.tokenType;
+        grantType = p_token.grantType;
+        jwtRequest = p_token.jwtRequest;
+        authorizationCode = p_token.authorizationCode;
+        nonce = p_token.nonce;
+        codeChallenge = p_token.codeChallenge;
+        codeChallengeMethod = p_token.codeChallengeMethod;
+        authMode = p_token.authMode;
+        sessionDn = p_token.sessionDn;
+    }
+
+    private static Date copy(Date p_date) {
+        return p_date != null ? new Date(p_date.getTime()) : null;
+    }
+
     public String getId() {
         return id;
     }
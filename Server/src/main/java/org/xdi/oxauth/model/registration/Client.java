@@ -42,6 +42,12 @@ public class Client implements Serializable {
     @LdapAttribute(name = "oxAuthLogoutSessionRequired")
     private Boolean frontChannelLogoutSessionRequired;
 
+    @LdapAttribute(name = "oxAuthBackchannelLogoutURI")
+    private String backChannelLogoutUri;
+
+    @LdapAttribute(name = "oxAuthBackchannelLogoutSessionRequired")
+    private Boolean backChannelLogoutSessionRequired;
+
     @LdapAttribute(name = "oxAuthRegistrationAccessToken")
     private String registrationAccessToken;
 
@@ -168,6 +174,9 @@ public class Client implements Serializable {
     @LdapAttribute(name = "oxIncludeClaimsInIdToken")
     private boolean includeClaimsInIdToken;
 
+    @LdapAttribute(name = "oxAccessTokenAsJwt")
+    private boolean accessTokenAsJwt;
+
     @LdapAttributesList(name = "name", value = "values", sortByName = true)
     private List<CustomAttribute> customAttributes = new ArrayList<CustomAttribute>();
 
@@ -222,6 +231,42 @@ public class Client implements Serializable {
         this.frontChannelLogoutUri = frontChannelLogoutUri;
     }
 
+    /**
+     * Gets back channel logout uri.
+     *
+     * @return back channel logout uri
+     */
+    public String getBackChannelLogoutUri() {
+        return backChannelLogoutUri;
+    }
+
+    /**
+     * Sets back channel logout uri.
+     *
+     * @param backChannelLogoutUri back channel logout uri
+     */
+    public void setBackChannelLogoutUri(String backChannelLogoutUri) {
+        this.backChannelLogoutUri = backChannelLogoutUri;
+    }
+
+    /**
+     * Gets back channel logout session required.
+     *
+     * @return back channel logout session required
+     */
+    public Boolean getBackChannelLogoutSessionRequired() {
+        return backChannelLogoutSessionRequired;
+    }
+
+    /**
+     * Sets back channel logout session required.
+     *
+     * @param backChannelLogoutSessionRequired back channel logout session required
+     */
+    public void setBackChannelLogoutSessionRequired(Boolean backChannelLogoutSessionRequired) {
+        this.backChannelLogoutSessionRequired = backChannelLogoutSessionRequired;
+    }
+
     /**
      * Returns the Unique Client identifier.
      *
@@ -1050,6 +1095,14 @@ public class Client implements Serializable {
         this.includeClaimsInIdToken = includeClaimsInIdToken;
     }
 
+    public boolean isAccessTokenAsJwt() {
+        return accessTokenAsJwt;
+    }
+
+    public void setAccessTokenAsJwt(boolean accessTokenAsJwt) {
+        this.accessTokenAsJwt = accessTokenAsJwt;
+    }
+
     public List<CustomAttribute> getCustomAttributes() {
         return customAttributes;
     }
@@ -9,7 +9,6 @@ package org.xdi.oxauth.model.token;
 import com.google.common.collect.Lists;
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.jettison.json.JSONArray;
-import org.codehaus.jettison.json.JSONObject;
 import org.xdi.model.AuthenticationScriptUsageType;
 import org.xdi.model.GluuAttribute;
 import org.xdi.model.custom.script.conf.CustomScriptConfiguration;
@@ -18,38 +17,28 @@ import org.xdi.oxauth.model.authorize.Claim;
 import org.xdi.oxauth.model.common.*;
 import org.xdi.oxauth.model.config.WebKeysConfiguration;
 import org.xdi.oxauth.model.configuration.AppConfiguration;
-import org.xdi.oxauth.model.crypto.AbstractCryptoProvider;
-import org.xdi.oxauth.model.crypto.CryptoProviderFactory;
 import org.xdi.oxauth.model.crypto.encryption.BlockEncryptionAlgorithm;
 import org.xdi.oxauth.model.crypto.encryption.KeyEncryptionAlgorithm;
-import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
-import org.xdi.oxauth.model.exception.InvalidJweException;
 import org.xdi.oxauth.model.jwe.Jwe;
 import org.xdi.oxauth.model.jwe.JweEncrypter;
-import org.xdi.oxauth.model.jwe.JweEncrypterImpl;
-import org.xdi.oxauth.model.jwk.JSONWebKeySet;
 import org.xdi.oxauth.model.jwt.Jwt;
 import org.xdi.oxauth.model.jwt.JwtClaimName;
 import org.xdi.oxauth.model.jwt.JwtSubClaimObject;
 import org.xdi.oxauth.model.jwt.JwtType;
 import org.xdi.oxauth.model.ldap.PairwiseIdentifier;
 import org.xdi.oxauth.model.registration.Client;
-import org.xdi.oxauth.model.util.JwtUtil;
-import org.xdi.oxauth.model.util.Util;
 import org.xdi.oxauth.service.AttributeService;
-import org.xdi.oxauth.service.ClientService;
+import org.xdi.oxauth.service.ClientJweEncrypterService;
 import org.xdi.oxauth.service.PairwiseIdentifierService;
 import org.xdi.oxauth.service.ScopeService;
+import org.xdi.oxauth.service.SessionStateService;
 import org.xdi.oxauth.service.external.ExternalAuthenticationService;
 import org.xdi.oxauth.service.external.ExternalDynamicScopeService;
 import org.xdi.oxauth.service.external.context.DynamicScopeExternalContext;
-import org.xdi.util.security.StringEncrypter;
 
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
-import java.io.UnsupportedEncodingException;
-import java.security.PublicKey;
 import java.util.*;
 
 /**
@@ -74,9 +63,6 @@ public class IdTokenFactory {
     @Inject
     private ExternalAuthenticationService externalAuthenticationService;
 
-    @Inject
-    private ClientService clientService;
-
     @Inject
     private ScopeService scopeService;
 
@@ -86,6 +72,9 @@ public class IdTokenFactory {
     @Inject
     private PairwiseIdentifierService pairwiseIdentifierService;
 
+    @Inject
+    private ClientJweEncrypterService clientJweEncrypterService;
+
     @Inject
     private AppConfiguration appConfiguration;
 
@@ -127,6 +116,10 @@ public class IdTokenFactory {
             jwt.getClaims().setClaim(JwtClaimName.ACCESS_TOKEN_HASH, accessTokenHash);
         }
         jwt.getClaims().setClaim(JwtClaimName.OX_OPENID_CONNECT_VERSION, appConfiguration.getOxOpenIdConnectVersion());
+        final String sessionId = getSessionId(authorizationGrant);
+        if (sessionId != null) {
+            jwt.getClaims().setClaim(JwtClaimName.SESSION_ID, sessionId);
+        }
 
         List<org.xdi.oxauth.model.common.Scope> dynamicScopes = Lists.newArrayList();
         if (includeIdTokenClaims && authorizationGrant.getClient().isIncludeClaimsInIdToken()) {
@@ -277,6 +270,17 @@ public class IdTokenFactory {
         jwt.getClaims().setClaim(JwtClaimName.AUTHENTICATION_METHOD_REFERENCES, amrList);
     }
 
+    /**
+     * sid is sent in logout tokens of back-channel logout, RP matches it against sid of the ID token.
+     */
+    private String getSessionId(IAuthorizationGrant authorizationGrant) {
+        final Boolean backchannelLogoutEnabled = appConfiguration.getBackchannelLogoutEnabled();
+        if (backchannelLogoutEnabled == null || !backchannelLogoutEnabled) {
+            return null;
+        }
+        return SessionStateService.idFromDn(authorizationGrant.getSessionDn());
+    }
+
     public Jwe generateEncryptedIdToken(
             IAuthorizationGrant authorizationGrant, String nonce, AuthorizationCode authorizationCode,
             AccessToken accessToken, Set<String> scopes, boolean includeIdTokenClaims) throws Exception {
@@ -321,6 +325,10 @@ public class IdTokenFactory {
             jwe.getClaims().setClaim(JwtClaimName.ACCESS_TOKEN_HASH, accessTokenHash);
         }
         jwe.getClaims().setClaim(JwtClaimName.OX_OPENID_CONNECT_VERSION, appConfiguration.getOxOpenIdConnectVersion());
+        final String sessionId = getSessionId(authorizationGrant);
+        if (sessionId != null) {
+            jwe.getClaims().setClaim(JwtClaimName.SESSION_ID, sessionId);
+        }
 
         List<org.xdi.oxauth.model.common.Scope> dynamicScopes = Lists.newArrayList();
         if (includeIdTokenClaims && authorizationGrant.getClient().isIncludeClaimsInIdToken()) {
@@ -421,32 +429,10 @@ public class IdTokenFactory {
         }
 
         // Encryption
-        if (keyEncryptionAlgorithm == KeyEncryptionAlgorithm.RSA_OAEP
-                || keyEncryptionAlgorithm == KeyEncryptionAlgorithm.RSA1_5) {
-            JSONObject jsonWebKeys = JwtUtil.getJSONWebKeys(authorizationGrant.getClient().getJwksUri());
-            AbstractCryptoProvider cryptoProvider = CryptoProviderFactory.getCryptoProvider(appConfiguration);
-            String keyId = cryptoProvider.getKeyId(JSONWebKeySet.fromJSONObject(jsonWebKeys), SignatureAlgorithm.RS256);
-            PublicKey publicKey = cryptoProvider.getPublicKey(keyId, jsonWebKeys);
-
-            if (publicKey != null) {
-                JweEncrypter jweEncrypter = new JweEncrypterImpl(keyEncryptionAlgorithm, blockEncryptionAlgorithm, publicKey);
-                jwe = jweEncrypter.encrypt(jwe);
-            } else {
-                throw new InvalidJweException("The public key is not valid");
-            }
-        } else if (keyEncryptionAlgorithm == KeyEncryptionAlgorithm.A128KW
-                || keyEncryptionAlgorithm == KeyEncryptionAlgorithm.A256KW) {
-            try {
-                byte[] sharedSymmetricKey = clientService.decryptSecret(authorizationGrant.getClient().getClientSecret()).getBytes(Util.UTF8_STRING_ENCODING);
-                JweEncrypter jweEncrypter = new JweEncrypterImpl(keyEncryptionAlgorithm, blockEncryptionAlgorithm, sharedSymmetricKey);
-                jwe = jweEncrypter.encrypt(jwe);
-            } catch (UnsupportedEncodingException e) {
-                throw new InvalidJweException(e);
-            } catch (StringEncrypter.EncryptionException e) {
-                throw new InvalidJweException(e);
-            } catch (Exception e) {
-                throw new InvalidJweException(e);
-            }
+        JweEncrypter jweEncrypter = clientJweEncrypterService.getJweEncrypter(
+                authorizationGrant.getClient(), keyEncryptionAlgorithm, blockEncryptionAlgorithm);
+        if (jweEncrypter != null) {
+            jwe = jweEncrypter.encrypt(jwe);
         }
 
         return jwe;
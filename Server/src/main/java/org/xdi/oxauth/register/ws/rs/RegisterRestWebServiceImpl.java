@@ -148,6 +148,7 @@ public class RegisterRestWebServiceImpl implements RegisterRestWebService {
                             builder.entity(errorResponseFactory.getErrorAsJson(RegisterErrorResponseType.INVALID_REDIRECT_URI));
                         } else {
                             registerParamsValidator.validateLogoutUri(r.getFrontChannelLogoutUris(), r.getRedirectUris(), errorResponseFactory);
+                            registerParamsValidator.validateLogoutUri(r.getBackChannelLogoutUri(), r.getRedirectUris(), errorResponseFactory);
 
                             String clientsBaseDN = staticConfiguration.getBaseDn().getClients();
 
@@ -393,6 +394,11 @@ public class RegisterRestWebServiceImpl implements RegisterRestWebService {
         }
         p_client.setFrontChannelLogoutSessionRequired(requestObject.getFrontChannelLogoutSessionRequired());
 
+        if (StringUtils.isNotBlank(requestObject.getBackChannelLogoutUri())) {
+            p_client.setBackChannelLogoutUri(requestObject.getBackChannelLogoutUri());
+        }
+        p_client.setBackChannelLogoutSessionRequired(requestObject.getBackChannelLogoutSessionRequired());
+
         List<String> requestUris = requestObject.getRequestUris();
         if (requestUris != null && !requestUris.isEmpty()) {
             requestUris = new ArrayList<String>(new HashSet<String>(requestUris)); // Remove repeated elements
@@ -592,6 +598,8 @@ public class RegisterRestWebServiceImpl implements RegisterRestWebService {
         // Logout params
         Util.addToJSONObjectIfNotNull(responseJsonObject, FRONT_CHANNEL_LOGOUT_URI.toString(), client.getFrontChannelLogoutUri());
         Util.addToJSONObjectIfNotNull(responseJsonObject, FRONT_CHANNEL_LOGOUT_SESSION_REQUIRED.toString(), client.getFrontChannelLogoutSessionRequired());
+        Util.addToJSONObjectIfNotNull(responseJsonObject, BACK_CHANNEL_LOGOUT_URI.toString(), client.getBackChannelLogoutUri());
+        Util.addToJSONObjectIfNotNull(responseJsonObject, BACK_CHANNEL_LOGOUT_SESSION_REQUIRED.toString(), client.getBackChannelLogoutSessionRequired());
 
         // Custom Params
         String[] scopeNames = null;
@@ -434,7 +434,7 @@ public class AuthenticationService {
     }
 
     public void configureEventUser(SessionState sessionState) {
-        sessionStateService.updateSessionState(sessionState);
+        sessionStateService.updateSessionStateIfNeeded(sessionState, false);
 
         configureEventUserContext(sessionState);
     }
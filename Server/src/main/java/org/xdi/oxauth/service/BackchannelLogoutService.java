@@ -0,0 +1,299 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.slf4j.Logger;
+import org.xdi.oxauth.model.common.SessionState;
+import org.xdi.oxauth.model.config.WebKeysConfiguration;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.jwt.Jwt;
+import org.xdi.oxauth.model.jwt.JwtClaimName;
+import org.xdi.oxauth.model.jwt.JwtSubClaimObject;
+import org.xdi.oxauth.model.net.HttpServiceResponse;
+import org.xdi.oxauth.model.registration.Client;
+import org.xdi.oxauth.model.token.JwtSigner;
+import org.xdi.oxauth.service.net.HttpService;
+import org.xdi.oxauth.util.ServerUtil;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers logout tokens to backchannel_logout_uri of clients (OpenID Connect Back-Channel Logout).
+ * <p>
+ * Requests are sent in parallel by bounded pool of threads, so a slow client delays only its own request which is
+ * limited by backchannelLogoutTimeout. Failed requests (I/O error or 5xx) are retried with growing delay, requests
+ * refused by the client (4xx) are not retried, requests which don't fit into the queue are dropped. End session doesn't
+ * wait for the delivery.
+ */
+@ApplicationScoped
+@Named
+public class BackchannelLogoutService {
+
+    public static final String LOGOUT_TOKEN = "logout_token";
+    public static final String EVENTS = "events";
+    public static final String BACKCHANNEL_LOGOUT_EVENT = "http://schemas.openid.net/event/backchannel-logout";
+    public static final String SESSION_ID = JwtClaimName.SESSION_ID;
+
+    private static final long RETRY_DELAY = 1000; // milliseconds, doubled with each retry
+    private static final int CLOSE_TIMEOUT = 10; // seconds
+    private static final int IO_ERROR = -1;
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    @Inject
+    private WebKeysConfiguration webKeysConfiguration;
+
+    @Inject
+    private HttpService httpService;
+
+    private ThreadPoolExecutor senders;
+    private ScheduledExecutorService retryScheduler;
+    private HttpClient httpClient;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong deliveryTime = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        final int threads = Math.max(1, value(appConfiguration.getBackchannelLogoutThreads(), 10));
+        final int queueSize = Math.max(1, value(appConfiguration.getBackchannelLogoutQueueSize(), 1000));
+        final int timeout = (int) TimeUnit.SECONDS.toMillis(Math.max(1, value(appConfiguration.getBackchannelLogoutTimeout(), 5)));
+
+        final AtomicInteger counter = new AtomicInteger();
+        this.senders = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable p_r) {
+                        Thread thread = new Thread(p_r, "backchannel-logout-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.retryScheduler = ServerUtil.createExecutor();
+
+        final PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(threads);
+        connectionManager.setDefaultMaxPerRoute(threads);
+        final DefaultHttpClient client = new DefaultHttpClient(connectionManager);
+        final HttpParams params = client.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, timeout);
+        HttpConnectionParams.setSoTimeout(params, timeout);
+        this.httpClient = client;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        retryScheduler.shutdownNow();
+        senders.shutdown();
+        try {
+            if (!senders.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn("Backchannel logout requests weren't sent in {} seconds", CLOSE_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        httpClient.getConnectionManager().shutdown();
+    }
+
+    public boolean isEnabled() {
+        final Boolean enabled = appConfiguration.getBackchannelLogoutEnabled();
+        return enabled != null && enabled;
+    }
+
+    /**
+     * Queues logout requests to clients of the ended session which registered backchannel_logout_uri.
+     */
+    public void logout(SessionState p_session, Collection<Client> p_clients) {
+        if (!isEnabled() || p_session == null || p_clients == null) {
+            return;
+        }
+
+        final Set<String> clientIds = new HashSet<String>();
+        for (Client client : p_clients) {
+            if (client != null && StringUtils.isNotBlank(client.getBackChannelLogoutUri()) && clientIds.add(client.getClientId())) {
+                submit(new Delivery(client, p_session.getId()));
+            }
+        }
+    }
+
+    private String createLogoutToken(Client p_client, String p_sessionId) throws Exception {
+        final JwtSigner jwtSigner = JwtSigner.newJwtSigner(appConfiguration, webKeysConfiguration, p_client);
+        final Jwt jwt = jwtSigner.newJwt();
+
+        final JwtSubClaimObject event = new JwtSubClaimObject();
+        event.setName(BACKCHANNEL_LOGOUT_EVENT);
+        final JwtSubClaimObject events = new JwtSubClaimObject();
+        events.setName(EVENTS);
+        events.setClaim(BACKCHANNEL_LOGOUT_EVENT, event);
+
+        jwt.getClaims().setIssuedAt(new Date());
+        jwt.getClaims().setClaim(JwtClaimName.JWT_ID, UUID.randomUUID().toString());
+        jwt.getClaims().setClaim(EVENTS, events);
+        // sid is sent regardless of backchannel_logout_session_required, it's the only subject of the token,
+        // ID tokens of the session carry the same sid
+        jwt.getClaims().setClaim(SESSION_ID, p_sessionId);
+
+        return jwtSigner.sign().toString();
+    }
+
+    private void submit(Delivery p_delivery) {
+        try {
+            senders.execute(p_delivery);
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            log.warn("Backchannel logout request is dropped, queue is full, client: {}", p_delivery.client.getClientId());
+        }
+    }
+
+    /**
+     * @return HTTP status of the response or {@link #IO_ERROR}
+     */
+    private int send(Client p_client, String p_logoutToken) {
+        final HttpServiceResponse response = httpService.executePost(httpClient, p_client.getBackChannelLogoutUri(), null, null,
+                LOGOUT_TOKEN + "=" + httpService.encodeUrl(p_logoutToken), ContentType.APPLICATION_FORM_URLENCODED);
+        if (response == null) {
+            return IO_ERROR; // logged by http service
+        }
+
+        try {
+            return response.getHttpResponse().getStatusLine().getStatusCode();
+        } finally {
+            response.closeConnection();
+        }
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getRetried() {
+        return retried.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return total time of delivered requests in milliseconds
+     */
+    public long getDeliveryTime() {
+        return deliveryTime.get();
+    }
+
+    public int getPending() {
+        return senders.getQueue().size();
+    }
+
+    /**
+     * Delivery statistics, logged periodically by {@link org.xdi.oxauth.service.status.ldap.LdapStatusTimer}.
+     */
+    public String getStatistics() {
+        final long delivered = getDelivered();
+        return String.format("pending=%d, delivered=%d, failed=%d, retried=%d, rejected=%d, averageDeliveryTime=%dms",
+                getPending(), delivered, getFailed(), getRetried(), getRejected(), delivered > 0 ? getDeliveryTime() / delivered : 0);
+    }
+
+    private static int value(Integer p_value, int p_default) {
+        return p_value != null ? p_value : p_default;
+    }
+
+    private class Delivery implements Runnable {
+
+        private final Client client;
+        private final String sessionId;
+        private String logoutToken;
+        private int attempt;
+
+        Delivery(Client client, String sessionId) {
+            this.client = client;
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        public void run() {
+            final long started = System.currentTimeMillis();
+            final int status;
+            try {
+                if (logoutToken == null) {
+                    logoutToken = createLogoutToken(client, sessionId);
+                }
+                status = send(client, logoutToken);
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                log.error("Failed to deliver backchannel logout request, client: " + client.getClientId(), e);
+                return;
+            }
+
+            if (status == HttpStatus.SC_OK || status == HttpStatus.SC_NO_CONTENT) {
+                delivered.incrementAndGet();
+                deliveryTime.addAndGet(System.currentTimeMillis() - started);
+                return;
+            }
+            if (status != IO_ERROR && status < HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                failed.incrementAndGet(); // retry would be refused too
+                log.warn("Backchannel logout request is refused, client: {}, status: {}", client.getClientId(), status);
+                return;
+            }
+
+            if (attempt >= Math.max(0, value(appConfiguration.getBackchannelLogoutRetries(), 2)) || senders.isShutdown()) {
+                failed.incrementAndGet();
+                log.error("Failed to deliver backchannel logout request after {} attempts, client: {}", attempt + 1, client.getClientId());
+                return;
+            }
+
+            final long delay = RETRY_DELAY << attempt;
+            attempt++;
+            retried.incrementAndGet();
+            try {
+                retryScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        submit(Delivery.this);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                failed.incrementAndGet();
+            }
+        }
+    }
+}
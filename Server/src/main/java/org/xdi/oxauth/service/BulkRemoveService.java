@@ -0,0 +1,227 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.unboundid.ldap.sdk.AsyncRequestID;
+import com.unboundid.ldap.sdk.AsyncResultListener;
+import com.unboundid.ldap.sdk.DeleteRequest;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPConnectionPool;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPResult;
+import com.unboundid.ldap.sdk.ResultCode;
+import org.gluu.site.ldap.LDAPConnectionProvider;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.gluu.site.ldap.persistence.exception.EntryPersistenceException;
+import org.slf4j.Logger;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes entries in bulk. Delete requests are pipelined over one pooled connection with at most
+ * cleanServiceMaxOutstandingDeletes requests waiting for response. Removal done by clean up is additionally limited to
+ * cleanServiceRateLimit entries per second, so that it doesn't starve requests of the users.
+ * <p>
+ * Falls back to removal one by one with {@link LdapEntryManager} if asynchronous requests can't be sent or
+ * cleanServiceMaxOutstandingDeletes is 0.
+ */
+@ApplicationScoped
+@Named
+public class BulkRemoveService {
+
+    private static final int RESPONSE_TIMEOUT = 60; // seconds
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private LdapEntryManager ldapEntryManager;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    private RateLimiter rateLimiter;
+    private int maxOutstanding;
+
+    @PostConstruct
+    public void init() {
+        final Integer rateLimit = appConfiguration.getCleanServiceRateLimit();
+        rateLimiter = rateLimit != null && rateLimit > 0 ? RateLimiter.create(rateLimit) : null;
+        final Integer maxOutstandingDeletes = appConfiguration.getCleanServiceMaxOutstandingDeletes();
+        maxOutstanding = maxOutstandingDeletes != null ? Math.max(0, maxOutstandingDeletes) : 1;
+    }
+
+    /**
+     * Removes entries without rate limit.
+     *
+     * @param p_entriesByDn entries to remove mapped by DN
+     * @return removed entries, entries which don't exist anymore are not included
+     */
+    public <T> List<T> remove(Map<String, T> p_entriesByDn) {
+        return remove(p_entriesByDn, null, false);
+    }
+
+    /**
+     * Removes entries found by clean up, not faster than cleanServiceRateLimit entries per second.
+     *
+     * @param p_entriesByDn  entries to remove mapped by DN
+     * @param p_statistics   statistics of the clean up run
+     * @return removed entries, entries which don't exist anymore are not included
+     */
+    public <T> List<T> remove(Map<String, T> p_entriesByDn, CleanerStatistics p_statistics) {
+        return remove(p_entriesByDn, p_statistics, true);
+    }
+
+    private <T> List<T> remove(Map<String, T> p_entriesByDn, CleanerStatistics p_statistics, boolean p_limitRate) {
+        final List<T> removed = new ArrayList<T>();
+        if (p_entriesByDn == null || p_entriesByDn.isEmpty()) {
+            return removed;
+        }
+        if (p_statistics != null) {
+            p_statistics.addScanned(p_entriesByDn.size());
+        }
+
+        final LDAPConnectionPool pool = maxOutstanding > 0 ? getConnectionPool() : null;
+        LDAPConnection connection = null;
+        if (pool != null) {
+            try {
+                connection = pool.getConnection();
+            } catch (LDAPException e) {
+                log.warn("Failed to get connection for bulk remove: {}", e.getMessage());
+            }
+        }
+
+        final Iterator<Map.Entry<String, T>> iterator = p_entriesByDn.entrySet().iterator();
+        if (connection != null) {
+            final boolean completed = removeAsync(pool, connection, iterator, removed, p_statistics, p_limitRate);
+            if (completed) {
+                return removed;
+            }
+        }
+
+        // entries which are not sent asynchronously
+        while (iterator.hasNext()) {
+            acquire(p_limitRate);
+            removeSynchronously(iterator.next(), removed, p_statistics);
+        }
+        return removed;
+    }
+
+    /**
+     * @return false if not all entries are sent, the rest should be removed synchronously
+     */
+    private <T> boolean removeAsync(LDAPConnectionPool p_pool, LDAPConnection p_connection, Iterator<Map.Entry<String, T>> p_iterator,
+                                    List<T> p_removed, final CleanerStatistics p_statistics, boolean p_limitRate) {
+        final Semaphore outstanding = new Semaphore(maxOutstanding);
+        final Queue<T> removed = new ConcurrentLinkedQueue<T>();
+        boolean completed = true;
+        boolean defunct = false;
+        try {
+            while (p_iterator.hasNext()) {
+                final Map.Entry<String, T> entry = p_iterator.next();
+                acquire(p_limitRate);
+                outstanding.acquire();
+                try {
+                    p_connection.asyncDelete(new DeleteRequest(entry.getKey()), new AsyncResultListener() {
+                        @Override
+                        public void ldapResultReceived(AsyncRequestID requestID, LDAPResult result) {
+                            try {
+                                if (result.getResultCode() == ResultCode.SUCCESS) {
+                                    removed.add(entry.getValue());
+                                    if (p_statistics != null) {
+                                        p_statistics.incDeleted();
+                                    }
+                                } else if (result.getResultCode() == ResultCode.NO_SUCH_OBJECT) {
+                                    log.trace("Entry is already removed: {}", entry.getKey());
+                                } else {
+                                    if (p_statistics != null) {
+                                        p_statistics.incFailed();
+                                    }
+                                    log.error("Failed to remove entry: {}, result: {}", entry.getKey(), result);
+                                }
+                            } finally {
+                                outstanding.release();
+                            }
+                        }
+                    });
+                } catch (LDAPException e) {
+                    outstanding.release();
+                    log.warn("Failed to send delete request, removing rest of entries synchronously: {}", e.getMessage());
+                    // this entry is removed here, the rest once the connection is released
+                    removeSynchronously(entry, p_removed, p_statistics);
+                    completed = false;
+                    defunct = !p_connection.isConnected();
+                    break;
+                }
+            }
+
+            // wait for responses
+            if (!outstanding.tryAcquire(maxOutstanding, RESPONSE_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn("Not all delete responses are received in {} seconds", RESPONSE_TIMEOUT);
+                defunct = true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            defunct = true;
+        } finally {
+            if (defunct) {
+                p_pool.releaseDefunctConnection(p_connection);
+            } else {
+                p_pool.releaseConnection(p_connection);
+            }
+        }
+
+        p_removed.addAll(removed);
+        return completed;
+    }
+
+    private <T> void removeSynchronously(Map.Entry<String, T> p_entry, List<T> p_removed, CleanerStatistics p_statistics) {
+        try {
+            ldapEntryManager.remove(p_entry.getValue());
+            p_removed.add(p_entry.getValue());
+            if (p_statistics != null) {
+                p_statistics.incDeleted();
+            }
+        } catch (EntryPersistenceException e) {
+            log.trace(e.getMessage(), e);
+        } catch (Exception e) {
+            if (p_statistics != null) {
+                p_statistics.incFailed();
+            }
+            log.error("Failed to remove entry: " + p_entry.getKey(), e);
+        }
+    }
+
+    private void acquire(boolean p_limitRate) {
+        if (p_limitRate && rateLimiter != null) {
+            rateLimiter.acquire();
+        }
+    }
+
+    private LDAPConnectionPool getConnectionPool() {
+        try {
+            final LDAPConnectionProvider connectionProvider = ldapEntryManager.getLdapOperationService().getConnectionProvider();
+            return connectionProvider != null ? connectionProvider.getConnectionPool() : null;
+        } catch (Exception e) {
+            log.trace(e.getMessage(), e);
+            return null;
+        }
+    }
+}
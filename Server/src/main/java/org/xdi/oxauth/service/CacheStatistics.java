@@ -0,0 +1,86 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.cache.CacheStats;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * Snapshot of statistics of particular in-memory cache, published by {@link MetricService}.
+ */
+public class CacheStatistics implements Serializable {
+
+    private static final long serialVersionUID = 3157026548613409382L;
+
+    private final String cacheName;
+    private final Date taken = new Date();
+    private final long size;
+    private final long hitCount;
+    private final long missCount;
+    private final long loadCount;
+    private final long loadExceptionCount;
+    private final long evictionCount;
+    private final long totalLoadTime;
+
+    public CacheStatistics(String cacheName, long size, CacheStats stats) {
+        this.cacheName = cacheName;
+        this.size = size;
+        this.hitCount = stats.hitCount();
+        this.missCount = stats.missCount();
+        this.loadCount = stats.loadCount();
+        this.loadExceptionCount = stats.loadExceptionCount();
+        this.evictionCount = stats.evictionCount();
+        this.totalLoadTime = stats.totalLoadTime();
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    public Date getTaken() {
+        return new Date(taken.getTime());
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    public long getLoadExceptionCount() {
+        return loadExceptionCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return total time spent loading entries in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{size=%d, hits=%d, misses=%d, loads=%d, loadErrors=%d, evictions=%d}",
+                cacheName, size, hitCount, missCount, loadCount, loadExceptionCount, evictionCount);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of one clean up run for particular entity type, published by {@link MetricService}.
+ */
+public class CleanerStatistics implements Serializable {
+
+    private static final long serialVersionUID = -4523118240851731012L;
+
+    private final String entityType;
+    private final Date started = new Date();
+    private final AtomicLong scanned = new AtomicLong();
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile long duration = -1;
+
+    public CleanerStatistics(String entityType) {
+        this.entityType = entityType;
+    }
+
+    public String getEntityType() {
+        return entityType;
+    }
+
+    public Date getStarted() {
+        return new Date(started.getTime());
+    }
+
+    public long getScanned() {
+        return scanned.get();
+    }
+
+    public long getDeleted() {
+        return deleted.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return duration of the run in milliseconds or -1 if it is not finished
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public void addScanned(long count) {
+        scanned.addAndGet(count);
+    }
+
+    public void incDeleted() {
+        deleted.incrementAndGet();
+    }
+
+    public void incFailed() {
+        failed.incrementAndGet();
+    }
+
+    public CleanerStatistics finish() {
+        duration = System.currentTimeMillis() - started.getTime();
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s{scanned=%d, deleted=%d, failed=%d, duration=%dms}",
+                entityType, getScanned(), getDeleted(), getFailed(), getDuration());
+    }
+}
@@ -10,8 +10,6 @@ import org.gluu.site.ldap.persistence.BatchOperation;
 import org.gluu.site.ldap.persistence.LdapEntryManager;
 import org.slf4j.Logger;
 import org.xdi.model.ApplicationType;
-import org.xdi.oxauth.model.common.AuthorizationGrant;
-import org.xdi.oxauth.model.common.AuthorizationGrantList;
 import org.xdi.oxauth.model.configuration.AppConfiguration;
 import org.xdi.oxauth.model.fido.u2f.DeviceRegistration;
 import org.xdi.oxauth.model.fido.u2f.RequestMessageLdap;
@@ -55,9 +53,6 @@ public class CleanerTimer {
     @Inject
     private LdapEntryManager ldapEntryManager;
 
-    @Inject
-    private AuthorizationGrantList authorizationGrantList;
-
     @Inject
     private ClientService clientService;
 
@@ -128,6 +123,8 @@ public class CleanerTimer {
             processU2fDeviceRegistrations();
 
             processMetricEntries();
+
+            log.debug("Clean up statistics: {}", metricService.getCleanerStatistics().values());
         } finally {
             this.isActive.set(false);
         }
@@ -156,8 +153,9 @@ public class CleanerTimer {
                         GregorianCalendar expirationDate = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
                         expirationDate.setTime(client.getClientSecretExpiresAt());
                         if (expirationDate.before(now)) {
-                            List<AuthorizationGrant> toRemove = authorizationGrantList.getAuthorizationGrant(client.getClientId());
-                            authorizationGrantList.removeAuthorizationGrants(toRemove);
+                            // search is scoped to the client's branch, grants are not indexed by client: the entry
+                            // would be rewritten by every grant of the client
+                            grantService.removeAllTokensByClient(client.getClientId());
 
                             log.debug("Removing Client: {}, Expiration date: {}",
                                     client.getClientId(),
@@ -41,16 +41,19 @@ public class ClientAuthorizationsService {
     @Inject
     private UserService userService;
 
+    @Inject
+    private KnownBranchesService knownBranchesService;
+
     public void addBranch(final String userInum) {
         SimpleBranch branch = new SimpleBranch();
         branch.setOrganizationalUnitName("clientAuthorizations");
         branch.setDn(getBaseDnForClientAuthorizations(userInum));
 
-        ldapEntryManager.persist(branch);
+        knownBranchesService.persist(branch, branch.getDn());
     }
 
     public boolean containsBranch(final String userInum) {
-        return ldapEntryManager.contains(SimpleBranch.class, getBaseDnForClientAuthorizations(userInum));
+        return knownBranchesService.contains(SimpleBranch.class, getBaseDnForClientAuthorizations(userInum));
     }
 
     public void prepareBranch(final String userInum) {
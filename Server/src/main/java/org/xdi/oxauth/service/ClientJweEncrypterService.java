@@ -0,0 +1,189 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.apache.commons.lang.StringUtils;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.crypto.AbstractCryptoProvider;
+import org.xdi.oxauth.model.crypto.CryptoProviderFactory;
+import org.xdi.oxauth.model.crypto.encryption.BlockEncryptionAlgorithm;
+import org.xdi.oxauth.model.crypto.encryption.KeyEncryptionAlgorithm;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
+import org.xdi.oxauth.model.exception.InvalidJweException;
+import org.xdi.oxauth.model.jwe.JweEncrypter;
+import org.xdi.oxauth.model.jwe.JweEncrypterImpl;
+import org.xdi.oxauth.model.jwk.JSONWebKeySet;
+import org.xdi.oxauth.model.registration.Client;
+import org.xdi.oxauth.model.util.Util;
+import org.xdi.util.StringHelper;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches per client JWE encryption context (recipient public key or key derived from the client secret)
+ * used to encrypt id_token and userinfo responses.
+ * <p>
+ * Cached encrypters are immutable and keep no per-request state (cipher instances are per thread,
+ * see {@link org.xdi.oxauth.model.crypto.CryptoEngines}), so they are shared by all requests of the client.
+ * Entry is rebuilt when client secret or jwks_uri changes or when the client JWKS is re-fetched,
+ * and dropped when the client is updated or removed.
+ */
+@ApplicationScoped
+@Named
+public class ClientJweEncrypterService {
+
+    private static final int MAX_CACHE_SIZE = 1000;
+    private static final int EXPIRE_AFTER_ACCESS_HOURS = 1;
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    @Inject
+    private JwksService jwksService;
+
+    @Inject
+    private ClientService clientService;
+
+    private Cache<String, EncryptionContext> cache;
+
+    @PostConstruct
+    public void init() {
+        this.cache = CacheBuilder.newBuilder().maximumSize(MAX_CACHE_SIZE)
+                .expireAfterAccess(EXPIRE_AFTER_ACCESS_HOURS, TimeUnit.HOURS)
+                .recordStats().build();
+    }
+
+    /**
+     * Returns encrypter for the client and the given algorithms.
+     *
+     * @return encrypter or null if key encryption algorithm is not supported
+     */
+    public JweEncrypter getJweEncrypter(Client client, KeyEncryptionAlgorithm keyEncryptionAlgorithm,
+                                        BlockEncryptionAlgorithm blockEncryptionAlgorithm) throws InvalidJweException {
+        if (keyEncryptionAlgorithm == KeyEncryptionAlgorithm.RSA_OAEP
+                || keyEncryptionAlgorithm == KeyEncryptionAlgorithm.RSA1_5) {
+            // JwksService returns the same instance until JWKS is re-fetched
+            JSONObject jsonWebKeys = jwksService.getJSONWebKeys(client.getJwksUri());
+
+            String cacheKey = getCacheKey(client, keyEncryptionAlgorithm, blockEncryptionAlgorithm);
+            EncryptionContext context = cache.getIfPresent(cacheKey);
+            if (context != null && context.matches(client.getJwksUri(), jsonWebKeys)) {
+                return context.getJweEncrypter();
+            }
+
+            PublicKey publicKey = getPublicKey(jsonWebKeys);
+            if (publicKey == null) {
+                throw new InvalidJweException("The public key is not valid");
+            }
+
+            JweEncrypter jweEncrypter = new JweEncrypterImpl(keyEncryptionAlgorithm, blockEncryptionAlgorithm, publicKey);
+            cache.put(cacheKey, new EncryptionContext(client.getJwksUri(), jsonWebKeys, jweEncrypter));
+
+            return jweEncrypter;
+        } else if (keyEncryptionAlgorithm == KeyEncryptionAlgorithm.A128KW
+                || keyEncryptionAlgorithm == KeyEncryptionAlgorithm.A256KW) {
+            String cacheKey = getCacheKey(client, keyEncryptionAlgorithm, blockEncryptionAlgorithm);
+            EncryptionContext context = cache.getIfPresent(cacheKey);
+            if (context != null && context.matches(client.getClientSecret(), null)) {
+                return context.getJweEncrypter();
+            }
+
+            try {
+                byte[] sharedSymmetricKey = clientService.decryptSecret(client.getClientSecret()).getBytes(Util.UTF8_STRING_ENCODING);
+
+                JweEncrypter jweEncrypter = new JweEncrypterImpl(keyEncryptionAlgorithm, blockEncryptionAlgorithm, sharedSymmetricKey);
+                cache.put(cacheKey, new EncryptionContext(client.getClientSecret(), null, jweEncrypter));
+
+                return jweEncrypter;
+            } catch (Exception e) {
+                throw new InvalidJweException(e);
+            }
+        }
+
+        return null;
+    }
+
+    public void invalidate(String clientId) {
+        if (StringHelper.isEmpty(clientId)) {
+            return;
+        }
+
+        String prefix = clientId + "|";
+        for (String cacheKey : cache.asMap().keySet()) {
+            if (cacheKey.startsWith(prefix)) {
+                cache.invalidate(cacheKey);
+            }
+        }
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    private PublicKey getPublicKey(JSONObject jsonWebKeys) throws InvalidJweException {
+        if (jsonWebKeys == null) {
+            return null;
+        }
+
+        try {
+            AbstractCryptoProvider cryptoProvider = CryptoProviderFactory.getCryptoProvider(appConfiguration);
+            String keyId = cryptoProvider.getKeyId(JSONWebKeySet.fromJSONObject(jsonWebKeys), SignatureAlgorithm.RS256);
+
+            return cryptoProvider.getPublicKey(keyId, jsonWebKeys);
+        } catch (Exception e) {
+            log.error("Failed to get client public key", e);
+            throw new InvalidJweException(e);
+        }
+    }
+
+    private String getCacheKey(Client client, KeyEncryptionAlgorithm keyEncryptionAlgorithm,
+                               BlockEncryptionAlgorithm blockEncryptionAlgorithm) {
+        return client.getClientId() + "|" + keyEncryptionAlgorithm + "|" + blockEncryptionAlgorithm;
+    }
+
+    private static class EncryptionContext {
+
+        private final String keySource;
+        private final JSONObject jwks;
+        private final JweEncrypter jweEncrypter;
+
+        /**
+         * @param keySource jwks_uri or encrypted client secret the key was created from
+         * @param jwks      JWKS instance the public key was taken from
+         */
+        public EncryptionContext(String keySource, JSONObject jwks, JweEncrypter jweEncrypter) {
+            this.keySource = keySource;
+            this.jwks = jwks;
+            this.jweEncrypter = jweEncrypter;
+        }
+
+        public boolean matches(String keySource, JSONObject jwks) {
+            return StringUtils.equals(this.keySource, keySource) && this.jwks == jwks;
+        }
+
+        public JweEncrypter getJweEncrypter() {
+            return jweEncrypter;
+        }
+    }
+}
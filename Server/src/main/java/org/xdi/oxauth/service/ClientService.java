@@ -72,6 +72,9 @@ public class ClientService {
     @Inject
     private StaticConfiguration staticConfiguration;
 
+    @Inject
+    private ClientJweEncrypterService clientJweEncrypterService;
+
     private static String getClientIdCacheKey(String clientId) {
         return "client_id_" + StringHelper.toLowerCase(clientId);
     }
@@ -87,6 +90,7 @@ public class ClientService {
     public void merge(Client client) {
         ldapEntryManager.merge(client);
         removeFromCache(client);
+        removeEncryptionContext(client);
     }
 
     /**
@@ -274,6 +278,7 @@ public class ClientService {
     public void remove(Client client) {
         if (client != null) {
             removeFromCache(client);
+            removeEncryptionContext(client);
 
             String clientDn = client.getDn();
             ldapEntryManager.removeWithSubtree(clientDn);
@@ -292,6 +297,10 @@ public class ClientService {
         }
     }
 
+    private void removeEncryptionContext(Client client) {
+        clientJweEncrypterService.invalidate(client.getClientId());
+    }
+
     public void updatAccessTime(Client client, boolean isUpdateLogonTime) {
 		if (!appConfiguration.getUpdateClientAccessTime()) {
 			return;
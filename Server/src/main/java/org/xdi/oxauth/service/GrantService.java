@@ -6,11 +6,12 @@
 
 package org.xdi.oxauth.service;
 
-import java.util.Calendar;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.ejb.Stateless;
@@ -18,25 +19,20 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.commons.lang.StringUtils;
-import org.gluu.site.ldap.persistence.BatchOperation;
-import org.gluu.site.ldap.persistence.LdapEntryManager;
 import org.slf4j.Logger;
-import org.xdi.ldap.model.SearchScope;
 import org.xdi.oxauth.audit.ApplicationAuditLogger;
 import org.xdi.oxauth.model.audit.Action;
 import org.xdi.oxauth.model.audit.OAuth2AuditLog;
 import org.xdi.oxauth.model.common.AuthorizationGrant;
 import org.xdi.oxauth.model.common.MemcachedGrant;
-import org.xdi.oxauth.model.config.StaticConfiguration;
-import org.xdi.oxauth.model.ldap.Grant;
 import org.xdi.oxauth.model.ldap.TokenLdap;
-import org.xdi.oxauth.util.TokenHashUtil;
+import org.xdi.oxauth.model.util.TokenHashUtil;
+import org.xdi.oxauth.service.token.JwtAccessTokenService;
+import org.xdi.oxauth.service.token.LdapTokenStore;
+import org.xdi.oxauth.service.token.TokenStore;
+import org.xdi.oxauth.service.token.TokenStoreProvider;
 import org.xdi.service.CacheService;
 
-import com.unboundid.ldap.sdk.Filter;
-import com.unboundid.ldap.sdk.LDAPException;
-import com.unboundid.util.StaticUtils;
-
 /**
  * @author Yuriy Zabrovarnyy
  * @author Javier Rojas Blum
@@ -50,104 +46,129 @@ public class GrantService {
     private Logger log;
 
     @Inject
-    private LdapEntryManager ldapEntryManager;
+    private ApplicationAuditLogger applicationAuditLogger;
 
     @Inject
-    private ApplicationAuditLogger applicationAuditLogger;
+    private CacheService cacheService;
 
     @Inject
-    private ClientService clientService;
+    private JwtAccessTokenService jwtAccessTokenService;
 
     @Inject
-    private CacheService cacheService;
+    private TokenCacheService tokenCacheService;
+
+    @Inject
+    private TokenStoreProvider tokenStoreProvider;
+
+    @Inject
+    private LdapTokenStore ldapTokenStore;
 
     @Inject
-    private StaticConfiguration staticConfiguration;
+    private SessionIndexService sessionIndexService;
 
     public static String generateGrantId() {
         return UUID.randomUUID().toString();
     }
 
     public String buildDn(String p_uniqueIdentifier, String p_grantId, String p_clientId) {
-        final StringBuilder dn = new StringBuilder();
-        dn.append(String.format("uniqueIdentifier=%s,oxAuthGrantId=%s,", p_uniqueIdentifier, p_grantId));
-        dn.append(clientService.buildClientDn(p_clientId));
-        return dn.toString();
+        return ldapTokenStore.buildDn(p_uniqueIdentifier, p_grantId, p_clientId);
     }
 
     public String baseDn() {
-        return staticConfiguration.getBaseDn().getClients();  // ou=clients,o=@!1111,o=gluu
+        return ldapTokenStore.baseDn();
+    }
+
+    private TokenStore tokenStore() {
+        return tokenStoreProvider.getTokenStore();
     }
 
     public void merge(TokenLdap p_token) {
-        ldapEntryManager.merge(p_token);
+        // invalidated after the write too, concurrent read could cache the entry again before it's written
+        tokenCacheService.invalidate(p_token);
+        tokenStore().merge(p_token);
+        tokenCacheService.invalidate(p_token);
     }
 
     public void mergeSilently(TokenLdap p_token) {
         try {
-            ldapEntryManager.merge(p_token);
+            merge(p_token);
         } catch (Exception e) {
             log.trace(e.getMessage(), e);
         }
     }
 
     public void persist(TokenLdap p_token) {
-        prepareGrantBranch(p_token.getGrantId(), p_token.getClientId());
         p_token.setTokenCode(TokenHashUtil.getHashedToken(p_token.getTokenCode()));
-        ldapEntryManager.persist(p_token);
-    }
-
-    public void remove(Grant grant) {
-        ldapEntryManager.remove(grant);
-        log.trace("Removed grant, id: " + grant.getId());
+        tokenStore().persist(p_token);
+        tokenCacheService.invalidateGrant(p_token.getGrantId());
+        if (StringUtils.isNotBlank(p_token.getSessionDn())) {
+            sessionIndexService.addGrant(p_token.getSessionDn(), p_token.getClientId(), p_token.getGrantId());
+        }
     }
 
     public void remove(TokenLdap p_token) {
-        ldapEntryManager.remove(p_token);
+        tokenCacheService.invalidate(p_token);
+        tokenStore().remove(p_token);
+        tokenCacheService.invalidate(p_token);
         log.trace("Removed token, code: " + p_token.getTokenCode());
+
+        revokeToken(p_token);
     }
 
-    public void removeSilently(TokenLdap token) {
-        try {
-            remove(token);
+    /**
+     * JWT access tokens are validated without LDAP lookup and other nodes may serve the token from their near-cache,
+     * hence removal must be propagated to the shared revocation set.
+     */
+    private void revokeToken(TokenLdap p_token) {
+        if (p_token.getExpirationDate() != null && p_token.getExpirationDate().after(new Date())) {
+            jwtAccessTokenService.revokeToken(p_token.getTokenCode(), p_token.getExpirationDate());
+        }
+    }
 
-            if (StringUtils.isNotBlank(token.getAuthorizationCode())) {
-                cacheService.remove(null, MemcachedGrant.cacheKey(token.getClientId(), token.getAuthorizationCode()));
-            }
-        } catch (Exception e) {
-            log.trace(e.getMessage(), e);
+    private void removeMemcachedGrant(TokenLdap p_token) {
+        if (StringUtils.isNotBlank(p_token.getAuthorizationCode())) {
+            cacheService.remove(null, MemcachedGrant.cacheKey(p_token.getClientId(), p_token.getAuthorizationCode()));
         }
     }
 
-    public void removeGrants(List<Grant> entries) {
-        if (entries != null && !entries.isEmpty()) {
-            for (Grant g : entries) {
-                try {
-                    remove(g);
-                } catch (Exception e) {
-                    log.error("Failed to remove entry", e);
-                }
+    /**
+     * Clean up after tokens removed by the token store in bulk.
+     */
+    private void onRemoved(List<TokenLdap> p_entries) {
+        for (TokenLdap t : p_entries) {
+            try {
+                tokenCacheService.invalidate(t);
+                revokeToken(t);
+                removeMemcachedGrant(t);
+            } catch (Exception e) {
+                log.trace(e.getMessage(), e);
             }
         }
     }
 
+    public void removeSilently(TokenLdap token) {
+        try {
+            remove(token);
+            removeMemcachedGrant(token);
+        } catch (Exception e) {
+            log.trace(e.getMessage(), e);
+        }
+    }
+
     public void remove(List<TokenLdap> p_entries) {
         if (p_entries != null && !p_entries.isEmpty()) {
             for (TokenLdap t : p_entries) {
-                try {
-                    remove(t);
-                } catch (Exception e){
-                    log.error("Failed to remove entry", e);
-                }
+                tokenCacheService.invalidate(t);
             }
+            onRemoved(tokenStore().remove(p_entries));
         }
     }
 
     public void removeSilently(List<TokenLdap> p_entries) {
-        if (p_entries != null && !p_entries.isEmpty()) {
-            for (TokenLdap t : p_entries) {
-                removeSilently(t);
-            }
+        try {
+            remove(p_entries);
+        } catch (Exception e) {
+            log.trace(e.getMessage(), e);
         }
     }
 
@@ -162,70 +183,103 @@ public class GrantService {
     }
 
     public List<TokenLdap> getGrantsOfClient(String p_clientId) {
-        try {
-            final String baseDn = clientService.buildClientDn(p_clientId);
-            return ldapEntryManager.findEntries(baseDn, TokenLdap.class, Filter.create("oxAuthTokenCode=*"));
-        } catch (Exception e) {
-            log.trace(e.getMessage(), e);
-        }
-        return Collections.emptyList();
+        return tokenStore().getByClient(p_clientId);
     }
 
     public TokenLdap getGrantsByCodeAndClient(String p_code, String p_clientId) {
-        return load(clientService.buildClientDn(p_clientId), p_code);
+        final TokenLdap token = getGrantsByCode(p_code);
+        if (token != null && StringUtils.equals(token.getClientId(), p_clientId)) {
+            return token;
+        }
+        return null;
     }
 
     public TokenLdap getGrantsByCode(String p_code) {
-        return load(baseDn(), p_code);
+        final String hashedCode = TokenHashUtil.getHashedToken(p_code);
+        final TokenLdap cached = tokenCacheService.getByCode(hashedCode);
+        if (cached != null) {
+            return cached;
+        }
+
+        final TokenLdap token = tokenStore().getByCode(hashedCode);
+        tokenCacheService.putByCode(token);
+        return token;
     }
 
-    private TokenLdap load(String p_baseDn, String p_code) {
-        try {
-            final List<TokenLdap> entries = ldapEntryManager.findEntries(p_baseDn, TokenLdap.class, Filter.create(String.format("oxAuthTokenCode=%s", TokenHashUtil.getHashedToken(p_code))));
-            if (entries != null && !entries.isEmpty()) {
-                return entries.get(0);
+    /**
+     * Looks up tokens of several codes at once, cached tokens are not looked up in the token store.
+     *
+     * @return found tokens in no particular order
+     */
+    public List<TokenLdap> getGrantsByCodes(Collection<String> p_codes) {
+        final List<TokenLdap> result = new ArrayList<TokenLdap>();
+        final Set<String> missed = new HashSet<String>();
+        for (String code : p_codes) {
+            final String hashedCode = TokenHashUtil.getHashedToken(code);
+            final TokenLdap cached = tokenCacheService.getByCode(hashedCode);
+            if (cached != null) {
+                result.add(cached);
+            } else {
+                missed.add(hashedCode);
             }
-        } catch (LDAPException e) {
-            log.trace(e.getMessage(), e);
-        } catch (Exception e) {
-            log.trace(e.getMessage(), e);
         }
-        return null;
+
+        if (!missed.isEmpty()) {
+            for (TokenLdap token : tokenStore().getByCodes(missed)) {
+                tokenCacheService.putByCode(token);
+                result.add(token);
+            }
+        }
+        return result;
     }
 
     public List<TokenLdap> getGrantsByGrantId(String p_grantId) {
-        try {
-            return ldapEntryManager.findEntries(baseDn(), TokenLdap.class, Filter.create(String.format("oxAuthGrantId=%s", p_grantId)));
-        } catch (LDAPException e) {
-            log.trace(e.getMessage(), e);
-        } catch (Exception e) {
-            log.trace(e.getMessage(), e);
+        final List<TokenLdap> cached = tokenCacheService.getByGrantId(p_grantId);
+        if (cached != null) {
+            return cached;
         }
-        return Collections.emptyList();
+
+        final List<TokenLdap> entries = tokenStore().getByGrantId(p_grantId);
+        tokenCacheService.putByGrantId(p_grantId, entries);
+        return entries;
     }
 
     public List<TokenLdap> getGrantsByAuthorizationCode(String p_authorizationCode) {
-        try {
-            return ldapEntryManager.findEntries(baseDn(), TokenLdap.class, Filter.create(String.format("oxAuthAuthorizationCode=%s", TokenHashUtil.getHashedToken(p_authorizationCode))));
-        } catch (LDAPException e) {
-            log.trace(e.getMessage(), e);
-        } catch (Exception e) {
-            log.trace(e.getMessage(), e);
-        }
-        return Collections.emptyList();
+        return tokenStore().getByAuthorizationCode(TokenHashUtil.getHashedToken(p_authorizationCode));
     }
 
     public List<TokenLdap> getGrantsBySessionDn(String sessionDn) {
-        try {
-            return ldapEntryManager.findEntries(baseDn(), TokenLdap.class, Filter.create(String.format("oxAuthSessionDn=%s", sessionDn)));
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
+        return tokenStore().getBySessionDn(sessionDn);
+    }
+
+    /**
+     * Removes tokens of the session. If grants of the session are indexed only their branches are looked up,
+     * otherwise (index entry is missing or partial) tokens are searched by session DN.
+     *
+     * @return true if tokens were found by the session index
+     */
+    public boolean removeAllTokensBySession(String sessionDn) {
+        final List<SessionIndexService.GrantReference> grants = sessionIndexService.getGrants(sessionDn);
+        if (grants == null) {
+            onRemoved(tokenStore().removeBySessionDn(sessionDn));
+            return false;
         }
-        return Collections.emptyList();
+
+        final List<TokenLdap> tokens = new ArrayList<TokenLdap>();
+        for (SessionIndexService.GrantReference grant : grants) {
+            for (TokenLdap token : tokenStore().getByGrant(grant.getClientId(), grant.getGrantId())) {
+                if (sessionDn.equals(token.getSessionDn())) {
+                    tokens.add(token);
+                }
+            }
+        }
+        remove(tokens);
+        sessionIndexService.removeGrants(sessionDn);
+        return true;
     }
 
-    public void removeAllTokensBySession(String sessionDn) {
-        removeSilently(getGrantsBySessionDn(sessionDn));
+    public void removeAllTokensByClient(String p_clientId) {
+        remove(tokenStore().getByClient(p_clientId));
     }
 
     /**
@@ -246,111 +300,22 @@ public class GrantService {
     }
 
     public void removeAllByGrantId(String p_grantId) {
-        removeSilently(getGrantsByGrantId(p_grantId));
+        jwtAccessTokenService.revokeGrant(p_grantId);
+        tokenCacheService.invalidateGrant(p_grantId);
+        onRemoved(tokenStore().removeByGrantId(p_grantId));
+        tokenCacheService.invalidateGrant(p_grantId);
     }
 
     public void cleanUp() {
-
-        // Cleaning oxAuthToken
-        BatchOperation<TokenLdap> tokenBatchService = new BatchOperation<TokenLdap>(ldapEntryManager) {
-            @Override
-            protected List<TokenLdap> getChunkOrNull(int chunkSize) {
-                return ldapEntryManager.findEntries(baseDn(), TokenLdap.class, getFilter(), SearchScope.SUB, null, this, 0, chunkSize, chunkSize);
-            }
-
-            @Override
-            protected void performAction(List<TokenLdap> entries) {
-                auditLogging(entries);
-                remove(entries);
-            }
-
-            private Filter getFilter() {
-                try {
-                    return Filter.create(String.format("(oxAuthExpiration<=%s)", StaticUtils.encodeGeneralizedTime(new Date())));
-                }catch (LDAPException e) {
-                    log.trace(e.getMessage(), e);
-                    return Filter.createPresenceFilter("oxAuthExpiration");
-                }
-            }
-        };
-        tokenBatchService.iterateAllByChunks(CleanerTimer.BATCH_SIZE);
-
-        // Cleaning oxAuthGrant
-        BatchOperation<Grant> grantBatchService = new BatchOperation<Grant>(ldapEntryManager) {
-            @Override
-            protected List<Grant> getChunkOrNull(int chunkSize) {
-                return ldapEntryManager.findEntries(baseDn(), Grant.class, getFilter(), SearchScope.SUB, null, this, 0, chunkSize, chunkSize);
-            }
-
-            @Override
-            protected void performAction(List<Grant> entries) {
-                removeGrants(entries);
-            }
-
-            private Filter getFilter() {
-                try {
-                    Calendar calendar = Calendar.getInstance();
-                    calendar.add(Calendar.SECOND, 60);
-                    return Filter.create(String.format("(&(oxAuthCreation<=%s)(|(numsubordinates=0)(hasSubordinates=FALSE)))", StaticUtils.encodeGeneralizedTime(calendar.getTime())));
-                }catch (LDAPException e) {
-                    log.trace(e.getMessage(), e);
-                    return Filter.createPresenceFilter("oxAuthCreation");
-                }
-            }
-        };
-        grantBatchService.iterateAllByChunks(CleanerTimer.BATCH_SIZE);
-
-        // Cleaning old oxAuthGrant
-        // Note: This block should be removed, it is used only to delete old legacy data.
-        BatchOperation<Grant> oldGrantBatchService = new BatchOperation<Grant>(ldapEntryManager) {
-            @Override
-            protected List<Grant> getChunkOrNull(int chunkSize) {
-                return ldapEntryManager.findEntries(baseDn(), Grant.class, getFilter(), SearchScope.SUB, null, this, 0, chunkSize, chunkSize);
-            }
-
+        tokenStore().removeExpired(new Date(), new TokenStore.ExpiredTokensListener() {
             @Override
-            protected void performAction(List<Grant> entries) {
-                removeGrants(entries);
-            }
-
-            private Filter getFilter() {
-                try {
-                    return Filter.create("(&(!(oxAuthCreation=*))(|(numsubordinates=0)(hasSubordinates=FALSE)))");
-                }catch (LDAPException e) {
-                    log.trace(e.getMessage(), e);
-                    return Filter.createPresenceFilter("oxAuthCreation");
+            public void onRemoved(List<TokenLdap> tokens) {
+                auditLogging(tokens);
+                for (TokenLdap t : tokens) {
+                    tokenCacheService.invalidate(t);
                 }
             }
-        };
-        oldGrantBatchService.iterateAllByChunks(CleanerTimer.BATCH_SIZE);
-    }
-
-    private void addGrantBranch(final String p_grantId, final String p_clientId) {
-        Grant grant = new Grant();
-        grant.setDn(getBaseDnForGrant(p_grantId, p_clientId));
-        grant.setId(p_grantId);
-        grant.setCreationDate(new Date());
-
-        ldapEntryManager.persist(grant);
-    }
-
-    private void prepareGrantBranch(final String p_grantId, final String p_clientId) {
-        // Create ocAuthGrant branch if needed
-        if (!containsGrantBranch(p_grantId, p_clientId)) {
-            addGrantBranch(p_grantId, p_clientId);
-        }
-    }
-
-    private boolean containsGrantBranch(final String p_grantId, final String p_clientId) {
-        return ldapEntryManager.contains(Grant.class, getBaseDnForGrant(p_grantId, p_clientId));
-    }
-
-    private String getBaseDnForGrant(final String p_grantId, final String p_clientId) {
-        final StringBuilder dn = new StringBuilder();
-        dn.append(String.format("oxAuthGrantId=%s,", p_grantId));
-        dn.append(clientService.buildClientDn(p_clientId));
-
-        return dn.toString();
+        });
     }
 
     private void auditLogging(Collection<TokenLdap> entries) {
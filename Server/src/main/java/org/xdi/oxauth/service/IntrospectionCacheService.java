@@ -0,0 +1,217 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.service.token.JwtAccessTokenService;
+import org.xdi.util.StringHelper;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches of the introspection endpoint, both keyed by hashed token.
+ * <p>
+ * Responses of active tokens are kept at most introspectionCacheLifetime seconds and never longer than the token
+ * lives. Successful authorization checks of the caller's PAT are kept introspectionPatCacheLifetime seconds. Entries
+ * are dropped when the token or its grant is removed on this node ({@link TokenCacheService} forwards invalidation).
+ * Removal on other nodes is seen through access token revocations shared by {@link JwtAccessTokenService}, which are
+ * checked on every cache hit.
+ */
+@ApplicationScoped
+@Named
+public class IntrospectionCacheService {
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    @Inject
+    private JwtAccessTokenService jwtAccessTokenService;
+
+    private GrantIndexedCache responses;
+    private GrantIndexedCache pats;
+
+    @PostConstruct
+    public void init() {
+        this.responses = new GrantIndexedCache(appConfiguration.getIntrospectionCacheSize(), appConfiguration.getIntrospectionCacheLifetime());
+        this.pats = new GrantIndexedCache(appConfiguration.getIntrospectionCacheSize(), appConfiguration.getIntrospectionPatCacheLifetime());
+    }
+
+    /**
+     * @return cached introspection response (JSON) or null
+     */
+    public String getResponse(String hashedToken) {
+        final Entry entry = responses.get(hashedToken);
+        return entry != null && !isRevoked(responses, hashedToken, entry) ? entry.value : null;
+    }
+
+    public void putResponse(String hashedToken, String grantId, Date expirationDate, String response) {
+        responses.put(hashedToken, grantId, expirationDate, response);
+    }
+
+    /**
+     * @return true if the PAT was recently checked to be valid and to have uma_protection scope
+     */
+    public boolean isPatAuthorized(String hashedPat) {
+        final Entry entry = pats.get(hashedPat);
+        return entry != null && !isRevoked(pats, hashedPat, entry);
+    }
+
+    public void putPatAuthorized(String hashedPat, String grantId, Date expirationDate) {
+        pats.put(hashedPat, grantId, expirationDate, Boolean.TRUE.toString());
+    }
+
+    public void invalidate(String hashedToken) {
+        responses.invalidate(hashedToken);
+        pats.invalidate(hashedToken);
+    }
+
+    public void invalidateGrant(String grantId) {
+        responses.invalidateGrant(grantId);
+        pats.invalidateGrant(grantId);
+    }
+
+    private boolean isRevoked(GrantIndexedCache cache, String hashedToken, Entry entry) {
+        if (jwtAccessTokenService.isRevoked(hashedToken, entry.grantId, new Date(entry.expiresAt))) {
+            cache.invalidate(hashedToken);
+            return true;
+        }
+        return false;
+    }
+
+    public CacheStats getResponseStats() {
+        return responses.cache.stats();
+    }
+
+    public CacheStats getPatStats() {
+        return pats.cache.stats();
+    }
+
+    public long getResponseSize() {
+        return responses.cache.size();
+    }
+
+    public long getPatSize() {
+        return pats.cache.size();
+    }
+
+    private static class Entry {
+
+        private final String value;
+        private final String grantId;
+        private final long expiresAt;
+
+        Entry(String value, String grantId, long expiresAt) {
+            this.value = value;
+            this.grantId = grantId;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Cache with index of keys by grant id, so that all entries of a grant can be dropped without scanning the cache.
+     */
+    private static class GrantIndexedCache {
+
+        private final boolean enabled;
+        private final Cache<String, Entry> cache;
+        private final ConcurrentMap<String, Set<String>> keysByGrantId = new ConcurrentHashMap<String, Set<String>>();
+
+        GrantIndexedCache(int size, int lifetime) {
+            this.enabled = size > 0 && lifetime > 0;
+            this.cache = CacheBuilder.newBuilder().maximumSize(Math.max(0, size))
+                    .expireAfterWrite(Math.max(0, lifetime), TimeUnit.SECONDS)
+                    .recordStats()
+                    .removalListener(new RemovalListener<String, Entry>() {
+                        @Override
+                        public void onRemoval(RemovalNotification<String, Entry> notification) {
+                            // replaced entry is already indexed by the new one
+                            if (notification.getCause() != RemovalCause.REPLACED && notification.getValue() != null) {
+                                unindex(notification.getValue().grantId, notification.getKey());
+                            }
+                        }
+                    }).build();
+        }
+
+        Entry get(String key) {
+            if (!enabled || StringHelper.isEmpty(key)) {
+                return null;
+            }
+
+            final Entry entry = cache.getIfPresent(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= System.currentTimeMillis()) {
+                cache.invalidate(key);
+                return null;
+            }
+            return entry;
+        }
+
+        void put(String key, String grantId, Date expirationDate, String value) {
+            if (!enabled || StringHelper.isEmpty(key) || StringHelper.isEmpty(grantId) || expirationDate == null) {
+                return;
+            }
+            if (expirationDate.getTime() <= System.currentTimeMillis()) {
+                return;
+            }
+
+            Set<String> keys = keysByGrantId.get(grantId);
+            if (keys == null) {
+                final Set<String> newKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                keys = keysByGrantId.putIfAbsent(grantId, newKeys);
+                if (keys == null) {
+                    keys = newKeys;
+                }
+            }
+            keys.add(key);
+            cache.put(key, new Entry(value, grantId, expirationDate.getTime()));
+        }
+
+        void invalidate(String key) {
+            if (enabled && StringHelper.isNotEmpty(key)) {
+                cache.invalidate(key);
+            }
+        }
+
+        void invalidateGrant(String grantId) {
+            if (!enabled || StringHelper.isEmpty(grantId)) {
+                return;
+            }
+
+            final Set<String> keys = keysByGrantId.remove(grantId);
+            if (keys != null) {
+                cache.invalidateAll(keys);
+            }
+        }
+
+        private void unindex(String grantId, String key) {
+            final Set<String> keys = keysByGrantId.get(grantId);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    keysByGrantId.remove(grantId, keys);
+                }
+            }
+        }
+    }
+}
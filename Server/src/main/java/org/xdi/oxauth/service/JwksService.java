@@ -0,0 +1,271 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
+import org.slf4j.Logger;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.util.Util;
+import org.xdi.util.StringHelper;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.xdi.oxauth.model.jwk.JWKParameter.JSON_WEB_KEY_SET;
+import static org.xdi.oxauth.model.jwk.JWKParameter.KEY_ID;
+
+/**
+ * Caches client JWKS downloaded from jwks_uri.
+ * <p>
+ * Lifetime of the entry is taken from Cache-Control/Expires response headers (bounded by configuration).
+ * JWKS is re-fetched before expiration if the requested kid is not found. Concurrent requests for the same
+ * jwks_uri share one download and failed downloads are cached for a short time.
+ */
+@ApplicationScoped
+@Named
+public class JwksService {
+
+    private static final int MAX_CACHE_SIZE = 1000;
+    private static final int MAX_CONNECTIONS = 200;
+    private static final int MAX_CONNECTIONS_PER_ROUTE = 20;
+
+    public static final String CACHE_NAME = "jwks";
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    @Inject
+    private MetricService metricService;
+
+    private Cache<String, CachedJwks> cache;
+
+    private CloseableHttpClient httpClient;
+
+    @PostConstruct
+    public void init() {
+        this.cache = CacheBuilder.newBuilder().maximumSize(MAX_CACHE_SIZE)
+                .expireAfterWrite(appConfiguration.getJwksCacheMaxLifetime(), TimeUnit.SECONDS)
+                .recordStats().build();
+
+        int timeout = appConfiguration.getJwksRequestTimeout();
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(timeout)
+                .setConnectionRequestTimeout(timeout).setSocketTimeout(timeout).build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig).build();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        try {
+            httpClient.close();
+        } catch (IOException ex) {
+            log.error("Failed to close JWKS http client", ex);
+        }
+    }
+
+    public JSONObject getJSONWebKeys(String jwksUri) {
+        return getJSONWebKeys(jwksUri, null);
+    }
+
+    /**
+     * Returns JWKS for the given jwks_uri. If keyId is not null and is not present in the cached JWKS,
+     * JWKS is re-fetched (at most once per jwksCacheMinLifetime).
+     *
+     * @return JWKS or null if it can't be downloaded
+     */
+    public JSONObject getJSONWebKeys(final String jwksUri, String keyId) {
+        if (StringHelper.isEmpty(jwksUri)) {
+            return null;
+        }
+
+        final long now = System.currentTimeMillis();
+
+        CachedJwks cached = cache.getIfPresent(jwksUri);
+        if (cached != null) {
+            boolean refresh = cached.isExpired(now);
+            if (!refresh && keyId != null && !cached.containsKeyId(keyId)) {
+                refresh = now - cached.getFetchedAt() >= appConfiguration.getJwksCacheMinLifetime() * 1000L;
+                if (refresh) {
+                    log.debug("Key '{}' is not found in JWKS of '{}', refreshing", keyId, jwksUri);
+                }
+            }
+
+            if (!refresh) {
+                return cached.getJwks();
+            }
+
+            // Only the first thread which sees the stale entry removes it, others wait for its load below
+            cache.asMap().remove(jwksUri, cached);
+        }
+
+        final CachedJwks previous = cached;
+        try {
+            return cache.get(jwksUri, new Callable<CachedJwks>() {
+                @Override
+                public CachedJwks call() {
+                    return fetch(jwksUri, previous);
+                }
+            }).getJwks();
+        } catch (ExecutionException ex) {
+            log.error("Failed to load JWKS from " + jwksUri, ex);
+            return null;
+        }
+    }
+
+    public void invalidate(String jwksUri) {
+        if (StringHelper.isNotEmpty(jwksUri)) {
+            cache.invalidate(jwksUri);
+        }
+    }
+
+    /**
+     * Publishes cache statistics by {@link MetricService}.
+     */
+    public void publishStatistics() {
+        metricService.setCacheStatistics(new CacheStatistics(CACHE_NAME, cache.size(), cache.stats()));
+    }
+
+    private CachedJwks fetch(String jwksUri, CachedJwks previous) {
+        log.debug("Retrieving jwks from {}", jwksUri);
+
+        long now = System.currentTimeMillis();
+        try {
+            CloseableHttpResponse response = httpClient.execute(new HttpGet(jwksUri));
+            try {
+                int status = response.getStatusLine().getStatusCode();
+                String entity = EntityUtils.toString(response.getEntity(), Util.UTF8_STRING_ENCODING);
+                if (status == 200) {
+                    JSONObject jwks = new JSONObject(entity);
+                    long lifetime = getLifetime(response, now);
+                    log.debug("Loaded JWKS from {}, lifetime: {} ms", jwksUri, lifetime);
+
+                    return new CachedJwks(jwks, now, now + lifetime);
+                }
+
+                log.error("Failed to load JWKS from {}, status: {}", jwksUri, status);
+            } finally {
+                response.close();
+            }
+        } catch (Exception ex) {
+            log.error("Failed to load JWKS from " + jwksUri, ex);
+        }
+
+        // Serve last known JWKS (if any) while failure is cached
+        long failureLifetime = appConfiguration.getJwksCacheFailureLifetime() * 1000L;
+        JSONObject jwks = previous != null ? previous.getJwks() : null;
+        return new CachedJwks(jwks, now, now + failureLifetime);
+    }
+
+    private long getLifetime(CloseableHttpResponse response, long now) {
+        long lifetime = appConfiguration.getJwksCacheLifetime() * 1000L;
+
+        boolean fromHeaders = false;
+        for (Header header : response.getHeaders("Cache-Control")) {
+            for (HeaderElement element : header.getElements()) {
+                String name = element.getName();
+                if ("no-cache".equalsIgnoreCase(name) || "no-store".equalsIgnoreCase(name)) {
+                    lifetime = 0;
+                    fromHeaders = true;
+                } else if ("max-age".equalsIgnoreCase(name) && element.getValue() != null && !fromHeaders) {
+                    try {
+                        lifetime = Long.parseLong(element.getValue().trim()) * 1000L;
+                        fromHeaders = true;
+                    } catch (NumberFormatException ex) {
+                        log.trace("Invalid max-age: {}", element.getValue());
+                    }
+                }
+            }
+        }
+
+        if (!fromHeaders) {
+            Header expires = response.getFirstHeader("Expires");
+            if (expires != null) {
+                Date expiresDate = DateUtils.parseDate(expires.getValue());
+                lifetime = expiresDate != null ? expiresDate.getTime() - now : 0;
+            }
+        }
+
+        long minLifetime = appConfiguration.getJwksCacheMinLifetime() * 1000L;
+        long maxLifetime = appConfiguration.getJwksCacheMaxLifetime() * 1000L;
+
+        return Math.min(Math.max(lifetime, minLifetime), maxLifetime);
+    }
+
+    private static class CachedJwks {
+
+        private final JSONObject jwks;
+        private final long fetchedAt;
+        private final long expiresAt;
+
+        public CachedJwks(JSONObject jwks, long fetchedAt, long expiresAt) {
+            this.jwks = jwks;
+            this.fetchedAt = fetchedAt;
+            this.expiresAt = expiresAt;
+        }
+
+        public JSONObject getJwks() {
+            return jwks;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+
+        public boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+        public boolean containsKeyId(String keyId) {
+            if (jwks == null) {
+                return false;
+            }
+
+            JSONArray keys = jwks.optJSONArray(JSON_WEB_KEY_SET);
+            if (keys == null) {
+                return false;
+            }
+
+            for (int i = 0; i < keys.length(); i++) {
+                JSONObject key = keys.optJSONObject(i);
+                if (key != null && keyId.equals(key.optString(KEY_ID, null))) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -15,7 +15,6 @@ import org.xdi.oxauth.model.config.Conf;
 import org.xdi.oxauth.model.config.ConfigurationFactory;
 import org.xdi.oxauth.model.configuration.AppConfiguration;
 import org.xdi.oxauth.model.crypto.AbstractCryptoProvider;
-import org.xdi.oxauth.model.crypto.CryptoProviderFactory;
 import org.xdi.oxauth.service.cdi.event.KeyGenerationEvent;
 import org.xdi.service.cdi.event.Scheduled;
 import org.xdi.service.timer.event.TimerEvent;
@@ -27,7 +26,9 @@ import javax.enterprise.event.Event;
 import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.ArrayList;
 import java.util.GregorianCalendar;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -113,9 +114,13 @@ public class KeyGeneratorTimer {
 		return conf.getWebKeys();
 	}
 
+	/**
+	 * New keys are generated in this (timer) thread and published to signers together with removal of the expired
+	 * keys in one key store update, see {@link AbstractCryptoProvider#rotateKeys}.
+	 */
 	private JSONObject updateKeys(JSONObject jwks) throws Exception {
-		JSONObject jsonObject = AbstractCryptoProvider.generateJwks(appConfiguration.getKeyRegenerationInterval(),
-				appConfiguration.getIdTokenLifetime(), appConfiguration);
+		List<String> expiredKeyIds = new ArrayList<String>();
+		List<JSONObject> keptKeys = new ArrayList<JSONObject>();
 
 		JSONArray keys = jwks.getJSONArray(JSON_WEB_KEY_SET);
 		for (int i = 0; i < keys.length(); i++) {
@@ -130,10 +135,9 @@ public class KeyGeneratorTimer {
 					// The expired key is not added to the array of keys
 					log.debug("Removing JWK: {}, Expiration date: {}", key.getString(KEY_ID),
 							key.getString(EXPIRATION_TIME));
-					AbstractCryptoProvider cryptoProvider = CryptoProviderFactory.getCryptoProvider(appConfiguration);
-					cryptoProvider.deleteKey(key.getString(KEY_ID));
+					expiredKeyIds.add(key.getString(KEY_ID));
 				} else {
-					jsonObject.getJSONArray(JSON_WEB_KEY_SET).put(key);
+					keptKeys.add(key);
 				}
 			} else {
 				GregorianCalendar expirationTime = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
@@ -141,10 +145,16 @@ public class KeyGeneratorTimer {
 				expirationTime.add(GregorianCalendar.SECOND, appConfiguration.getIdTokenLifetime());
 				key.put(EXPIRATION_TIME, expirationTime.getTimeInMillis());
 
-				jsonObject.getJSONArray(JSON_WEB_KEY_SET).put(key);
+				keptKeys.add(key);
 			}
 		}
 
+		JSONObject jsonObject = AbstractCryptoProvider.generateJwks(appConfiguration.getKeyRegenerationInterval(),
+				appConfiguration.getIdTokenLifetime(), appConfiguration, expiredKeyIds);
+		for (JSONObject key : keptKeys) {
+			jsonObject.getJSONArray(JSON_WEB_KEY_SET).put(key);
+		}
+
 		return jsonObject;
 	}
 
@@ -0,0 +1,95 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.gluu.site.ldap.persistence.exception.EntryPersistenceException;
+import org.slf4j.Logger;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers DNs of branch entries (oxAuthGrant, pairwiseIdentifiers, clientAuthorizations, fido, UMA branches)
+ * which are known to exist, so that prepareBranch doesn't have to check the branch in LDAP before every write
+ * under it.
+ * <p>
+ * Bounded by knownBranchesCacheSize, entries expire after knownBranchesCacheLifetime seconds. Services which remove
+ * branches should call {@link #forget(String)}.
+ */
+@ApplicationScoped
+@Named
+public class KnownBranchesService {
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private LdapEntryManager ldapEntryManager;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    private Cache<String, Boolean> knownBranches;
+
+    @PostConstruct
+    public void init() {
+        this.knownBranches = CacheBuilder.newBuilder().maximumSize(appConfiguration.getKnownBranchesCacheSize())
+                .expireAfterWrite(appConfiguration.getKnownBranchesCacheLifetime(), TimeUnit.SECONDS)
+                .recordStats().build();
+    }
+
+    /**
+     * @return true if branch is known to exist or exists in LDAP
+     */
+    public boolean contains(Class<?> entryClass, String dn) {
+        if (knownBranches.getIfPresent(dn) != null) {
+            return true;
+        }
+
+        final boolean contains = ldapEntryManager.contains(entryClass, dn);
+        if (contains) {
+            knownBranches.put(dn, Boolean.TRUE);
+        }
+        return contains;
+    }
+
+    /**
+     * Persists branch entry. Entry added concurrently (e.g. by another request or another node) is not treated as
+     * error.
+     */
+    public void persist(Object branch, String dn) {
+        try {
+            ldapEntryManager.persist(branch);
+        } catch (EntryPersistenceException e) {
+            if (!ldapEntryManager.contains(branch.getClass(), dn)) {
+                throw e;
+            }
+            log.trace("Branch is already added: {}", dn);
+        }
+        knownBranches.put(dn, Boolean.TRUE);
+    }
+
+    public void forget(String dn) {
+        knownBranches.invalidate(dn);
+    }
+
+    public CacheStats getStats() {
+        return knownBranches.stats();
+    }
+
+    public long getSize() {
+        return knownBranches.size();
+    }
+}
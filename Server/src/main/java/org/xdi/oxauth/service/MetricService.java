@@ -14,6 +14,10 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.inject.Instance;
 import javax.inject.Inject;
 import javax.inject.Named;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Store and retrieve metric
@@ -41,6 +45,10 @@ public class MetricService extends org.xdi.service.metric.MetricService {
 	@Inject
     private StaticConfiguration staticConfiguration;
 
+	private final ConcurrentMap<String, CleanerStatistics> cleanerStatistics = new ConcurrentHashMap<String, CleanerStatistics>();
+
+	private final ConcurrentMap<String, CacheStatistics> cacheStatistics = new ConcurrentHashMap<String, CacheStatistics>();
+
     public void initTimer() {
     	initTimer(this.appConfiguration.getMetricReporterInterval());
     }
@@ -59,4 +67,32 @@ public class MetricService extends org.xdi.service.metric.MetricService {
 		return instance.get();
 	}
 
+	/**
+	 * Publishes statistics of the last clean up run of the entity type.
+	 */
+	public void setCleanerStatistics(CleanerStatistics statistics) {
+		cleanerStatistics.put(statistics.getEntityType(), statistics);
+	}
+
+	/**
+	 * @return statistics of the last clean up run by entity type
+	 */
+	public Map<String, CleanerStatistics> getCleanerStatistics() {
+		return Collections.unmodifiableMap(cleanerStatistics);
+	}
+
+	/**
+	 * Publishes the latest statistics snapshot of the cache.
+	 */
+	public void setCacheStatistics(CacheStatistics statistics) {
+		cacheStatistics.put(statistics.getCacheName(), statistics);
+	}
+
+	/**
+	 * @return the latest statistics snapshot by cache name
+	 */
+	public Map<String, CacheStatistics> getCacheStatistics() {
+		return Collections.unmodifiableMap(cacheStatistics);
+	}
+
 }
\ No newline at end of file
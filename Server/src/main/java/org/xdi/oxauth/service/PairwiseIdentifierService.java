@@ -38,16 +38,19 @@ public class PairwiseIdentifierService {
     @Inject
     private AppConfiguration appConfiguration;
 
+    @Inject
+    private KnownBranchesService knownBranchesService;
+
     public void addBranch(final String userInum) {
         SimpleBranch branch = new SimpleBranch();
         branch.setOrganizationalUnitName("pairwiseIdentifiers");
         branch.setDn(getBaseDnForPairwiseIdentifiers(userInum));
 
-        ldapEntryManager.persist(branch);
+        knownBranchesService.persist(branch, branch.getDn());
     }
 
     public boolean containsBranch(final String userInum) {
-        return ldapEntryManager.contains(SimpleBranch.class, getBaseDnForPairwiseIdentifiers(userInum));
+        return knownBranchesService.contains(SimpleBranch.class, getBaseDnForPairwiseIdentifiers(userInum));
     }
 
     public void prepareBranch(final String userInum) {
@@ -0,0 +1,316 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.xdi.oxauth.model.common.SessionIdState;
+import org.xdi.oxauth.model.common.SessionState;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.util.TokenHashUtil;
+import org.xdi.oxauth.util.ServerUtil;
+import org.xdi.service.CacheService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Secondary indexes of sessions kept in the distributed cache next to the sessions: user DN to ids of user's sessions
+ * and session id to grants (client id and grant id) created within the session.
+ * <p>
+ * Index entry of a session is created when the session gets authenticated, so missing entry means that grants of
+ * the session are unknown (entry expired or session was created while the index was disabled) and the caller has to
+ * search tokens instead. Entries are updated by read-modify-write, which is serialized on this node; the cache has no
+ * compare-and-set, so concurrent updates of the same entry on different nodes (e.g. two grants of one session issued
+ * at the same moment by two nodes) may lose a member. Each added member is therefore verified
+ * {@value #VERIFY_DELAY} ms later (after any concurrent read-modify-write has finished) and added again if it was
+ * lost. If it keeps getting lost, the entry is marked as partial and grants of the session are searched again.
+ */
+@ApplicationScoped
+@Named
+public class SessionIndexService {
+
+    private static final String USER_SESSIONS_PREFIX = "user_sessions_";
+    private static final String SESSION_GRANTS_PREFIX = "session_grants_";
+    private static final String SEPARATOR = "\n";
+    private static final String PARTIAL = "*";
+    private static final int DEFAULT_EXPIRATION = 86400; // seconds
+    private static final int LOCK_STRIPES = 64;
+    private static final long VERIFY_DELAY = 1000; // milliseconds
+    private static final int VERIFY_ATTEMPTS = 3;
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    @Inject
+    private CacheService cacheService;
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    // members added recently by this node, re-adding them doesn't need read of the entry
+    private Cache<String, Boolean> indexed;
+
+    private ScheduledExecutorService verifier;
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.indexed = CacheBuilder.newBuilder().maximumSize(100000).expireAfterWrite(10, TimeUnit.MINUTES).build();
+        this.verifier = ServerUtil.createExecutor();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        verifier.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        final Boolean enabled = appConfiguration.getSessionIndexEnabled();
+        return enabled != null && enabled;
+    }
+
+    /**
+     * Indexes authenticated session by its user and creates empty grants entry of the session.
+     */
+    public void addSession(SessionState p_session) {
+        if (!isEnabled() || p_session.getState() != SessionIdState.AUTHENTICATED
+                || StringUtils.isBlank(p_session.getUserDn()) || StringUtils.isBlank(p_session.getId())) {
+            return;
+        }
+
+        final String sessionKey = SESSION_GRANTS_PREFIX + p_session.getId();
+        if (indexed.getIfPresent(sessionKey) == null) {
+            synchronized (lock(sessionKey)) {
+                if (read(sessionKey) == null) {
+                    write(sessionKey, new LinkedHashSet<String>());
+                }
+            }
+            indexed.put(sessionKey, Boolean.TRUE);
+        }
+
+        add(userKey(p_session.getUserDn()), p_session.getId(), true);
+    }
+
+    public void addGrant(String p_sessionDn, String p_clientId, String p_grantId) {
+        final String sessionId = SessionStateService.idFromDn(p_sessionDn);
+        if (!isEnabled() || sessionId == null || StringUtils.isBlank(p_clientId) || StringUtils.isBlank(p_grantId)) {
+            return;
+        }
+
+        // entry missing grants issued before it expired must stay missing, otherwise it would look complete
+        add(SESSION_GRANTS_PREFIX + sessionId, p_clientId + " " + p_grantId, false);
+    }
+
+    /**
+     * @return ids of sessions of the user, sessions may be already removed or expired
+     */
+    public Set<String> getSessions(String p_userDn) {
+        if (!isEnabled() || StringUtils.isBlank(p_userDn)) {
+            return Collections.emptySet();
+        }
+
+        final Set<String> sessions = read(userKey(p_userDn));
+        if (sessions == null) {
+            return Collections.emptySet();
+        }
+        if (sessions.remove(PARTIAL)) {
+            log.warn("Sessions index of user is partial, some sessions may be missing: {}", p_userDn);
+        }
+        return sessions;
+    }
+
+    /**
+     * @return grants created within the session or null if they are not known (entry is missing or partial)
+     */
+    public List<GrantReference> getGrants(String p_sessionDn) {
+        final String sessionId = SessionStateService.idFromDn(p_sessionDn);
+        if (!isEnabled() || sessionId == null) {
+            return null;
+        }
+
+        final Set<String> members = read(SESSION_GRANTS_PREFIX + sessionId);
+        if (members == null || members.contains(PARTIAL)) {
+            return null;
+        }
+
+        final List<GrantReference> grants = new ArrayList<GrantReference>();
+        for (String member : members) {
+            final int index = member.indexOf(' ');
+            if (index > 0) {
+                grants.add(new GrantReference(member.substring(0, index), member.substring(index + 1)));
+            }
+        }
+        return grants;
+    }
+
+    /**
+     * Removes the session from sessions of its user. Grants entry is kept until tokens of the session are removed
+     * (see {@link #removeGrants(String)}), because session is removed first on logout.
+     */
+    public void removeSession(SessionState p_session) {
+        if (!isEnabled() || StringUtils.isBlank(p_session.getId()) || StringUtils.isBlank(p_session.getUserDn())) {
+            return;
+        }
+
+        final String userKey = userKey(p_session.getUserDn());
+        synchronized (lock(userKey)) {
+            final Set<String> sessions = read(userKey);
+            if (sessions != null && sessions.remove(p_session.getId())) {
+                write(userKey, sessions);
+            }
+        }
+        indexed.invalidate(userKey + SEPARATOR + p_session.getId());
+    }
+
+    public void removeGrants(String p_sessionDn) {
+        final String sessionId = SessionStateService.idFromDn(p_sessionDn);
+        if (!isEnabled() || sessionId == null) {
+            return;
+        }
+
+        final String sessionKey = SESSION_GRANTS_PREFIX + sessionId;
+        try {
+            cacheService.remove(null, sessionKey);
+        } catch (Exception e) {
+            log.error("Failed to remove grants index of session: " + sessionId, e);
+        }
+        indexed.invalidate(sessionKey);
+    }
+
+    private void add(String p_key, String p_member, boolean p_create) {
+        final String indexedKey = p_key + SEPARATOR + p_member;
+        if (indexed.getIfPresent(indexedKey) != null) {
+            return;
+        }
+
+        if (addMember(p_key, p_member, p_create)) {
+            indexed.put(indexedKey, Boolean.TRUE);
+            scheduleVerify(p_key, p_member, 1);
+        }
+    }
+
+    /**
+     * @return false if the entry doesn't exist and is not created
+     */
+    private boolean addMember(String p_key, String p_member, boolean p_create) {
+        synchronized (lock(p_key)) {
+            Set<String> members = read(p_key);
+            if (members == null) {
+                if (!p_create) {
+                    return false;
+                }
+                members = new LinkedHashSet<String>();
+            }
+            if (members.add(p_member)) {
+                write(p_key, members);
+            }
+            return true;
+        }
+    }
+
+    private void scheduleVerify(final String p_key, final String p_member, final int p_attempt) {
+        try {
+            verifier.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        verify(p_key, p_member, p_attempt);
+                    } catch (Exception e) {
+                        log.error("Failed to verify session index entry: " + p_key, e);
+                    }
+                }
+            }, VERIFY_DELAY, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.trace("Session index verifier is shut down");
+        }
+    }
+
+    /**
+     * Adds the member again if it was overwritten by concurrent read-modify-write of another node.
+     */
+    private void verify(String p_key, String p_member, int p_attempt) {
+        if (indexed.getIfPresent(p_key + SEPARATOR + p_member) == null) {
+            return; // removed by this node meanwhile
+        }
+
+        final Set<String> members = read(p_key);
+        if (members == null || members.contains(p_member) || members.contains(PARTIAL)) {
+            return; // removed entry (e.g. logged out session) is not created again
+        }
+
+        if (p_attempt >= VERIFY_ATTEMPTS) {
+            log.warn("Session index entry keeps losing members, marking it as partial: {}", p_key);
+            addMember(p_key, PARTIAL, false);
+        } else if (addMember(p_key, p_member, false)) {
+            scheduleVerify(p_key, p_member, p_attempt + 1);
+        }
+    }
+
+    private Set<String> read(String p_key) {
+        final Object value = cacheService.get(null, p_key);
+        if (!(value instanceof String)) {
+            return null;
+        }
+
+        final Set<String> members = new LinkedHashSet<String>();
+        for (String member : StringUtils.split((String) value, SEPARATOR)) {
+            members.add(member);
+        }
+        return members;
+    }
+
+    private void write(String p_key, Set<String> p_members) {
+        final Integer lifetime = appConfiguration.getSessionStateLifetime();
+        final int expiration = lifetime != null && lifetime > 0 ? lifetime : DEFAULT_EXPIRATION;
+        cacheService.put(Integer.toString(expiration), p_key, StringUtils.join(p_members, SEPARATOR)); // first parameter is expiration instead of region for memcached
+    }
+
+    private Object lock(String p_key) {
+        return locks[(p_key.hashCode() & Integer.MAX_VALUE) % locks.length];
+    }
+
+    private static String userKey(String p_userDn) {
+        return USER_SESSIONS_PREFIX + TokenHashUtil.getHashedToken(p_userDn);
+    }
+
+    public static class GrantReference {
+
+        private final String clientId;
+        private final String grantId;
+
+        public GrantReference(String clientId, String grantId) {
+            this.clientId = clientId;
+            this.grantId = grantId;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public String getGrantId() {
+            return grantId;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.xdi.oxauth.model.common.SessionState;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.util.StringHelper;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process near-cache of sessions in front of the distributed cache used by {@link SessionStateService}.
+ * <p>
+ * Session is kept at most sessionStateCacheLifetime seconds, which bounds stale reads of sessions written by other
+ * nodes. Writes and removals on this node refresh or drop the entry. Each write increments version of the session,
+ * session read from the distributed cache never replaces newer version written on this node meanwhile.
+ * Copies are stored and returned, so callers can't modify cached instance.
+ */
+@ApplicationScoped
+@Named
+public class SessionStateCacheService {
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    private boolean enabled;
+    private Cache<String, SessionState> sessions;
+
+    @PostConstruct
+    public void init() {
+        final int size = appConfiguration.getSessionStateCacheSize() != null ? appConfiguration.getSessionStateCacheSize() : 0;
+        final int lifetime = appConfiguration.getSessionStateCacheLifetime() != null ? appConfiguration.getSessionStateCacheLifetime() : 0;
+
+        this.enabled = size > 0 && lifetime > 0;
+        this.sessions = CacheBuilder.newBuilder().maximumSize(Math.max(0, size))
+                .expireAfterWrite(Math.max(0, lifetime), TimeUnit.SECONDS)
+                .recordStats().build();
+    }
+
+    /**
+     * @return copy of cached session or null
+     */
+    public SessionState get(String sessionId) {
+        if (!enabled || StringHelper.isEmpty(sessionId)) {
+            return null;
+        }
+
+        final SessionState session = sessions.getIfPresent(sessionId);
+        return session != null ? session.copy() : null;
+    }
+
+    /**
+     * Caches copy of the session written on this node, replaces cached one regardless of its version.
+     */
+    public void refresh(SessionState session) {
+        if (enabled && session != null && StringHelper.isNotEmpty(session.getId())) {
+            sessions.put(session.getId(), session.copy());
+        }
+    }
+
+    /**
+     * Caches copy of the session read from the distributed cache unless newer version of it is already cached.
+     */
+    public void put(SessionState session) {
+        if (!enabled || session == null || StringHelper.isEmpty(session.getId())) {
+            return;
+        }
+
+        final SessionState copy = session.copy();
+        final ConcurrentMap<String, SessionState> map = sessions.asMap();
+        while (true) {
+            final SessionState cached = map.putIfAbsent(copy.getId(), copy);
+            if (cached == null || cached.getVersion() > copy.getVersion() || map.replace(copy.getId(), cached, copy)) {
+                return;
+            }
+        }
+    }
+
+    public void invalidate(String sessionId) {
+        if (enabled && StringHelper.isNotEmpty(sessionId)) {
+            sessions.invalidate(sessionId);
+        }
+    }
+
+    public CacheStats getStats() {
+        return sessions.stats();
+    }
+
+    public long getSize() {
+        return sessions.size();
+    }
+}
@@ -15,6 +15,7 @@ import org.slf4j.Logger;
 import org.xdi.oxauth.audit.ApplicationAuditLogger;
 import org.xdi.oxauth.model.audit.Action;
 import org.xdi.oxauth.model.audit.OAuth2AuditLog;
+import org.xdi.oxauth.model.common.CacheValueCodec;
 import org.xdi.oxauth.model.common.Prompt;
 import org.xdi.oxauth.model.common.SessionIdState;
 import org.xdi.oxauth.model.common.SessionState;
@@ -89,6 +90,15 @@ public class SessionStateService {
     @Inject
     private CacheService cacheService;
 
+    @Inject
+    private SessionStateCacheService sessionStateCacheService;
+
+    @Inject
+    private SessionTouchService sessionTouchService;
+
+    @Inject
+    private SessionIndexService sessionIndexService;
+
     public String getAcr(SessionState session) {
         if (session == null || session.getSessionAttributes() == null) {
             return null;
@@ -461,13 +471,8 @@ public class SessionStateService {
 
             	if (updateLastUsedAt) {
             		Date lastUsedAt = new Date();
-            		if (sessionState.getLastUsedAt() != null) {
-                        long diff = lastUsedAt.getTime() - sessionState.getLastUsedAt().getTime();
-                        if (diff > 500) { // update only if diff is more than 500ms
-                            update = true;
-                            sessionState.setLastUsedAt(lastUsedAt);
-                        }
-            		} else {
+            		// access to recently written session is only recorded in memory unless session is written anyway
+            		if (sessionTouchService.touch(sessionState, lastUsedAt) || update) {
                         update = true;
                         sessionState.setLastUsedAt(lastUsedAt);
                     }
@@ -511,11 +516,31 @@ public class SessionStateService {
         int expirationInSeconds = sessionState.getState() == SessionIdState.UNAUTHENTICATED ?
                 appConfiguration.getSessionIdUnauthenticatedUnusedLifetime() :
                 appConfiguration.getSessionStateLifetime();
-        cacheService.put(Integer.toString(expirationInSeconds), sessionState.getId(), sessionState); // first parameter is expiration instead of region for memcached
+        sessionState.setVersion(sessionState.getVersion() + 1);
+        cacheService.put(Integer.toString(expirationInSeconds), sessionState.getId(), CacheValueCodec.encode(sessionState)); // first parameter is expiration instead of region for memcached
+        sessionStateCacheService.refresh(sessionState);
+        sessionTouchService.written(sessionState);
+        sessionIndexService.addSession(sessionState);
     }
 
     private SessionState getFromCache(String sessionId) {
-        return (SessionState) cacheService.get(null, sessionId);
+        SessionState sessionState = sessionStateCacheService.get(sessionId);
+        if (sessionState != null) {
+            sessionState.setPersisted(true);
+            return sessionState;
+        }
+
+        final Object cached = cacheService.get(null, sessionId);
+        if (cached instanceof byte[]) {
+            sessionState = CacheValueCodec.decodeSessionState((byte[]) cached);
+        } else if (cached instanceof SessionState) {
+            sessionState = (SessionState) cached; // Java serialized by previous release, rewritten with the next update
+        }
+        if (sessionState != null) {
+            sessionState.setPersisted(true);
+        }
+        sessionStateCacheService.put(sessionState);
+        return sessionState;
     }
 
 	private SessionState mergeWithRetry(final SessionState sessionState, int maxAttempts) {
@@ -565,6 +590,20 @@ public class SessionStateService {
         return sb.toString();
     }
 
+    /**
+     * @return session id of the session DN or null if DN is not a session DN
+     */
+    public static String idFromDn(String p_dn) {
+        final String prefix = "oxAuthSessionId=";
+        if (StringUtils.isBlank(p_dn) || !p_dn.startsWith(prefix)) {
+            return null;
+        }
+
+        final int end = p_dn.indexOf(',');
+        final String id = end > 0 ? p_dn.substring(prefix.length(), end) : p_dn.substring(prefix.length());
+        return StringUtils.isNotBlank(id) ? id : null;
+    }
+
     public SessionState getSessionById(String sessionId) {
         return getFromCache(sessionId);
     }
@@ -592,6 +631,20 @@ public class SessionStateService {
         return null;
     }
 
+    /**
+     * @return valid sessions of the user, empty list if sessions are not indexed
+     */
+    public List<SessionState> getSessionsOfUser(String userDn) {
+        final List<SessionState> result = new ArrayList<SessionState>();
+        for (String id : sessionIndexService.getSessions(userDn)) {
+            final SessionState session = getSessionState(id);
+            if (session != null && userDn.equals(session.getUserDn())) {
+                result.add(session);
+            }
+        }
+        return result;
+    }
+
     private String getBaseDn() {
         return staticConfiguration.getBaseDn().getSessionId();
     }
@@ -599,6 +652,9 @@ public class SessionStateService {
     public boolean remove(SessionState sessionState) {
         try {
             cacheService.remove(null, sessionState.getId());
+            sessionStateCacheService.invalidate(sessionState.getId());
+            sessionTouchService.remove(sessionState.getId());
+            sessionIndexService.removeSession(sessionState);
         } catch (Exception e) {
             log.error(e.getMessage(), e);
 
@@ -625,7 +681,7 @@ public class SessionStateService {
         final long sessionInterval = TimeUnit.SECONDS.toMillis(appConfiguration.getSessionIdUnusedLifetime());
         final long sessionUnauthenticatedInterval = TimeUnit.SECONDS.toMillis(appConfiguration.getSessionIdUnauthenticatedUnusedLifetime());
 
-        final long timeSinceLastAccess = System.currentTimeMillis() - sessionState.getLastUsedAt().getTime();
+        final long timeSinceLastAccess = System.currentTimeMillis() - sessionTouchService.getLastUsedAt(sessionState).getTime();
         if (timeSinceLastAccess > sessionInterval && appConfiguration.getSessionIdUnusedLifetime() != -1) {
             return false;
         }
@@ -0,0 +1,114 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.xdi.oxauth.model.common.SessionIdState;
+import org.xdi.oxauth.model.common.SessionState;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.util.StringHelper;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Date;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces updates of session last used time.
+ * <p>
+ * Access to a session which was written less than sessionTouchInterval seconds ago is recorded here instead of
+ * rewriting the whole session in the distributed cache. Recorded time is taken into account by session validity check
+ * on this node and is written with the next write of the session. The interval is capped to half of the unused
+ * lifetime of the session, so that session is rewritten (and its cache expiration is extended) before other nodes
+ * could consider it unused.
+ */
+@ApplicationScoped
+@Named
+public class SessionTouchService {
+
+    private static final long MIN_INTERVAL = 500; // milliseconds
+    private static final int MAX_SIZE = 100000;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    private Cache<String, Long> touches;
+
+    @PostConstruct
+    public void init() {
+        final int unusedLifetime = Math.max(appConfiguration.getSessionIdUnusedLifetime(), appConfiguration.getSessionIdUnauthenticatedUnusedLifetime());
+
+        // evicted access only makes session look idle since its last write, which is at most the interval ago
+        this.touches = CacheBuilder.newBuilder().maximumSize(MAX_SIZE)
+                .expireAfterWrite(unusedLifetime > 0 ? unusedLifetime : TimeUnit.DAYS.toSeconds(1), TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * @return true if last used time of the session has to be written, otherwise the access is recorded in memory
+     */
+    public boolean touch(SessionState p_session, Date p_now) {
+        if (p_session.getLastUsedAt() == null || p_now.getTime() - p_session.getLastUsedAt().getTime() >= getInterval(p_session)) {
+            return true;
+        }
+
+        final ConcurrentMap<String, Long> map = touches.asMap();
+        final Long now = p_now.getTime();
+        while (true) {
+            final Long touched = map.putIfAbsent(p_session.getId(), now);
+            if (touched == null || touched >= now || map.replace(p_session.getId(), touched, now)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Forgets accesses recorded up to last used time of the session which was just written.
+     */
+    public void written(SessionState p_session) {
+        if (p_session.getLastUsedAt() != null && StringHelper.isNotEmpty(p_session.getId())) {
+            final Long touched = touches.getIfPresent(p_session.getId());
+            if (touched != null && touched <= p_session.getLastUsedAt().getTime()) {
+                touches.asMap().remove(p_session.getId(), touched);
+            }
+        }
+    }
+
+    /**
+     * @return last used time of the session including access recorded on this node
+     */
+    public Date getLastUsedAt(SessionState p_session) {
+        final Long touched = StringHelper.isNotEmpty(p_session.getId()) ? touches.getIfPresent(p_session.getId()) : null;
+        if (touched == null || (p_session.getLastUsedAt() != null && p_session.getLastUsedAt().getTime() >= touched)) {
+            return p_session.getLastUsedAt();
+        }
+        return new Date(touched);
+    }
+
+    public void remove(String p_sessionId) {
+        if (StringHelper.isNotEmpty(p_sessionId)) {
+            touches.invalidate(p_sessionId);
+        }
+    }
+
+    private long getInterval(SessionState p_session) {
+        final Integer configured = appConfiguration.getSessionTouchInterval();
+        long interval = configured != null ? TimeUnit.SECONDS.toMillis(configured) : 0;
+
+        final int unusedLifetime = p_session.getState() == SessionIdState.UNAUTHENTICATED ?
+                appConfiguration.getSessionIdUnauthenticatedUnusedLifetime() :
+                appConfiguration.getSessionIdUnusedLifetime();
+        if (unusedLifetime > 0) {
+            interval = Math.min(interval, TimeUnit.SECONDS.toMillis(unusedLifetime) / 2);
+        }
+        return Math.max(MIN_INTERVAL, interval);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.service.token.JwtAccessTokenService;
+import org.xdi.util.StringHelper;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process near-cache of token entries in front of token store lookups of {@link GrantService}.
+ * <p>
+ * Tokens are cached by hashed token code and token lists by grant id. Entry is dropped when the token expires
+ * (oxAuthExpiration) and at the latest after tokenCacheLifetime seconds. GrantService invalidates entries on
+ * persist/merge/remove, misses are not cached. Invalidation is forwarded to {@link IntrospectionCacheService}.
+ * <p>
+ * Tokens removed on another node are not invalidated locally, hence every hit is checked against revocations shared
+ * by {@link JwtAccessTokenService} (removed tokens and grants are revoked there by {@link GrantService}).
+ * <p>
+ * Callers modify tokens (e.g. grant saves its state into the token), hence tokens are copied on both put and get.
+ */
+@ApplicationScoped
+@Named
+public class TokenCacheService {
+
+    public static final String CODE_CACHE_NAME = "tokenByCode";
+    public static final String GRANT_ID_CACHE_NAME = "tokenByGrantId";
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    @Inject
+    private IntrospectionCacheService introspectionCacheService;
+
+    @Inject
+    private JwtAccessTokenService jwtAccessTokenService;
+
+    @Inject
+    private MetricService metricService;
+
+    private Cache<String, TokenLdap> tokensByCode;
+    private Cache<String, List<TokenLdap>> tokensByGrantId;
+
+    @PostConstruct
+    public void init() {
+        this.tokensByCode = CacheBuilder.newBuilder().maximumSize(appConfiguration.getTokenCacheSize())
+                .expireAfterWrite(appConfiguration.getTokenCacheLifetime(), TimeUnit.SECONDS)
+                .recordStats().build();
+        this.tokensByGrantId = CacheBuilder.newBuilder().maximumSize(appConfiguration.getTokenCacheSize())
+                .expireAfterWrite(appConfiguration.getTokenCacheLifetime(), TimeUnit.SECONDS)
+                .recordStats().build();
+    }
+
+    /**
+     * @param hashedCode hashed token code
+     * @return cached token or null if it is not cached or is expired
+     */
+    public TokenLdap getByCode(String hashedCode) {
+        if (StringHelper.isEmpty(hashedCode)) {
+            return null;
+        }
+
+        TokenLdap token = tokensByCode.getIfPresent(hashedCode);
+        if (token == null) {
+            return null;
+        }
+        if (isExpired(token, new Date()) || isRevoked(token)) {
+            tokensByCode.invalidate(hashedCode);
+            return null;
+        }
+
+        return new TokenLdap(token);
+    }
+
+    public void putByCode(TokenLdap token) {
+        if (token != null && StringHelper.isNotEmpty(token.getTokenCode()) && !isExpired(token, new Date())) {
+            tokensByCode.put(token.getTokenCode(), new TokenLdap(token));
+        }
+    }
+
+    /**
+     * @return cached tokens of the grant or null if they are not cached or any of them is expired
+     */
+    public List<TokenLdap> getByGrantId(String grantId) {
+        if (StringHelper.isEmpty(grantId)) {
+            return null;
+        }
+
+        List<TokenLdap> tokens = tokensByGrantId.getIfPresent(grantId);
+        if (tokens == null) {
+            return null;
+        }
+
+        Date now = new Date();
+        List<TokenLdap> result = new ArrayList<TokenLdap>(tokens.size());
+        for (TokenLdap token : tokens) {
+            if (isExpired(token, now) || isRevoked(token)) {
+                invalidateGrant(grantId);
+                return null;
+            }
+            result.add(new TokenLdap(token));
+        }
+
+        return result;
+    }
+
+    public void putByGrantId(String grantId, List<TokenLdap> tokens) {
+        if (StringHelper.isNotEmpty(grantId) && tokens != null && !tokens.isEmpty()) {
+            List<TokenLdap> copies = new ArrayList<TokenLdap>(tokens.size());
+            for (TokenLdap token : tokens) {
+                copies.add(new TokenLdap(token));
+            }
+            tokensByGrantId.put(grantId, Collections.unmodifiableList(copies));
+            for (TokenLdap token : tokens) {
+                putByCode(token);
+            }
+        }
+    }
+
+    /**
+     * Drops cached entries of the token and the token list of its grant.
+     */
+    public void invalidate(TokenLdap token) {
+        if (token == null) {
+            return;
+        }
+
+        if (StringHelper.isNotEmpty(token.getTokenCode())) {
+            tokensByCode.invalidate(token.getTokenCode());
+            introspectionCacheService.invalidate(token.getTokenCode());
+        }
+        invalidateGrant(token.getGrantId());
+    }
+
+    public void invalidateGrant(String grantId) {
+        if (StringHelper.isEmpty(grantId)) {
+            return;
+        }
+
+        introspectionCacheService.invalidateGrant(grantId);
+
+        List<TokenLdap> tokens = tokensByGrantId.getIfPresent(grantId);
+        tokensByGrantId.invalidate(grantId);
+        if (tokens != null) {
+            for (TokenLdap token : tokens) {
+                if (StringHelper.isNotEmpty(token.getTokenCode())) {
+                    tokensByCode.invalidate(token.getTokenCode());
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes statistics of both caches by {@link MetricService}.
+     */
+    public void publishStatistics() {
+        metricService.setCacheStatistics(new CacheStatistics(CODE_CACHE_NAME, tokensByCode.size(), tokensByCode.stats()));
+        metricService.setCacheStatistics(new CacheStatistics(GRANT_ID_CACHE_NAME, tokensByGrantId.size(), tokensByGrantId.stats()));
+    }
+
+    private boolean isExpired(TokenLdap token, Date now) {
+        return token.getExpirationDate() != null && token.getExpirationDate().before(now);
+    }
+
+    private boolean isRevoked(TokenLdap token) {
+        return StringHelper.isNotEmpty(token.getTokenCode())
+                && jwtAccessTokenService.isRevoked(token.getTokenCode(), token.getGrantId(), token.getExpirationDate());
+    }
+}
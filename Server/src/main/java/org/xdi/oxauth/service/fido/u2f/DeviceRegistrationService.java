@@ -24,6 +24,7 @@ import org.xdi.oxauth.model.fido.u2f.DeviceRegistration;
 import org.xdi.oxauth.model.fido.u2f.DeviceRegistrationStatus;
 import org.xdi.oxauth.model.util.Base64Util;
 import org.xdi.oxauth.service.CleanerTimer;
+import org.xdi.oxauth.service.KnownBranchesService;
 import org.xdi.oxauth.service.UserService;
 import org.xdi.util.StringHelper;
 
@@ -50,16 +51,19 @@ public class DeviceRegistrationService {
 	@Inject
 	private StaticConfiguration staticConfiguration;
 
+	@Inject
+	private KnownBranchesService knownBranchesService;
+
 	public void addBranch(final String userInum) {
 		SimpleBranch branch = new SimpleBranch();
 		branch.setOrganizationalUnitName("fido");
 		branch.setDn(getBaseDnForU2fUserDevices(userInum));
 
-		ldapEntryManager.persist(branch);
+		knownBranchesService.persist(branch, branch.getDn());
 	}
 
 	public boolean containsBranch(final String userInum) {
-		return ldapEntryManager.contains(SimpleBranch.class, getBaseDnForU2fUserDevices(userInum));
+		return knownBranchesService.contains(SimpleBranch.class, getBaseDnForU2fUserDevices(userInum));
 	}
 
 	public void prepareBranch(final String userInum) {
@@ -10,6 +10,12 @@ import org.gluu.site.ldap.LDAPConnectionProvider;
 import org.gluu.site.ldap.persistence.LdapEntryManager;
 import org.slf4j.Logger;
 import org.xdi.oxauth.service.AppInitializer;
+import org.xdi.oxauth.service.BackchannelLogoutService;
+import org.xdi.oxauth.service.JwksService;
+import org.xdi.oxauth.service.MetricService;
+import org.xdi.oxauth.service.TokenCacheService;
+import org.xdi.oxauth.service.token.TokenStoreProvider;
+import org.xdi.oxauth.service.token.WriteBehindTokenStore;
 import org.xdi.service.cdi.event.LdapStatusEvent;
 import org.xdi.service.cdi.event.Scheduled;
 import org.xdi.service.timer.event.TimerEvent;
@@ -48,6 +54,21 @@ public class LdapStatusTimer {
     @Inject @Named(AppInitializer.LDAP_AUTH_ENTRY_MANAGER_NAME)
     private List<LdapEntryManager> ldapAuthEntryManagers;
 
+    @Inject
+    private TokenStoreProvider tokenStoreProvider;
+
+    @Inject
+    private TokenCacheService tokenCacheService;
+
+    @Inject
+    private JwksService jwksService;
+
+    @Inject
+    private MetricService metricService;
+
+    @Inject
+    private BackchannelLogoutService backchannelLogoutService;
+
     private AtomicBoolean isActive;
 
     public void initTimer() {
@@ -82,6 +103,19 @@ public class LdapStatusTimer {
 			LdapEntryManager ldapAuthEntryManager = ldapAuthEntryManagers.get(i);
 			logConnectionProviderStatistic(ldapAuthEntryManager, "authConnectionProvider#" + i, "bindAuthConnectionProvider#" + i);
     	}
+
+    	WriteBehindTokenStore writeBehindTokenStore = tokenStoreProvider.getWriteBehindTokenStore();
+    	if (writeBehindTokenStore != null) {
+    		log.info("tokenWriteBehind statistics: {}", writeBehindTokenStore.getStatistics());
+    	}
+
+    	tokenCacheService.publishStatistics();
+    	jwksService.publishStatistics();
+    	log.info("cache statistics: {}", metricService.getCacheStatistics().values());
+
+    	if (backchannelLogoutService.isEnabled()) {
+    		log.info("backchannelLogout statistics: {}", backchannelLogoutService.getStatistics());
+    	}
     }
 
 	public void logConnectionProviderStatistic(LdapEntryManager ldapEntryManager, String connectionProviderName, String bindConnectionProviderName) {
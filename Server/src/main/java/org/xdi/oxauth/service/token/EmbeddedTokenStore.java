@@ -0,0 +1,628 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service.token;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.service.CleanerTimer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Node local token store kept in a memory-mapped append-only file.
+ * <p>
+ * Every persist/merge appends a PUT record with the serialized token and every removal appends a REMOVE record with
+ * the token code. Lookups are served from in-memory indexes pointing to record offsets, expiration is driven by a TTL
+ * index sorted by oxAuthExpiration. On start the log is replayed and expired tokens are skipped. When the file is full,
+ * live records are compacted into a new file which replaces the old one.
+ * <p>
+ * Tokens are not shared with other nodes, the store is meant for single node deployments or sticky routing.
+ */
+public class EmbeddedTokenStore implements TokenStore, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedTokenStore.class);
+
+    private static final int MAGIC = 0x6F78544B; // oxTK
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 5;
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    private final File file;
+    private final int capacity;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private MappedByteBuffer buffer;
+    private int position;
+    // bytes taken by replaced/removed tokens and removal records, reclaimed by compaction
+    private int garbage;
+
+    private final Map<String, Integer> offsetsByCode = new HashMap<String, Integer>();
+    private final Map<String, Set<String>> codesByGrantId = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> codesByClientId = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> codesBySessionDn = new HashMap<String, Set<String>>();
+    private final Map<String, Set<String>> codesByAuthorizationCode = new HashMap<String, Set<String>>();
+    private final TreeMap<Long, Set<String>> codesByExpiration = new TreeMap<Long, Set<String>>();
+
+    /**
+     * @param file     store file, created if it does not exist
+     * @param capacity size of the file in bytes
+     * @throws IOException if the file can't be mapped or it holds more data than the capacity
+     */
+    public EmbeddedTokenStore(File file, int capacity) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+
+        // file of a previous run may be larger, it's mapped whole so that none of its records is cut off
+        this.buffer = map(file, (int) Math.max(capacity, Math.min(file.length(), Integer.MAX_VALUE)));
+        replay();
+        if (position > capacity) {
+            release(buffer);
+            throw new IOException("Embedded token store file holds " + position + " bytes, more than its configured size: "
+                    + capacity + " bytes, file: " + file);
+        }
+    }
+
+    @Override
+    public void persist(TokenLdap p_token) {
+        put(p_token);
+    }
+
+    @Override
+    public void merge(TokenLdap p_token) {
+        put(p_token);
+    }
+
+    @Override
+    public void remove(TokenLdap p_token) {
+        lock.writeLock().lock();
+        try {
+            removeByCode(p_token.getTokenCode());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<TokenLdap> remove(List<TokenLdap> p_tokens) {
+        final List<TokenLdap> removed = new ArrayList<TokenLdap>();
+        lock.writeLock().lock();
+        try {
+            for (TokenLdap token : p_tokens) {
+                if (removeByCode(token.getTokenCode()) != null) {
+                    removed.add(token);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    @Override
+    public TokenLdap getByCode(String p_hashedCode) {
+        lock.readLock().lock();
+        try {
+            final Integer offset = offsetsByCode.get(p_hashedCode);
+            return offset != null ? read(offset) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<TokenLdap> getByCodes(Collection<String> p_hashedCodes) {
+        final List<TokenLdap> result = new ArrayList<TokenLdap>();
+        lock.readLock().lock();
+        try {
+            for (String code : p_hashedCodes) {
+                final Integer offset = offsetsByCode.get(code);
+                if (offset != null) {
+                    result.add(read(offset));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public List<TokenLdap> getByClient(String p_clientId) {
+        return getAll(codesByClientId, p_clientId);
+    }
+
+    @Override
+    public List<TokenLdap> getByGrantId(String p_grantId) {
+        return getAll(codesByGrantId, p_grantId);
+    }
+
+    @Override
+    public List<TokenLdap> getByGrant(String p_clientId, String p_grantId) {
+        return getByGrantId(p_grantId);
+    }
+
+    @Override
+    public List<TokenLdap> getByAuthorizationCode(String p_hashedAuthorizationCode) {
+        return getAll(codesByAuthorizationCode, p_hashedAuthorizationCode);
+    }
+
+    @Override
+    public List<TokenLdap> getBySessionDn(String p_sessionDn) {
+        return getAll(codesBySessionDn, p_sessionDn);
+    }
+
+    @Override
+    public List<TokenLdap> removeByGrantId(String p_grantId) {
+        return removeAll(codesByGrantId, p_grantId);
+    }
+
+    @Override
+    public List<TokenLdap> removeBySessionDn(String p_sessionDn) {
+        return removeAll(codesBySessionDn, p_sessionDn);
+    }
+
+    @Override
+    public void removeExpired(Date now, ExpiredTokensListener listener) {
+        final List<TokenLdap> removed = new ArrayList<TokenLdap>();
+
+        lock.writeLock().lock();
+        try {
+            final List<String> codes = new ArrayList<String>();
+            for (Set<String> expired : codesByExpiration.headMap(now.getTime(), true).values()) {
+                codes.addAll(expired);
+            }
+            for (String code : codes) {
+                final TokenLdap token = removeByCode(code);
+                if (token != null) {
+                    removed.add(token);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (int i = 0; i < removed.size(); i += CleanerTimer.BATCH_SIZE) {
+            listener.onRemoved(removed.subList(i, Math.min(i + CleanerTimer.BATCH_SIZE, removed.size())));
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return offsetsByCode.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void put(TokenLdap p_token) {
+        final byte[] payload = serialize(p_token);
+
+        lock.writeLock().lock();
+        try {
+            final int offset = append(PUT, payload);
+            unindex(p_token.getTokenCode());
+            index(p_token, offset);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<TokenLdap> getAll(Map<String, Set<String>> p_index, String p_key) {
+        lock.readLock().lock();
+        try {
+            final Set<String> codes = p_index.get(p_key);
+            if (codes == null) {
+                return Collections.emptyList();
+            }
+
+            final List<TokenLdap> result = new ArrayList<TokenLdap>(codes.size());
+            for (String code : codes) {
+                result.add(read(offsetsByCode.get(code)));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<TokenLdap> removeAll(Map<String, Set<String>> p_index, String p_key) {
+        lock.writeLock().lock();
+        try {
+            final Set<String> codes = p_index.get(p_key);
+            if (codes == null) {
+                return Collections.emptyList();
+            }
+
+            final List<TokenLdap> result = new ArrayList<TokenLdap>(codes.size());
+            for (String code : new ArrayList<String>(codes)) {
+                result.add(removeByCode(code));
+            }
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private TokenLdap removeByCode(String p_code) {
+        if (p_code == null || !offsetsByCode.containsKey(p_code)) {
+            return null;
+        }
+
+        final TokenLdap token = unindex(p_code);
+        final int offset = append(REMOVE, serializeCode(p_code));
+        garbage += 4 + buffer.getInt(offset);
+        return token;
+    }
+
+    private int append(byte p_op, byte[] p_payload) {
+        final int recordSize = RECORD_HEADER_SIZE + p_payload.length;
+        if (position + recordSize > capacity) {
+            if (garbage >= recordSize) {
+                compact();
+            }
+            if (position + recordSize > capacity) {
+                throw new IllegalStateException("Embedded token store is full, file: " + file + ", size: " + capacity);
+            }
+        }
+
+        final int offset = position;
+        write(buffer, offset, p_op, p_payload);
+        position += recordSize;
+        return offset;
+    }
+
+    private TokenLdap read(int p_offset) {
+        final int length = buffer.getInt(p_offset);
+        final byte[] payload = new byte[length - 1];
+        ((ByteBuffer) buffer.duplicate().position(p_offset + RECORD_HEADER_SIZE)).get(payload);
+        return deserialize(payload);
+    }
+
+    private void index(TokenLdap p_token, int p_offset) {
+        final String code = p_token.getTokenCode();
+
+        offsetsByCode.put(code, p_offset);
+        addToIndex(codesByGrantId, p_token.getGrantId(), code);
+        addToIndex(codesByClientId, p_token.getClientId(), code);
+        addToIndex(codesBySessionDn, p_token.getSessionDn(), code);
+        addToIndex(codesByAuthorizationCode, p_token.getAuthorizationCode(), code);
+        if (p_token.getExpirationDate() != null) {
+            addToIndex(codesByExpiration, p_token.getExpirationDate().getTime(), code);
+        }
+    }
+
+    private TokenLdap unindex(String p_code) {
+        final Integer offset = offsetsByCode.remove(p_code);
+        if (offset == null) {
+            return null;
+        }
+
+        final TokenLdap token = read(offset);
+        garbage += 4 + buffer.getInt(offset);
+        removeFromIndex(codesByGrantId, token.getGrantId(), p_code);
+        removeFromIndex(codesByClientId, token.getClientId(), p_code);
+        removeFromIndex(codesBySessionDn, token.getSessionDn(), p_code);
+        removeFromIndex(codesByAuthorizationCode, token.getAuthorizationCode(), p_code);
+        if (token.getExpirationDate() != null) {
+            removeFromIndex(codesByExpiration, token.getExpirationDate().getTime(), p_code);
+        }
+        return token;
+    }
+
+    private static <K> void addToIndex(Map<K, Set<String>> p_index, K p_key, String p_code) {
+        if (p_key == null) {
+            return;
+        }
+
+        Set<String> codes = p_index.get(p_key);
+        if (codes == null) {
+            codes = new HashSet<String>();
+            p_index.put(p_key, codes);
+        }
+        codes.add(p_code);
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<String>> p_index, K p_key, String p_code) {
+        if (p_key == null) {
+            return;
+        }
+
+        final Set<String> codes = p_index.get(p_key);
+        if (codes != null) {
+            codes.remove(p_code);
+            if (codes.isEmpty()) {
+                p_index.remove(p_key);
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        if (buffer.getInt(0) == 0) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an embedded token store file or unsupported version: " + file);
+        }
+
+        final long now = System.currentTimeMillis();
+        final int limit = buffer.capacity();
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= limit) {
+            final int length = buffer.getInt(offset);
+            if (length <= 0 || offset + 4 + length > limit) {
+                break;
+            }
+
+            final byte[] payload = new byte[length - 1];
+            ((ByteBuffer) buffer.duplicate().position(offset + RECORD_HEADER_SIZE)).get(payload);
+            if (buffer.get(offset + 4) == PUT) {
+                final TokenLdap token = deserialize(payload);
+                unindex(token.getTokenCode());
+                if (token.getExpirationDate() == null || token.getExpirationDate().getTime() > now) {
+                    index(token, offset);
+                } else {
+                    garbage += 4 + length;
+                }
+            } else {
+                unindex(deserializeCode(payload));
+                garbage += 4 + length;
+            }
+            offset += 4 + length;
+        }
+        position = offset;
+
+        log.debug("Loaded embedded token store, file: {}, tokens: {}, used: {} bytes", file, offsetsByCode.size(), position);
+    }
+
+    /**
+     * Copies live records into a new file and replaces the store file with it. The store is left untouched if
+     * the file can't be replaced. The mapping of the replaced file is released right away, Windows can't delete
+     * a mapped file and unreleased mappings pile up until garbage collection.
+     */
+    private void compact() {
+        final File compacted = new File(file.getPath() + ".compact");
+        try {
+            // left over by failed compaction, its records would be replayed after the new ones
+            if (compacted.exists() && !compacted.delete()) {
+                throw new IOException("Failed to delete " + compacted);
+            }
+
+            final MappedByteBuffer target = map(compacted, capacity);
+            target.putInt(0, MAGIC);
+            target.putInt(4, VERSION);
+
+            final Map<String, Integer> offsets = new HashMap<String, Integer>(offsetsByCode.size() * 2);
+            int offset = HEADER_SIZE;
+            for (Map.Entry<String, Integer> entry : offsetsByCode.entrySet()) {
+                final int length = buffer.getInt(entry.getValue());
+                final byte[] payload = new byte[length - 1];
+                ((ByteBuffer) buffer.duplicate().position(entry.getValue() + RECORD_HEADER_SIZE)).get(payload);
+
+                write(target, offset, PUT, payload);
+                offsets.put(entry.getKey(), offset);
+                offset += 4 + length;
+            }
+            target.force();
+
+            final MappedByteBuffer previous = buffer;
+            if (!compacted.renameTo(file)) {
+                // mapped file can't be replaced on Windows
+                release(previous);
+                if (!file.delete()) {
+                    buffer = map(file, previous.capacity());
+                    release(target);
+                    throw new IOException("Failed to replace " + file + " with " + compacted);
+                }
+                if (!compacted.renameTo(file)) {
+                    log.error("Failed to rename {} to {}, tokens are kept in {} until restart", compacted, file, compacted);
+                }
+            } else {
+                release(previous);
+            }
+
+            log.debug("Compacted embedded token store, file: {}, used: {} -> {} bytes", file, position, offset);
+            offsetsByCode.putAll(offsets);
+            buffer = target;
+            position = offset;
+            garbage = 0;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to compact embedded token store: " + file, e);
+        }
+    }
+
+    /**
+     * Length is written last, a record torn by a crash ends the log on replay.
+     */
+    private static void write(MappedByteBuffer p_buffer, int p_offset, byte p_op, byte[] p_payload) {
+        ((ByteBuffer) p_buffer.duplicate().position(p_offset + RECORD_HEADER_SIZE)).put(p_payload);
+        p_buffer.put(p_offset + 4, p_op);
+        p_buffer.putInt(p_offset, 1 + p_payload.length);
+    }
+
+    private static MappedByteBuffer map(File p_file, int p_capacity) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(p_file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            // mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, p_capacity);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Unmaps the buffer without waiting for garbage collection. There is no public API for it, so the JDK internal
+     * cleaner is used: Unsafe.invokeCleaner on Java 9+, DirectBuffer.cleaner() before. If neither is accessible
+     * the mapping is left to garbage collection. The buffer must not be accessed afterwards.
+     */
+    private static void release(MappedByteBuffer p_buffer) {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            try {
+                final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), p_buffer);
+            } catch (NoSuchMethodException e) {
+                final Method cleanerMethod = p_buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(p_buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Failed to release mapped buffer, it's released on garbage collection", e);
+        }
+    }
+
+    static byte[] serialize(TokenLdap p_token) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            writeString(out, p_token.getDn());
+            writeString(out, p_token.getId());
+            writeString(out, p_token.getGrantId());
+            writeString(out, p_token.getUserId());
+            writeString(out, p_token.getClientId());
+            writeDate(out, p_token.getCreationDate());
+            writeDate(out, p_token.getExpirationDate());
+            writeDate(out, p_token.getAuthenticationTime());
+            writeString(out, p_token.getScope());
+            writeString(out, p_token.getTokenCode());
+            writeString(out, p_token.getTokenType());
+            writeString(out, p_token.getGrantType());
+            writeString(out, p_token.getJwtRequest());
+            writeString(out, p_token.getAuthorizationCode());
+            writeString(out, p_token.getNonce());
+            writeString(out, p_token.getCodeChallenge());
+            writeString(out, p_token.getCodeChallengeMethod());
+            writeString(out, p_token.getAuthMode());
+            writeString(out, p_token.getSessionDn());
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static TokenLdap deserialize(byte[] p_payload) {
+        try {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(p_payload));
+            final TokenLdap token = new TokenLdap();
+            token.setDn(readString(in));
+            token.setId(readString(in));
+            token.setGrantId(readString(in));
+            token.setUserId(readString(in));
+            token.setClientId(readString(in));
+            token.setCreationDate(readDate(in));
+            token.setExpirationDate(readDate(in));
+            token.setAuthenticationTime(readDate(in));
+            token.setScope(readString(in));
+            token.setTokenCode(readString(in));
+            token.setTokenType(readString(in));
+            token.setGrantType(readString(in));
+            token.setJwtRequest(readString(in));
+            token.setAuthorizationCode(readString(in));
+            token.setNonce(readString(in));
+            token.setCodeChallenge(readString(in));
+            token.setCodeChallengeMethod(readString(in));
+            token.setAuthMode(readString(in));
+            token.setSessionDn(readString(in));
+            return token;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] serializeCode(String p_code) {
+        try {
+            return p_code.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String deserializeCode(byte[] p_payload) {
+        try {
+            return new String(p_payload, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream p_out, String p_value) throws IOException {
+        if (p_value == null) {
+            p_out.writeInt(-1);
+        } else {
+            final byte[] bytes = p_value.getBytes("UTF-8");
+            p_out.writeInt(bytes.length);
+            p_out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream p_in) throws IOException {
+        final int length = p_in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        p_in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void writeDate(DataOutputStream p_out, Date p_value) throws IOException {
+        p_out.writeBoolean(p_value != null);
+        if (p_value != null) {
+            p_out.writeLong(p_value.getTime());
+        }
+    }
+
+    private static Date readDate(DataInputStream p_in) throws IOException {
+        return p_in.readBoolean() ? new Date(p_in.readLong()) : null;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service.token;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.xdi.oxauth.model.common.AccessToken;
+import org.xdi.oxauth.model.common.AuthorizationGrant;
+import org.xdi.oxauth.model.common.AuthorizationGrantType;
+import org.xdi.oxauth.model.common.User;
+import org.xdi.oxauth.model.config.WebKeysConfiguration;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.crypto.AbstractCryptoProvider;
+import org.xdi.oxauth.model.crypto.CryptoProviderFactory;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithm;
+import org.xdi.oxauth.model.crypto.signature.SignatureAlgorithmFamily;
+import org.xdi.oxauth.model.exception.InvalidJwtException;
+import org.xdi.oxauth.model.jwt.Jwt;
+import org.xdi.oxauth.model.jwt.JwtClaimName;
+import org.xdi.oxauth.model.jwt.JwtClaims;
+import org.xdi.oxauth.model.token.JwtSigner;
+import org.xdi.oxauth.model.util.TokenHashUtil;
+import org.xdi.service.CacheService;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues and validates self-contained (signed JWT) access tokens for clients with oxAccessTokenAsJwt enabled.
+ * <p>
+ * Such token carries grant id, grant type, client, user, scopes and expiration, so the grant can be restored
+ * from the token itself without LDAP token lookup. The token is still persisted as usual (it's needed for
+ * revocation by grant/session and clean up).
+ * <p>
+ * Early revocation is shared by nodes through the distributed cache: revoked token hash is kept until the token
+ * expires, revoked grant id as long as any access token of the grant may be valid. Revocations seen by this node are
+ * also kept in memory until the same time, evicted entries are looked up in the distributed cache again. If the
+ * distributed cache can't be read, the token is considered revoked unless it's found in the token store.
+ * <p>
+ * The same revocations are checked by {@link org.xdi.oxauth.service.TokenCacheService} on near-cache hits, so
+ * tokens of any type are revoked on removal and grant revocation is kept at least tokenCacheLifetime.
+ */
+@ApplicationScoped
+@Named
+public class JwtAccessTokenService {
+
+    public static final String TOKEN_TYPE = "access_token";
+
+    public static final String CLIENT_ID = "client_id";
+    public static final String GRANT_ID = "grant_id";
+    public static final String GRANT_TYPE = "grant_type";
+    public static final String USER_ID = "uid";
+    public static final String SCOPE = "scope";
+    public static final String REQUEST_OBJECT = "ox_request_object";
+
+    private static final String REVOKED_TOKEN_PREFIX = "jwt_revoked_";
+    private static final String REVOKED_GRANT_PREFIX = "jwt_revoked_grant_";
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    @Inject
+    private WebKeysConfiguration webKeysConfiguration;
+
+    @Inject
+    private CacheService cacheService;
+
+    @Inject
+    private TokenStoreProvider tokenStoreProvider;
+
+    // key to time (millis) until which the revocation has to be kept
+    private Cache<String, Long> revoked;
+
+    @PostConstruct
+    public void init() {
+        this.revoked = CacheBuilder.newBuilder().maximumSize(appConfiguration.getAccessTokenRevocationCacheSize()).build();
+    }
+
+    /**
+     * Returns signed JWT which is used as the code of the access token.
+     */
+    public String createCode(AuthorizationGrant grant, AccessToken accessToken) throws Exception {
+        JwtSigner jwtSigner = new JwtSigner(appConfiguration, webKeysConfiguration, getSignatureAlgorithm(), grant.getClientId());
+        Jwt jwt = jwtSigner.newJwt();
+
+        JwtClaims claims = jwt.getClaims();
+        claims.setClaim(JwtClaimName.TYPE, TOKEN_TYPE);
+        claims.setClaim(JwtClaimName.JWT_ID, UUID.randomUUID().toString());
+        claims.setIssuedAt(accessToken.getCreationDate());
+        claims.setExpirationTime(accessToken.getExpirationDate());
+        claims.setClaim(CLIENT_ID, grant.getClientId());
+        claims.setClaim(GRANT_ID, grant.getGrantId());
+        claims.setClaim(GRANT_TYPE, grant.getAuthorizationGrantType().getParamName());
+        claims.setClaim(SCOPE, grant.getScopesAsString());
+        final User user = grant.getUser();
+        if (user != null && StringUtils.isNotBlank(user.getUserId())) {
+            claims.setClaim(USER_ID, user.getUserId());
+        }
+        if (grant.getAuthenticationTime() != null) {
+            claims.setClaim(JwtClaimName.AUTHENTICATION_TIME, grant.getAuthenticationTime());
+        }
+        if (StringUtils.isNotBlank(accessToken.getAuthMode())) {
+            claims.setClaim(JwtClaimName.AUTHENTICATION_CONTEXT_CLASS_REFERENCE, accessToken.getAuthMode());
+        }
+        if (StringUtils.isNotBlank(grant.getNonce())) {
+            claims.setClaim(JwtClaimName.NONCE, grant.getNonce());
+        }
+        if (grant.getJwtAuthorizationRequest() != null) {
+            // request object is not carried by the token, grant has to be loaded from LDAP
+            claims.setClaim(REQUEST_OBJECT, Boolean.TRUE);
+        }
+
+        return jwtSigner.sign().toString();
+    }
+
+    public boolean isSupported(AuthorizationGrant grant) {
+        return grant.getClient() != null && grant.getClient().isAccessTokenAsJwt()
+                && grant.getAuthorizationGrantType() != null;
+    }
+
+    /**
+     * Parses the code if it is a JWT access token issued by this server.
+     *
+     * @return parsed token or null if the code is not a JWT access token (e.g. handle token)
+     */
+    public Jwt parse(String code) {
+        if (StringUtils.countMatches(code, ".") != 2) {
+            return null;
+        }
+
+        try {
+            Jwt jwt = Jwt.parse(code);
+            if (TOKEN_TYPE.equals(jwt.getClaims().getClaimAsString(JwtClaimName.TYPE))) {
+                return jwt;
+            }
+        } catch (InvalidJwtException e) {
+            log.trace(e.getMessage(), e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Checks signature, issuer, expiration and revocation of the JWT access token.
+     */
+    public boolean isValid(String code, Jwt jwt) {
+        try {
+            JwtClaims claims = jwt.getClaims();
+
+            Date expiration = claims.getClaimAsDate(JwtClaimName.EXPIRATION_TIME);
+            if (expiration == null || new Date().after(expiration)) {
+                log.trace("JWT access token is expired");
+                return false;
+            }
+            if (!appConfiguration.getIssuer().equals(claims.getClaimAsString(JwtClaimName.ISSUER))) {
+                log.trace("JWT access token is issued by another issuer");
+                return false;
+            }
+            if (isRevoked(code, claims.getClaimAsString(GRANT_ID), expiration)) {
+                log.trace("JWT access token is revoked");
+                return false;
+            }
+
+            // Only the configured algorithm is accepted, token header can't downgrade it
+            SignatureAlgorithm signatureAlgorithm = getSignatureAlgorithm();
+            if (signatureAlgorithm != jwt.getHeader().getAlgorithm()) {
+                log.trace("JWT access token is signed with unexpected algorithm");
+                return false;
+            }
+
+            AbstractCryptoProvider cryptoProvider = CryptoProviderFactory.getCryptoProvider(appConfiguration);
+            return cryptoProvider.verifySignature(jwt.getSigningInput(), jwt.getEncodedSignature(),
+                    jwt.getHeader().getKeyId(), null, null, signatureAlgorithm);
+        } catch (Exception e) {
+            log.error("Failed to validate JWT access token", e);
+            return false;
+        }
+    }
+
+    public boolean hasRequestObject(Jwt jwt) {
+        return Boolean.TRUE.toString().equals(jwt.getClaims().getClaimAsString(REQUEST_OBJECT));
+    }
+
+    public AuthorizationGrantType getGrantType(Jwt jwt) {
+        return AuthorizationGrantType.fromString(jwt.getClaims().getClaimAsString(GRANT_TYPE));
+    }
+
+    /**
+     * @param tokenCode  hashed or plain token code
+     * @param expiration expiration of the token, revocation is kept until then
+     */
+    public void revokeToken(String tokenCode, Date expiration) {
+        if (StringUtils.isNotBlank(tokenCode) && expiration != null) {
+            revoke(REVOKED_TOKEN_PREFIX + TokenHashUtil.getHashedToken(tokenCode), expiration.getTime());
+        }
+    }
+
+    public void revokeGrant(String grantId) {
+        if (StringUtils.isNotBlank(grantId)) {
+            // access tokens issued by the grant before its removal are valid at most access token lifetime,
+            // other tokens of the grant may be near-cached at most token cache lifetime
+            final long lifetime = Math.max(appConfiguration.getAccessTokenLifetime(), appConfiguration.getTokenCacheLifetime());
+            revoke(REVOKED_GRANT_PREFIX + grantId, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(lifetime));
+        }
+    }
+
+    /**
+     * @param tokenCode  hashed or plain token code
+     * @param expiration expiration of the token
+     */
+    public boolean isRevoked(String tokenCode, String grantId, Date expiration) {
+        final String hashedCode = TokenHashUtil.getHashedToken(tokenCode);
+        final long now = System.currentTimeMillis();
+        if (isRevokedLocally(REVOKED_TOKEN_PREFIX + hashedCode, now)
+                || (grantId != null && isRevokedLocally(REVOKED_GRANT_PREFIX + grantId, now))) {
+            return true;
+        }
+
+        try {
+            if (isRevokedShared(REVOKED_TOKEN_PREFIX + hashedCode, expiration != null ? expiration.getTime() : now)
+                    || (grantId != null && isRevokedShared(REVOKED_GRANT_PREFIX + grantId, expiration != null ? expiration.getTime() : now))) {
+                return true;
+            }
+        } catch (Exception e) {
+            log.warn("Failed to read revoked JWT access tokens from cache, falling back to token store: " + e.getMessage());
+            return tokenStoreProvider.getTokenStore().getByCode(hashedCode) == null;
+        }
+        return false;
+    }
+
+    private void revoke(String key, long until) {
+        final long now = System.currentTimeMillis();
+        if (until <= now) {
+            return;
+        }
+
+        revoked.put(key, until);
+        try {
+            final int expiration = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(until - now + 999));
+            cacheService.put(Integer.toString(expiration), key, Boolean.TRUE.toString()); // first parameter is expiration instead of region for memcached
+        } catch (Exception e) {
+            log.error("Failed to share revocation of JWT access token, key: " + key, e);
+        }
+    }
+
+    private boolean isRevokedLocally(String key, long now) {
+        final Long until = revoked.getIfPresent(key);
+        if (until == null) {
+            return false;
+        }
+        if (until <= now) {
+            revoked.asMap().remove(key, until);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param until time until which the revocation is kept locally if it's found
+     */
+    private boolean isRevokedShared(String key, long until) {
+        if (cacheService.get(null, key) == null) {
+            return false;
+        }
+
+        if (until > System.currentTimeMillis()) {
+            revoked.put(key, until);
+        }
+        return true;
+    }
+
+    public long getRevokedSize() {
+        return revoked.size();
+    }
+
+    private SignatureAlgorithm getSignatureAlgorithm() {
+        SignatureAlgorithm signatureAlgorithm = SignatureAlgorithm.fromString(appConfiguration.getAccessTokenSigningAlg());
+        if (signatureAlgorithm == null || SignatureAlgorithmFamily.HMAC.equals(signatureAlgorithm.getFamily())
+                || signatureAlgorithm == SignatureAlgorithm.NONE) {
+            // Access token must be verifiable without a shared secret
+            return SignatureAlgorithm.RS256;
+        }
+        return signatureAlgorithm;
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service.token;
+
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.util.StaticUtils;
+import org.gluu.site.ldap.persistence.BatchOperation;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.gluu.site.ldap.persistence.exception.EntryPersistenceException;
+import org.slf4j.Logger;
+import org.xdi.ldap.model.SearchScope;
+import org.xdi.oxauth.model.config.StaticConfiguration;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.ldap.Grant;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.service.BulkRemoveService;
+import org.xdi.oxauth.service.CleanerStatistics;
+import org.xdi.oxauth.service.CleanerTimer;
+import org.xdi.oxauth.service.ClientService;
+import org.xdi.oxauth.service.KnownBranchesService;
+import org.xdi.oxauth.service.MetricService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Token store backed by the directory server. Tokens are stored under oxAuthGrant branch of the client:
+ * uniqueIdentifier=..,oxAuthGrantId=..,inum=..,ou=clients,o=..
+ */
+@ApplicationScoped
+@Named
+public class LdapTokenStore implements TokenStore {
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private LdapEntryManager ldapEntryManager;
+
+    @Inject
+    private ClientService clientService;
+
+    @Inject
+    private StaticConfiguration staticConfiguration;
+
+    @Inject
+    private KnownBranchesService knownBranchesService;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    @Inject
+    private BulkRemoveService bulkRemoveService;
+
+    @Inject
+    private MetricService metricService;
+
+    private TokenExpirationIndex expirationIndex;
+
+    @PostConstruct
+    public void init() {
+        if (Boolean.TRUE.equals(appConfiguration.getTokenExpirationIndexEnabled())) {
+            expirationIndex = new TokenExpirationIndex(appConfiguration.getTokenExpirationIndexBucketSize(),
+                    appConfiguration.getTokenExpirationIndexMaxSize(), appConfiguration.getCleanServiceWorkers(),
+                    appConfiguration.getTokenExpirationIndexFullScanInterval());
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (expirationIndex != null) {
+            expirationIndex.close();
+        }
+    }
+
+    public String buildDn(String p_uniqueIdentifier, String p_grantId, String p_clientId) {
+        final StringBuilder dn = new StringBuilder();
+        dn.append(String.format("uniqueIdentifier=%s,oxAuthGrantId=%s,", p_uniqueIdentifier, p_grantId));
+        dn.append(clientService.buildClientDn(p_clientId));
+        return dn.toString();
+    }
+
+    public String baseDn() {
+        return staticConfiguration.getBaseDn().getClients();  // ou=clients,o=@!1111,o=gluu
+    }
+
+    @Override
+    public void persist(TokenLdap p_token) {
+        prepareGrantBranch(p_token.getGrantId(), p_token.getClientId());
+        persistEntry(p_token);
+    }
+
+    /**
+     * Persists token without checking grant branch, it must be prepared by the caller.
+     */
+    void persistEntry(TokenLdap p_token) {
+        try {
+            ldapEntryManager.persist(p_token);
+        } catch (EntryPersistenceException e) {
+            // Known grant branch could be removed meanwhile by clean up (e.g. on another node)
+            final String branchDn = getBaseDnForGrant(p_token.getGrantId(), p_token.getClientId());
+            knownBranchesService.forget(branchDn);
+            if (containsGrantBranch(p_token.getGrantId(), p_token.getClientId())) {
+                throw e;
+            }
+
+            addGrantBranch(p_token.getGrantId(), p_token.getClientId());
+            ldapEntryManager.persist(p_token);
+        }
+
+        if (expirationIndex != null) {
+            expirationIndex.add(p_token);
+        }
+    }
+
+    @Override
+    public void merge(TokenLdap p_token) {
+        ldapEntryManager.merge(p_token);
+    }
+
+    @Override
+    public void remove(TokenLdap p_token) {
+        ldapEntryManager.remove(p_token);
+        if (expirationIndex != null) {
+            expirationIndex.remove(p_token);
+        }
+    }
+
+    @Override
+    public List<TokenLdap> remove(List<TokenLdap> p_tokens) {
+        forgetIndexed(p_tokens);
+        return bulkRemoveService.remove(byDn(p_tokens));
+    }
+
+    @Override
+    public TokenLdap getByCode(String p_hashedCode) {
+        try {
+            final List<TokenLdap> entries = ldapEntryManager.findEntries(baseDn(), TokenLdap.class, Filter.create(String.format("oxAuthTokenCode=%s", p_hashedCode)));
+            if (entries != null && !entries.isEmpty()) {
+                return entries.get(0);
+            }
+        } catch (LDAPException e) {
+            log.trace(e.getMessage(), e);
+        } catch (Exception e) {
+            log.trace(e.getMessage(), e);
+        }
+        return null;
+    }
+
+    @Override
+    public List<TokenLdap> getByCodes(Collection<String> p_hashedCodes) {
+        if (p_hashedCodes.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<Filter> filters = new ArrayList<Filter>(p_hashedCodes.size());
+        for (String hashedCode : p_hashedCodes) {
+            filters.add(Filter.createEqualityFilter("oxAuthTokenCode", hashedCode));
+        }
+        try {
+            return ldapEntryManager.findEntries(baseDn(), TokenLdap.class, Filter.createORFilter(filters));
+        } catch (Exception e) {
+            log.trace(e.getMessage(), e);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<TokenLdap> getByClient(String p_clientId) {
+        try {
+            final String baseDn = clientService.buildClientDn(p_clientId);
+            return ldapEntryManager.findEntries(baseDn, TokenLdap.class, Filter.create("oxAuthTokenCode=*"));
+        } catch (Exception e) {
+            log.trace(e.getMessage(), e);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<TokenLdap> getByGrantId(String p_grantId) {
+        try {
+            return ldapEntryManager.findEntries(baseDn(), TokenLdap.class, Filter.create(String.format("oxAuthGrantId=%s", p_grantId)));
+        } catch (LDAPException e) {
+            log.trace(e.getMessage(), e);
+        } catch (Exception e) {
+            log.trace(e.getMessage(), e);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<TokenLdap> getByGrant(String p_clientId, String p_grantId) {
+        try {
+            // one grant branch instead of the whole clients tree
+            return ldapEntryManager.findEntries(getBaseDnForGrant(p_grantId, p_clientId), TokenLdap.class, Filter.create("oxAuthTokenCode=*"));
+        } catch (Exception e) {
+            log.trace(e.getMessage(), e);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<TokenLdap> getByAuthorizationCode(String p_hashedAuthorizationCode) {
+        try {
+            return ldapEntryManager.findEntries(baseDn(), TokenLdap.class, Filter.create(String.format("oxAuthAuthorizationCode=%s", p_hashedAuthorizationCode)));
+        } catch (LDAPException e) {
+            log.trace(e.getMessage(), e);
+        } catch (Exception e) {
+            log.trace(e.getMessage(), e);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<TokenLdap> getBySessionDn(String p_sessionDn) {
+        try {
+            return ldapEntryManager.findEntries(baseDn(), TokenLdap.class, Filter.create(String.format("oxAuthSessionDn=%s", p_sessionDn)));
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<TokenLdap> removeByGrantId(String p_grantId) {
+        return remove(getByGrantId(p_grantId));
+    }
+
+    @Override
+    public List<TokenLdap> removeBySessionDn(String p_sessionDn) {
+        return remove(getBySessionDn(p_sessionDn));
+    }
+
+    @Override
+    public void removeExpired(final Date now, final ExpiredTokensListener listener) {
+        final CleanerStatistics tokenStatistics = new CleanerStatistics("token");
+        final CleanerStatistics grantStatistics = new CleanerStatistics("grant");
+        try {
+            if (expirationIndex != null) {
+                removeDue(now, listener, tokenStatistics);
+                if (!expirationIndex.isFullScanDue(now)) {
+                    return;
+                }
+            }
+
+            removeExpiredByScan(now, listener, tokenStatistics, grantStatistics);
+            if (expirationIndex != null) {
+                expirationIndex.setFullScanDone(now);
+            }
+        } finally {
+            metricService.setCleanerStatistics(tokenStatistics.finish());
+            metricService.setCleanerStatistics(grantStatistics.finish());
+        }
+    }
+
+    /**
+     * @return expiration index or null if it's not enabled
+     */
+    public TokenExpirationIndex getExpirationIndex() {
+        return expirationIndex;
+    }
+
+    private void removeDue(final Date now, final ExpiredTokensListener listener, final CleanerStatistics statistics) {
+        final int count = expirationIndex.drain(now, CleanerTimer.BATCH_SIZE, new TokenExpirationIndex.DueTokensHandler() {
+            @Override
+            public void handle(List<TokenLdap> tokens) {
+                // tokens revoked or removed by another node meanwhile are skipped
+                final List<TokenLdap> removed = bulkRemoveService.remove(byDn(tokens), statistics);
+                listener.onRemoved(removed);
+
+                final Set<String> grantBranches = new HashSet<String>();
+                for (TokenLdap t : removed) {
+                    grantBranches.add(getBaseDnForGrant(t.getGrantId(), t.getClientId()));
+                }
+
+                for (String branchDn : grantBranches) {
+                    removeGrantBranchIfEmpty(branchDn);
+                }
+            }
+        });
+        log.debug("Removed {} due tokens of expiration index, indexed tokens left: {}", count, expirationIndex.size());
+    }
+
+    private void removeGrantBranchIfEmpty(String p_branchDn) {
+        final Grant grant = new Grant();
+        grant.setDn(p_branchDn);
+        try {
+            // directory server refuses to remove branch which still has tokens
+            ldapEntryManager.remove(grant);
+            knownBranchesService.forget(p_branchDn);
+        } catch (Exception e) {
+            log.trace("Grant branch is not removed: {}", p_branchDn);
+        }
+    }
+
+    private void removeExpiredByScan(final Date now, final ExpiredTokensListener listener,
+                                     final CleanerStatistics tokenStatistics, final CleanerStatistics grantStatistics) {
+        // Cleaning oxAuthToken
+        BatchOperation<TokenLdap> tokenBatchService = new BatchOperation<TokenLdap>(ldapEntryManager) {
+            @Override
+            protected List<TokenLdap> getChunkOrNull(int chunkSize) {
+                return ldapEntryManager.findEntries(baseDn(), TokenLdap.class, getFilter(), SearchScope.SUB, null, this, 0, chunkSize, chunkSize);
+            }
+
+            @Override
+            protected void performAction(List<TokenLdap> entries) {
+                forgetIndexed(entries);
+                listener.onRemoved(bulkRemoveService.remove(byDn(entries), tokenStatistics));
+            }
+
+            private Filter getFilter() {
+                try {
+                    return Filter.create(String.format("(oxAuthExpiration<=%s)", StaticUtils.encodeGeneralizedTime(now)));
+                } catch (LDAPException e) {
+                    log.trace(e.getMessage(), e);
+                    return Filter.createPresenceFilter("oxAuthExpiration");
+                }
+            }
+        };
+        tokenBatchService.iterateAllByChunks(CleanerTimer.BATCH_SIZE);
+
+        // Cleaning oxAuthGrant
+        BatchOperation<Grant> grantBatchService = new BatchOperation<Grant>(ldapEntryManager) {
+            @Override
+            protected List<Grant> getChunkOrNull(int chunkSize) {
+                return ldapEntryManager.findEntries(baseDn(), Grant.class, getFilter(), SearchScope.SUB, null, this, 0, chunkSize, chunkSize);
+            }
+
+            @Override
+            protected void performAction(List<Grant> entries) {
+                removeGrants(entries, grantStatistics);
+            }
+
+            private Filter getFilter() {
+                try {
+                    Calendar calendar = Calendar.getInstance();
+                    calendar.setTime(now);
+                    calendar.add(Calendar.SECOND, 60);
+                    return Filter.create(String.format("(&(oxAuthCreation<=%s)(|(numsubordinates=0)(hasSubordinates=FALSE)))", StaticUtils.encodeGeneralizedTime(calendar.getTime())));
+                } catch (LDAPException e) {
+                    log.trace(e.getMessage(), e);
+                    return Filter.createPresenceFilter("oxAuthCreation");
+                }
+            }
+        };
+        grantBatchService.iterateAllByChunks(CleanerTimer.BATCH_SIZE);
+
+        // Cleaning old oxAuthGrant
+        // Note: This block should be removed, it is used only to delete old legacy data.
+        BatchOperation<Grant> oldGrantBatchService = new BatchOperation<Grant>(ldapEntryManager) {
+            @Override
+            protected List<Grant> getChunkOrNull(int chunkSize) {
+                return ldapEntryManager.findEntries(baseDn(), Grant.class, getFilter(), SearchScope.SUB, null, this, 0, chunkSize, chunkSize);
+            }
+
+            @Override
+            protected void performAction(List<Grant> entries) {
+                removeGrants(entries, grantStatistics);
+            }
+
+            private Filter getFilter() {
+                try {
+                    return Filter.create("(&(!(oxAuthCreation=*))(|(numsubordinates=0)(hasSubordinates=FALSE)))");
+                } catch (LDAPException e) {
+                    log.trace(e.getMessage(), e);
+                    return Filter.createPresenceFilter("oxAuthCreation");
+                }
+            }
+        };
+        oldGrantBatchService.iterateAllByChunks(CleanerTimer.BATCH_SIZE);
+    }
+
+    public void remove(Grant grant) {
+        ldapEntryManager.remove(grant);
+        knownBranchesService.forget(grant.getDn());
+        log.trace("Removed grant, id: " + grant.getId());
+    }
+
+    public void removeGrants(List<Grant> entries, CleanerStatistics statistics) {
+        if (entries != null && !entries.isEmpty()) {
+            final Map<String, Grant> grantsByDn = new LinkedHashMap<String, Grant>();
+            for (Grant g : entries) {
+                grantsByDn.put(g.getDn(), g);
+            }
+            for (Grant g : bulkRemoveService.remove(grantsByDn, statistics)) {
+                knownBranchesService.forget(g.getDn());
+                log.trace("Removed grant, id: " + g.getId());
+            }
+        }
+    }
+
+    private void forgetIndexed(List<TokenLdap> p_tokens) {
+        if (expirationIndex != null) {
+            for (TokenLdap t : p_tokens) {
+                expirationIndex.remove(t);
+            }
+        }
+    }
+
+    private static Map<String, TokenLdap> byDn(List<TokenLdap> p_tokens) {
+        final Map<String, TokenLdap> tokensByDn = new LinkedHashMap<String, TokenLdap>();
+        for (TokenLdap t : p_tokens) {
+            tokensByDn.put(t.getDn(), t);
+        }
+        return tokensByDn;
+    }
+
+    private void addGrantBranch(final String p_grantId, final String p_clientId) {
+        Grant grant = new Grant();
+        grant.setDn(getBaseDnForGrant(p_grantId, p_clientId));
+        grant.setId(p_grantId);
+        grant.setCreationDate(new Date());
+
+        knownBranchesService.persist(grant, grant.getDn());
+    }
+
+    void prepareGrantBranch(final String p_grantId, final String p_clientId) {
+        // Create ocAuthGrant branch if needed
+        if (!containsGrantBranch(p_grantId, p_clientId)) {
+            addGrantBranch(p_grantId, p_clientId);
+        }
+    }
+
+    private boolean containsGrantBranch(final String p_grantId, final String p_clientId) {
+        return knownBranchesService.contains(Grant.class, getBaseDnForGrant(p_grantId, p_clientId));
+    }
+
+    private String getBaseDnForGrant(final String p_grantId, final String p_clientId) {
+        final StringBuilder dn = new StringBuilder();
+        dn.append(String.format("oxAuthGrantId=%s,", p_grantId));
+        dn.append(clientService.buildClientDn(p_clientId));
+
+        return dn.toString();
+    }
+}
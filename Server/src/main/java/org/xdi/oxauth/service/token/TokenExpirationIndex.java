@@ -0,0 +1,182 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service.token;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory expiration index of tokens written by this node.
+ * <p>
+ * Tokens are recorded in time buckets by expiration date. Clean up takes buckets which are entirely due and removes
+ * their tokens in parallel chunks instead of searching the clients tree for oxAuthExpiration. Tokens which are not in
+ * the index (written before restart, by another node or when the index was full) are removed by the full scan which
+ * runs once per fullScanInterval.
+ */
+public class TokenExpirationIndex implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenExpirationIndex.class);
+
+    private final long bucketSize;
+    private final int maxSize;
+    private final long fullScanInterval;
+    private final ExecutorService workers;
+
+    private final ConcurrentNavigableMap<Long, ConcurrentMap<String, TokenLdap>> buckets = new ConcurrentSkipListMap<Long, ConcurrentMap<String, TokenLdap>>();
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile boolean overflowed;
+    private volatile long lastFullScan;
+
+    /**
+     * @param bucketSize       bucket width in seconds
+     * @param maxSize          max number of indexed tokens
+     * @param workers          number of threads removing due tokens
+     * @param fullScanInterval interval of the full scan in seconds
+     */
+    public TokenExpirationIndex(int bucketSize, int maxSize, int workers, int fullScanInterval) {
+        this.bucketSize = Math.max(1, bucketSize) * 1000L;
+        this.maxSize = maxSize;
+        this.fullScanInterval = fullScanInterval * 1000L;
+
+        final AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, workers), new ThreadFactory() {
+            public Thread newThread(Runnable p_r) {
+                Thread thread = new Thread(p_r, "token-cleaner-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void add(TokenLdap p_token) {
+        if (p_token.getExpirationDate() == null || p_token.getDn() == null) {
+            return;
+        }
+        if (size.get() >= maxSize) {
+            if (!overflowed) {
+                log.warn("Token expiration index is full ({} tokens), expired tokens will be removed by the full scan", maxSize);
+                overflowed = true;
+            }
+            return;
+        }
+
+        final Long key = bucketOf(p_token.getExpirationDate());
+        ConcurrentMap<String, TokenLdap> bucket = buckets.get(key);
+        if (bucket == null) {
+            final ConcurrentMap<String, TokenLdap> newBucket = new ConcurrentHashMap<String, TokenLdap>();
+            bucket = buckets.putIfAbsent(key, newBucket);
+            if (bucket == null) {
+                bucket = newBucket;
+            }
+        }
+        if (bucket.put(p_token.getDn(), p_token) == null) {
+            size.incrementAndGet();
+        }
+    }
+
+    public void remove(TokenLdap p_token) {
+        if (p_token.getExpirationDate() == null || p_token.getDn() == null) {
+            return;
+        }
+
+        final ConcurrentMap<String, TokenLdap> bucket = buckets.get(bucketOf(p_token.getExpirationDate()));
+        if (bucket != null && bucket.remove(p_token.getDn()) != null) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes buckets which are entirely due and passes their tokens to the handler in chunks of chunkSize, chunks are
+     * handled in parallel. Returns when all chunks are handled.
+     *
+     * @return number of tokens taken from the index
+     */
+    public int drain(Date now, int chunkSize, final DueTokensHandler handler) {
+        final List<TokenLdap> due = new ArrayList<TokenLdap>();
+        // bucket key is start of the bucket, take buckets which end before now
+        final Map<Long, ConcurrentMap<String, TokenLdap>> dueBuckets = buckets.headMap(bucketOf(now));
+        for (Long key : new ArrayList<Long>(dueBuckets.keySet())) {
+            final ConcurrentMap<String, TokenLdap> bucket = buckets.remove(key);
+            if (bucket != null) {
+                due.addAll(bucket.values());
+            }
+        }
+        if (due.isEmpty()) {
+            return 0;
+        }
+        size.addAndGet(-due.size());
+
+        final List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < due.size(); i += chunkSize) {
+            final List<TokenLdap> chunk = due.subList(i, Math.min(i + chunkSize, due.size()));
+            futures.add(workers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    handler.handle(chunk);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                log.error("Failed to remove expired tokens", e.getCause());
+            }
+        }
+        return due.size();
+    }
+
+    /**
+     * @return true if expired tokens which are not in the index have to be searched
+     */
+    public boolean isFullScanDue(Date now) {
+        return overflowed || lastFullScan == 0 || now.getTime() - lastFullScan >= fullScanInterval;
+    }
+
+    public void setFullScanDone(Date startedAt) {
+        lastFullScan = startedAt.getTime();
+        overflowed = false;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private long bucketOf(Date p_date) {
+        return p_date.getTime() / bucketSize * bucketSize;
+    }
+
+    public interface DueTokensHandler {
+
+        void handle(List<TokenLdap> tokens);
+    }
+}
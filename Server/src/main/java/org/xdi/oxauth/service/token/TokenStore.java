@@ -0,0 +1,82 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service.token;
+
+import org.xdi.oxauth.model.ldap.TokenLdap;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Storage of grant tokens used by {@link org.xdi.oxauth.service.GrantService}.
+ * <p>
+ * Token codes and authorization codes passed to the store are already hashed. Lookups return null (single token)
+ * or an empty list if nothing is found or the store can't be read.
+ */
+public interface TokenStore {
+
+    void persist(TokenLdap token);
+
+    void merge(TokenLdap token);
+
+    void remove(TokenLdap token);
+
+    /**
+     * Removes tokens in bulk. Tokens which don't exist or can't be removed are skipped.
+     *
+     * @return removed tokens
+     */
+    List<TokenLdap> remove(List<TokenLdap> tokens);
+
+    TokenLdap getByCode(String hashedCode);
+
+    /**
+     * Looks up several tokens at once.
+     *
+     * @return found tokens in no particular order
+     */
+    List<TokenLdap> getByCodes(Collection<String> hashedCodes);
+
+    List<TokenLdap> getByClient(String clientId);
+
+    List<TokenLdap> getByGrantId(String grantId);
+
+    /**
+     * Looks up tokens of the grant of the given client. Store may use the client to narrow the search.
+     */
+    List<TokenLdap> getByGrant(String clientId, String grantId);
+
+    List<TokenLdap> getByAuthorizationCode(String hashedAuthorizationCode);
+
+    List<TokenLdap> getBySessionDn(String sessionDn);
+
+    /**
+     * Removes all tokens of the grant.
+     *
+     * @return removed tokens
+     */
+    List<TokenLdap> removeByGrantId(String grantId);
+
+    /**
+     * Removes all tokens of the session.
+     *
+     * @return removed tokens
+     */
+    List<TokenLdap> removeBySessionDn(String sessionDn);
+
+    /**
+     * Removes tokens expired at the given time and store specific leftovers (e.g. empty grant branches).
+     * Removed tokens are reported to the listener in chunks.
+     */
+    void removeExpired(Date now, ExpiredTokensListener listener);
+
+    interface ExpiredTokensListener {
+
+        void onRemoved(List<TokenLdap> tokens);
+    }
+}
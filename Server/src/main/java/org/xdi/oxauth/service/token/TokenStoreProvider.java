@@ -0,0 +1,100 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service.token;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.xdi.oxauth.model.common.TokenStoreType;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Selects token store according to tokenStoreType configuration property.
+ */
+@ApplicationScoped
+@Named
+public class TokenStoreProvider {
+
+    public static final String DEFAULT_EMBEDDED_STORE_FILE = "oxauth-tokens.db";
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private AppConfiguration appConfiguration;
+
+    @Inject
+    private LdapTokenStore ldapTokenStore;
+
+    private EmbeddedTokenStore embeddedTokenStore;
+
+    private WriteBehindTokenStore writeBehindTokenStore;
+
+    @PostConstruct
+    public void init() {
+        if (appConfiguration.getTokenStoreType() != TokenStoreType.EMBEDDED) {
+            if (Boolean.TRUE.equals(appConfiguration.getTokenWriteBehindEnabled())) {
+                writeBehindTokenStore = new WriteBehindTokenStore(ldapTokenStore, appConfiguration.getTokenWriteBehindQueueSize(),
+                        appConfiguration.getTokenWriteBehindThreads(), appConfiguration.getTokenWriteBehindBatchSize());
+                log.info("Using write-behind LDAP token store");
+            }
+            return;
+        }
+
+        File file;
+        if (StringUtils.isNotBlank(appConfiguration.getEmbeddedTokenStoreFile())) {
+            file = new File(appConfiguration.getEmbeddedTokenStoreFile());
+        } else {
+            file = new File(System.getProperty("java.io.tmpdir"), DEFAULT_EMBEDDED_STORE_FILE);
+            log.warn("embeddedTokenStoreFile is not set, using: {}", file.getAbsolutePath());
+        }
+
+        final long size = appConfiguration.getEmbeddedTokenStoreSize() * 1024L * 1024L;
+        if (size <= 0 || size > Integer.MAX_VALUE) {
+            log.error("Invalid embeddedTokenStoreSize: {} MB, it must be between 1 and 2047, falling back to LDAP token store", appConfiguration.getEmbeddedTokenStoreSize());
+            return;
+        }
+
+        try {
+            embeddedTokenStore = new EmbeddedTokenStore(file, (int) size);
+            log.info("Using embedded token store, file: {}, tokens: {}", file.getAbsolutePath(), embeddedTokenStore.size());
+        } catch (IOException e) {
+            log.error("Failed to open embedded token store, falling back to LDAP token store. File: " + file.getAbsolutePath(), e);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (embeddedTokenStore != null) {
+            embeddedTokenStore.close();
+        }
+        if (writeBehindTokenStore != null) {
+            writeBehindTokenStore.close();
+        }
+    }
+
+    public TokenStore getTokenStore() {
+        if (embeddedTokenStore != null) {
+            return embeddedTokenStore;
+        }
+        return writeBehindTokenStore != null ? writeBehindTokenStore : ldapTokenStore;
+    }
+
+    /**
+     * @return write-behind store or null if it's not enabled
+     */
+    public WriteBehindTokenStore getWriteBehindTokenStore() {
+        return writeBehindTokenStore;
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.service.token;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind decorator of {@link LdapTokenStore}.
+ * <p>
+ * New tokens are put into a bounded queue and written by writer threads in batches, grant branch of each grant is
+ * prepared once per batch. Until written, tokens are served from the pending map, so lookups on this node see them
+ * right after persist. Merge and remove of a pending token update or drop the pending entry. If the queue is full the
+ * token is written on the caller thread.
+ * <p>
+ * Token which failed to be written stays pending and is queued again with growing delay until it is written (or
+ * removed). While writes are failing new tokens are written on the caller thread, so that the caller gets the error
+ * instead of a token which may be lost.
+ */
+public class WriteBehindTokenStore implements TokenStore, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindTokenStore.class);
+
+    private static final int CLOSE_TIMEOUT = 30; // seconds
+    private static final long RETRY_DELAY = 100; // milliseconds, doubled with each attempt
+    private static final long MAX_RETRY_DELAY = 30000; // milliseconds
+
+    private final LdapTokenStore delegate;
+    private final int batchSize;
+
+    private final ConcurrentMap<String, TokenLdap> pending = new ConcurrentHashMap<String, TokenLdap>();
+    private final BlockingQueue<String> queue;
+    private final ExecutorService writers;
+    private final ScheduledExecutorService retryScheduler;
+    private final ConcurrentMap<String, Integer> attempts = new ConcurrentHashMap<String, Integer>();
+    private volatile boolean closed;
+    private volatile boolean failing;
+
+    private final AtomicLong flushedTokens = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushTime = new AtomicLong();
+    private final AtomicLong maxFlushTime = new AtomicLong();
+    private final AtomicLong failedTokens = new AtomicLong();
+    private final AtomicLong callerWrites = new AtomicLong();
+    private final AtomicLong retriedTokens = new AtomicLong();
+
+    public WriteBehindTokenStore(LdapTokenStore delegate, int queueSize, int threads, int batchSize) {
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        this.queue = new ArrayBlockingQueue<String>(queueSize);
+
+        final AtomicInteger counter = new AtomicInteger();
+        this.writers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable p_r) {
+                Thread thread = new Thread(p_r, "token-writer-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int i = 0; i < threads; i++) {
+            writers.execute(new Writer());
+        }
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable p_r) {
+                Thread thread = new Thread(p_r, "token-writer-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void persist(TokenLdap p_token) {
+        if (failing) {
+            callerWrites.incrementAndGet();
+            delegate.persist(p_token);
+            failing = false;
+            return;
+        }
+
+        final String code = p_token.getTokenCode();
+        pending.put(code, p_token);
+        if (!queue.offer(code)) {
+            pending.remove(code, p_token);
+            callerWrites.incrementAndGet();
+            delegate.persist(p_token);
+        }
+    }
+
+    @Override
+    public void merge(TokenLdap p_token) {
+        final String code = p_token.getTokenCode();
+        TokenLdap queued = pending.get(code);
+        while (queued != null) {
+            synchronized (queued) {
+                // writer picks up the replacement
+                if (pending.replace(code, queued, p_token)) {
+                    return;
+                }
+            }
+            queued = pending.get(code);
+        }
+        delegate.merge(p_token);
+    }
+
+    @Override
+    public void remove(TokenLdap p_token) {
+        if (removePending(p_token.getTokenCode()) == null) {
+            delegate.remove(p_token);
+        }
+    }
+
+    @Override
+    public List<TokenLdap> remove(List<TokenLdap> p_tokens) {
+        final List<TokenLdap> removed = new ArrayList<TokenLdap>();
+        final List<TokenLdap> written = new ArrayList<TokenLdap>();
+        for (TokenLdap token : p_tokens) {
+            if (removePending(token.getTokenCode()) != null) {
+                removed.add(token);
+            } else {
+                written.add(token);
+            }
+        }
+        removed.addAll(delegate.remove(written));
+        return removed;
+    }
+
+    @Override
+    public TokenLdap getByCode(String p_hashedCode) {
+        final TokenLdap queued = pending.get(p_hashedCode);
+        return queued != null ? queued : delegate.getByCode(p_hashedCode);
+    }
+
+    @Override
+    public List<TokenLdap> getByCodes(Collection<String> p_hashedCodes) {
+        final List<TokenLdap> result = new ArrayList<TokenLdap>();
+        final List<String> written = new ArrayList<String>();
+        for (String code : p_hashedCodes) {
+            final TokenLdap queued = pending.get(code);
+            if (queued != null) {
+                result.add(queued);
+            } else {
+                written.add(code);
+            }
+        }
+        result.addAll(delegate.getByCodes(written));
+        return result;
+    }
+
+    @Override
+    public List<TokenLdap> getByClient(String p_clientId) {
+        return withPending(delegate.getByClient(p_clientId), Attribute.CLIENT_ID, p_clientId);
+    }
+
+    @Override
+    public List<TokenLdap> getByGrantId(String p_grantId) {
+        return withPending(delegate.getByGrantId(p_grantId), Attribute.GRANT_ID, p_grantId);
+    }
+
+    @Override
+    public List<TokenLdap> getByGrant(String p_clientId, String p_grantId) {
+        return withPending(delegate.getByGrant(p_clientId, p_grantId), Attribute.GRANT_ID, p_grantId);
+    }
+
+    @Override
+    public List<TokenLdap> getByAuthorizationCode(String p_hashedAuthorizationCode) {
+        return withPending(delegate.getByAuthorizationCode(p_hashedAuthorizationCode), Attribute.AUTHORIZATION_CODE, p_hashedAuthorizationCode);
+    }
+
+    @Override
+    public List<TokenLdap> getBySessionDn(String p_sessionDn) {
+        return withPending(delegate.getBySessionDn(p_sessionDn), Attribute.SESSION_DN, p_sessionDn);
+    }
+
+    @Override
+    public List<TokenLdap> removeByGrantId(String p_grantId) {
+        final List<TokenLdap> removed = removePending(Attribute.GRANT_ID, p_grantId);
+        removed.addAll(delegate.removeByGrantId(p_grantId));
+        return removed;
+    }
+
+    @Override
+    public List<TokenLdap> removeBySessionDn(String p_sessionDn) {
+        final List<TokenLdap> removed = removePending(Attribute.SESSION_DN, p_sessionDn);
+        removed.addAll(delegate.removeBySessionDn(p_sessionDn));
+        return removed;
+    }
+
+    @Override
+    public void removeExpired(Date now, ExpiredTokensListener listener) {
+        final List<TokenLdap> removed = new ArrayList<TokenLdap>();
+        for (TokenLdap token : pending.values()) {
+            if (token.getExpirationDate() != null && !token.getExpirationDate().after(now)) {
+                final TokenLdap queued = removePending(token.getTokenCode());
+                if (queued != null) {
+                    removed.add(queued);
+                }
+            }
+        }
+        if (!removed.isEmpty()) {
+            listener.onRemoved(removed);
+        }
+
+        delegate.removeExpired(now, listener);
+    }
+
+    /**
+     * Stops writer threads and writes tokens left in the queue.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        retryScheduler.shutdownNow();
+        writers.shutdown();
+        try {
+            if (!writers.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn("Token writers didn't finish in {} seconds", CLOSE_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        final List<String> batch = new ArrayList<String>();
+        queue.drainTo(batch);
+        flush(batch);
+
+        // tokens waiting for retry
+        for (TokenLdap token : pending.values()) {
+            try {
+                delegate.persist(token);
+                pending.remove(token.getTokenCode(), token);
+            } catch (Exception e) {
+                log.error("Failed to write token on close, grantId: " + token.getGrantId() + ", clientId: " + token.getClientId(), e);
+            }
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getFlushedTokens() {
+        return flushedTokens.get();
+    }
+
+    public long getFailedTokens() {
+        return failedTokens.get();
+    }
+
+    public long getCallerWrites() {
+        return callerWrites.get();
+    }
+
+    public long getRetriedTokens() {
+        return retriedTokens.get();
+    }
+
+    /**
+     * @return average time of writing a batch in milliseconds
+     */
+    public long getAverageFlushTime() {
+        final long count = flushes.get();
+        return count > 0 ? TimeUnit.NANOSECONDS.toMillis(flushTime.get() / count) : 0;
+    }
+
+    /**
+     * @return max time of writing a batch in milliseconds
+     */
+    public long getMaxFlushTime() {
+        return TimeUnit.NANOSECONDS.toMillis(maxFlushTime.get());
+    }
+
+    public String getStatistics() {
+        return String.format("queueSize=%d, pendingTokens=%d, flushedTokens=%d, failedTokens=%d, retriedTokens=%d, callerWrites=%d, averageFlushTime=%dms, maxFlushTime=%dms",
+                getQueueSize(), pending.size(), getFlushedTokens(), getFailedTokens(), getRetriedTokens(), getCallerWrites(), getAverageFlushTime(), getMaxFlushTime());
+    }
+
+    private void flush(List<String> p_batch) {
+        if (p_batch.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final Set<String> preparedBranches = new HashSet<String>();
+        for (String code : p_batch) {
+            TokenLdap token = pending.get(code);
+            while (token != null) {
+                synchronized (token) {
+                    if (pending.get(code) == token) {
+                        if (write(token, preparedBranches)) {
+                            pending.remove(code, token);
+                            attempts.remove(code);
+                        } else {
+                            retry(code);
+                        }
+                        break;
+                    }
+                }
+                // replaced by merge, write the latest version
+                token = pending.get(code);
+            }
+        }
+
+        final long time = System.nanoTime() - start;
+        flushes.incrementAndGet();
+        flushTime.addAndGet(time);
+        long max = maxFlushTime.get();
+        while (time > max && !maxFlushTime.compareAndSet(max, time)) {
+            max = maxFlushTime.get();
+        }
+    }
+
+    /**
+     * @return true if the token is written
+     */
+    private boolean write(TokenLdap p_token, Set<String> p_preparedBranches) {
+        try {
+            if (p_preparedBranches.add(p_token.getGrantId() + "," + p_token.getClientId())) {
+                delegate.prepareGrantBranch(p_token.getGrantId(), p_token.getClientId());
+            }
+            delegate.persistEntry(p_token);
+            flushedTokens.incrementAndGet();
+            failing = false;
+            return true;
+        } catch (Exception e) {
+            failedTokens.incrementAndGet();
+            failing = true;
+            p_preparedBranches.remove(p_token.getGrantId() + "," + p_token.getClientId());
+            log.error("Failed to write token, grantId: " + p_token.getGrantId() + ", clientId: " + p_token.getClientId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Queues pending token again after delay which grows with each failed attempt.
+     */
+    private void retry(final String p_code) {
+        if (closed) {
+            return; // written on close
+        }
+
+        Integer attempt = attempts.get(p_code);
+        attempt = attempt != null ? attempt + 1 : 1;
+        attempts.put(p_code, attempt);
+        retriedTokens.incrementAndGet();
+
+        final long delay = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(attempt - 1, 20));
+        try {
+            retryScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!pending.containsKey(p_code)) {
+                        attempts.remove(p_code); // removed meanwhile
+                    } else if (!queue.offer(p_code)) {
+                        retry(p_code);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.trace("Retry of token is not scheduled, store is closed");
+        }
+    }
+
+    private TokenLdap removePending(String p_code) {
+        TokenLdap queued = pending.get(p_code);
+        while (queued != null) {
+            synchronized (queued) {
+                if (pending.remove(p_code, queued)) {
+                    return queued;
+                }
+            }
+            queued = pending.get(p_code);
+        }
+        return null;
+    }
+
+    private List<TokenLdap> removePending(Attribute p_attribute, String p_value) {
+        final List<TokenLdap> removed = new ArrayList<TokenLdap>();
+        for (TokenLdap token : pending.values()) {
+            if (StringUtils.equals(p_attribute.of(token), p_value)) {
+                final TokenLdap queued = removePending(token.getTokenCode());
+                if (queued != null) {
+                    removed.add(queued);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private List<TokenLdap> withPending(List<TokenLdap> p_stored, Attribute p_attribute, String p_value) {
+        if (pending.isEmpty()) {
+            return p_stored;
+        }
+
+        final List<TokenLdap> result = new ArrayList<TokenLdap>(p_stored);
+        final Set<String> codes = new HashSet<String>();
+        for (TokenLdap token : p_stored) {
+            codes.add(token.getTokenCode());
+        }
+        for (TokenLdap token : pending.values()) {
+            if (StringUtils.equals(p_attribute.of(token), p_value) && !codes.contains(token.getTokenCode())) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    private enum Attribute {
+        CLIENT_ID, GRANT_ID, AUTHORIZATION_CODE, SESSION_DN;
+
+        String of(TokenLdap p_token) {
+            switch (this) {
+                case CLIENT_ID:
+                    return p_token.getClientId();
+                case GRANT_ID:
+                    return p_token.getGrantId();
+                case AUTHORIZATION_CODE:
+                    return p_token.getAuthorizationCode();
+                default:
+                    return p_token.getSessionDn();
+            }
+        }
+    }
+
+    private class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            final List<String> batch = new ArrayList<String>(batchSize);
+            while (!closed) {
+                try {
+                    final String code = queue.poll(1, TimeUnit.SECONDS);
+                    if (code == null) {
+                        continue;
+                    }
+
+                    batch.add(code);
+                    queue.drainTo(batch, batchSize - 1);
+                    flush(batch);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    log.error("Failed to write tokens", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
@@ -304,6 +304,8 @@ public class OpenIdConfiguration extends HttpServlet {
             jsonObj.put(FRONTCHANNEL_LOGOUT_SUPPORTED, "true");
             jsonObj.put(FRONTCHANNEL_LOGOUT_SESSION_SUPPORTED, "true");
             jsonObj.put(FRONT_CHANNEL_LOGOUT_SESSION_SUPPORTED, appConfiguration.getFrontChannelLogoutSessionSupported());
+            jsonObj.put(BACKCHANNEL_LOGOUT_SUPPORTED, appConfiguration.getBackchannelLogoutEnabled());
+            jsonObj.put(BACKCHANNEL_LOGOUT_SESSION_SUPPORTED, appConfiguration.getBackchannelLogoutEnabled());
 
             out.println(jsonObj.toString(4).replace("\\/", "/"));
         } catch (JSONException e) {
@@ -24,6 +24,7 @@ import org.xdi.oxauth.model.registration.Client;
 import org.xdi.oxauth.model.session.EndSessionErrorResponseType;
 import org.xdi.oxauth.model.session.EndSessionParamsValidator;
 import org.xdi.oxauth.model.util.Util;
+import org.xdi.oxauth.service.BackchannelLogoutService;
 import org.xdi.oxauth.service.ClientService;
 import org.xdi.oxauth.service.GrantService;
 import org.xdi.oxauth.service.RedirectionUriService;
@@ -84,6 +85,9 @@ public class EndSessionRestWebServiceImpl implements EndSessionRestWebService {
     @Inject
     private AppConfiguration appConfiguration;
 
+    @Inject
+    private BackchannelLogoutService backchannelLogoutService;
+
     @Override
     public Response requestEndSession(String idTokenHint, String postLogoutRedirectUri, String state, String sessionState,
                                       HttpServletRequest httpRequest, HttpServletResponse httpResponse, SecurityContext sec) {
@@ -113,7 +117,12 @@ public class EndSessionRestWebServiceImpl implements EndSessionRestWebService {
         	redirectUri = redirectionUriService.validatePostLogoutRedirectUri(authorizationGrant.getClient().getClientId(), postLogoutRedirectUri);
         }
 
-        final Set<String> frontchannelLogoutUris = getRpFrontchannelLogoutUris(pair);
+        final Set<Client> clients = getLogoutClients(pair);
+        if (sessionState != null) {
+            backchannelLogoutService.logout(sessionState, clients);
+        }
+
+        final Set<String> frontchannelLogoutUris = getRpFrontchannelLogoutUris(sessionState, clients);
         final String html = constructPage(frontchannelLogoutUris, redirectUri, state);
         log.debug("Constructed http logout page: " + html);
         return Response.ok().
@@ -156,6 +165,7 @@ public class EndSessionRestWebServiceImpl implements EndSessionRestWebService {
 
         if (ldapSessionState != null) {
             grantService.removeAllTokensBySession(ldapSessionState.getDn());
+            endOtherSessionsOfUser(ldapSessionState);
         }
 
         if (identity != null) {
@@ -165,25 +175,58 @@ public class EndSessionRestWebServiceImpl implements EndSessionRestWebService {
         return new Pair<SessionState, AuthorizationGrant>(ldapSessionState, authorizationGrant);
     }
 
-    private Set<String> getRpFrontchannelLogoutUris(Pair<SessionState, AuthorizationGrant> pair) {
-        final Set<String> result = Sets.newHashSet();
+    /**
+     * Ends other sessions of the user found by the session index, their clients are notified by backchannel only.
+     */
+    private void endOtherSessionsOfUser(SessionState p_session) {
+        final Boolean endAll = appConfiguration.getEndSessionOfAllUserSessions();
+        if (endAll == null || !endAll || StringUtils.isBlank(p_session.getUserDn())) {
+            return;
+        }
 
+        for (SessionState session : sessionStateService.getSessionsOfUser(p_session.getUserDn())) {
+            if (session.getId().equals(p_session.getId())) {
+                continue;
+            }
+            if (!sessionStateService.remove(session)) {
+                log.error("Failed to remove session_state '{}' of user '{}'", session.getId(), session.getUserDn());
+                continue;
+            }
+
+            grantService.removeAllTokensBySession(session.getDn());
+            backchannelLogoutService.logout(session, getSessionClients(session));
+        }
+    }
+
+    private Set<Client> getSessionClients(SessionState sessionState) {
+        return sessionState.getPermissionGrantedMap() != null ?
+                clientService.getClient(sessionState.getPermissionGrantedMap().getClientIds(true), true) :
+                Sets.<Client>newHashSet();
+    }
+
+    /**
+     * @return clients involved in the session which has to be notified about logout
+     */
+    private Set<Client> getLogoutClients(Pair<SessionState, AuthorizationGrant> pair) {
         SessionState sessionState = pair.getFirst();
         AuthorizationGrant authorizationGrant = pair.getSecond();
         if (sessionState == null) {
             log.error("session_state is not passed to endpoint (as cookie or manually). Therefore unable to match clients for session_state." +
                     "Http based html will contain no iframes.");
-            return result;
+            return Sets.newHashSet();
         }
 
-        final Set<Client> clientsByDns = sessionState.getPermissionGrantedMap() != null ?
-                clientService.getClient(sessionState.getPermissionGrantedMap().getClientIds(true), true) :
-                Sets.<Client>newHashSet();
+        final Set<Client> clientsByDns = getSessionClients(sessionState);
         if (authorizationGrant != null) {
         	clientsByDns.add(authorizationGrant.getClient());
         }
+        return clientsByDns;
+    }
+
+    private Set<String> getRpFrontchannelLogoutUris(SessionState sessionState, Set<Client> clients) {
+        final Set<String> result = Sets.newHashSet();
 
-        for (Client client : clientsByDns) {
+        for (Client client : clients) {
             String[] logoutUris = client.getFrontChannelLogoutUri();
 
             if (logoutUris == null) {
@@ -18,7 +18,11 @@ import org.xdi.ldap.model.SimpleBranch;
 import org.xdi.oxauth.model.config.StaticConfiguration;
 import org.xdi.oxauth.model.uma.UmaPermissionList;
 import org.xdi.oxauth.model.uma.persistence.UmaPermission;
+import org.xdi.oxauth.service.BulkRemoveService;
+import org.xdi.oxauth.service.CleanerStatistics;
 import org.xdi.oxauth.service.CleanerTimer;
+import org.xdi.oxauth.service.KnownBranchesService;
+import org.xdi.oxauth.service.MetricService;
 import org.xdi.util.INumGenerator;
 
 import javax.ejb.Stateless;
@@ -49,6 +53,15 @@ public class UmaPermissionService {
     @Inject
     private UmaScopeService scopeService;
 
+    @Inject
+    private KnownBranchesService knownBranchesService;
+
+    @Inject
+    private BulkRemoveService bulkRemoveService;
+
+    @Inject
+    private MetricService metricService;
+
     public static String getDn(String clientDn, String ticket) {
         return String.format("oxTicket=%s,%s", ticket, getBranchDn(clientDn));
     }
@@ -140,6 +153,7 @@ public class UmaPermissionService {
     }
 
     public void cleanup(final Date now) {
+        final CleanerStatistics statistics = new CleanerStatistics("uma_permission");
         BatchOperation<UmaPermission> batchService = new BatchOperation<UmaPermission>(ldapEntryManager) {
             @Override
             protected List<UmaPermission> getChunkOrNull(int chunkSize) {
@@ -148,13 +162,11 @@ public class UmaPermissionService {
 
             @Override
             protected void performAction(List<UmaPermission> entries) {
+                final Map<String, UmaPermission> permissionsByDn = new LinkedHashMap<String, UmaPermission>();
                 for (UmaPermission p : entries) {
-                    try {
-                        ldapEntryManager.remove(p);
-                    } catch (Exception e) {
-                        log.error("Failed to remove entry", e);
-                    }
+                    permissionsByDn.put(p.getDn(), p);
                 }
+                bulkRemoveService.remove(permissionsByDn, statistics);
             }
 
             private Filter getFilter() {
@@ -167,13 +179,14 @@ public class UmaPermissionService {
             }
         };
         batchService.iterateAllByChunks(CleanerTimer.BATCH_SIZE);
+        metricService.setCleanerStatistics(statistics.finish());
     }
 
     public void addBranch(String clientDn) {
         final SimpleBranch branch = new SimpleBranch();
         branch.setOrganizationalUnitName(ORGUNIT_OF_RESOURCE_PERMISSION);
         branch.setDn(getBranchDn(clientDn));
-        ldapEntryManager.persist(branch);
+        knownBranchesService.persist(branch, branch.getDn());
     }
 
     public void addBranchIfNeeded(String clientDn) {
@@ -183,7 +196,7 @@ public class UmaPermissionService {
     }
 
     public boolean containsBranch(String clientDn) {
-        return ldapEntryManager.contains(SimpleBranch.class, getBranchDn(clientDn));
+        return knownBranchesService.contains(SimpleBranch.class, getBranchDn(clientDn));
     }
 
     public String changeTicket(List<UmaPermission> permissions, Map<String, String> attributes) {
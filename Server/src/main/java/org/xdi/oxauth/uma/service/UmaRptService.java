@@ -22,8 +22,12 @@ import org.xdi.oxauth.model.configuration.AppConfiguration;
 import org.xdi.oxauth.model.registration.Client;
 import org.xdi.oxauth.model.uma.persistence.UmaPermission;
 import org.xdi.oxauth.model.util.Util;
+import org.xdi.oxauth.service.BulkRemoveService;
+import org.xdi.oxauth.service.CleanerStatistics;
 import org.xdi.oxauth.service.CleanerTimer;
 import org.xdi.oxauth.service.ClientService;
+import org.xdi.oxauth.service.KnownBranchesService;
+import org.xdi.oxauth.service.MetricService;
 import org.xdi.oxauth.service.token.TokenService;
 import org.xdi.oxauth.uma.authorization.UmaRPT;
 import org.xdi.util.INumGenerator;
@@ -69,6 +73,15 @@ public class UmaRptService {
     @Inject
     private ClientService clientService;
 
+    @Inject
+    private KnownBranchesService knownBranchesService;
+
+    @Inject
+    private BulkRemoveService bulkRemoveService;
+
+    @Inject
+    private MetricService metricService;
+
     public static String getDn(String clientDn, String uniqueIdentifier) {
         return String.format("uniqueIdentifier=%s,%s", uniqueIdentifier, branchDn(clientDn));
     }
@@ -121,6 +134,7 @@ public class UmaRptService {
     }
 
     public void cleanup(final Date now) {
+        final CleanerStatistics statistics = new CleanerStatistics("uma_rpt");
         BatchOperation<UmaRPT> rptBatchService = new BatchOperation<UmaRPT>(ldapEntryManager) {
             @Override
             protected List<UmaRPT> getChunkOrNull(int chunkSize) {
@@ -129,13 +143,11 @@ public class UmaRptService {
 
             @Override
             protected void performAction(List<UmaRPT> entries) {
+                final Map<String, UmaRPT> rptsByDn = new LinkedHashMap<String, UmaRPT>();
                 for (UmaRPT p : entries) {
-                    try {
-                        ldapEntryManager.remove(p);
-                    } catch (Exception e) {
-                        log.error("Failed to remove entry", e);
-                    }
+                    rptsByDn.put(p.getDn(), p);
                 }
+                bulkRemoveService.remove(rptsByDn, statistics);
             }
 
             private Filter getFilter() {
@@ -148,6 +160,7 @@ public class UmaRptService {
             }
         };
         rptBatchService.iterateAllByChunks(CleanerTimer.BATCH_SIZE);
+        metricService.setCleanerStatistics(statistics.finish());
     }
 
     public void addPermissionToRPT(UmaRPT rpt, Collection<UmaPermission> permissions) {
@@ -245,7 +258,7 @@ public class UmaRptService {
         final SimpleBranch branch = new SimpleBranch();
         branch.setOrganizationalUnitName(ORGUNIT_OF_RPT);
         branch.setDn(branchDn(clientDn));
-        ldapEntryManager.persist(branch);
+        knownBranchesService.persist(branch, branch.getDn());
     }
 
     public void addBranchIfNeeded(String clientDn) {
@@ -255,7 +268,7 @@ public class UmaRptService {
     }
 
     public boolean containsBranch(String clientDn) {
-        return ldapEntryManager.contains(SimpleBranch.class, branchDn(clientDn));
+        return knownBranchesService.contains(SimpleBranch.class, branchDn(clientDn));
     }
 
 //    private JsonWebResponse createJwr(UmaRPT rpt, String authorization, List<String> gluuAccessTokenScopes) throws Exception {
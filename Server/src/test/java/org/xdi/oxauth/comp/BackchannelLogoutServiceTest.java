@@ -0,0 +1,160 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.common.SessionState;
+import org.xdi.oxauth.model.jwt.Jwt;
+import org.xdi.oxauth.model.jwt.JwtClaimName;
+import org.xdi.oxauth.model.registration.Client;
+import org.xdi.oxauth.service.BackchannelLogoutService;
+import org.xdi.oxauth.service.ClientService;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class BackchannelLogoutServiceTest extends BaseComponentTest {
+
+	@Inject
+	private BackchannelLogoutService backchannelLogoutService;
+
+	@Inject
+	private ClientService clientService;
+
+	private HttpServer server;
+	private final BlockingQueue<String> received = new LinkedBlockingQueue<String>();
+	private final AtomicInteger unavailable = new AtomicInteger();
+	private final AtomicInteger refused = new AtomicInteger();
+
+	@BeforeClass
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/logout", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				final int status;
+				if (unavailable.getAndDecrement() > 0) {
+					status = 503;
+				} else if (refused.getAndDecrement() > 0) {
+					status = 400;
+				} else {
+					received.add(read(exchange.getRequestBody()));
+					status = 200;
+				}
+				exchange.sendResponseHeaders(status, -1);
+				exchange.close();
+			}
+		});
+		server.start();
+	}
+
+	@AfterClass
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void logoutTokenIsDeliveredToEachClientOnce() throws Exception {
+		final Client first = createClient();
+		final Client second = createClient();
+		final Client frontchannelOnly = createClient();
+		frontchannelOnly.setBackChannelLogoutUri(null);
+		final SessionState session = createSession();
+
+		backchannelLogoutService.logout(session, Arrays.asList(first, second, first, frontchannelOnly));
+
+		final String firstBody = received.poll(10, TimeUnit.SECONDS);
+		final String secondBody = received.poll(10, TimeUnit.SECONDS);
+		assertNotNull(firstBody);
+		assertNotNull(secondBody);
+		assertNull(received.poll(1, TimeUnit.SECONDS));
+
+		final Jwt jwt = parse(firstBody);
+		assertEquals(jwt.getClaims().getClaimAsString(BackchannelLogoutService.SESSION_ID), session.getId());
+		assertNotNull(jwt.getClaims().getClaimAsString(JwtClaimName.JWT_ID));
+		assertTrue(jwt.getClaims().getClaimAsJSON(BackchannelLogoutService.EVENTS).has(BackchannelLogoutService.BACKCHANNEL_LOGOUT_EVENT));
+	}
+
+	@Test(dependsOnMethods = "logoutTokenIsDeliveredToEachClientOnce")
+	public void unavailableClientIsRetried() throws Exception {
+		final long retried = backchannelLogoutService.getRetried();
+		unavailable.set(1);
+
+		backchannelLogoutService.logout(createSession(), Arrays.asList(createClient()));
+
+		assertNotNull(received.poll(10, TimeUnit.SECONDS));
+		assertEquals(backchannelLogoutService.getRetried(), retried + 1);
+	}
+
+	@Test(dependsOnMethods = "unavailableClientIsRetried")
+	public void refusedRequestIsNotRetried() throws Exception {
+		final long retried = backchannelLogoutService.getRetried();
+		final long failed = backchannelLogoutService.getFailed();
+		refused.set(1);
+
+		backchannelLogoutService.logout(createSession(), Arrays.asList(createClient()));
+
+		for (int i = 0; i < 100 && backchannelLogoutService.getFailed() == failed; i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(backchannelLogoutService.getFailed(), failed + 1);
+		assertEquals(backchannelLogoutService.getRetried(), retried);
+		assertNull(received.poll(1, TimeUnit.SECONDS));
+	}
+
+	private Client createClient() throws Exception {
+		final Client client = new Client();
+		client.setClientId(UUID.randomUUID().toString());
+		client.setClientSecret(clientService.encryptSecret(UUID.randomUUID().toString()));
+		client.setBackChannelLogoutUri("http://localhost:" + server.getAddress().getPort() + "/logout");
+		return client;
+	}
+
+	private SessionState createSession() {
+		final SessionState session = new SessionState();
+		session.setId(UUID.randomUUID().toString());
+		return session;
+	}
+
+	private static Jwt parse(String body) throws Exception {
+		assertTrue(body.startsWith(BackchannelLogoutService.LOGOUT_TOKEN + "="));
+		return Jwt.parse(URLDecoder.decode(body.substring(BackchannelLogoutService.LOGOUT_TOKEN.length() + 1), "UTF-8"));
+	}
+
+	private static String read(InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[1024];
+		int read;
+		while ((read = in.read(buffer)) != -1) {
+			out.write(buffer, 0, read);
+		}
+		return out.toString("UTF-8");
+	}
+}
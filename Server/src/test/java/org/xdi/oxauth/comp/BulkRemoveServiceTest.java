@@ -0,0 +1,165 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.model.ldap.TokenType;
+import org.xdi.oxauth.service.BulkRemoveService;
+import org.xdi.oxauth.service.CleanerStatistics;
+import org.xdi.oxauth.service.GrantService;
+import org.xdi.oxauth.service.token.LdapTokenStore;
+
+public class BulkRemoveServiceTest extends BaseComponentTest {
+
+	@Inject
+	private BulkRemoveService bulkRemoveService;
+
+	@Inject
+	private LdapTokenStore ldapTokenStore;
+
+	@Inject
+	private GrantService grantService;
+
+	@Inject
+	private AppConfiguration appConfiguration;
+
+	private Integer rateLimit;
+	private Integer maxOutstandingDeletes;
+
+	@BeforeClass
+	public void saveConfiguration() {
+		rateLimit = appConfiguration.getCleanServiceRateLimit();
+		maxOutstandingDeletes = appConfiguration.getCleanServiceMaxOutstandingDeletes();
+	}
+
+	@AfterClass
+	public void restoreConfiguration() {
+		configure(rateLimit, maxOutstandingDeletes);
+	}
+
+	@Parameters(value = "clientId")
+	@Test
+	public void pipelinedRemoval(String clientId) {
+		configure(0, 1);
+		final String grantId = GrantService.generateGrantId();
+		final Map<String, TokenLdap> tokens = persistTokens(clientId, grantId, 20);
+		final TokenLdap missing = createToken(clientId, grantId);
+		tokens.put(missing.getDn(), missing);
+
+		final CleanerStatistics statistics = new CleanerStatistics("token");
+		final long started = System.currentTimeMillis();
+		final List<TokenLdap> removed = bulkRemoveService.remove(tokens, statistics);
+
+		// Only one request is sent at a time, every response (also for the missing entry) must release its permit,
+		// otherwise removal waits for the response timeout
+		assertTrue(System.currentTimeMillis() - started < 30 * 1000L);
+		assertRemoved(grantId, tokens, removed, missing, statistics);
+	}
+
+	@Parameters(value = "clientId")
+	@Test
+	public void synchronousRemoval(String clientId) {
+		// Entries are removed one by one with entry manager, the same way as when requests can't be pipelined
+		configure(0, 0);
+		final String grantId = GrantService.generateGrantId();
+		final Map<String, TokenLdap> tokens = persistTokens(clientId, grantId, 20);
+		final TokenLdap missing = createToken(clientId, grantId);
+		tokens.put(missing.getDn(), missing);
+
+		final CleanerStatistics statistics = new CleanerStatistics("token");
+		final List<TokenLdap> removed = bulkRemoveService.remove(tokens, statistics);
+
+		assertRemoved(grantId, tokens, removed, missing, statistics);
+	}
+
+	@Parameters(value = "clientId")
+	@Test
+	public void cleanUpIsRateLimited(String clientId) {
+		configure(10, 20);
+		final String grantId = GrantService.generateGrantId();
+		final Map<String, TokenLdap> tokens = persistTokens(clientId, grantId, 15);
+
+		final CleanerStatistics statistics = new CleanerStatistics("token");
+		final long started = System.currentTimeMillis();
+		final List<TokenLdap> removed = bulkRemoveService.remove(tokens, statistics);
+
+		// 15 entries with 10 entries per second take at least 1.4 seconds
+		assertTrue(System.currentTimeMillis() - started >= 1000L);
+		assertEquals(removed.size(), 15);
+		assertEquals(statistics.getDeleted(), 15);
+		assertTrue(ldapTokenStore.getByGrantId(grantId).isEmpty());
+	}
+
+	private void configure(Integer p_rateLimit, Integer p_maxOutstandingDeletes) {
+		appConfiguration.setCleanServiceRateLimit(p_rateLimit);
+		appConfiguration.setCleanServiceMaxOutstandingDeletes(p_maxOutstandingDeletes);
+		bulkRemoveService.init();
+	}
+
+	private void assertRemoved(String grantId, Map<String, TokenLdap> tokens, List<TokenLdap> removed, TokenLdap missing,
+			CleanerStatistics statistics) {
+		final Set<String> removedDns = new HashSet<String>();
+		for (TokenLdap token : removed) {
+			removedDns.add(token.getDn());
+		}
+		assertEquals(removed.size(), tokens.size() - 1);
+		assertFalse(removedDns.contains(missing.getDn()));
+
+		// Missing entry is scanned, but neither deleted nor failed
+		assertEquals(statistics.getScanned(), tokens.size());
+		assertEquals(statistics.getDeleted(), tokens.size() - 1);
+		assertEquals(statistics.getFailed(), 0);
+		assertTrue(ldapTokenStore.getByGrantId(grantId).isEmpty());
+	}
+
+	private Map<String, TokenLdap> persistTokens(String clientId, String grantId, int count) {
+		final Map<String, TokenLdap> tokens = new HashMap<String, TokenLdap>();
+		for (int i = 0; i < count; i++) {
+			final TokenLdap token = createToken(clientId, grantId);
+			ldapTokenStore.persist(token);
+			tokens.put(token.getDn(), token);
+		}
+		assertEquals(ldapTokenStore.getByGrantId(grantId).size(), count);
+		return tokens;
+	}
+
+	private TokenLdap createToken(String clientId, String grantId) {
+		final String id = GrantService.generateGrantId();
+
+		final TokenLdap t = new TokenLdap();
+		t.setId(id);
+		t.setDn(grantService.buildDn(id, grantId, clientId));
+		t.setGrantId(grantId);
+		t.setClientId(clientId);
+		t.setTokenCode(UUID.randomUUID().toString());
+		t.setTokenType(TokenType.ACCESS_TOKEN.getValue());
+		t.setCreationDate(new Date());
+		t.setExpirationDate(new Date(System.currentTimeMillis() + 3600 * 1000L));
+		return t;
+	}
+
+}
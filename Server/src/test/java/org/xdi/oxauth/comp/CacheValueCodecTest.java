@@ -0,0 +1,146 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.common.CacheValueCodec;
+import org.xdi.oxauth.model.common.MemcachedGrant;
+import org.xdi.oxauth.model.common.SessionIdState;
+import org.xdi.oxauth.model.common.SessionState;
+
+import com.google.common.collect.Sets;
+
+public class CacheValueCodecTest extends BaseComponentTest {
+
+	@Test
+	public void sessionStateRoundTrip() throws IOException {
+		final SessionState session = new SessionState();
+		session.setDn("oxAuthSessionId=" + UUID.randomUUID().toString() + ",ou=session,o=gluu");
+		session.setId(UUID.randomUUID().toString());
+		session.setUserDn("inum=@!1111!0000!D4E7,ou=people,o=@!1111,o=gluu");
+		session.setLastUsedAt(new Date());
+		session.setAuthenticationTime(new Date());
+		session.setState(SessionIdState.AUTHENTICATED);
+		session.setPermissionGranted(true);
+		session.setJwt(null);
+		session.addPermission("@!1111!0008!FF81!2D39", true);
+		session.getInvolvedClients().put("@!1111!0008!FF81!2D39", false);
+		session.getSessionAttributes().put("acr", "basic");
+		session.getSessionAttributes().put("auth_step", "1");
+		session.setVersion(7);
+
+		final byte[] encoded = CacheValueCodec.encode(session);
+		final SessionState decoded = CacheValueCodec.decodeSessionState(encoded);
+		assertEquals(decoded.getDn(), session.getDn());
+		assertEquals(decoded.getId(), session.getId());
+		assertEquals(decoded.getUserDn(), session.getUserDn());
+		assertEquals(decoded.getLastUsedAt(), session.getLastUsedAt());
+		assertEquals(decoded.getAuthenticationTime(), session.getAuthenticationTime());
+		assertEquals(decoded.getState(), SessionIdState.AUTHENTICATED);
+		assertEquals(decoded.getPermissionGranted(), Boolean.TRUE);
+		assertEquals(decoded.getIsJwt(), Boolean.FALSE);
+		assertNull(decoded.getJwt());
+		assertTrue(decoded.isPermissionGrantedForClient("@!1111!0008!FF81!2D39"));
+		assertEquals(decoded.getInvolvedClients().getPermissionGranted(), session.getInvolvedClients().getPermissionGranted());
+		assertEquals(decoded.getSessionAttributes(), session.getSessionAttributes());
+		assertEquals(decoded.getVersion(), 7);
+
+		assertTrue(encoded.length < javaSerializedSize(session));
+	}
+
+	@Test
+	public void memcachedGrantRoundTrip() throws IOException {
+		final MemcachedGrant grant = new MemcachedGrant();
+		grant.setAuthorizationCodeString(UUID.randomUUID().toString());
+		grant.setAuthorizationCodeCreationDate(new Date());
+		grant.setAuthorizationCodeExpirationDate(new Date(System.currentTimeMillis() + 60 * 1000L));
+		grant.setUserId("admin");
+		grant.setClientId("@!1111!0008!FF81!2D39");
+		grant.setAuthenticationTime(new Date());
+		grant.setScopes(Sets.newHashSet("openid", "profile"));
+		grant.setGrantId(UUID.randomUUID().toString());
+		grant.setNonce("n-0S6_WzA2Mj");
+		grant.setAcrValues("basic");
+		grant.setSessionDn("oxAuthSessionId=" + UUID.randomUUID().toString() + ",ou=session,o=gluu");
+
+		final byte[] encoded = CacheValueCodec.encode(grant);
+		final MemcachedGrant decoded = CacheValueCodec.decodeMemcachedGrant(encoded);
+		assertEquals(decoded.getAuthorizationCodeString(), grant.getAuthorizationCodeString());
+		assertEquals(decoded.getAuthorizationCodeCreationDate(), grant.getAuthorizationCodeCreationDate());
+		assertEquals(decoded.getAuthorizationCodeExpirationDate(), grant.getAuthorizationCodeExpirationDate());
+		assertEquals(decoded.getUserId(), "admin");
+		assertEquals(decoded.getClientId(), grant.getClientId());
+		assertEquals(decoded.getAuthenticationTime(), grant.getAuthenticationTime());
+		assertEquals(decoded.getScopes(), grant.getScopes());
+		assertEquals(decoded.getGrantId(), grant.getGrantId());
+		assertEquals(decoded.getNonce(), grant.getNonce());
+		assertNull(decoded.getCodeChallenge());
+		assertEquals(decoded.getAcrValues(), grant.getAcrValues());
+		assertEquals(decoded.cacheKey(), grant.cacheKey());
+
+		assertTrue(encoded.length < javaSerializedSize(grant));
+	}
+
+	@Test
+	public void otherValueIsNotDecoded() {
+		final byte[] session = CacheValueCodec.encode(new SessionState());
+		assertNull(CacheValueCodec.decodeMemcachedGrant(session));
+		assertNull(CacheValueCodec.decodeSessionState(new byte[0]));
+
+		// unknown format version
+		session[1] = Byte.MAX_VALUE;
+		assertNull(CacheValueCodec.decodeSessionState(session));
+	}
+
+	@Test
+	public void truncatedValueIsNotDecoded() {
+		final MemcachedGrant grant = new MemcachedGrant();
+		grant.setAuthorizationCodeString(UUID.randomUUID().toString());
+		grant.setClientId("@!1111!0008!FF81!2D39");
+		final byte[] encoded = CacheValueCodec.encode(grant);
+		assertNull(CacheValueCodec.decodeMemcachedGrant(Arrays.copyOf(encoded, encoded.length / 2)));
+
+		final SessionState session = new SessionState();
+		session.setId(UUID.randomUUID().toString());
+		final byte[] encodedSession = CacheValueCodec.encode(session);
+		assertNull(CacheValueCodec.decodeSessionState(Arrays.copyOf(encodedSession, encodedSession.length - 1)));
+	}
+
+	@Test
+	public void corruptedLengthIsNotDecoded() {
+		// length of the first string close to Integer.MAX_VALUE, must not be allocated
+		assertNull(CacheValueCodec.decodeMemcachedGrant(new byte[] { 2, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 }));
+		// length overflowing to negative value
+		assertNull(CacheValueCodec.decodeMemcachedGrant(new byte[] { 2, 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F }));
+		// map size larger than the rest of the value
+		final byte[] session = CacheValueCodec.encode(new SessionState());
+		final byte[] corrupted = Arrays.copyOf(session, session.length);
+		corrupted[corrupted.length - 9] = 0x7F; // session attributes size, followed by version
+		assertNull(CacheValueCodec.decodeSessionState(corrupted));
+	}
+
+	private static int javaSerializedSize(Object value) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(value);
+		out.close();
+		return bytes.size();
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.model.ldap.TokenType;
+import org.xdi.oxauth.service.GrantService;
+import org.xdi.oxauth.service.token.EmbeddedTokenStore;
+import org.xdi.oxauth.service.token.TokenStore;
+
+public class EmbeddedTokenStoreTest extends TokenStoreConformanceTest {
+
+	private static final int CAPACITY = 64 * 1024;
+
+	private static File m_file;
+	private static EmbeddedTokenStore m_store;
+
+	@Override
+	protected TokenStore getTokenStore() {
+		if (m_store == null) {
+			try {
+				m_file = File.createTempFile("oxauth-tokens", ".db");
+				m_store = new EmbeddedTokenStore(m_file, CAPACITY);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return m_store;
+	}
+
+	@AfterClass
+	public void tearDown() {
+		if (m_store != null) {
+			m_store.close();
+			m_file.delete();
+		}
+	}
+
+	@Test(dependsOnMethods = "remove")
+	public void replay() throws IOException {
+		final TokenLdap live = createToken(GrantService.generateGrantId(), TokenType.ACCESS_TOKEN, new Date(System.currentTimeMillis() + 3600 * 1000L));
+		final TokenLdap removed = createToken(live.getGrantId(), TokenType.REFRESH_TOKEN, new Date(System.currentTimeMillis() + 3600 * 1000L));
+		final TokenLdap expiring = createToken(live.getGrantId(), TokenType.REFRESH_TOKEN, new Date(System.currentTimeMillis() + 500L));
+		getTokenStore().persist(live);
+		getTokenStore().persist(removed);
+		getTokenStore().persist(expiring);
+		getTokenStore().remove(removed);
+		m_store.close();
+
+		sleepSeconds(1);
+
+		// Log is replayed on open, removed and expired tokens are skipped
+		m_store = new EmbeddedTokenStore(m_file, CAPACITY);
+		assertNotNull(m_store.getByCode(live.getTokenCode()));
+		assertNull(m_store.getByCode(removed.getTokenCode()));
+		assertNull(m_store.getByCode(expiring.getTokenCode()));
+		assertEquals(m_store.getByGrantId(live.getGrantId()).size(), 1);
+	}
+
+	@Test(dependsOnMethods = "replay")
+	public void compaction() {
+		final String grantId = GrantService.generateGrantId();
+		final List<TokenLdap> kept = new ArrayList<TokenLdap>();
+
+		// Writes many times more than the capacity, only removed tokens make room for new ones
+		for (int i = 0; i < 1000; i++) {
+			final TokenLdap token = createToken(grantId, TokenType.ACCESS_TOKEN, new Date(System.currentTimeMillis() + 3600 * 1000L));
+			m_store.persist(token);
+			if (i % 100 == 0) {
+				kept.add(token);
+			} else {
+				m_store.remove(token);
+			}
+		}
+
+		assertEquals(m_store.getByGrantId(grantId).size(), kept.size());
+		for (TokenLdap token : kept) {
+			assertEquals(m_store.getByCode(token.getTokenCode()).getTokenCode(), token.getTokenCode());
+		}
+	}
+
+	@Test(dependsOnMethods = "compaction", expectedExceptions = IllegalStateException.class)
+	public void full() {
+		for (int i = 0; i < 1000; i++) {
+			m_store.persist(createToken(GrantService.generateGrantId(), TokenType.ACCESS_TOKEN, new Date(System.currentTimeMillis() + 3600 * 1000L)));
+		}
+	}
+
+	@Test(dependsOnMethods = "full", expectedExceptions = IOException.class)
+	public void smallerCapacity() throws IOException {
+		final int size = m_store.size();
+		m_store.close();
+
+		// Data of the full store doesn't fit, it's not truncated
+		try {
+			new EmbeddedTokenStore(m_file, CAPACITY / 4);
+		} finally {
+			m_store = new EmbeddedTokenStore(m_file, CAPACITY);
+			assertEquals(m_store.size(), size);
+		}
+	}
+
+}
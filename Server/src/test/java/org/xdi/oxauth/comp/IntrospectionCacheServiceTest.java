@@ -0,0 +1,113 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Date;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.model.util.TokenHashUtil;
+import org.xdi.oxauth.service.GrantService;
+import org.xdi.oxauth.service.IntrospectionCacheService;
+import org.xdi.oxauth.service.TokenCacheService;
+import org.xdi.oxauth.service.token.JwtAccessTokenService;
+
+public class IntrospectionCacheServiceTest extends BaseComponentTest {
+
+	@Inject
+	private IntrospectionCacheService introspectionCacheService;
+
+	@Inject
+	private TokenCacheService tokenCacheService;
+
+	@Inject
+	private JwtAccessTokenService jwtAccessTokenService;
+
+	@Test
+	public void responseIsInvalidatedWithGrant() {
+		final String grantId = GrantService.generateGrantId();
+		final String token = hashedToken();
+		final String otherToken = hashedToken();
+		final Date expiration = new Date(System.currentTimeMillis() + 3600 * 1000L);
+
+		introspectionCacheService.putResponse(token, grantId, expiration, "{\"active\":true}");
+		introspectionCacheService.putResponse(otherToken, grantId, expiration, "{\"active\":true}");
+		assertEquals(introspectionCacheService.getResponse(token), "{\"active\":true}");
+
+		tokenCacheService.invalidateGrant(grantId);
+		assertNull(introspectionCacheService.getResponse(token));
+		assertNull(introspectionCacheService.getResponse(otherToken));
+	}
+
+	@Test
+	public void responseIsInvalidatedWithToken() {
+		final TokenLdap token = new TokenLdap();
+		token.setTokenCode(hashedToken());
+		token.setGrantId(GrantService.generateGrantId());
+
+		introspectionCacheService.putResponse(token.getTokenCode(), token.getGrantId(), new Date(System.currentTimeMillis() + 3600 * 1000L), "{\"active\":true}");
+		tokenCacheService.invalidate(token);
+		assertNull(introspectionCacheService.getResponse(token.getTokenCode()));
+	}
+
+	@Test
+	public void responseOfTokenRevokedElsewhereIsNotReturned() {
+		final Date expiration = new Date(System.currentTimeMillis() + 3600 * 1000L);
+		final String token = hashedToken();
+		introspectionCacheService.putResponse(token, GrantService.generateGrantId(), expiration, "{\"active\":true}");
+
+		// revocations are shared with other nodes, cache can't rely on local invalidation
+		jwtAccessTokenService.revokeToken(token, expiration);
+		assertNull(introspectionCacheService.getResponse(token));
+
+		final String grantId = GrantService.generateGrantId();
+		final String pat = hashedToken();
+		introspectionCacheService.putPatAuthorized(pat, grantId, expiration);
+		jwtAccessTokenService.revokeGrant(grantId);
+		assertFalse(introspectionCacheService.isPatAuthorized(pat));
+	}
+
+	@Test
+	public void expiredTokenIsNotCached() throws InterruptedException {
+		final String token = hashedToken();
+		introspectionCacheService.putResponse(token, GrantService.generateGrantId(), new Date(System.currentTimeMillis() - 1000L), "{\"active\":true}");
+		assertNull(introspectionCacheService.getResponse(token));
+
+		// kept no longer than the token lives
+		final String shortLived = hashedToken();
+		introspectionCacheService.putResponse(shortLived, GrantService.generateGrantId(), new Date(System.currentTimeMillis() + 500L), "{\"active\":true}");
+		Thread.sleep(600);
+		assertNull(introspectionCacheService.getResponse(shortLived));
+	}
+
+	@Test
+	public void patAuthorization() {
+		final String grantId = GrantService.generateGrantId();
+		final String pat = hashedToken();
+		assertFalse(introspectionCacheService.isPatAuthorized(pat));
+
+		introspectionCacheService.putPatAuthorized(pat, grantId, new Date(System.currentTimeMillis() + 3600 * 1000L));
+		assertTrue(introspectionCacheService.isPatAuthorized(pat));
+
+		introspectionCacheService.invalidateGrant(grantId);
+		assertFalse(introspectionCacheService.isPatAuthorized(pat));
+	}
+
+	private static String hashedToken() {
+		return TokenHashUtil.getHashedToken(UUID.randomUUID().toString());
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Date;
+
+import javax.inject.Inject;
+
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.ldap.Grant;
+import org.xdi.oxauth.service.ClientService;
+import org.xdi.oxauth.service.GrantService;
+import org.xdi.oxauth.service.KnownBranchesService;
+
+public class KnownBranchesServiceTest extends BaseComponentTest {
+
+	@Inject
+	private KnownBranchesService knownBranchesService;
+
+	@Inject
+	private ClientService clientService;
+
+	@Inject
+	private LdapEntryManager ldapEntryManager;
+
+	@Parameters(value = "clientId")
+	@Test
+	public void persistExistingBranch(String clientId) {
+		final String grantId = GrantService.generateGrantId();
+		final String dn = String.format("oxAuthGrantId=%s,%s", grantId, clientService.buildClientDn(clientId));
+		assertFalse(knownBranchesService.contains(Grant.class, dn));
+
+		knownBranchesService.persist(createGrant(grantId, dn), dn);
+		assertTrue(knownBranchesService.contains(Grant.class, dn));
+
+		// Concurrent add of the same branch is not an error
+		knownBranchesService.forget(dn);
+		knownBranchesService.persist(createGrant(grantId, dn), dn);
+		assertTrue(knownBranchesService.contains(Grant.class, dn));
+
+		ldapEntryManager.remove(createGrant(grantId, dn));
+		knownBranchesService.forget(dn);
+		assertFalse(knownBranchesService.contains(Grant.class, dn));
+	}
+
+	private Grant createGrant(String grantId, String dn) {
+		final Grant grant = new Grant();
+		grant.setDn(dn);
+		grant.setId(grantId);
+		grant.setCreationDate(new Date());
+		return grant;
+	}
+
+}
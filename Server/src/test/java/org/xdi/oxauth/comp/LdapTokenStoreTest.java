@@ -0,0 +1,24 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import javax.inject.Inject;
+
+import org.xdi.oxauth.service.token.LdapTokenStore;
+import org.xdi.oxauth.service.token.TokenStore;
+
+public class LdapTokenStoreTest extends TokenStoreConformanceTest {
+
+	@Inject
+	private LdapTokenStore ldapTokenStore;
+
+	@Override
+	protected TokenStore getTokenStore() {
+		return ldapTokenStore;
+	}
+
+}
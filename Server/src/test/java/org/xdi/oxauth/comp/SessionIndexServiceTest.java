@@ -0,0 +1,174 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.common.SessionState;
+import org.xdi.oxauth.model.configuration.AppConfiguration;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.model.ldap.TokenType;
+import org.xdi.oxauth.service.GrantService;
+import org.xdi.oxauth.service.SessionIndexService;
+import org.xdi.oxauth.service.SessionStateService;
+import org.xdi.oxauth.service.UserService;
+import org.xdi.service.CacheService;
+
+public class SessionIndexServiceTest extends BaseComponentTest {
+
+	@Inject
+	private AppConfiguration appConfiguration;
+
+	@Inject
+	private SessionIndexService sessionIndexService;
+
+	@Inject
+	private SessionStateService sessionStateService;
+
+	@Inject
+	private GrantService grantService;
+
+	@Inject
+	private UserService userService;
+
+	@Inject
+	private CacheService cacheService;
+
+	private Boolean enabled;
+
+	@BeforeClass
+	public void enableIndex() {
+		enabled = appConfiguration.getSessionIndexEnabled();
+		appConfiguration.setSessionIndexEnabled(true);
+	}
+
+	@AfterClass
+	public void restoreIndex() {
+		appConfiguration.setSessionIndexEnabled(enabled);
+	}
+
+	@Parameters({ "userInum", "clientId" })
+	@Test
+	public void sessionTokensAreRemovedByIndex(String userInum, String clientId) {
+		final String userDn = userService.getDnForUser(userInum);
+		final SessionState session = sessionStateService.generateAuthenticatedSessionState(userDn);
+		sessionStateService.updateSessionState(session);
+
+		assertTrue(sessionIndexService.getGrants(session.getDn()).isEmpty());
+
+		final String code = UUID.randomUUID().toString();
+		final TokenLdap token = createToken(clientId, session.getDn(), code);
+		grantService.persist(token);
+
+		final List<SessionIndexService.GrantReference> grants = sessionIndexService.getGrants(session.getDn());
+		assertNotNull(grants);
+		assertEquals(grants.size(), 1);
+		assertEquals(grants.get(0).getClientId(), clientId);
+		assertEquals(grants.get(0).getGrantId(), token.getGrantId());
+
+		assertTrue(sessionStateService.remove(session));
+
+		assertTrue(grantService.removeAllTokensBySession(session.getDn()));
+		assertNull(grantService.getGrantsByCode(code));
+		assertNull(sessionIndexService.getGrants(session.getDn()));
+	}
+
+	@Parameters({ "userInum", "clientId" })
+	@Test
+	public void grantLostByConcurrentUpdateIsAddedAgain(String userInum, String clientId) throws InterruptedException {
+		final SessionState session = sessionStateService.generateAuthenticatedSessionState(userService.getDnForUser(userInum));
+		sessionStateService.updateSessionState(session);
+
+		final String code = UUID.randomUUID().toString();
+		final TokenLdap token = createToken(clientId, session.getDn(), code);
+		grantService.persist(token);
+		assertEquals(sessionIndexService.getGrants(session.getDn()).size(), 1);
+
+		// another node overwrites the entry with members it read before the grant was added
+		cacheService.put(Integer.toString(3600), "session_grants_" + session.getId(), "");
+		assertTrue(sessionIndexService.getGrants(session.getDn()).isEmpty());
+
+		for (int i = 0; i < 50 && sessionIndexService.getGrants(session.getDn()).isEmpty(); i++) {
+			Thread.sleep(100);
+		}
+		assertEquals(sessionIndexService.getGrants(session.getDn()).size(), 1);
+
+		assertTrue(grantService.removeAllTokensBySession(session.getDn()));
+		assertNull(grantService.getGrantsByCode(code));
+	}
+
+	@Parameters({ "userInum" })
+	@Test
+	public void sessionsOfUserAreIndexed(String userInum) {
+		final String userDn = userService.getDnForUser(userInum);
+		final SessionState first = sessionStateService.generateAuthenticatedSessionState(userDn);
+		sessionStateService.updateSessionState(first);
+		final SessionState second = sessionStateService.generateAuthenticatedSessionState(userDn);
+		sessionStateService.updateSessionState(second);
+
+		assertTrue(sessionIndexService.getSessions(userDn).containsAll(Arrays.asList(first.getId(), second.getId())));
+		assertTrue(containsSession(sessionStateService.getSessionsOfUser(userDn), second.getId()));
+
+		assertTrue(sessionStateService.remove(first));
+		assertFalse(sessionIndexService.getSessions(userDn).contains(first.getId()));
+		assertFalse(containsSession(sessionStateService.getSessionsOfUser(userDn), first.getId()));
+
+		assertTrue(sessionStateService.remove(second));
+		assertFalse(containsSession(sessionStateService.getSessionsOfUser(userDn), second.getId()));
+	}
+
+	@Test
+	public void grantOfUnknownSessionIsNotIndexed() {
+		final String sessionDn = "oxAuthSessionId=" + UUID.randomUUID().toString() + ",ou=session,o=gluu";
+		sessionIndexService.addGrant(sessionDn, "client", GrantService.generateGrantId());
+
+		// partial entry would hide grants issued before, search has to be used instead
+		assertNull(sessionIndexService.getGrants(sessionDn));
+	}
+
+	private static boolean containsSession(List<SessionState> sessions, String id) {
+		for (SessionState session : sessions) {
+			if (id.equals(session.getId())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private TokenLdap createToken(String clientId, String sessionDn, String code) {
+		final String id = GrantService.generateGrantId();
+		final String grantId = GrantService.generateGrantId();
+
+		final TokenLdap t = new TokenLdap();
+		t.setId(id);
+		t.setDn(grantService.buildDn(id, grantId, clientId));
+		t.setGrantId(grantId);
+		t.setClientId(clientId);
+		t.setTokenCode(code);
+		t.setTokenType(TokenType.ACCESS_TOKEN.getValue());
+		t.setSessionDn(sessionDn);
+		t.setCreationDate(new Date());
+		t.setExpirationDate(new Date(System.currentTimeMillis() + 3600 * 1000L));
+		return t;
+	}
+}
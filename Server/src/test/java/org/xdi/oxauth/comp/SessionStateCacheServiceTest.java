@@ -0,0 +1,83 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+
+import java.util.Date;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.common.SessionIdState;
+import org.xdi.oxauth.model.common.SessionState;
+import org.xdi.oxauth.service.SessionStateCacheService;
+
+public class SessionStateCacheServiceTest extends BaseComponentTest {
+
+	@Inject
+	private SessionStateCacheService sessionStateCacheService;
+
+	@Test
+	public void cachedSessionIsCopy() {
+		final SessionState session = createSession(1);
+		session.getSessionAttributes().put("acr", "basic");
+		sessionStateCacheService.put(session);
+
+		final SessionState cached = sessionStateCacheService.get(session.getId());
+		assertNotNull(cached);
+		assertNotSame(cached, session);
+		assertEquals(cached.getSessionAttributes().get("acr"), "basic");
+
+		cached.getSessionAttributes().put("acr", "u2f");
+		session.getSessionAttributes().put("acr", "otp");
+		assertEquals(sessionStateCacheService.get(session.getId()).getSessionAttributes().get("acr"), "basic");
+	}
+
+	@Test
+	public void olderVersionDoesNotReplaceNewer() {
+		final SessionState session = createSession(2);
+		sessionStateCacheService.refresh(session);
+
+		final SessionState stale = session.copy();
+		stale.setVersion(1);
+		stale.setState(SessionIdState.UNAUTHENTICATED);
+		sessionStateCacheService.put(stale);
+		assertEquals(sessionStateCacheService.get(session.getId()).getState(), SessionIdState.AUTHENTICATED);
+
+		final SessionState newer = session.copy();
+		newer.setVersion(3);
+		newer.setState(SessionIdState.UNAUTHENTICATED);
+		sessionStateCacheService.put(newer);
+		assertEquals(sessionStateCacheService.get(session.getId()).getVersion(), 3);
+	}
+
+	@Test
+	public void invalidate() {
+		final SessionState session = createSession(1);
+		sessionStateCacheService.refresh(session);
+		assertNotNull(sessionStateCacheService.get(session.getId()));
+
+		sessionStateCacheService.invalidate(session.getId());
+		assertNull(sessionStateCacheService.get(session.getId()));
+	}
+
+	private static SessionState createSession(long version) {
+		final SessionState session = new SessionState();
+		session.setId(UUID.randomUUID().toString());
+		session.setState(SessionIdState.AUTHENTICATED);
+		session.setLastUsedAt(new Date());
+		session.setVersion(version);
+		return session;
+	}
+
+}
@@ -24,6 +24,7 @@ import org.xdi.oxauth.BaseComponentTest;
 import org.xdi.oxauth.model.common.SessionIdState;
 import org.xdi.oxauth.model.common.SessionState;
 import org.xdi.oxauth.service.SessionStateService;
+import org.xdi.oxauth.service.SessionTouchService;
 import org.xdi.oxauth.service.UserService;
 
 /**
@@ -41,6 +42,9 @@ public class SessionStateServiceTest extends BaseComponentTest {
 	@Inject
 	private UserService userService;
 
+	@Inject
+	private SessionTouchService sessionTouchService;
+
 	private SessionState generateSession(String userInum) {
 		String userDn = userService.getDnForUser(userInum);
 		return m_service.generateUnauthenticatedSessionState(userDn, new Date(), SessionIdState.UNAUTHENTICATED,
@@ -105,4 +109,28 @@ public class SessionStateServiceTest extends BaseComponentTest {
 		assertTrue(fromLdap2.isPermissionGrantedForClient(clientId));
 	}
 
+	@Parameters({ "userInum" })
+	@Test
+	public void testTouchIsCoalesced(String userInum) {
+		SessionState m_sessionState = generateSession(userInum);
+		final Date createdDate = m_sessionState.getLastUsedAt();
+
+		sleepSeconds(1);
+		final SessionState fromCache1 = m_service.getSessionById(m_sessionState.getId());
+		m_service.updateSessionStateIfNeeded(fromCache1, false);
+
+		// access is recorded in memory only
+		final SessionState fromCache2 = m_service.getSessionById(m_sessionState.getId());
+		assertEquals(fromCache2.getLastUsedAt(), createdDate);
+		assertTrue(createdDate.before(sessionTouchService.getLastUsedAt(fromCache2)));
+		assertTrue(m_service.isSessionValid(fromCache2));
+
+		// and written with the next write of the session
+		fromCache2.getSessionAttributes().put("k1", "v1");
+		m_service.updateSessionState(fromCache2);
+		final SessionState fromCache3 = m_service.getSessionById(m_sessionState.getId());
+		assertTrue(createdDate.before(fromCache3.getLastUsedAt()));
+		assertEquals(sessionTouchService.getLastUsedAt(fromCache3), fromCache3.getLastUsedAt());
+	}
+
 }
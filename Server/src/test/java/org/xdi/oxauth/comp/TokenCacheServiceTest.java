@@ -0,0 +1,126 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.model.ldap.TokenType;
+import org.xdi.oxauth.model.util.TokenHashUtil;
+import org.xdi.oxauth.service.GrantService;
+import org.xdi.oxauth.service.TokenCacheService;
+import org.xdi.oxauth.service.token.JwtAccessTokenService;
+
+public class TokenCacheServiceTest extends BaseComponentTest {
+
+	@Inject
+	private TokenCacheService tokenCacheService;
+
+	@Inject
+	private GrantService grantService;
+
+	@Inject
+	private JwtAccessTokenService jwtAccessTokenService;
+
+	@Parameters({ "clientId" })
+	@Test
+	public void tokenIsCachedAfterLookup(String clientId) {
+		final String code = UUID.randomUUID().toString();
+		final TokenLdap token = createToken(clientId, code, 3600 * 1000L);
+		grantService.persist(token);
+		assertNull(tokenCacheService.getByCode(token.getTokenCode()));
+
+		final TokenLdap found = grantService.getGrantsByCode(code);
+		assertNotNull(found);
+		final TokenLdap cached = tokenCacheService.getByCode(token.getTokenCode());
+		assertNotNull(cached);
+		assertEquals(cached.getGrantId(), token.getGrantId());
+
+		grantService.remove(token);
+	}
+
+	@Parameters({ "clientId" })
+	@Test
+	public void tokenIsInvalidatedOnMergeAndRemove(String clientId) {
+		final String code = UUID.randomUUID().toString();
+		final TokenLdap token = createToken(clientId, code, 3600 * 1000L);
+		grantService.persist(token);
+
+		assertNotNull(grantService.getGrantsByCode(code));
+		assertNotNull(grantService.getGrantsByGrantId(token.getGrantId()));
+		grantService.merge(token);
+		assertNull(tokenCacheService.getByCode(token.getTokenCode()));
+		assertNull(tokenCacheService.getByGrantId(token.getGrantId()));
+
+		assertNotNull(grantService.getGrantsByCode(code));
+		grantService.remove(token);
+		assertNull(tokenCacheService.getByCode(token.getTokenCode()));
+		assertNull(grantService.getGrantsByCode(code));
+	}
+
+	@Test
+	public void tokenIsNotCachedLongerThanItLives() throws InterruptedException {
+		final TokenLdap expired = createToken("client", UUID.randomUUID().toString(), -1000L);
+		tokenCacheService.putByCode(expired);
+		assertNull(tokenCacheService.getByCode(expired.getTokenCode()));
+
+		final TokenLdap shortLived = createToken("client", UUID.randomUUID().toString(), 500L);
+		tokenCacheService.putByGrantId(shortLived.getGrantId(), Arrays.asList(shortLived));
+		assertNotNull(tokenCacheService.getByCode(shortLived.getTokenCode()));
+		assertNotNull(tokenCacheService.getByGrantId(shortLived.getGrantId()));
+
+		Thread.sleep(600);
+		assertNull(tokenCacheService.getByCode(shortLived.getTokenCode()));
+		assertNull(tokenCacheService.getByGrantId(shortLived.getGrantId()));
+	}
+
+	@Test
+	public void tokenRevokedElsewhereIsNotReturned() {
+		final TokenLdap token = createToken("client", UUID.randomUUID().toString(), 3600 * 1000L);
+		tokenCacheService.putByCode(token);
+		assertNotNull(tokenCacheService.getByCode(token.getTokenCode()));
+
+		// removal on another node reaches this node only through the shared revocations
+		jwtAccessTokenService.revokeToken(token.getTokenCode(), token.getExpirationDate());
+		assertNull(tokenCacheService.getByCode(token.getTokenCode()));
+
+		final TokenLdap grantToken = createToken("client", UUID.randomUUID().toString(), 3600 * 1000L);
+		tokenCacheService.putByGrantId(grantToken.getGrantId(), Arrays.asList(grantToken));
+		assertNotNull(tokenCacheService.getByGrantId(grantToken.getGrantId()));
+
+		jwtAccessTokenService.revokeGrant(grantToken.getGrantId());
+		assertNull(tokenCacheService.getByGrantId(grantToken.getGrantId()));
+		assertNull(tokenCacheService.getByCode(grantToken.getTokenCode()));
+	}
+
+	private TokenLdap createToken(String clientId, String code, long lifetime) {
+		final String id = GrantService.generateGrantId();
+		final String grantId = GrantService.generateGrantId();
+
+		final TokenLdap t = new TokenLdap();
+		t.setId(id);
+		t.setDn(grantService.buildDn(id, grantId, clientId));
+		t.setGrantId(grantId);
+		t.setClientId(clientId);
+		t.setTokenCode(TokenHashUtil.getHashedToken(code));
+		t.setTokenType(TokenType.ACCESS_TOKEN.getValue());
+		t.setCreationDate(new Date());
+		t.setExpirationDate(new Date(System.currentTimeMillis() + lifetime));
+		return t;
+	}
+}
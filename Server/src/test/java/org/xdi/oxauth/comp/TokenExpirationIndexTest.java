@@ -0,0 +1,90 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.service.GrantService;
+import org.xdi.oxauth.service.token.TokenExpirationIndex;
+
+public class TokenExpirationIndexTest extends BaseComponentTest {
+
+	@Test
+	public void drainDueBuckets() {
+		final TokenExpirationIndex index = new TokenExpirationIndex(60, 1000, 4, 3600);
+		try {
+			final long now = System.currentTimeMillis();
+			final Set<String> expired = new HashSet<String>();
+			for (int i = 0; i < 250; i++) {
+				final TokenLdap token = createToken(new Date(now - 3600 * 1000L + i * 1000L));
+				index.add(token);
+				expired.add(token.getDn());
+			}
+			final TokenLdap revoked = createToken(new Date(now - 7200 * 1000L));
+			index.add(revoked);
+			index.remove(revoked);
+			index.add(createToken(new Date(now + 3600 * 1000L)));
+			assertEquals(index.size(), 251);
+
+			final Set<String> drained = Collections.synchronizedSet(new HashSet<String>());
+			final int count = index.drain(new Date(now), 100, new TokenExpirationIndex.DueTokensHandler() {
+				@Override
+				public void handle(List<TokenLdap> tokens) {
+					assertTrue(tokens.size() <= 100);
+					for (TokenLdap t : tokens) {
+						drained.add(t.getDn());
+					}
+				}
+			});
+
+			assertEquals(count, 250);
+			assertEquals(drained, expired);
+			assertEquals(index.size(), 1);
+		} finally {
+			index.close();
+		}
+	}
+
+	@Test
+	public void fullScanIsDueOnOverflow() {
+		final TokenExpirationIndex index = new TokenExpirationIndex(60, 2, 1, 3600);
+		try {
+			final Date now = new Date();
+			assertTrue(index.isFullScanDue(now));
+			index.setFullScanDone(now);
+			assertFalse(index.isFullScanDue(now));
+
+			for (int i = 0; i < 3; i++) {
+				index.add(createToken(new Date(now.getTime() + 3600 * 1000L)));
+			}
+			assertEquals(index.size(), 2);
+			assertTrue(index.isFullScanDue(now));
+		} finally {
+			index.close();
+		}
+	}
+
+	private TokenLdap createToken(Date expiration) {
+		final TokenLdap t = new TokenLdap();
+		t.setDn(String.format("uniqueIdentifier=%s,oxAuthGrantId=%s,inum=@!1111,ou=clients,o=gluu",
+				GrantService.generateGrantId(), GrantService.generateGrantId()));
+		t.setExpirationDate(expiration);
+		return t;
+	}
+
+}
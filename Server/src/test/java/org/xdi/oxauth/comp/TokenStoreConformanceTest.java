@@ -0,0 +1,197 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import javax.inject.Inject;
+
+import org.testng.annotations.Parameters;
+import org.testng.annotations.Test;
+import org.xdi.oxauth.BaseComponentTest;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.model.ldap.TokenType;
+import org.xdi.oxauth.model.util.TokenHashUtil;
+import org.xdi.oxauth.service.GrantService;
+import org.xdi.oxauth.service.token.TokenStore;
+
+/**
+ * Behaviour every {@link TokenStore} implementation must conform to.
+ */
+public abstract class TokenStoreConformanceTest extends BaseComponentTest {
+
+	@Inject
+	private GrantService grantService;
+
+	private static String m_clientId;
+	private static String m_grantId;
+	private static String m_sessionDn;
+	private static String m_authorizationCode;
+
+	private static TokenLdap m_accessToken;
+	private static TokenLdap m_refreshToken;
+	private static TokenLdap m_expiredToken;
+
+	protected abstract TokenStore getTokenStore();
+
+	@Parameters(value = "clientId")
+	@Test
+	public void persist(String clientId) {
+		m_clientId = clientId;
+		m_grantId = GrantService.generateGrantId();
+		m_sessionDn = String.format("oxAuthSessionId=%s,ou=session,o=gluu", UUID.randomUUID().toString());
+		m_authorizationCode = TokenHashUtil.getHashedToken(UUID.randomUUID().toString());
+
+		final Date expiration = new Date(System.currentTimeMillis() + 3600 * 1000L);
+		m_accessToken = createToken(m_grantId, TokenType.ACCESS_TOKEN, expiration);
+		m_refreshToken = createToken(m_grantId, TokenType.REFRESH_TOKEN, expiration);
+		m_expiredToken = createToken(GrantService.generateGrantId(), TokenType.ACCESS_TOKEN, new Date(System.currentTimeMillis() - 1000L));
+
+		getTokenStore().persist(m_accessToken);
+		getTokenStore().persist(m_refreshToken);
+		getTokenStore().persist(m_expiredToken);
+	}
+
+	@Test(dependsOnMethods = "persist")
+	public void getByCode() {
+		final TokenLdap token = getTokenStore().getByCode(m_accessToken.getTokenCode());
+		assertNotNull(token);
+		assertEquals(token.getTokenCode(), m_accessToken.getTokenCode());
+		assertEquals(token.getGrantId(), m_grantId);
+		assertEquals(token.getClientId(), m_clientId);
+		assertEquals(token.getTokenTypeEnum(), TokenType.ACCESS_TOKEN);
+		assertEquals(token.getScope(), m_accessToken.getScope());
+		assertEquals(token.getSessionDn(), m_sessionDn);
+		assertEquals(token.getAuthorizationCode(), m_authorizationCode);
+		assertEquals(token.getExpirationDate().getTime() / 1000, m_accessToken.getExpirationDate().getTime() / 1000);
+
+		assertNull(getTokenStore().getByCode(TokenHashUtil.getHashedToken(UUID.randomUUID().toString())));
+	}
+
+	@Test(dependsOnMethods = "persist")
+	public void getByCodes() {
+		final List<String> codes = codes(getTokenStore().getByCodes(Arrays.asList(m_accessToken.getTokenCode(),
+				m_refreshToken.getTokenCode(), TokenHashUtil.getHashedToken(UUID.randomUUID().toString()))));
+		assertEquals(codes.size(), 2);
+		assertTrue(codes.contains(m_accessToken.getTokenCode()));
+		assertTrue(codes.contains(m_refreshToken.getTokenCode()));
+
+		assertTrue(getTokenStore().getByCodes(new ArrayList<String>()).isEmpty());
+	}
+
+	@Test(dependsOnMethods = "persist")
+	public void getByGrantSessionAndClient() {
+		assertEquals(codes(getTokenStore().getByGrantId(m_grantId)).size(), 2);
+		assertEquals(codes(getTokenStore().getByGrant(m_clientId, m_grantId)).size(), 2);
+		assertEquals(codes(getTokenStore().getBySessionDn(m_sessionDn)).size(), 3);
+		assertEquals(codes(getTokenStore().getByAuthorizationCode(m_authorizationCode)).size(), 3);
+		assertTrue(codes(getTokenStore().getByClient(m_clientId)).contains(m_refreshToken.getTokenCode()));
+
+		assertTrue(getTokenStore().getByGrantId(GrantService.generateGrantId()).isEmpty());
+	}
+
+	@Test(dependsOnMethods = { "getByCode", "getByCodes", "getByGrantSessionAndClient" })
+	public void merge() {
+		m_accessToken.setScope("openid profile email");
+		getTokenStore().merge(m_accessToken);
+
+		assertEquals(getTokenStore().getByCode(m_accessToken.getTokenCode()).getScope(), "openid profile email");
+		assertEquals(getTokenStore().getByGrantId(m_grantId).size(), 2);
+	}
+
+	@Test(dependsOnMethods = "merge")
+	public void removeExpired() {
+		final List<TokenLdap> removed = new ArrayList<TokenLdap>();
+		getTokenStore().removeExpired(new Date(), new TokenStore.ExpiredTokensListener() {
+			@Override
+			public void onRemoved(List<TokenLdap> tokens) {
+				removed.addAll(tokens);
+			}
+		});
+
+		assertTrue(codes(removed).contains(m_expiredToken.getTokenCode()));
+		assertNull(getTokenStore().getByCode(m_expiredToken.getTokenCode()));
+		assertNotNull(getTokenStore().getByCode(m_accessToken.getTokenCode()));
+	}
+
+	@Test(dependsOnMethods = "removeExpired")
+	public void removeByGrantId() {
+		final List<TokenLdap> removed = getTokenStore().removeByGrantId(m_grantId);
+		assertEquals(removed.size(), 2);
+
+		assertTrue(getTokenStore().getByGrantId(m_grantId).isEmpty());
+		assertNull(getTokenStore().getByCode(m_refreshToken.getTokenCode()));
+	}
+
+	@Test(dependsOnMethods = "removeByGrantId")
+	public void removeBySessionDn() {
+		final TokenLdap token = createToken(m_grantId, TokenType.ACCESS_TOKEN, new Date(System.currentTimeMillis() + 3600 * 1000L));
+		getTokenStore().persist(token);
+
+		assertEquals(getTokenStore().removeBySessionDn(m_sessionDn).size(), 1);
+		assertNull(getTokenStore().getByCode(token.getTokenCode()));
+		assertTrue(getTokenStore().removeBySessionDn(m_sessionDn).isEmpty());
+	}
+
+	@Test(dependsOnMethods = "removeBySessionDn")
+	public void remove() {
+		final TokenLdap token = createToken(m_grantId, TokenType.REFRESH_TOKEN, new Date(System.currentTimeMillis() + 3600 * 1000L));
+		getTokenStore().persist(token);
+		assertNotNull(getTokenStore().getByCode(token.getTokenCode()));
+
+		getTokenStore().remove(token);
+		assertNull(getTokenStore().getByCode(token.getTokenCode()));
+
+		// bulk removal skips tokens which don't exist
+		final List<TokenLdap> tokens = new ArrayList<TokenLdap>();
+		for (int i = 0; i < 3; i++) {
+			final TokenLdap t = createToken(m_grantId, TokenType.ACCESS_TOKEN, new Date(System.currentTimeMillis() + 3600 * 1000L));
+			getTokenStore().persist(t);
+			tokens.add(t);
+		}
+		tokens.add(token);
+
+		assertEquals(getTokenStore().remove(tokens).size(), 3);
+		assertTrue(getTokenStore().getByGrantId(m_grantId).isEmpty());
+	}
+
+	protected TokenLdap createToken(String grantId, TokenType tokenType, Date expiration) {
+		final String id = GrantService.generateGrantId();
+
+		final TokenLdap t = new TokenLdap();
+		t.setId(id);
+		t.setDn(grantService.buildDn(id, grantId, m_clientId));
+		t.setGrantId(grantId);
+		t.setClientId(m_clientId);
+		t.setTokenCode(TokenHashUtil.getHashedToken(UUID.randomUUID().toString()));
+		t.setTokenType(tokenType.getValue());
+		t.setScope("openid");
+		t.setSessionDn(m_sessionDn);
+		t.setAuthorizationCode(m_authorizationCode);
+		t.setCreationDate(new Date());
+		t.setExpirationDate(expiration);
+		return t;
+	}
+
+	private static List<String> codes(List<TokenLdap> tokens) {
+		final List<String> codes = new ArrayList<String>();
+		for (TokenLdap t : tokens) {
+			codes.add(t.getTokenCode());
+		}
+		return codes;
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ * oxAuth is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.xdi.oxauth.comp;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.testng.annotations.Test;
+import org.xdi.oxauth.model.ldap.TokenLdap;
+import org.xdi.oxauth.model.ldap.TokenType;
+import org.xdi.oxauth.service.GrantService;
+import org.xdi.oxauth.service.token.LdapTokenStore;
+import org.xdi.oxauth.service.token.TokenStore;
+import org.xdi.oxauth.service.token.WriteBehindTokenStore;
+
+public class WriteBehindTokenStoreTest extends TokenStoreConformanceTest {
+
+	@Inject
+	private LdapTokenStore ldapTokenStore;
+
+	private static WriteBehindTokenStore m_store;
+
+	@Override
+	protected TokenStore getTokenStore() {
+		if (m_store == null) {
+			m_store = new WriteBehindTokenStore(ldapTokenStore, 100, 2, 10);
+		}
+		return m_store;
+	}
+
+	@Test(dependsOnMethods = "remove")
+	public void flushOnClose() {
+		final String grantId = GrantService.generateGrantId();
+		final List<TokenLdap> tokens = new ArrayList<TokenLdap>();
+		for (int i = 0; i < 20; i++) {
+			final TokenLdap token = createToken(grantId, TokenType.ACCESS_TOKEN, new Date(System.currentTimeMillis() + 3600 * 1000L));
+			m_store.persist(token);
+			tokens.add(token);
+		}
+		m_store.close();
+
+		assertEquals(m_store.getQueueSize(), 0);
+		assertEquals(ldapTokenStore.getByGrantId(grantId).size(), tokens.size());
+		for (TokenLdap token : tokens) {
+			assertNotNull(ldapTokenStore.getByCode(token.getTokenCode()));
+		}
+
+		ldapTokenStore.removeByGrantId(grantId);
+	}
+
+}
@@ -10,10 +10,9 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 
+import org.xdi.oxauth.model.common.CacheValueCodec;
 import org.xdi.oxauth.model.common.MemcachedGrant;
 import org.xdi.oxauth.model.common.SessionState;
-import org.xdi.oxauth.model.common.User;
-import org.xdi.oxauth.model.registration.Client;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -56,7 +55,7 @@ public class MemcacheManual {
 				public void run() {
 					// MemcachedClient client = clients.get(random);
 
-					Object toPut = testGrant();
+					Object toPut = CacheValueCodec.encode(testGrant());
 					// Object toPut = UUID.randomUUID().toString();
 
 					OperationFuture<Boolean> set = null;
@@ -134,28 +133,16 @@ public class MemcacheManual {
 		return state;
 	}
 
-	private static Client testClient() {
-		Client client = new Client();
-		client.setClientId(UUID.randomUUID().toString());
-		return client;
-	}
-
-	private static User testUser() {
-		User user = new User();
-		user.setUserId(UUID.randomUUID().toString());
-		return user;
-	}
-
 	private static MemcachedGrant testGrant() {
 		MemcachedGrant grant = new MemcachedGrant();
 		grant.setAcrValues("basic");
 		grant.setAuthenticationTime(new Date());
 		grant.setAuthorizationCodeString(UUID.randomUUID().toString());
-		grant.setClient(testClient());
+		grant.setClientId(UUID.randomUUID().toString());
 		grant.setGrantId(UUID.randomUUID().toString());
 		grant.setNonce(UUID.randomUUID().toString());
 		grant.setScopes(Sets.newHashSet("openid"));
-		grant.setUser(testUser());
+		grant.setUserId(UUID.randomUUID().toString());
 		return grant;
 	}
 }